@@ -0,0 +1,148 @@
+package org.hl7.tinkar.benchmark;
+
+import org.hl7.tinkar.collection.SpinedByteArrayMap;
+import org.hl7.tinkar.collection.SpinedIntObjectMap;
+import org.hl7.tinkar.collection.store.ByteArrayStore;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.provider.spinedarray.ByteArrayFileStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+
+/**
+ * Cold parallel read throughput of a spined byte array map: each operation opens the map, and reads
+ * from every spine with a pool of threads, so every spine is loaded from disk once per operation.
+ * <p>
+ * perSpine is the current loading, where threads only wait on a load of the spine they need. globalLock
+ * reproduces the previous behaviour, where a single semaphore was held while any spine was read.
+ * <p>
+ * The store is wrapped so it does not offer single element reads, otherwise a cold get would slice the
+ * element out of the mapped file, and no spine would be loaded.
+ * <p>
+ * Spines are read from the page cache, so loads only overlap when there are as many cores as threads; on a
+ * single core the two loadings are expected to score the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx4g"})
+public class ColdSpineLoadBenchmark {
+    private static final int SPINE_COUNT = 64;
+    private static final int VALUE_SIZE = 64;
+    private static final int READS_PER_SPINE = 16;
+
+    @Param({"perSpine", "globalLock"})
+    public String loading;
+
+    @Param({"8"})
+    public int threads;
+
+    private File directory;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("cold-spine-load").toFile();
+        SpinedByteArrayMap map = new SpinedByteArrayMap(new ByteArrayFileStore(directory));
+        Random random = new Random(7);
+        int valueCount = SPINE_COUNT * SpinedIntObjectMap.DEFAULT_SPINE_SIZE;
+        for (int i = 0; i < valueCount; i++) {
+            byte[] value = new byte[VALUE_SIZE];
+            random.nextBytes(value);
+            map.put(PrimitiveDataService.FIRST_NID + i, value);
+        }
+        map.write();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public void coldParallelRead(Blackhole blackhole) throws InterruptedException, ExecutionException {
+        ByteArrayStore store = new SpineOnlyStore(new ByteArrayFileStore(directory));
+        SpinedByteArrayMap map = loading.equals("globalLock") ? new GlobalLockSpinedByteArrayMap(store) : new SpinedByteArrayMap(store);
+        ArrayList<Future<?>> futures = new ArrayList<>(SPINE_COUNT);
+        for (int spineIndex = 0; spineIndex < SPINE_COUNT; spineIndex++) {
+            int firstNid = PrimitiveDataService.FIRST_NID + spineIndex * SpinedIntObjectMap.DEFAULT_SPINE_SIZE;
+            futures.add(executor.submit(() -> {
+                int stride = SpinedIntObjectMap.DEFAULT_SPINE_SIZE / READS_PER_SPINE;
+                for (int i = 0; i < READS_PER_SPINE; i++) {
+                    blackhole.consume(map.get(firstNid + i * stride));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Reproduces loading before spines were loaded independently: one lock held while any spine is read.
+     */
+    static class GlobalLockSpinedByteArrayMap extends SpinedByteArrayMap {
+        private static final Semaphore GLOBAL_SPINE_SEMAPHORE = new Semaphore(1);
+
+        GlobalLockSpinedByteArrayMap(ByteArrayStore byteArrayStore) {
+            super(byteArrayStore);
+        }
+
+        @Override
+        protected AtomicReferenceArray<byte[]> readSpine(int spineIndex) {
+            GLOBAL_SPINE_SEMAPHORE.acquireUninterruptibly();
+            try {
+                return super.readSpine(spineIndex);
+            } finally {
+                GLOBAL_SPINE_SEMAPHORE.release();
+            }
+        }
+    }
+
+    /**
+     * Exposes only whole spine reads of the underlying store.
+     */
+    record SpineOnlyStore(ByteArrayStore store) implements ByteArrayStore {
+        @Override
+        public Optional<AtomicReferenceArray<byte[]>> get(int spineIndex) {
+            return store.get(spineIndex);
+        }
+
+        @Override
+        public void put(int spineIndex, AtomicReferenceArray<byte[]> spine) {
+            store.put(spineIndex, spine);
+        }
+
+        @Override
+        public int sizeOnDisk() {
+            return store.sizeOnDisk();
+        }
+
+        @Override
+        public int getSpineCount() {
+            return store.getSpineCount();
+        }
+
+        @Override
+        public void writeSpineCount(int spineCount) {
+            store.writeSpineCount(spineCount);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.hl7.tinkar.benchmark;
+
+import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
+import org.hl7.tinkar.collection.ConcurrentUuidIntOpenHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap used to map UUIDs to nids, by a ConcurrentHashMap&lt;UUID, Integer&gt; and by a
+ * {@link ConcurrentUuidIntOpenHashMap}. Each operation fills a map, presized so no table is resized, and
+ * everything it allocates is retained by the map, so run with {@code -prof gc}, and compare
+ * gc.alloc.rate.norm, the bytes allocated per operation, of boxed and primitive.
+ * <p>
+ * The boxed map is given a copy of each key, so it retains its own UUID, as it would when decoding entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+public class UuidIntMapFootprintBenchmark {
+
+    @Param({"boxed", "primitive"})
+    public String map;
+
+    @Param({"500000"})
+    public int count;
+
+    private UUID[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = UUID.randomUUID();
+        }
+    }
+
+    @Benchmark
+    public Object fill() {
+        if (map.equals("boxed")) {
+            ConcurrentHashMap<UUID, Integer> boxedMap = ConcurrentHashMap.newMap(count);
+            for (int i = 0; i < count; i++) {
+                boxedMap.put(new UUID(keys[i].getMostSignificantBits(), keys[i].getLeastSignificantBits()), i + 1000);
+            }
+            return boxedMap;
+        }
+        ConcurrentUuidIntOpenHashMap primitiveMap = new ConcurrentUuidIntOpenHashMap(count);
+        for (int i = 0; i < count; i++) {
+            primitiveMap.put(keys[i], i + 1000);
+        }
+        return primitiveMap;
+    }
+}
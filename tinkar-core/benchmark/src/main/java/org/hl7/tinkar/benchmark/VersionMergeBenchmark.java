@@ -0,0 +1,104 @@
+package org.hl7.tinkar.benchmark;
+
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link PrimitiveDataService#merge(byte[], byte[])} for chronologies of 1, 10 and 100 versions.
+ * <p>
+ * addVersion merges a chronology with a copy that has one more version, as when an entity is edited.
+ * unchanged merges a chronology with its last version alone, as when a version is written again, and nothing
+ * is added. interleaved merges two chronologies that each hold half of the versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview"})
+public class VersionMergeBenchmark {
+    private static final int CHRONOLOGY_SIZE = 48;
+    private static final int VERSION_SIZE = 40;
+    /**
+     * CONCEPT_VERSION token, so versions are checked for canceled stamps.
+     */
+    private static final byte VERSION_TOKEN = 4;
+
+    @Param({"1", "10", "100"})
+    public int versionCount;
+
+    private byte[] chronology;
+    private byte[] chronologyWithNewVersion;
+    private byte[] lastVersionOnly;
+    private byte[] evenVersions;
+    private byte[] oddVersions;
+
+    private static byte[] version(Random random, int stampNid) {
+        byte[] version = new byte[VERSION_SIZE];
+        random.nextBytes(version);
+        version[0] = VERSION_TOKEN;
+        ByteBuffer.wrap(version).putInt(1, stampNid);
+        return version;
+    }
+
+    /**
+     * Serializes a chronology in the format merge expects, with the given versions, which must be in order.
+     */
+    private static byte[] serialize(byte[] chronologyFields, byte[][] versions, int from, int to, int step) {
+        int count = 0;
+        int size = Integer.BYTES + Integer.BYTES + chronologyFields.length + Integer.BYTES;
+        for (int i = from; i < to; i += step) {
+            count++;
+            size += Integer.BYTES + versions[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(count + 1);
+        buffer.putInt(chronologyFields.length + Integer.BYTES);
+        buffer.put(chronologyFields);
+        buffer.putInt(count);
+        for (int i = from; i < to; i += step) {
+            buffer.putInt(versions[i].length);
+            buffer.put(versions[i]);
+        }
+        return buffer.array();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(11);
+        byte[] chronologyFields = new byte[CHRONOLOGY_SIZE];
+        random.nextBytes(chronologyFields);
+        // Entity format version, then the chronology token, sorts before the version tokens.
+        chronologyFields[0] = 1;
+        chronologyFields[1] = 1;
+        // Increasing positive stamp nids keep the versions in serialized order.
+        byte[][] versions = new byte[versionCount + 1][];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = version(random, 1000 + i);
+        }
+        chronology = serialize(chronologyFields, versions, 0, versionCount, 1);
+        chronologyWithNewVersion = serialize(chronologyFields, versions, 0, versionCount + 1, 1);
+        lastVersionOnly = serialize(chronologyFields, versions, versionCount - 1, versionCount, 1);
+        evenVersions = serialize(chronologyFields, versions, 0, versionCount, 2);
+        oddVersions = serialize(chronologyFields, versions, 1, versionCount, 2);
+    }
+
+    @Benchmark
+    public byte[] addVersion() {
+        return PrimitiveDataService.merge(chronology, chronologyWithNewVersion);
+    }
+
+    @Benchmark
+    public byte[] unchanged() {
+        return PrimitiveDataService.merge(chronology, lastVersionOnly);
+    }
+
+    @Benchmark
+    public byte[] interleaved() {
+        return PrimitiveDataService.merge(evenVersions, oddVersions);
+    }
+}
@@ -0,0 +1,324 @@
+package org.hl7.tinkar.collection;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.block.procedure.primitive.LongProcedure;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+
+import java.util.Arrays;
+
+/**
+ * Set of longs that only grows, held in chunks so that an add never copies the values already added.
+ * <p>
+ * The first chunk holds the values the list was created with, and each later chunk is at least as long as
+ * all the chunks before it, so an add is amortized O(1) and the number of chunks grows with the log of the size.
+ * Adds are synchronized on the list. Reads take no lock: the size is published after the value it counts,
+ * so a reader that reads the size and then the chunks sees at least that many values.
+ * <p>
+ * Values are kept in the order they were added. Lists longer than {@link #HASHED_SIZE} keep a hash set of
+ * their values, so that rejecting a duplicate does not scan the list.
+ * <p>
+ * When the values pack two ints, as with {@link org.hl7.tinkar.common.util.ints2long.IntsInLong}, the first
+ * ints may be looked up by second int with {@link #firstInts(int)}. Lists longer than {@link #INDEXED_SIZE}
+ * build an index of the first ints grouped by second int on lookup, so a lookup costs O(log n + k), plus a
+ * scan of the values added since the index was built. The index is rebuilt once those values are more than
+ * a quarter of the index.
+ */
+public final class AppendOnlyLongList {
+    private static final int MIN_CHUNK_SIZE = 4;
+    private static final int HASHED_SIZE = 32;
+    private static final int INDEXED_SIZE = 16;
+    private static final long[][] NO_CHUNKS = new long[0][];
+    private static final int[] NO_INTS = new int[0];
+
+    private volatile long[][] chunks;
+    private volatile int size;
+    /**
+     * Values of the list, once longer than HASHED_SIZE. Guarded by this.
+     */
+    private LongHashSet valueSet;
+    private volatile SecondIntIndex secondIntIndex;
+
+    public AppendOnlyLongList() {
+        this.chunks = NO_CHUNKS;
+    }
+
+    /**
+     * Creates a list that holds the values, without copying them. The caller must not modify the array afterwards.
+     */
+    public AppendOnlyLongList(long[] values) {
+        this.chunks = values.length == 0 ? NO_CHUNKS : new long[][]{values};
+        this.size = values.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds the value if the list does not already contain it.
+     *
+     * @return true if the value was added.
+     */
+    public synchronized boolean add(long value) {
+        int currentSize = this.size;
+        long[][] currentChunks = this.chunks;
+        if (valueSet != null) {
+            if (!valueSet.add(value)) {
+                return false;
+            }
+        } else if (contains(currentChunks, currentSize, value)) {
+            return false;
+        } else if (currentSize >= HASHED_SIZE) {
+            valueSet = new LongHashSet(currentSize * 2);
+            forEach(currentChunks, currentSize, valueSet::add);
+            valueSet.add(value);
+        }
+        // Every chunk but the last is full, so the position in the last chunk follows from the chunk lengths.
+        int filled = 0;
+        for (int i = 0; i < currentChunks.length - 1; i++) {
+            filled += currentChunks[i].length;
+        }
+        long[] lastChunk = currentChunks.length == 0 ? null : currentChunks[currentChunks.length - 1];
+        if (lastChunk == null || currentSize - filled == lastChunk.length) {
+            lastChunk = new long[Math.max(MIN_CHUNK_SIZE, currentSize)];
+            lastChunk[0] = value;
+            long[][] grownChunks = Arrays.copyOf(currentChunks, currentChunks.length + 1);
+            grownChunks[currentChunks.length] = lastChunk;
+            this.chunks = grownChunks;
+        } else {
+            lastChunk[currentSize - filled] = value;
+        }
+        this.size = currentSize + 1;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        int currentSize = this.size;
+        return contains(this.chunks, currentSize, value);
+    }
+
+    private static boolean contains(long[][] chunks, int size, long value) {
+        int remaining = size;
+        for (int i = 0; i < chunks.length && remaining > 0; i++) {
+            long[] chunk = chunks[i];
+            int count = Math.min(remaining, chunk.length);
+            for (int j = 0; j < count; j++) {
+                if (chunk[j] == value) {
+                    return true;
+                }
+            }
+            remaining -= count;
+        }
+        return false;
+    }
+
+    /**
+     * Passes each value to the procedure, in the order added. Values added during the iteration may not be passed.
+     */
+    public void forEach(LongProcedure procedure) {
+        // Size is read before the chunks, so every value it counts is in the chunks read.
+        int currentSize = this.size;
+        forEach(this.chunks, currentSize, procedure);
+    }
+
+    private static void forEach(long[][] chunks, int size, LongProcedure procedure) {
+        int remaining = size;
+        for (int i = 0; i < chunks.length && remaining > 0; i++) {
+            long[] chunk = chunks[i];
+            int count = Math.min(remaining, chunk.length);
+            for (int j = 0; j < count; j++) {
+                procedure.value(chunk[j]);
+            }
+            remaining -= count;
+        }
+    }
+
+    /**
+     * @return a copy of the values, in the order added.
+     */
+    public long[] toArray() {
+        int currentSize = this.size;
+        long[][] currentChunks = this.chunks;
+        if (currentChunks.length == 1 && currentChunks[0].length == currentSize) {
+            return currentChunks[0].clone();
+        }
+        long[] values = new long[currentSize];
+        int position = 0;
+        for (int i = 0; i < currentChunks.length && position < currentSize; i++) {
+            int count = Math.min(currentSize - position, currentChunks[i].length);
+            System.arraycopy(currentChunks[i], 0, values, position, count);
+            position += count;
+        }
+        return values;
+    }
+
+    /**
+     * Passes the first int of each value with the second int to the procedure, in the order added.
+     */
+    public void forEachFirstInt(int secondInt, IntProcedure procedure) {
+        int currentSize = this.size;
+        long[][] currentChunks = this.chunks;
+        SecondIntIndex index = indexFor(currentChunks, currentSize);
+        int from = 0;
+        if (index != null) {
+            for (int firstInt : index.firstInts(secondInt)) {
+                procedure.value(firstInt);
+            }
+            from = index.indexedSize;
+        }
+        forEachFrom(currentChunks, from, currentSize, value -> {
+            if ((int) value == secondInt) {
+                procedure.value((int) (value >> 32));
+            }
+        });
+    }
+
+    /**
+     * @return the first int of each value with the second int, in the order added. The array may be
+     * shared with the index, and must not be modified.
+     */
+    public int[] firstInts(int secondInt) {
+        int currentSize = this.size;
+        long[][] currentChunks = this.chunks;
+        SecondIntIndex index = indexFor(currentChunks, currentSize);
+        int[] indexed = NO_INTS;
+        int from = 0;
+        if (index != null) {
+            indexed = index.firstInts(secondInt);
+            from = index.indexedSize;
+        }
+        int[] unindexedCount = new int[1];
+        forEachFrom(currentChunks, from, currentSize, value -> {
+            if ((int) value == secondInt) {
+                unindexedCount[0]++;
+            }
+        });
+        if (unindexedCount[0] == 0) {
+            return indexed;
+        }
+        int[] firstInts = Arrays.copyOf(indexed, indexed.length + unindexedCount[0]);
+        int[] position = {indexed.length};
+        forEachFrom(currentChunks, from, currentSize, value -> {
+            if ((int) value == secondInt) {
+                firstInts[position[0]++] = (int) (value >> 32);
+            }
+        });
+        return firstInts;
+    }
+
+    /**
+     * @return an index that covers most of the values, or null if the list is too short to index.
+     */
+    private SecondIntIndex indexFor(long[][] currentChunks, int currentSize) {
+        if (currentSize <= INDEXED_SIZE) {
+            return null;
+        }
+        SecondIntIndex index = this.secondIntIndex;
+        if (index == null || currentSize - index.indexedSize > index.indexedSize / 4) {
+            // Concurrent readers may each build an index; any of them is valid for the values it covers.
+            index = new SecondIntIndex(currentChunks, currentSize);
+            this.secondIntIndex = index;
+        }
+        return index;
+    }
+
+    private static void forEachFrom(long[][] chunks, int from, int to, LongProcedure procedure) {
+        int chunkStart = 0;
+        for (int i = 0; i < chunks.length && chunkStart < to; i++) {
+            long[] chunk = chunks[i];
+            int chunkEnd = chunkStart + chunk.length;
+            for (int position = Math.max(from, chunkStart); position < Math.min(to, chunkEnd); position++) {
+                procedure.value(chunk[position - chunkStart]);
+            }
+            chunkStart = chunkEnd;
+        }
+    }
+
+    /**
+     * @return an estimate of the heap used by the list.
+     */
+    public long estimateBytes() {
+        long[][] currentChunks = this.chunks;
+        long bytes = 32 + 16 + (long) currentChunks.length * 8; // 32 bytes = list object, 16 bytes = array header.
+        for (long[] chunk : currentChunks) {
+            bytes += 16 + (long) chunk.length * 8;
+        }
+        SecondIntIndex index = this.secondIntIndex;
+        if (index != null) {
+            bytes += index.estimateBytes();
+        }
+        LongHashSet currentValueSet = this.valueSet;
+        if (currentValueSet != null) {
+            bytes += (long) currentValueSet.size() * 16;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * First ints of the values in a prefix of the list, grouped by second int. The groups are in order of
+     * second int, and the first ints within a group in the order added.
+     */
+    private static final class SecondIntIndex {
+        final int indexedSize;
+        final int[] secondInts;
+        final int[][] firstIntGroups;
+
+        SecondIntIndex(long[][] chunks, int size) {
+            this.indexedSize = size;
+            // Second int in the high bits and position in the low bits, so the sort is stable.
+            long[] keys = new long[size];
+            int[] firstInts = new int[size];
+            int[] position = new int[1];
+            forEachFrom(chunks, 0, size, value -> {
+                keys[position[0]] = ((long) (int) value << 32) | position[0];
+                firstInts[position[0]] = (int) (value >> 32);
+                position[0]++;
+            });
+            Arrays.sort(keys);
+            int groupCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || (int) (keys[i] >> 32) != (int) (keys[i - 1] >> 32)) {
+                    groupCount++;
+                }
+            }
+            this.secondInts = new int[groupCount];
+            this.firstIntGroups = new int[groupCount][];
+            int group = -1;
+            int groupStart = 0;
+            for (int i = 0; i <= size; i++) {
+                if (i == size || i == 0 || (int) (keys[i] >> 32) != (int) (keys[i - 1] >> 32)) {
+                    if (group >= 0) {
+                        int[] groupFirstInts = new int[i - groupStart];
+                        for (int j = groupStart; j < i; j++) {
+                            groupFirstInts[j - groupStart] = firstInts[(int) keys[j]];
+                        }
+                        this.firstIntGroups[group] = groupFirstInts;
+                    }
+                    if (i < size) {
+                        group++;
+                        groupStart = i;
+                        this.secondInts[group] = (int) (keys[i] >> 32);
+                    }
+                }
+            }
+        }
+
+        int[] firstInts(int secondInt) {
+            int group = Arrays.binarySearch(secondInts, secondInt);
+            return group < 0 ? NO_INTS : firstIntGroups[group];
+        }
+
+        long estimateBytes() {
+            return 32 + 16 + secondInts.length * 4L + 16 + firstIntGroups.length * (8L + 16) + indexedSize * 4L;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package org.hl7.tinkar.collection;
+
+import org.eclipse.collections.api.block.procedure.primitive.ObjectIntProcedure;
+import org.eclipse.collections.api.list.ImmutableList;
+import org.hl7.tinkar.common.service.NidGenerator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Open addressing map from UUID to int that stores each key as two longs, and each value as an int,
+ * so no UUID, Integer, or entry objects are retained per mapping. Intended for the UUID to nid maps
+ * of the data providers, which hold tens of millions of identifiers.
+ * <p>
+ * Reads are lock-free. A slot is claimed by a compare and set of its value from {@link #NO_VALUE} to
+ * a reserved marker, the key is then written, and the value is published with a volatile write. A reader
+ * that encounters a reserved slot spins until it is published. Writers share the read side of a
+ * {@link ReentrantReadWriteLock}, and only a resize takes the write side. Keys are never removed,
+ * other than by {@link #clear()}.
+ * <p>
+ * Integer.MIN_VALUE and Integer.MAX_VALUE are used internally, and may not be stored as values.
+ */
+public class ConcurrentUuidIntOpenHashMap {
+    /**
+     * Returned by get methods when there is no value for a key.
+     */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+    private static final int RESERVED = Integer.MAX_VALUE;
+    private static final int MAGIC = 0x55494D50; // "UIMP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int BULK_LOAD_BATCH_SIZE = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Table table;
+
+    public ConcurrentUuidIntOpenHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize the number of mappings the map should hold without resizing.
+     */
+    public ConcurrentUuidIntOpenHashMap(int expectedSize) {
+        this.table = new Table(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        // Keep the load factor at or below 0.75
+        long minimumCapacity = ((long) expectedSize * 4 + 2) / 3;
+        int capacity = 256;
+        while (capacity < minimumCapacity && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ Long.rotateLeft(lsb, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static void checkValue(int value) {
+        if (value == NO_VALUE || value == RESERVED) {
+            throw new IllegalArgumentException("Value may not be: " + value);
+        }
+    }
+
+    public static ConcurrentUuidIntOpenHashMap read(Path path) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            ConcurrentUuidIntOpenHashMap map = new ConcurrentUuidIntOpenHashMap();
+            map.readFrom(dis);
+            return map;
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * @return the value for the key, or {@link #NO_VALUE} if the key is not present.
+     */
+    public int get(UUID key) {
+        return get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * @return the value for the key, or {@link #NO_VALUE} if the key is not present.
+     */
+    public int get(long msb, long lsb) {
+        Table currentTable = this.table;
+        int mask = currentTable.capacity - 1;
+        int index = hash(msb, lsb) & mask;
+        while (true) {
+            int value = currentTable.values.get(index);
+            if (value == NO_VALUE) {
+                return NO_VALUE;
+            }
+            while (value == RESERVED) {
+                Thread.onSpinWait();
+                value = currentTable.values.get(index);
+            }
+            if (currentTable.msbs[index] == msb && currentTable.lsbs[index] == lsb) {
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(UUID key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * Associates the value with the key, replacing any prior value.
+     */
+    public void put(UUID key, int value) {
+        put(key.getMostSignificantBits(), key.getLeastSignificantBits(), value);
+    }
+
+    public void put(long msb, long lsb, int value) {
+        checkValue(value);
+        insert(msb, lsb, value, null, true);
+    }
+
+    /**
+     * @return the existing value for the key, or the value provided by the supplier, which is
+     * called at most once, and only if the key is absent. The supplier must not throw, and must not
+     * return {@link #NO_VALUE} or Integer.MAX_VALUE; readers of the key wait while it runs.
+     */
+    public int getIfAbsentPut(UUID key, IntSupplier valueSupplier) {
+        return getIfAbsentPut(key.getMostSignificantBits(), key.getLeastSignificantBits(), valueSupplier);
+    }
+
+    public int getIfAbsentPut(long msb, long lsb, IntSupplier valueSupplier) {
+        int value = get(msb, lsb);
+        if (value != NO_VALUE) {
+            return value;
+        }
+        return insert(msb, lsb, NO_VALUE, valueSupplier, false);
+    }
+
+    /**
+     * Inserts under the shared side of the resize lock. The size is reserved before a slot is claimed,
+     * so concurrent inserts can never fill the table past its threshold.
+     *
+     * @return the value associated with the key after the insert.
+     */
+    private int insert(long msb, long lsb, int value, IntSupplier valueSupplier, boolean replace) {
+        while (true) {
+            resizeLock.readLock().lock();
+            try {
+                Table currentTable = this.table;
+                int mask = currentTable.capacity - 1;
+                int index = hash(msb, lsb) & mask;
+                while (true) {
+                    int slotValue = currentTable.values.get(index);
+                    if (slotValue == NO_VALUE) {
+                        if (size.getAndIncrement() >= currentTable.threshold) {
+                            size.decrementAndGet();
+                            break;
+                        }
+                        if (currentTable.values.compareAndSet(index, NO_VALUE, RESERVED)) {
+                            currentTable.msbs[index] = msb;
+                            currentTable.lsbs[index] = lsb;
+                            int newValue = valueSupplier == null ? value : valueSupplier.getAsInt();
+                            currentTable.values.set(index, newValue);
+                            return newValue;
+                        }
+                        size.decrementAndGet();
+                        continue;
+                    }
+                    while (slotValue == RESERVED) {
+                        Thread.onSpinWait();
+                        slotValue = currentTable.values.get(index);
+                    }
+                    if (currentTable.msbs[index] == msb && currentTable.lsbs[index] == lsb) {
+                        if (replace) {
+                            currentTable.values.set(index, value);
+                            return value;
+                        }
+                        return slotValue;
+                    }
+                    index = (index + 1) & mask;
+                }
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+            ensureCapacity(size.get() + 1);
+        }
+    }
+
+    /**
+     * Grows the table, if necessary, so that it can hold expectedSize mappings without further resizing.
+     */
+    public void ensureCapacity(int expectedSize) {
+        resizeLock.writeLock().lock();
+        try {
+            Table oldTable = this.table;
+            if (expectedSize < oldTable.threshold) {
+                return;
+            }
+            int newCapacity = capacityFor(expectedSize);
+            if (newCapacity <= oldTable.capacity) {
+                newCapacity = oldTable.capacity << 1;
+            }
+            if (newCapacity > MAXIMUM_CAPACITY || newCapacity <= 0) {
+                throw new IllegalStateException("ConcurrentUuidIntOpenHashMap capacity exceeded: " + expectedSize);
+            }
+            Table newTable = new Table(newCapacity);
+            int newMask = newCapacity - 1;
+            for (int i = 0; i < oldTable.capacity; i++) {
+                int value = oldTable.values.get(i);
+                if (value != NO_VALUE) {
+                    long msb = oldTable.msbs[i];
+                    long lsb = oldTable.lsbs[i];
+                    int index = hash(msb, lsb) & newMask;
+                    while (newTable.values.get(index) != NO_VALUE) {
+                        index = (index + 1) & newMask;
+                    }
+                    newTable.msbs[index] = msb;
+                    newTable.lsbs[index] = lsb;
+                    newTable.values.lazySet(index, value);
+                }
+            }
+            this.table = newTable;
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        resizeLock.writeLock().lock();
+        try {
+            this.table = new Table(capacityFor(DEFAULT_INITIAL_CAPACITY));
+            this.size.set(0);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    public void forEach(UuidIntProcedure procedure) {
+        Table currentTable = this.table;
+        for (int i = 0; i < currentTable.capacity; i++) {
+            int value = currentTable.values.get(i);
+            if (value != NO_VALUE && value != RESERVED) {
+                procedure.value(currentTable.msbs[i], currentTable.lsbs[i], value);
+            }
+        }
+    }
+
+    public void forEachKeyValue(ObjectIntProcedure<UUID> procedure) {
+        forEach((msb, lsb, value) -> procedure.value(new UUID(msb, lsb), value));
+    }
+
+    /**
+     * Approximate number of bytes retained by the table arrays.
+     */
+    public long sizeInBytes() {
+        Table currentTable = this.table;
+        return (long) currentTable.capacity * (Long.BYTES + Long.BYTES + Integer.BYTES);
+    }
+
+    public int nidForUuids(NidGenerator nidGenerator, UUID... uuids) {
+        switch (uuids.length) {
+            case 0:
+                throw new IllegalStateException("uuidList cannot be empty");
+            case 1:
+                return getIfAbsentPut(uuids[0], nidGenerator::newNid);
+        }
+        UUID[] sortedUuids = uuids.clone();
+        Arrays.sort(sortedUuids);
+        return nidForSortedUuids(nidGenerator, sortedUuids);
+    }
+
+    public int nidForUuids(NidGenerator nidGenerator, ImmutableList<UUID> uuidList) {
+        switch (uuidList.size()) {
+            case 0:
+                throw new IllegalStateException("uuidList cannot be empty");
+            case 1:
+                return getIfAbsentPut(uuidList.get(0), nidGenerator::newNid);
+        }
+        UUID[] sortedUuids = uuidList.toArray(new UUID[uuidList.size()]);
+        Arrays.sort(sortedUuids);
+        return nidForSortedUuids(nidGenerator, sortedUuids);
+    }
+
+    private int nidForSortedUuids(NidGenerator nidGenerator, UUID[] sortedUuids) {
+        boolean missingMap = false;
+        int foundValue = NO_VALUE;
+        for (UUID uuid : sortedUuids) {
+            int nid = get(uuid);
+            if (nid == NO_VALUE) {
+                missingMap = true;
+            } else if (foundValue == NO_VALUE) {
+                foundValue = nid;
+            } else if (foundValue != nid) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("Multiple nids for: ");
+                sb.append(Arrays.toString(sortedUuids));
+                sb.append(" first value: ").append(foundValue);
+                sb.append(" second value: ").append(nid);
+                throw new IllegalStateException(sb.toString());
+            }
+        }
+        if (!missingMap) {
+            return foundValue;
+        }
+        if (foundValue == NO_VALUE) {
+            foundValue = getIfAbsentPut(sortedUuids[0], nidGenerator::newNid);
+        }
+        for (UUID uuid : sortedUuids) {
+            put(uuid, foundValue);
+        }
+        return foundValue;
+    }
+
+    /**
+     * Writes the mappings in a compact binary form: a header, the mapping count, then
+     * msb, lsb and value for each mapping.
+     */
+    public void writeTo(DataOutputStream dos) throws IOException {
+        // Mappings may be added while writing, so copy them out before writing the count.
+        Table currentTable = this.table;
+        int count = 0;
+        long[] msbs = new long[size.get()];
+        long[] lsbs = new long[msbs.length];
+        int[] values = new int[msbs.length];
+        for (int i = 0; i < currentTable.capacity; i++) {
+            int value = currentTable.values.get(i);
+            if (value != NO_VALUE && value != RESERVED) {
+                if (count == values.length) {
+                    int newLength = Math.max(16, count + (count >> 1));
+                    msbs = Arrays.copyOf(msbs, newLength);
+                    lsbs = Arrays.copyOf(lsbs, newLength);
+                    values = Arrays.copyOf(values, newLength);
+                }
+                msbs[count] = currentTable.msbs[i];
+                lsbs[count] = currentTable.lsbs[i];
+                values[count] = value;
+                count++;
+            }
+        }
+        dos.writeInt(MAGIC);
+        dos.writeInt(FORMAT_VERSION);
+        dos.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            dos.writeLong(msbs[i]);
+            dos.writeLong(lsbs[i]);
+            dos.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Reads mappings written by {@link #writeTo(DataOutputStream)}. The table is presized for the
+     * incoming mappings, which are then inserted in parallel.
+     */
+    public void readFrom(DataInputStream dis) throws IOException {
+        if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unrecognized ConcurrentUuidIntOpenHashMap format");
+        }
+        int count = dis.readInt();
+        long[] msbs = new long[count];
+        long[] lsbs = new long[count];
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            msbs[i] = dis.readLong();
+            lsbs[i] = dis.readLong();
+            values[i] = dis.readInt();
+        }
+        putAll(msbs, lsbs, values, count);
+    }
+
+    /**
+     * Bulk load of parallel key and value arrays. The table is sized once, and batches are inserted
+     * in parallel.
+     */
+    public void putAll(long[] msbs, long[] lsbs, int[] values, int count) {
+        ensureCapacity(size.get() + count);
+        int batchCount = (count + BULK_LOAD_BATCH_SIZE - 1) / BULK_LOAD_BATCH_SIZE;
+        IntStream.range(0, batchCount).parallel().forEach(batch -> {
+            int batchEnd = Math.min(count, (batch + 1) * BULK_LOAD_BATCH_SIZE);
+            for (int i = batch * BULK_LOAD_BATCH_SIZE; i < batchEnd; i++) {
+                put(msbs[i], lsbs[i], values[i]);
+            }
+        });
+    }
+
+    public void write(Path path) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE))) {
+            writeTo(dos);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @FunctionalInterface
+    public interface UuidIntProcedure {
+        void value(long msb, long lsb, int value);
+    }
+
+    private static final class Table {
+        final int capacity;
+        final int threshold;
+        final long[] msbs;
+        final long[] lsbs;
+        final AtomicIntegerArray values;
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.threshold = (int) (capacity * 3L / 4);
+            this.msbs = new long[capacity];
+            this.lsbs = new long[capacity];
+            this.values = new AtomicIntegerArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                this.values.lazySet(i, NO_VALUE);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.hl7.tinkar.collection;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * Growable directory of spines, divided into pages of 64 spines. Once created, a page is never moved or
+ * replaced; only the array that holds the pages is copied when the directory grows. Memory used by the
+ * directory therefore scales with the number of spines, rather than with a fixed maximum spine count.
+ * <p>
+ * Each page also holds a 64 bit mask of the spines that have changed since they were last written.
+ * A writer must mark a spine changed after it modifies the spine, and a checkpoint must clear the
+ * mark before it reads the spine, so that no modification is lost between the two. A second mask records
+ * spines that were accessed since the eviction clock last passed them.
+ *
+ * @param <E> the element type of the spines.
+ */
+final class SpineDirectory<E> {
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private volatile Page<E>[] pages;
+
+    SpineDirectory(int initialSpineCount) {
+        this.pages = newPageArray(Math.max(1, pageCount(initialSpineCount)));
+    }
+
+    private static int pageCount(int spineCount) {
+        return (spineCount + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Page<E>[] newPageArray(int length) {
+        return new Page[length];
+    }
+
+    private Page<E> pageIfPresent(int spineIndex) {
+        Page<E>[] currentPages = this.pages;
+        int pageIndex = spineIndex >>> PAGE_SHIFT;
+        if (pageIndex < currentPages.length) {
+            return currentPages[pageIndex];
+        }
+        return null;
+    }
+
+    private Page<E> page(int spineIndex) {
+        Page<E> page = pageIfPresent(spineIndex);
+        if (page != null) {
+            return page;
+        }
+        synchronized (this) {
+            int pageIndex = spineIndex >>> PAGE_SHIFT;
+            Page<E>[] currentPages = this.pages;
+            if (pageIndex >= currentPages.length) {
+                currentPages = Arrays.copyOf(currentPages, Math.max(pageIndex + 1, currentPages.length * 2));
+            }
+            page = currentPages[pageIndex];
+            if (page == null) {
+                page = new Page<>();
+                currentPages[pageIndex] = page;
+            }
+            this.pages = currentPages;
+            return page;
+        }
+    }
+
+    /**
+     * @return the spine, or null if the spine is not in memory.
+     */
+    AtomicReferenceArray<E> get(int spineIndex) {
+        Page<E> page = pageIfPresent(spineIndex);
+        if (page == null) {
+            return null;
+        }
+        return page.spines.get(spineIndex & PAGE_MASK);
+    }
+
+    boolean compareAndSet(int spineIndex, AtomicReferenceArray<E> expectedSpine, AtomicReferenceArray<E> newSpine) {
+        return page(spineIndex).spines.compareAndSet(spineIndex & PAGE_MASK, expectedSpine, newSpine);
+    }
+
+    /**
+     * Removes a spine from memory, if it is still the given spine.
+     */
+    boolean remove(int spineIndex, AtomicReferenceArray<E> spine) {
+        Page<E> page = pageIfPresent(spineIndex);
+        return page != null && page.spines.compareAndSet(spineIndex & PAGE_MASK, spine, null);
+    }
+
+    AtomicReferenceArray<E> updateAndGet(int spineIndex, UnaryOperator<AtomicReferenceArray<E>> updateFunction) {
+        return page(spineIndex).spines.updateAndGet(spineIndex & PAGE_MASK, updateFunction);
+    }
+
+    void markChanged(int spineIndex) {
+        Page<E> page = page(spineIndex);
+        long bit = 1L << (spineIndex & PAGE_MASK);
+        if ((page.changed.get() & bit) == 0) {
+            page.changed.accumulateAndGet(bit, (mask, spineBit) -> mask | spineBit);
+        }
+    }
+
+    boolean isChanged(int spineIndex) {
+        Page<E> page = pageIfPresent(spineIndex);
+        return page != null && (page.changed.get() & (1L << (spineIndex & PAGE_MASK))) != 0;
+    }
+
+    /**
+     * Clears the changed mark of a spine.
+     *
+     * @return true if the spine was marked as changed.
+     */
+    boolean getAndClearChanged(int spineIndex) {
+        Page<E> page = pageIfPresent(spineIndex);
+        if (page == null) {
+            return false;
+        }
+        long bit = 1L << (spineIndex & PAGE_MASK);
+        if ((page.changed.get() & bit) == 0) {
+            return false;
+        }
+        return (page.changed.getAndAccumulate(~bit, (mask, notSpineBit) -> mask & notSpineBit) & bit) != 0;
+    }
+
+    void markAccessed(int spineIndex) {
+        Page<E> page = pageIfPresent(spineIndex);
+        if (page != null) {
+            long bit = 1L << (spineIndex & PAGE_MASK);
+            if ((page.accessed.get() & bit) == 0) {
+                page.accessed.accumulateAndGet(bit, (mask, spineBit) -> mask | spineBit);
+            }
+        }
+    }
+
+    /**
+     * Clears the accessed mark of a spine.
+     *
+     * @return true if the spine was marked as accessed.
+     */
+    boolean getAndClearAccessed(int spineIndex) {
+        Page<E> page = pageIfPresent(spineIndex);
+        if (page == null) {
+            return false;
+        }
+        long bit = 1L << (spineIndex & PAGE_MASK);
+        if ((page.accessed.get() & bit) == 0) {
+            return false;
+        }
+        return (page.accessed.getAndAccumulate(~bit, (mask, notSpineBit) -> mask & notSpineBit) & bit) != 0;
+    }
+
+    /**
+     * Removes all spines from memory. Changed marks are retained.
+     */
+    void clear() {
+        for (Page<E> page : this.pages) {
+            if (page != null) {
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    page.spines.set(i, null);
+                }
+            }
+        }
+    }
+
+    private static final class Page<E> {
+        final AtomicReferenceArray<AtomicReferenceArray<E>> spines = new AtomicReferenceArray<>(PAGE_SIZE);
+        final AtomicLong changed = new AtomicLong();
+        final AtomicLong accessed = new AtomicLong();
+    }
+}
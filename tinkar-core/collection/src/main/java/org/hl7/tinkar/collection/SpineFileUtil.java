@@ -2,6 +2,8 @@ package org.hl7.tinkar.collection;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  *
@@ -40,6 +42,18 @@ public class SpineFileUtil {
         newCountFile.createNewFile();
     }
 
+    /**
+     * Forces the entries of the directory, such as files moved into, created in, or deleted from it, to disk.
+     * A directory can not be opened on Windows, where the entries are durable once the move returns.
+     */
+    public static void forceDirectory(File directory) throws IOException {
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
 
     public static File getSpineDirectory(File parentDirectory, int patternNid) {
         File spinedMapDirectory = new File(parentDirectory, Integer.toUnsignedString(patternNid));
@@ -1,10 +1,12 @@
 package org.hl7.tinkar.collection;
 
 import org.hl7.tinkar.collection.store.ByteArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
@@ -12,10 +14,12 @@ public class SpinedByteArrayMap extends SpinedIntObjectMap<byte[]> {
 
     private static final Logger LOG = LoggerFactory.getLogger(SpinedByteArrayMap.class);
     private final ByteArrayStore byteArrayStore;
+    private final SpineElementReader<byte[]> elementReader;
 
     public SpinedByteArrayMap(ByteArrayStore byteArrayStore) {
         super(byteArrayStore.getSpineCount());
         this.byteArrayStore = byteArrayStore;
+        this.elementReader = byteArrayStore instanceof SpineElementReader ? (SpineElementReader<byte[]>) byteArrayStore : null;
     }
 
     public int sizeOnDisk() {
@@ -43,14 +47,54 @@ public class SpinedByteArrayMap extends SpinedIntObjectMap<byte[]> {
         return new AtomicReferenceArray<>(spineSize);
     }
 
+    @Override
+    protected long estimateSpineBytes(AtomicReferenceArray<byte[]> spine) {
+        long bytes = super.estimateSpineBytes(spine);
+        for (int i = 0; i < spine.length(); i++) {
+            byte[] value = spine.get(i);
+            if (value != null) {
+                bytes += 16 + value.length; // 16 bytes = array header.
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    protected byte[] readElement(int spineIndex, int indexInSpine) {
+        if (elementReader != null) {
+            return elementReader.getElement(spineIndex, indexInSpine);
+        }
+        return super.readElement(spineIndex, indexInSpine);
+    }
+
     public boolean write() {
 
         try {
             fileSemaphore.acquireUninterruptibly();
             this.byteArrayStore.writeSpineCount(getSpineCount());
-            return forEachChangedSpine((AtomicReferenceArray<byte[]> spine, int spineIndex) -> {
+            boolean foundChange = forEachChangedSpine((AtomicReferenceArray<byte[]> spine, int spineIndex) -> {
                 this.byteArrayStore.put(spineIndex, spine);
             });
+            this.byteArrayStore.flush();
+            return foundChange;
+        } finally {
+            fileSemaphore.release();
+        }
+    }
+
+    /**
+     * Writes the changed spines in parallel on the executor. Puts and merges may continue while the spines
+     * are written; a spine changed during the write remains marked for the next write.
+     */
+    public boolean write(ExecutorService executor) {
+        try {
+            fileSemaphore.acquireUninterruptibly();
+            this.byteArrayStore.writeSpineCount(getSpineCount());
+            boolean foundChange = forEachChangedSpine((AtomicReferenceArray<byte[]> spine, int spineIndex) -> {
+                this.byteArrayStore.put(spineIndex, spine);
+            }, executor);
+            this.byteArrayStore.flush();
+            return foundChange;
         } finally {
             fileSemaphore.release();
         }
@@ -5,6 +5,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Spliterator;
 import java.util.concurrent.ConcurrentHashMap;
@@ -93,12 +95,21 @@ public class SpinedIntIntMap {
                 if (spineChanged) {
                     wroteAny.set(true);
                     File spineFile = new File(directory, spineKey);
+                    File tempFile = new File(directory, "tmp-" + spineKey);
                     diskSemaphore.acquireUninterruptibly();
-                    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spineFile)))) {
-                        dos.writeInt(spine.length());
-                        for (int i = 0; i < spine.length(); i++) {
-                            dos.writeInt(spine.get(i));
+                    try {
+                        try (FileOutputStream fos = new FileOutputStream(tempFile);
+                             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+                            dos.writeInt(spine.length());
+                            for (int i = 0; i < spine.length(); i++) {
+                                dos.writeInt(spine.get(i));
+                            }
+                            dos.flush();
+                            fos.getChannel().force(false);
                         }
+                        // Moved once forced, so a crash leaves either the old or the new spine.
+                        Files.move(tempFile.toPath(), spineFile.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
                     } catch (IOException ex) {
                         LOG.error(ex.getLocalizedMessage(), ex);
                         throw new RuntimeException(ex);
@@ -108,6 +119,7 @@ public class SpinedIntIntMap {
                 }
 
             });
+            SpineFileUtil.forceDirectory(directory);
         } catch (IOException ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
             throw new RuntimeException(ex);
@@ -1,10 +1,12 @@
 package org.hl7.tinkar.collection;
 
 import org.hl7.tinkar.collection.store.IntLongArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
@@ -12,10 +14,12 @@ public class SpinedIntLongArrayMap extends SpinedIntObjectMap<long[]> {
 
     private static final Logger LOG = LoggerFactory.getLogger(SpinedIntLongArrayMap.class);
     private final IntLongArrayStore intLongArrayStore;
+    private final SpineElementReader<long[]> elementReader;
 
     public SpinedIntLongArrayMap(IntLongArrayStore intLongArrayStore) {
         super(intLongArrayStore.getSpineCount());
         this.intLongArrayStore = intLongArrayStore;
+        this.elementReader = intLongArrayStore instanceof SpineElementReader ? (SpineElementReader<long[]>) intLongArrayStore : null;
     }
 
     public int sizeOnDisk() {
@@ -43,14 +47,54 @@ public class SpinedIntLongArrayMap extends SpinedIntObjectMap<long[]> {
         return new AtomicReferenceArray<>(spineSize);
     }
 
+    @Override
+    protected long estimateSpineBytes(AtomicReferenceArray<long[]> spine) {
+        long bytes = super.estimateSpineBytes(spine);
+        for (int i = 0; i < spine.length(); i++) {
+            long[] value = spine.get(i);
+            if (value != null) {
+                bytes += 16 + (long) value.length * 8; // 16 bytes = array header.
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    protected long[] readElement(int spineIndex, int indexInSpine) {
+        if (elementReader != null) {
+            return elementReader.getElement(spineIndex, indexInSpine);
+        }
+        return super.readElement(spineIndex, indexInSpine);
+    }
+
     public boolean write() {
 
         try {
             fileSemaphore.acquireUninterruptibly();
             this.intLongArrayStore.writeSpineCount(getSpineCount());
-            return forEachChangedSpine((AtomicReferenceArray<long[]> spine, int spineIndex) -> {
+            boolean foundChange = forEachChangedSpine((AtomicReferenceArray<long[]> spine, int spineIndex) -> {
                 this.intLongArrayStore.put(spineIndex, spine);
             });
+            this.intLongArrayStore.flush();
+            return foundChange;
+        } finally {
+            fileSemaphore.release();
+        }
+    }
+
+    /**
+     * Writes the changed spines in parallel on the executor. Puts and merges may continue while the spines
+     * are written; a spine changed during the write remains marked for the next write.
+     */
+    public boolean write(ExecutorService executor) {
+        try {
+            fileSemaphore.acquireUninterruptibly();
+            this.intLongArrayStore.writeSpineCount(getSpineCount());
+            boolean foundChange = forEachChangedSpine((AtomicReferenceArray<long[]> spine, int spineIndex) -> {
+                this.intLongArrayStore.put(spineIndex, spine);
+            }, executor);
+            this.intLongArrayStore.flush();
+            return foundChange;
         } finally {
             fileSemaphore.release();
         }
@@ -0,0 +1,162 @@
+package org.hl7.tinkar.collection;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.block.procedure.primitive.LongProcedure;
+import org.hl7.tinkar.collection.store.IntLongArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map of int to a set of longs that only grows, such as the citations of a component. Unlike
+ * {@link SpinedIntLongArrayMap}, where adding a value replaces the array with a merged copy, values are
+ * appended to an {@link AppendOnlyLongList} in place, so an add does not copy the values already present.
+ * <p>
+ * The lists are persisted as long arrays, in the same format as a {@link SpinedIntLongArrayMap}.
+ */
+public class SpinedIntLongListMap extends SpinedIntObjectMap<AppendOnlyLongList> {
+
+    private final IntLongArrayStore intLongArrayStore;
+    private final SpineElementReader<long[]> elementReader;
+
+    public SpinedIntLongListMap(IntLongArrayStore intLongArrayStore) {
+        super(intLongArrayStore.getSpineCount());
+        this.intLongArrayStore = intLongArrayStore;
+        this.elementReader = intLongArrayStore instanceof SpineElementReader ? (SpineElementReader<long[]>) intLongArrayStore : null;
+    }
+
+    private static AtomicReferenceArray<long[]> toArraySpine(AtomicReferenceArray<AppendOnlyLongList> spine) {
+        AtomicReferenceArray<long[]> arraySpine = new AtomicReferenceArray<>(spine.length());
+        for (int i = 0; i < spine.length(); i++) {
+            AppendOnlyLongList list = spine.get(i);
+            if (list != null) {
+                arraySpine.set(i, list.toArray());
+            }
+        }
+        return arraySpine;
+    }
+
+    public int sizeOnDisk() {
+        return intLongArrayStore.sizeOnDisk();
+    }
+
+    /**
+     * Adds the value to the set of the index, if not already present.
+     *
+     * @return true if the value was added.
+     */
+    public boolean add(int index, long value) {
+        return updateInPlace(index, AppendOnlyLongList::new, list -> list.add(value));
+    }
+
+    /**
+     * Passes each value of the index to the procedure, in the order added.
+     */
+    public void forEach(int index, LongProcedure procedure) {
+        AppendOnlyLongList list = get(index);
+        if (list != null) {
+            list.forEach(procedure);
+        }
+    }
+
+    /**
+     * Passes the first int of each value of the index with the second int to the procedure. See
+     * {@link AppendOnlyLongList#forEachFirstInt(int, IntProcedure)}.
+     */
+    public void forEachFirstInt(int index, int secondInt, IntProcedure procedure) {
+        AppendOnlyLongList list = get(index);
+        if (list != null) {
+            list.forEachFirstInt(secondInt, procedure);
+        }
+    }
+
+    /**
+     * @return the first int of each value of the index with the second int. The array may be shared, and
+     * must not be modified. See {@link AppendOnlyLongList#firstInts(int)}.
+     */
+    public int[] firstInts(int index, int secondInt) {
+        AppendOnlyLongList list = get(index);
+        return list == null ? new int[0] : list.firstInts(secondInt);
+    }
+
+    /**
+     * @return a copy of the values of the index, or null if there are none.
+     */
+    public long[] getArray(int index) {
+        AppendOnlyLongList list = get(index);
+        return list == null ? null : list.toArray();
+    }
+
+    @Override
+    protected AtomicReferenceArray<AppendOnlyLongList> readSpine(int spineIndex) {
+        AtomicReferenceArray<AppendOnlyLongList> spine = new AtomicReferenceArray<>(spineSize);
+        Optional<AtomicReferenceArray<long[]>> optionalSpine = this.intLongArrayStore.get(spineIndex);
+        if (optionalSpine.isPresent()) {
+            AtomicReferenceArray<long[]> arraySpine = optionalSpine.get();
+            for (int i = 0; i < arraySpine.length(); i++) {
+                long[] values = arraySpine.get(i);
+                if (values != null) {
+                    spine.set(i, new AppendOnlyLongList(values));
+                }
+            }
+        }
+        return spine;
+    }
+
+    @Override
+    protected long estimateSpineBytes(AtomicReferenceArray<AppendOnlyLongList> spine) {
+        long bytes = super.estimateSpineBytes(spine);
+        for (int i = 0; i < spine.length(); i++) {
+            AppendOnlyLongList list = spine.get(i);
+            if (list != null) {
+                bytes += list.estimateBytes();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    protected AppendOnlyLongList readElement(int spineIndex, int indexInSpine) {
+        // A list read alone is detached from the map. Adds go through updateInPlace, which loads the spine.
+        if (elementReader != null) {
+            long[] values = elementReader.getElement(spineIndex, indexInSpine);
+            return values == null ? null : new AppendOnlyLongList(values);
+        }
+        return super.readElement(spineIndex, indexInSpine);
+    }
+
+    public boolean write() {
+        try {
+            fileSemaphore.acquireUninterruptibly();
+            this.intLongArrayStore.writeSpineCount(getSpineCount());
+            boolean foundChange = forEachChangedSpine((AtomicReferenceArray<AppendOnlyLongList> spine, int spineIndex) -> {
+                this.intLongArrayStore.put(spineIndex, toArraySpine(spine));
+            });
+            this.intLongArrayStore.flush();
+            return foundChange;
+        } finally {
+            fileSemaphore.release();
+        }
+    }
+
+    /**
+     * Writes the changed spines in parallel on the executor. Adds may continue while the spines are written;
+     * a spine changed during the write remains marked for the next write.
+     */
+    public boolean write(ExecutorService executor) {
+        try {
+            fileSemaphore.acquireUninterruptibly();
+            this.intLongArrayStore.writeSpineCount(getSpineCount());
+            boolean foundChange = forEachChangedSpine((AtomicReferenceArray<AppendOnlyLongList> spine, int spineIndex) -> {
+                this.intLongArrayStore.put(spineIndex, toArraySpine(spine));
+            }, executor);
+            this.intLongArrayStore.flush();
+            return foundChange;
+        } finally {
+            fileSemaphore.release();
+        }
+    }
+
+}
@@ -22,41 +22,78 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.*;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
+ * By default, a spine stays in memory once it has been read. Maps backed by a store may instead bound the
+ * spines kept in memory by count, or by estimated bytes, with {@link #setMaxResidentSpines(int)} and
+ * {@link #setMaxResidentBytes(long)}. Clean spines are then evicted by a clock policy, and read again from
+ * the store on demand. Changed spines stay in memory until they are written.
+ * <p>
+ * A {@link Snapshot} is a read only view of the map at a point in time, made without copying the map. While
+ * snapshots are open, a mutation copies the spine it changes for each snapshot that has no copy of it yet, so
+ * a scan of a snapshot does not see changes made after the snapshot, and does not hold back the mutations.
+ *
  * @param <E> the generic type for the spined list.
  * @author kec
  */
 public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
 
     public static final int DEFAULT_SPINE_SIZE = 10240;
-    public static final int DEFAULT_MAX_SPINE_COUNT = 10240;
+    private static final int MUTATION_STRIPES = 64;
+    private static final int STRIPE_STRIDE = 16;
     private static final Logger LOG = LoggerFactory.getLogger(SpinedIntObjectMap.class);
     protected final Semaphore fileSemaphore = new Semaphore(1);
-    protected final int maxSpineCount;
     protected final int spineSize;
-    private final Semaphore newSpineSemaphore = new Semaphore(1);
-    // TODO: consider growth strategies instead of just a large array expected to be big enough to hold all the spines...
-    private final AtomicReferenceArray<AtomicReferenceArray<E>> spines;
+    private final SpineDirectory<E> spines;
+    private final ConcurrentHashMap<Integer, CompletableFuture<AtomicReferenceArray<E>>> spineLoads = new ConcurrentHashMap<>();
     private final AtomicInteger spineCount = new AtomicInteger();
-    private final boolean[] changedSpineIndexes;
+    /**
+     * Mutations hold the read lock while bounded, so a spine can not be evicted between the time it is
+     * retrieved, and the time it is marked as changed.
+     */
+    private final ReentrantReadWriteLock evictionLock = new ReentrantReadWriteLock();
+    private final ConcurrentHashMap<Integer, Long> residentSpineBytes = new ConcurrentHashMap<>();
+    private final AtomicInteger residentSpineCount = new AtomicInteger();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final LongAdder spineHits = new LongAdder();
+    private final LongAdder spineMisses = new LongAdder();
+    private final LongAdder spineEvictions = new LongAdder();
+    /**
+     * In flight mutations, counted by the parity of the snapshot epoch they started in, and by a stripe
+     * chosen by thread, each stripe a cache line apart.
+     */
+    private final AtomicLongArray mutationsInFlight = new AtomicLongArray(2 * MUTATION_STRIPES * STRIPE_STRIDE);
+    private final Object snapshotLock = new Object();
+    private volatile int snapshotEpoch = 0;
+    @SuppressWarnings("unchecked")
+    private volatile Snapshot[] openSnapshots = new SpinedIntObjectMap.Snapshot[0];
+    private volatile int maxResidentSpines = 0;
+    private volatile long maxResidentBytes = 0;
+    private int clockHand = 0;
     private Function<E, String> elementStringConverter;
 
     public SpinedIntObjectMap(int spineCount) {
-        this.maxSpineCount = DEFAULT_MAX_SPINE_COUNT;
         this.spineSize = DEFAULT_SPINE_SIZE;
-        this.spines = new AtomicReferenceArray(this.maxSpineCount);
-        this.changedSpineIndexes = new boolean[this.maxSpineCount * this.spineSize];
+        this.spines = new SpineDirectory<>(spineCount);
         this.spineCount.set(spineCount);
     }
 
@@ -68,6 +105,217 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         this.elementStringConverter = elementStringConverter;
     }
 
+    /**
+     * Bound the number of spines kept in memory. Must only be used for maps backed by a store, and should be
+     * set before the map is used.
+     *
+     * @param maxResidentSpines the maximum number of spines, or 0 for no limit.
+     */
+    public void setMaxResidentSpines(int maxResidentSpines) {
+        this.maxResidentSpines = Math.max(0, maxResidentSpines);
+        evictIfNeeded();
+    }
+
+    /**
+     * Bound the estimated bytes of the spines kept in memory. Must only be used for maps backed by a store,
+     * and should be set before the map is used.
+     *
+     * @param maxResidentBytes the maximum estimated bytes, or 0 for no limit.
+     * @see #estimateSpineBytes(AtomicReferenceArray)
+     */
+    public void setMaxResidentBytes(long maxResidentBytes) {
+        this.maxResidentBytes = Math.max(0, maxResidentBytes);
+        evictIfNeeded();
+    }
+
+    private boolean bounded() {
+        return maxResidentSpines > 0 || maxResidentBytes > 0;
+    }
+
+    private boolean overResidentLimit() {
+        int maxSpines = this.maxResidentSpines;
+        long maxBytes = this.maxResidentBytes;
+        return (maxSpines > 0 && residentSpineCount.get() > maxSpines) ||
+                (maxBytes > 0 && residentBytes.get() > maxBytes);
+    }
+
+    /**
+     * Estimate of the heap used by a spine, and its elements. Subclasses should override to account for the
+     * size of their elements; the default only counts the spine's references.
+     */
+    protected long estimateSpineBytes(AtomicReferenceArray<E> spine) {
+        return 16L + (long) spine.length() * 4;
+    }
+
+    /**
+     * @return the number of spine requests satisfied by a spine in memory.
+     */
+    public long spineHits() {
+        return spineHits.sum();
+    }
+
+    /**
+     * @return the number of spines read from the store.
+     */
+    public long spineMisses() {
+        return spineMisses.sum();
+    }
+
+    public long spineEvictions() {
+        return spineEvictions.sum();
+    }
+
+    public int residentSpineCount() {
+        return residentSpineCount.get();
+    }
+
+    public long residentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * Starts a mutation. The mutation is counted as in flight in the current snapshot epoch, and holds the
+     * eviction read lock while bounded.
+     *
+     * @return the mutation to pass to {@link #spineToMutate(int, long)} and {@link #endMutation(long)}; the
+     * snapshot epoch in the high int, and the slot it is counted in, with the sign bit set if the eviction
+     * lock is held, in the low int.
+     */
+    private long startMutation() {
+        int stripe = (int) (Thread.currentThread().getId() & (MUTATION_STRIPES - 1));
+        int epoch;
+        int slot;
+        while (true) {
+            epoch = snapshotEpoch;
+            slot = ((epoch & 1) * MUTATION_STRIPES + stripe) * STRIPE_STRIDE;
+            mutationsInFlight.incrementAndGet(slot);
+            if (epoch == snapshotEpoch) {
+                break;
+            }
+            // A snapshot started, retry in the new epoch so the mutation sees the snapshot.
+            mutationsInFlight.decrementAndGet(slot);
+        }
+        if (bounded()) {
+            evictionLock.readLock().lock();
+            slot |= Integer.MIN_VALUE;
+        }
+        return ((long) epoch << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private void endMutation(long mutation) {
+        int slot = (int) mutation;
+        mutationsInFlight.decrementAndGet(slot & Integer.MAX_VALUE);
+        if (slot < 0) {
+            evictionLock.readLock().unlock();
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Gets the spine to mutate, after copying it for each open snapshot that needs a copy.
+     */
+    private AtomicReferenceArray<E> spineToMutate(int spineIndex, long mutation) {
+        AtomicReferenceArray<E> spine = getSpine(spineIndex);
+        Snapshot[] snapshots = openSnapshots;
+        for (Snapshot snapshot : snapshots) {
+            snapshot.preserve(spineIndex, spine, (int) (mutation >>> 32));
+        }
+        return spine;
+    }
+
+    /**
+     * Opens a snapshot of the map. Mutations that completed before the snapshot was opened are seen by it,
+     * and mutations that start after it was opened are not. The snapshot must be closed once read, so
+     * mutations stop copying spines for it.
+     * <p>
+     * Elements updated in place by {@link #updateInPlace(int, Supplier, Predicate)} are shared with the
+     * snapshot, so their updates are seen by it, and {@link #clear()} is not isolated from open snapshots.
+     */
+    public Snapshot snapshot() {
+        synchronized (snapshotLock) {
+            int previousEpoch = snapshotEpoch;
+            Snapshot snapshot = new Snapshot(previousEpoch + 1);
+            Snapshot[] snapshots = Arrays.copyOf(openSnapshots, openSnapshots.length + 1);
+            snapshots[snapshots.length - 1] = snapshot;
+            openSnapshots = snapshots;
+            snapshotEpoch = previousEpoch + 1;
+            // Mutations of the previous epoch may not have seen the snapshot, so wait for them to complete.
+            int firstSlot = (previousEpoch & 1) * MUTATION_STRIPES * STRIPE_STRIDE;
+            for (int stripe = 0; stripe < MUTATION_STRIPES; stripe++) {
+                while (mutationsInFlight.get(firstSlot + stripe * STRIPE_STRIDE) != 0) {
+                    Thread.onSpinWait();
+                }
+            }
+            snapshot.open(spineCount.get());
+            return snapshot;
+        }
+    }
+
+    private void closeSnapshot(Snapshot snapshot) {
+        synchronized (snapshotLock) {
+            Snapshot[] snapshots = openSnapshots;
+            for (int i = 0; i < snapshots.length; i++) {
+                if (snapshots[i] == snapshot) {
+                    Snapshot[] remaining = new SpinedIntObjectMap.Snapshot[snapshots.length - 1];
+                    System.arraycopy(snapshots, 0, remaining, 0, i);
+                    System.arraycopy(snapshots, i + 1, remaining, i, snapshots.length - i - 1);
+                    openSnapshots = remaining;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of open snapshots.
+     */
+    public int openSnapshotCount() {
+        return openSnapshots.length;
+    }
+
+    private void trackResident(int spineIndex, AtomicReferenceArray<E> spine) {
+        long spineBytes = estimateSpineBytes(spine);
+        Long previousBytes = residentSpineBytes.put(spineIndex, spineBytes);
+        if (previousBytes == null) {
+            residentSpineCount.incrementAndGet();
+            residentBytes.addAndGet(spineBytes);
+        } else {
+            residentBytes.addAndGet(spineBytes - previousBytes);
+        }
+    }
+
+    /**
+     * Evict clean spines, in clock order, until the map is within its limits. Only one thread evicts at a time,
+     * and a thread that is mutating the map does not wait to evict.
+     */
+    private void evictIfNeeded() {
+        if (!overResidentLimit() || !evictionLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            int spineCountNow = Math.max(1, spineCount.get());
+            // Two passes, the first may only clear accessed marks.
+            for (int step = 0; step < spineCountNow * 2 && overResidentLimit(); step++) {
+                int spineIndex = clockHand;
+                clockHand = (clockHand + 1) % spineCountNow;
+                AtomicReferenceArray<E> spine = spines.get(spineIndex);
+                if (spine == null || spines.getAndClearAccessed(spineIndex) || spines.isChanged(spineIndex)) {
+                    continue;
+                }
+                if (spines.remove(spineIndex, spine)) {
+                    Long spineBytes = residentSpineBytes.remove(spineIndex);
+                    if (spineBytes != null) {
+                        residentSpineCount.decrementAndGet();
+                        residentBytes.addAndGet(-spineBytes);
+                    }
+                    spineEvictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.writeLock().unlock();
+        }
+    }
+
     protected final int indexToSpineIndex(int index) {
         if (index < 0) {
             index = Integer.MAX_VALUE + index;
@@ -83,37 +331,65 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
     }
 
     private AtomicReferenceArray<E> getSpine(int spineIndex) {
-        int startSpineCount = spineCount.get();
-        if (spineIndex < startSpineCount) {
+        AtomicReferenceArray<E> spine = this.spines.get(spineIndex);
+        if (spine != null) {
+            spineHit(spineIndex);
+            return spine;
+        }
+        return loadSpine(spineIndex);
+    }
+
+    private void spineHit(int spineIndex) {
+        spineHits.increment();
+        if (bounded()) {
+            spines.markAccessed(spineIndex);
+        }
+    }
+
+    /**
+     * Reads or creates a spine that is not in memory. The first thread to request a spine
+     * installs a future for it, and other threads that request the same spine wait on that future,
+     * so loads of different spines proceed in parallel.
+     */
+    private AtomicReferenceArray<E> loadSpine(int spineIndex) {
+        CompletableFuture<AtomicReferenceArray<E>> spineFuture = new CompletableFuture<>();
+        CompletableFuture<AtomicReferenceArray<E>> existingFuture = this.spineLoads.putIfAbsent(spineIndex, spineFuture);
+        if (existingFuture != null) {
+            try {
+                return existingFuture.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw ex;
+            }
+        }
+        try {
+            // Another thread may have completed a load between the first check and the putIfAbsent.
             AtomicReferenceArray<E> spine = this.spines.get(spineIndex);
             if (spine == null) {
-                try {
-                    newSpineSemaphore.acquireUninterruptibly();
+                if (spineIndex < spineCount.get()) {
+                    spineMisses.increment();
+                    spine = readSpine(spineIndex);
+                } else {
+                    spine = newSpine(spineIndex);
+                }
+                if (this.spines.compareAndSet(spineIndex, null, spine)) {
+                    trackResident(spineIndex, spine);
+                } else {
                     spine = this.spines.get(spineIndex);
-                    if (spine == null) {
-                        spine = readSpine(spineIndex);
-                        this.spines.compareAndSet(spineIndex, null, spine);
-                    }
-                } finally {
-                    newSpineSemaphore.release();
                 }
             }
-            return spine;
-        }
-        try {
-            newSpineSemaphore.acquireUninterruptibly();
-            if (spineIndex < spineCount.get()) {
-                return this.spines.get(spineIndex);
+            spineFuture.complete(spine);
+            if (overResidentLimit()) {
+                evictIfNeeded();
             }
-            return this.spines.updateAndGet(spineIndex, eAtomicReferenceArray -> {
-                if (eAtomicReferenceArray == null) {
-                    eAtomicReferenceArray = newSpine(spineIndex);
-                    spineCount.compareAndSet(startSpineCount, startSpineCount + 1);
-                }
-                return eAtomicReferenceArray;
-            });
+            return spine;
+        } catch (RuntimeException | Error ex) {
+            spineFuture.completeExceptionally(ex);
+            throw ex;
         } finally {
-            newSpineSemaphore.release();
+            this.spineLoads.remove(spineIndex, spineFuture);
         }
     }
 
@@ -121,13 +397,33 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         throw new IllegalStateException("Subclass must implement readSpine");
     }
 
+    /**
+     * Read a single element of a persisted spine that is not in memory. Subclasses with a store that
+     * can slice an element out of storage may override this to avoid reading the whole spine.
+     */
+    protected E readElement(int spineIndex, int indexInSpine) {
+        return getSpine(spineIndex).get(indexInSpine);
+    }
+
+    private E elementAt(int spineIndex, int indexInSpine) {
+        AtomicReferenceArray<E> spine = this.spines.get(spineIndex);
+        if (spine != null) {
+            spineHit(spineIndex);
+            return spine.get(indexInSpine);
+        }
+        if (spineIndex < spineCount.get()) {
+            return readElement(spineIndex, indexInSpine);
+        }
+        return getSpine(spineIndex).get(indexInSpine);
+    }
+
     private AtomicReferenceArray<E> newSpine(Integer spineKey) {
         return makeNewSpine(spineKey);
     }
 
     public AtomicReferenceArray<E> makeNewSpine(Integer spineKey) {
         AtomicReferenceArray<E> spine = new AtomicReferenceArray<>(spineSize);
-        this.spineCount.set(Math.max(this.spineCount.get(), spineKey + 1));
+        this.spineCount.accumulateAndGet(spineKey + 1, Math::max);
         return spine;
     }
 
@@ -135,15 +431,75 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         boolean foundChange = false;
         int spineCountNow = spineCount.get();
         for (int spineIndex = 0; spineIndex < spineCountNow; spineIndex++) {
-            if (changedSpineIndexes[spineIndex]) {
+            if (acceptIfChanged(consumer, spineIndex)) {
                 foundChange = true;
-                consumer.accept(getSpine(spineIndex), spineIndex);
-                changedSpineIndexes[spineIndex] = false;
             }
         }
+        evictIfNeeded();
+        return foundChange;
+    }
+
+    /**
+     * Passes each changed spine to the consumer on the executor, and waits for all of them. Spines are
+     * not locked while the consumer runs, so puts to a spine being written proceed, and mark the spine
+     * changed again.
+     *
+     * @return true if a changed spine was found.
+     */
+    public boolean forEachChangedSpine(ObjIntConsumer<AtomicReferenceArray<E>> consumer, ExecutorService executor) {
+        int spineCountNow = spineCount.get();
+        ArrayList<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int spineIndex = 0; spineIndex < spineCountNow; spineIndex++) {
+            if (spines.isChanged(spineIndex)) {
+                final int changedSpineIndex = spineIndex;
+                futures.add(CompletableFuture.supplyAsync(() -> acceptIfChanged(consumer, changedSpineIndex), executor));
+            }
+        }
+        boolean foundChange = false;
+        RuntimeException failure = null;
+        for (CompletableFuture<Boolean> future : futures) {
+            try {
+                if (future.join()) {
+                    foundChange = true;
+                }
+            } catch (CompletionException ex) {
+                // Wait for the remaining spines before reporting the failure.
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException runtimeException ? runtimeException : ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        evictIfNeeded();
         return foundChange;
     }
 
+    private boolean acceptIfChanged(ObjIntConsumer<AtomicReferenceArray<E>> consumer, int spineIndex) {
+        // Holding the read lock keeps the spine in memory until it has been written.
+        evictionLock.readLock().lock();
+        try {
+            // Cleared before the spine is read, so a concurrent change marks the spine again.
+            if (!spines.getAndClearChanged(spineIndex)) {
+                return false;
+            }
+            AtomicReferenceArray<E> spine = getSpine(spineIndex);
+            try {
+                consumer.accept(spine, spineIndex);
+            } catch (RuntimeException ex) {
+                spines.markChanged(spineIndex);
+                throw ex;
+            }
+            if (residentSpineBytes.containsKey(spineIndex)) {
+                trackResident(spineIndex, spine);
+            }
+            return true;
+        } finally {
+            evictionLock.readLock().unlock();
+        }
+    }
+
     public int getSpineCount() {
         return spineCount.get();
     }
@@ -161,7 +517,10 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
     }
 
     private int forEachOnSpine(ObjIntConsumer<E> consumer, int spineIndex) {
-        AtomicReferenceArray<E> spine = getSpine(spineIndex);
+        return forEachOnSpine(consumer, getSpine(spineIndex), spineIndex);
+    }
+
+    private int forEachOnSpine(ObjIntConsumer<E> consumer, AtomicReferenceArray<E> spine, int spineIndex) {
         int index = spineIndex * spineSize;
         int processed = 0;
         for (int indexInSpine = 0; indexInSpine < spineSize; indexInSpine++) {
@@ -190,8 +549,14 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         }
         int spineIndex = index / spineSize;
         int indexInSpine = index % spineSize;
-        this.changedSpineIndexes[spineIndex] = true;
-        return getSpine(spineIndex).getAndSet(indexInSpine, element) == null;
+        long mutation = startMutation();
+        try {
+            boolean added = spineToMutate(spineIndex, mutation).getAndSet(indexInSpine, element) == null;
+            this.spines.markChanged(spineIndex);
+            return added;
+        } finally {
+            endMutation(mutation);
+        }
 
     }
 
@@ -205,8 +570,14 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         }
         int spineIndex = index / spineSize;
         int indexInSpine = index % spineSize;
-        this.changedSpineIndexes[spineIndex] = true;
-        return getSpine(spineIndex).getAndSet(indexInSpine, element);
+        long mutation = startMutation();
+        try {
+            E previous = spineToMutate(spineIndex, mutation).getAndSet(indexInSpine, element);
+            this.spines.markChanged(spineIndex);
+            return previous;
+        } finally {
+            endMutation(mutation);
+        }
     }
 
     /**
@@ -219,7 +590,7 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         }
         int spineIndex = index / spineSize;
         int indexInSpine = index % spineSize;
-        return getSpine(spineIndex).get(indexInSpine);
+        return elementAt(spineIndex, indexInSpine);
     }
 
     /**
@@ -232,7 +603,7 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         }
         int spineIndex = index / spineSize;
         int indexInSpine = index % spineSize;
-        return Optional.ofNullable(getSpine(spineIndex).get(indexInSpine));
+        return Optional.ofNullable(elementAt(spineIndex, indexInSpine));
     }
 
     /**
@@ -245,7 +616,7 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         }
         int spineIndex = index / spineSize;
         int indexInSpine = index % spineSize;
-        return getSpine(spineIndex).get(indexInSpine) != null;
+        return elementAt(spineIndex, indexInSpine) != null;
     }
 
     /**
@@ -272,8 +643,14 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
      */
     @Override
     public void clear() {
-        for (int i = 0; i < spines.length(); i++) {
-            spines.set(i, null);
+        evictionLock.writeLock().lock();
+        try {
+            spines.clear();
+            residentSpineBytes.clear();
+            residentSpineCount.set(0);
+            residentBytes.set(0);
+        } finally {
+            evictionLock.writeLock().unlock();
         }
     }
 
@@ -294,12 +671,53 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         }
         int spineIndex = index / spineSize;
         int indexInSpine = index % spineSize;
-        this.changedSpineIndexes[spineIndex] = true;
-        return getSpine(spineIndex)
-                .accumulateAndGet(indexInSpine, x, accumulatorFunction);
+        long mutation = startMutation();
+        try {
+            E result = spineToMutate(spineIndex, mutation)
+                    .accumulateAndGet(indexInSpine, x, accumulatorFunction);
+            this.spines.markChanged(spineIndex);
+            return result;
+        } finally {
+            endMutation(mutation);
+        }
 
     }
 
+    /**
+     * Updates a mutable element in place, rather than replacing it, creating the element with the factory
+     * if absent. The spine is marked changed if the element was created, or the update returns true.
+     *
+     * @return the result of the update.
+     */
+    protected final boolean updateInPlace(int index, Supplier<E> factory, Predicate<E> update) {
+        if (index < 0) {
+            index = Integer.MAX_VALUE + index;
+        }
+        int spineIndex = index / spineSize;
+        int indexInSpine = index % spineSize;
+        long mutation = startMutation();
+        try {
+            AtomicReferenceArray<E> spine = spineToMutate(spineIndex, mutation);
+            E element = spine.get(indexInSpine);
+            boolean created = false;
+            if (element == null) {
+                E newElement = factory.get();
+                element = spine.compareAndExchange(indexInSpine, null, newElement);
+                if (element == null) {
+                    element = newElement;
+                    created = true;
+                }
+            }
+            boolean updated = update.test(element);
+            if (created || updated) {
+                this.spines.markChanged(spineIndex);
+            }
+            return updated;
+        } finally {
+            endMutation(mutation);
+        }
+    }
+
     public final void forEachParallel(ObjIntConsumer<E> consumer) throws ExecutionException, InterruptedException {
         int currentSpineCount = this.spineCount.get();
         ArrayList<Future<?>> futures = new ArrayList<>(currentSpineCount);
@@ -333,6 +751,118 @@ public class SpinedIntObjectMap<E> implements IntObjectMap<E> {
         return this.spines.get(spineIndex) != null;
     }
 
+    private AtomicReferenceArray<E> copyOf(AtomicReferenceArray<E> spine) {
+        AtomicReferenceArray<E> copy = new AtomicReferenceArray<>(spine.length());
+        for (int indexInSpine = 0; indexInSpine < spine.length(); indexInSpine++) {
+            copy.setPlain(indexInSpine, spine.get(indexInSpine));
+        }
+        return copy;
+    }
+
+    /**
+     * Read only view of the map at the time {@link #snapshot()} was called. Reads of a spine that has not
+     * changed since go to the map, and reads of a spine that has changed go to the copy the first mutation
+     * of the spine made for the snapshot.
+     */
+    public class Snapshot implements AutoCloseable {
+        private final int epoch;
+        private final ConcurrentHashMap<Integer, AtomicReferenceArray<E>> preservedSpines = new ConcurrentHashMap<>();
+        private volatile boolean ready;
+        private int spineCount;
+
+        private Snapshot(int epoch) {
+            this.epoch = epoch;
+        }
+
+        private void open(int spineCount) {
+            this.spineCount = spineCount;
+            this.ready = true;
+        }
+
+        /**
+         * Copies the spine, before it is mutated, if the snapshot does not have a copy. Mutations of an earlier
+         * epoch complete before the snapshot is opened, so are seen by the snapshot, and do not copy. Mutations
+         * of the snapshot's epoch, or a later one, wait for the snapshot to open before copying, so the copy
+         * includes every mutation of an earlier epoch.
+         */
+        private void preserve(int spineIndex, AtomicReferenceArray<E> spine, int mutationEpoch) {
+            if (mutationEpoch - epoch < 0 || preservedSpines.containsKey(spineIndex)) {
+                return;
+            }
+            while (!ready) {
+                Thread.onSpinWait();
+            }
+            if (spineIndex < spineCount) {
+                preservedSpines.computeIfAbsent(spineIndex, key -> copyOf(spine));
+            }
+        }
+
+        /**
+         * @return the element at the index when the snapshot was opened.
+         */
+        public E get(int index) {
+            index = indexToSpineIndex(index);
+            int spineIndex = index / spineSize;
+            int indexInSpine = index % spineSize;
+            if (spineIndex >= spineCount) {
+                return null;
+            }
+            AtomicReferenceArray<E> preserved = preservedSpines.get(spineIndex);
+            if (preserved != null) {
+                return preserved.get(indexInSpine);
+            }
+            E element = elementAt(spineIndex, indexInSpine);
+            // A spine is copied before it is mutated, so if the element read was mutated, the copy is found.
+            preserved = preservedSpines.get(spineIndex);
+            return preserved == null ? element : preserved.get(indexInSpine);
+        }
+
+        private int forEachOnSpine(ObjIntConsumer<E> consumer, int spineIndex) {
+            AtomicReferenceArray<E> spine = preservedSpines.get(spineIndex);
+            if (spine == null) {
+                AtomicReferenceArray<E> liveCopy = copyOf(getSpine(spineIndex));
+                spine = preservedSpines.get(spineIndex);
+                if (spine == null) {
+                    spine = liveCopy;
+                }
+            }
+            return SpinedIntObjectMap.this.forEachOnSpine(consumer, spine, spineIndex);
+        }
+
+        public void forEach(ObjIntConsumer<E> consumer) {
+            for (int spineIndex = 0; spineIndex < spineCount; spineIndex++) {
+                forEachOnSpine(consumer, spineIndex);
+            }
+        }
+
+        public void forEachParallel(ObjIntConsumer<E> consumer) throws ExecutionException, InterruptedException {
+            ArrayList<Future<?>> futures = new ArrayList<>(spineCount);
+            for (int spineIndex = 0; spineIndex < spineCount; spineIndex++) {
+                final int indexToProcess = spineIndex;
+                futures.add(Executor.threadPool().submit(() -> forEachOnSpine(consumer, indexToProcess)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        /**
+         * @return the number of spines copied for the snapshot.
+         */
+        public int preservedSpineCount() {
+            return preservedSpines.size();
+        }
+
+        /**
+         * Closes the snapshot, so mutations stop copying spines for it, and releases the copies.
+         */
+        @Override
+        public void close() {
+            closeSnapshot(this);
+            preservedSpines.clear();
+        }
+    }
+
     /**
      * The Class SpliteratorSupplier.
      */
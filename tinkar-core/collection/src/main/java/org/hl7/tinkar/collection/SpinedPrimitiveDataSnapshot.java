@@ -0,0 +1,96 @@
+package org.hl7.tinkar.collection;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.common.service.PrimitiveDataSnapshot;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Snapshot of a data service that holds its entities in a {@link SpinedIntObjectMap}. Entities are read from
+ * a snapshot of the map. The nid sets and citations are read from the service, and only nids with an entity
+ * in the snapshot are passed on, so they agree with the entities of the snapshot, provided the service adds a
+ * nid to its sets and citations before it puts the nid's entity in the map.
+ */
+public class SpinedPrimitiveDataSnapshot implements PrimitiveDataSnapshot {
+    private final PrimitiveDataService service;
+    private final SpinedIntObjectMap<byte[]>.Snapshot entities;
+    private final long writeSequence;
+
+    /**
+     * Opens a snapshot of the entity map of the service.
+     */
+    public SpinedPrimitiveDataSnapshot(PrimitiveDataService service, SpinedIntObjectMap<byte[]> entityMap) {
+        this.service = service;
+        this.entities = entityMap.snapshot();
+        this.writeSequence = service.writeSequence();
+    }
+
+    private IntProcedure inSnapshot(IntProcedure procedure) {
+        return nid -> {
+            if (entities.get(nid) != null) {
+                procedure.value(nid);
+            }
+        };
+    }
+
+    @Override
+    public long writeSequence() {
+        return writeSequence;
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        return entities.get(nid);
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        entities.forEach(action);
+    }
+
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        try {
+            entities.forEachParallel(action);
+        } catch (ExecutionException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        service.forEachSemanticNidOfPattern(patternNid, inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        service.forEachPatternNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        service.forEachConceptNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        service.forEachStampNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        service.forEachSemanticNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        service.forEachSemanticNidForComponent(componentNid, inSnapshot(procedure));
+    }
+
+    @Override
+    public void close() {
+        entities.close();
+    }
+}
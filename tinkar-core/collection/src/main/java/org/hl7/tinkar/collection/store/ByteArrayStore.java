@@ -14,4 +14,10 @@ public interface ByteArrayStore {
         int getSpineCount();
 
         void writeSpineCount(int spineCount);
+
+        /**
+         * Makes the spines put since the last flush, and the spine count, durable.
+         */
+        default void flush() {
+        }
 }
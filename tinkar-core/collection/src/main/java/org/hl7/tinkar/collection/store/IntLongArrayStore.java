@@ -13,4 +13,10 @@ public interface IntLongArrayStore {
     int getSpineCount();
 
     void writeSpineCount(int spineCount);
+
+    /**
+     * Makes the spines put since the last flush, and the spine count, durable.
+     */
+    default void flush() {
+    }
 }
@@ -0,0 +1,15 @@
+package org.hl7.tinkar.collection.store;
+
+/**
+ * Implemented by stores that can read a single element directly from storage, without
+ * reading the rest of the spine that contains it.
+ *
+ * @param <E> the element type.
+ */
+public interface SpineElementReader<E> {
+
+    /**
+     * @return the element, or null if the element, or its spine, is not in the store.
+     */
+    E getElement(int spineIndex, int indexInSpine);
+}
@@ -0,0 +1,168 @@
+package org.hl7.tinkar.collection;
+
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.hl7.tinkar.collection.store.IntLongArrayStore;
+import org.hl7.tinkar.common.util.ints2long.IntsInLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JUnit test for {@link AppendOnlyLongList} and {@link SpinedIntLongListMap}.
+ */
+public class AppendOnlyLongListTest {
+
+    @Test
+    public void addInOrderWithoutDuplicates() {
+        AppendOnlyLongList list = new AppendOnlyLongList();
+        for (long i = 0; i < 1000; i++) {
+            Assertions.assertTrue(list.add(i * 7));
+        }
+        for (long i = 0; i < 1000; i++) {
+            Assertions.assertFalse(list.add(i * 7));
+        }
+        Assertions.assertEquals(1000, list.size());
+        long[] values = list.toArray();
+        for (int i = 0; i < values.length; i++) {
+            Assertions.assertEquals(i * 7L, values[i]);
+        }
+        Assertions.assertTrue(list.contains(999 * 7L));
+        Assertions.assertFalse(list.contains(3));
+    }
+
+    @Test
+    public void addToInitialValues() {
+        AppendOnlyLongList list = new AppendOnlyLongList(new long[]{5, 3});
+        Assertions.assertFalse(list.add(3));
+        Assertions.assertTrue(list.add(4));
+        Assertions.assertArrayEquals(new long[]{5, 3, 4}, list.toArray());
+    }
+
+    @Test
+    public void firstIntsBySecondInt() {
+        AppendOnlyLongList list = new AppendOnlyLongList();
+        // Enough values that the index is built, with patterns interleaved.
+        for (int nid = 0; nid < 200; nid++) {
+            list.add(IntsInLong.ints2Long(nid, nid % 3 - 1));
+        }
+        int[] firstInts = list.firstInts(-1);
+        Assertions.assertEquals(67, firstInts.length);
+        for (int i = 0; i < firstInts.length; i++) {
+            Assertions.assertEquals(i * 3, firstInts[i]);
+        }
+        Assertions.assertEquals(0, list.firstInts(7).length);
+        // Values added after the index was built are found by scanning.
+        list.add(IntsInLong.ints2Long(1000, 7));
+        list.add(IntsInLong.ints2Long(1001, -1));
+        Assertions.assertArrayEquals(new int[]{1000}, list.firstInts(7));
+        Assertions.assertEquals(1001, list.firstInts(-1)[67]);
+        MutableIntList forEachFirstInts = IntLists.mutable.empty();
+        list.forEachFirstInt(1, forEachFirstInts::add);
+        Assertions.assertArrayEquals(list.firstInts(1), forEachFirstInts.toArray());
+        Assertions.assertEquals(66, forEachFirstInts.size());
+    }
+
+    @Test
+    public void concurrentAddsAndReads() throws Exception {
+        AppendOnlyLongList list = new AppendOnlyLongList();
+        int threads = 4;
+        int valuesPerThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        AtomicBoolean adding = new AtomicBoolean(true);
+        try {
+            Future<?> reader = executor.submit(() -> {
+                while (adding.get()) {
+                    int size = list.size();
+                    long[] count = new long[1];
+                    list.forEach(value -> count[0]++);
+                    Assertions.assertTrue(count[0] >= size);
+                }
+            });
+            ArrayList<Future<?>> adders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                adders.add(executor.submit(() -> {
+                    // Every thread adds the same values, so each value is added once.
+                    for (long value = 0; value < valuesPerThread; value++) {
+                        list.add(value);
+                    }
+                }));
+            }
+            for (Future<?> adder : adders) {
+                adder.get();
+            }
+            adding.set(false);
+            reader.get();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        Assertions.assertEquals(valuesPerThread, list.size());
+        long[] sorted = list.toArray();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            Assertions.assertEquals(i, sorted[i]);
+        }
+    }
+
+    @Test
+    public void mapWritesAndReadsLists() {
+        MemoryStore store = new MemoryStore();
+        SpinedIntLongListMap map = new SpinedIntLongListMap(store);
+        int firstNid = Integer.MIN_VALUE + 1;
+        Assertions.assertTrue(map.add(firstNid, 10));
+        Assertions.assertTrue(map.add(firstNid, 11));
+        Assertions.assertFalse(map.add(firstNid, 10));
+        Assertions.assertTrue(map.add(firstNid + 20_000, 12));
+        Assertions.assertTrue(map.write());
+        Assertions.assertFalse(map.write());
+
+        SpinedIntLongListMap readMap = new SpinedIntLongListMap(store);
+        Assertions.assertArrayEquals(new long[]{10, 11}, readMap.getArray(firstNid));
+        Assertions.assertArrayEquals(new long[]{12}, readMap.getArray(firstNid + 20_000));
+        Assertions.assertNull(readMap.getArray(firstNid + 1));
+        Assertions.assertTrue(readMap.add(firstNid, 13));
+        Assertions.assertTrue(readMap.write());
+        Assertions.assertArrayEquals(new long[]{10, 11, 13}, store.spines.get(0).get(0));
+    }
+
+    private static class MemoryStore implements IntLongArrayStore {
+        final HashMap<Integer, AtomicReferenceArray<long[]>> spines = new HashMap<>();
+        int spineCount;
+
+        @Override
+        public synchronized Optional<AtomicReferenceArray<long[]>> get(int spineIndex) {
+            return Optional.ofNullable(spines.get(spineIndex));
+        }
+
+        @Override
+        public synchronized void put(int spineIndex, AtomicReferenceArray<long[]> spine) {
+            spines.put(spineIndex, spine);
+        }
+
+        @Override
+        public int sizeOnDisk() {
+            return 0;
+        }
+
+        @Override
+        public int getSpineCount() {
+            return spineCount;
+        }
+
+        @Override
+        public void writeSpineCount(int spineCount) {
+            this.spineCount = spineCount;
+        }
+    }
+}
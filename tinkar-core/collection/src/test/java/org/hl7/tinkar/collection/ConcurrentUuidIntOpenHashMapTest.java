@@ -0,0 +1,120 @@
+package org.hl7.tinkar.collection;
+
+import org.eclipse.collections.api.factory.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for {@link ConcurrentUuidIntOpenHashMap}.
+ */
+public class ConcurrentUuidIntOpenHashMapTest {
+
+    private static UUID[] uuids(int count) {
+        UUID[] uuids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            uuids[i] = UUID.randomUUID();
+        }
+        return uuids;
+    }
+
+    @Test
+    public void putAndGet() {
+        ConcurrentUuidIntOpenHashMap map = new ConcurrentUuidIntOpenHashMap(4);
+        UUID[] keys = uuids(10_000);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        Assertions.assertEquals(keys.length, map.size());
+        for (int i = 0; i < keys.length; i++) {
+            Assertions.assertEquals(i, map.get(keys[i]));
+        }
+        Assertions.assertEquals(ConcurrentUuidIntOpenHashMap.NO_VALUE, map.get(UUID.randomUUID()));
+        map.put(keys[0], -5);
+        Assertions.assertEquals(-5, map.get(keys[0]));
+        Assertions.assertEquals(keys.length, map.size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map.put(keys[1], ConcurrentUuidIntOpenHashMap.NO_VALUE));
+        map.clear();
+        Assertions.assertTrue(map.isEmpty());
+        Assertions.assertFalse(map.containsKey(keys[1]));
+    }
+
+    @Test
+    public void concurrentGetIfAbsentPut() throws Exception {
+        ConcurrentUuidIntOpenHashMap map = new ConcurrentUuidIntOpenHashMap();
+        UUID[] keys = uuids(100_000);
+        AtomicInteger nextValue = new AtomicInteger();
+        int threadCount = 8;
+        int[][] results = new int[threadCount][keys.length];
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threadCount; thread++) {
+                final int[] threadResults = results[thread];
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < keys.length; i++) {
+                        threadResults[i] = map.getIfAbsentPut(keys[i], nextValue::getAndIncrement);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        // Every thread must see the same value, and the supplier must be called once per key.
+        Assertions.assertEquals(keys.length, map.size());
+        Assertions.assertEquals(keys.length, nextValue.get());
+        for (int i = 0; i < keys.length; i++) {
+            for (int thread = 1; thread < threadCount; thread++) {
+                Assertions.assertEquals(results[0][i], results[thread][i]);
+            }
+            Assertions.assertEquals(results[0][i], map.get(keys[i]));
+        }
+    }
+
+    @Test
+    public void nidForUuids() {
+        ConcurrentUuidIntOpenHashMap map = new ConcurrentUuidIntOpenHashMap();
+        AtomicInteger nextNid = new AtomicInteger(Integer.MIN_VALUE + 1);
+        UUID[] keys = uuids(3);
+        int nid = map.nidForUuids(nextNid::getAndIncrement, keys[0]);
+        Assertions.assertEquals(nid, map.nidForUuids(nextNid::getAndIncrement, keys[1], keys[0]));
+        Assertions.assertEquals(nid, map.nidForUuids(nextNid::getAndIncrement, Lists.immutable.of(keys[2], keys[1])));
+        Assertions.assertEquals(nid, map.get(keys[2]));
+        int otherNid = map.nidForUuids(nextNid::getAndIncrement, UUID.randomUUID());
+        Assertions.assertNotEquals(nid, otherNid);
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        ConcurrentUuidIntOpenHashMap map = new ConcurrentUuidIntOpenHashMap();
+        UUID[] keys = uuids(200_000);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i - 100_000);
+        }
+        Path file = Files.createTempFile("uuid-int-map", ".bin");
+        try {
+            map.write(file);
+            ConcurrentUuidIntOpenHashMap readMap = ConcurrentUuidIntOpenHashMap.read(file);
+            Assertions.assertEquals(map.size(), readMap.size());
+            for (int i = 0; i < keys.length; i++) {
+                Assertions.assertEquals(i - 100_000, readMap.get(keys[i]));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
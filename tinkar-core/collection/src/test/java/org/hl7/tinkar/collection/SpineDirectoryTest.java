@@ -0,0 +1,113 @@
+package org.hl7.tinkar.collection;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JUnit test for {@link SpineDirectory}.
+ */
+public class SpineDirectoryTest {
+    private static final int PAGE_SIZE = 64;
+
+    private static AtomicReferenceArray<Integer> spine(int value) {
+        AtomicReferenceArray<Integer> spine = new AtomicReferenceArray<>(1);
+        spine.set(0, value);
+        return spine;
+    }
+
+    @Test
+    public void directoryGrowsByPages() {
+        SpineDirectory<Integer> directory = new SpineDirectory<>(0);
+        AtomicReferenceArray<Integer> firstSpine = spine(0);
+        Assertions.assertTrue(directory.compareAndSet(0, null, firstSpine));
+        // Beyond the pages of the directory, read without growing it.
+        Assertions.assertNull(directory.get(PAGE_SIZE * 10));
+        Assertions.assertFalse(directory.isChanged(PAGE_SIZE * 10));
+        Assertions.assertFalse(directory.getAndClearChanged(PAGE_SIZE * 10));
+
+        // Spines on pages added as the directory grows, and the spines of the first page are kept.
+        for (int spineIndex = 1; spineIndex < PAGE_SIZE * 10; spineIndex += 7) {
+            Assertions.assertTrue(directory.compareAndSet(spineIndex, null, spine(spineIndex)));
+        }
+        Assertions.assertSame(firstSpine, directory.get(0));
+        for (int spineIndex = 1; spineIndex < PAGE_SIZE * 10; spineIndex++) {
+            AtomicReferenceArray<Integer> spine = directory.get(spineIndex);
+            if ((spineIndex - 1) % 7 == 0) {
+                Assertions.assertEquals(spineIndex, spine.get(0));
+            } else {
+                Assertions.assertNull(spine);
+            }
+        }
+        Assertions.assertFalse(directory.compareAndSet(0, null, spine(1)));
+        Assertions.assertFalse(directory.remove(0, spine(0)));
+        Assertions.assertTrue(directory.remove(0, firstSpine));
+        Assertions.assertNull(directory.get(0));
+        Assertions.assertEquals(7, directory.updateAndGet(0, spine -> spine == null ? spine(7) : spine).get(0));
+    }
+
+    @Test
+    public void changedMarksArePerSpine() {
+        SpineDirectory<Integer> directory = new SpineDirectory<>(PAGE_SIZE);
+        int[] changedSpines = {0, PAGE_SIZE - 1, PAGE_SIZE, PAGE_SIZE * 3 + 5};
+        for (int spineIndex : changedSpines) {
+            directory.markChanged(spineIndex);
+        }
+        for (int spineIndex : changedSpines) {
+            Assertions.assertTrue(directory.isChanged(spineIndex));
+        }
+        Assertions.assertFalse(directory.isChanged(1));
+        Assertions.assertFalse(directory.isChanged(PAGE_SIZE * 3 + 4));
+
+        // Removing the spines from memory keeps their marks, so they are still written.
+        directory.updateAndGet(0, spine -> spine(0));
+        directory.clear();
+        Assertions.assertNull(directory.get(0));
+        Assertions.assertTrue(directory.isChanged(0));
+
+        for (int spineIndex : changedSpines) {
+            Assertions.assertTrue(directory.getAndClearChanged(spineIndex));
+            Assertions.assertFalse(directory.getAndClearChanged(spineIndex));
+            Assertions.assertFalse(directory.isChanged(spineIndex));
+        }
+
+        directory.markAccessed(1);
+        Assertions.assertTrue(directory.getAndClearAccessed(1));
+        Assertions.assertFalse(directory.getAndClearAccessed(1));
+        Assertions.assertFalse(directory.isChanged(1));
+    }
+
+    @Test
+    public void concurrentMarksOnOnePageAreKept() throws Exception {
+        SpineDirectory<Integer> directory = new SpineDirectory<>(0);
+        int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            Future<?>[] markers = new Future<?>[threadCount];
+            for (int thread = 0; thread < threadCount; thread++) {
+                final int offset = thread;
+                markers[thread] = executor.submit(() -> {
+                    // Each thread marks every eighth spine of the first pages, so every page mask is shared.
+                    for (int spineIndex = offset; spineIndex < PAGE_SIZE * 4; spineIndex += threadCount) {
+                        directory.markChanged(spineIndex);
+                    }
+                });
+            }
+            for (Future<?> marker : markers) {
+                marker.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        for (int spineIndex = 0; spineIndex < PAGE_SIZE * 4; spineIndex++) {
+            Assertions.assertTrue(directory.getAndClearChanged(spineIndex), "Lost mark: " + spineIndex);
+        }
+        Assertions.assertFalse(directory.isChanged(PAGE_SIZE * 4));
+    }
+}
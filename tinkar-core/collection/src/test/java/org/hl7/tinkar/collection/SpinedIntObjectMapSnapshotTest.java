@@ -0,0 +1,96 @@
+package org.hl7.tinkar.collection;
+
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for {@link SpinedIntObjectMap.Snapshot}.
+ */
+public class SpinedIntObjectMapSnapshotTest {
+    private static final int FIRST_NID = PrimitiveDataService.FIRST_NID;
+    private static final int NID_COUNT = SpinedIntObjectMap.DEFAULT_SPINE_SIZE * 3;
+
+    private static SpinedIntObjectMap<Integer> filledMap() {
+        SpinedIntObjectMap<Integer> map = new SpinedIntObjectMap<>(0);
+        for (int i = 0; i < NID_COUNT; i++) {
+            map.put(FIRST_NID + i, 0);
+        }
+        return map;
+    }
+
+    @Test
+    public void snapshotDoesNotSeeLaterMutations() {
+        SpinedIntObjectMap<Integer> map = filledMap();
+        try (SpinedIntObjectMap<Integer>.Snapshot snapshot = map.snapshot()) {
+            map.put(FIRST_NID, 1);
+            map.accumulateAndGet(FIRST_NID + NID_COUNT - 1, 1, Integer::sum);
+            // A new spine, beyond the spines of the snapshot.
+            map.put(FIRST_NID + NID_COUNT + SpinedIntObjectMap.DEFAULT_SPINE_SIZE, 1);
+
+            Assertions.assertEquals(0, snapshot.get(FIRST_NID));
+            Assertions.assertEquals(0, snapshot.get(FIRST_NID + NID_COUNT - 1));
+            Assertions.assertNull(snapshot.get(FIRST_NID + NID_COUNT + SpinedIntObjectMap.DEFAULT_SPINE_SIZE));
+            Assertions.assertEquals(1, map.get(FIRST_NID));
+            Assertions.assertEquals(2, snapshot.preservedSpineCount());
+
+            AtomicInteger count = new AtomicInteger();
+            snapshot.forEach((value, nid) -> {
+                Assertions.assertEquals(0, value);
+                count.incrementAndGet();
+            });
+            Assertions.assertEquals(NID_COUNT, count.get());
+            Assertions.assertEquals(1, map.openSnapshotCount());
+        }
+        Assertions.assertEquals(0, map.openSnapshotCount());
+        map.put(FIRST_NID + 1, 1);
+        Assertions.assertEquals(1, map.get(FIRST_NID + 1));
+    }
+
+    @Test
+    public void scanDuringConcurrentMutations() throws Exception {
+        SpinedIntObjectMap<Integer> map = filledMap();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean stop = new AtomicBoolean();
+        try {
+            Future<?>[] writers = new Future<?>[4];
+            for (int writer = 0; writer < writers.length; writer++) {
+                final int offset = writer;
+                writers[writer] = executor.submit(() -> {
+                    int i = offset;
+                    while (!stop.get()) {
+                        map.accumulateAndGet(FIRST_NID + (i % NID_COUNT), 1, Integer::sum);
+                        i += 4;
+                    }
+                });
+            }
+            for (int scan = 0; scan < 20; scan++) {
+                try (SpinedIntObjectMap<Integer>.Snapshot snapshot = map.snapshot()) {
+                    int[] first = new int[NID_COUNT];
+                    snapshot.forEach((value, nid) -> first[nid - FIRST_NID] = value);
+                    Thread.yield();
+                    snapshot.forEach((value, nid) -> Assertions.assertEquals(first[nid - FIRST_NID], value));
+                    for (int i = 0; i < NID_COUNT; i += 101) {
+                        Assertions.assertEquals(first[i], snapshot.get(FIRST_NID + i));
+                    }
+                }
+            }
+            stop.set(true);
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            stop.set(true);
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        Assertions.assertEquals(0, map.openSnapshotCount());
+    }
+}
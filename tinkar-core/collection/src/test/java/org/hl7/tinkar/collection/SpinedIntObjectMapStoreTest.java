@@ -0,0 +1,311 @@
+package org.hl7.tinkar.collection;
+
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JUnit test for the spines of a {@link SpinedIntObjectMap} that are read from, and written to, a store.
+ */
+public class SpinedIntObjectMapStoreTest {
+    private static final int FIRST_NID = PrimitiveDataService.FIRST_NID;
+    private static final int SPINE_SIZE = SpinedIntObjectMap.DEFAULT_SPINE_SIZE;
+    private static final int STORED_SPINE_COUNT = 6;
+
+    private static int nid(int spineIndex, int indexInSpine) {
+        return FIRST_NID + spineIndex * SPINE_SIZE + indexInSpine;
+    }
+
+    private static int value(int spineIndex, int indexInSpine) {
+        return spineIndex * SPINE_SIZE + indexInSpine;
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void spineIsReadOnceByConcurrentRequests() throws Exception {
+        StoredMap map = new StoredMap();
+        CountDownLatch firstSpineRequested = new CountDownLatch(1);
+        CountDownLatch releaseFirstSpine = new CountDownLatch(1);
+        map.beforeRead = spineIndex -> {
+            if (spineIndex == 0) {
+                firstSpineRequested.countDown();
+                await(releaseFirstSpine);
+            }
+        };
+        int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount + 1);
+        try {
+            Future<?>[] readers = new Future<?>[threadCount];
+            for (int thread = 0; thread < threadCount; thread++) {
+                final int indexInSpine = thread;
+                readers[thread] = executor.submit(() ->
+                        Assertions.assertEquals(value(0, indexInSpine), map.get(nid(0, indexInSpine))));
+            }
+            Assertions.assertTrue(firstSpineRequested.await(10, TimeUnit.SECONDS));
+            // Another spine is loaded while the first is still being read.
+            Assertions.assertEquals(value(1, 5), executor.submit(() -> map.get(nid(1, 5))).get(10, TimeUnit.SECONDS));
+            Assertions.assertFalse(map.containsSpine(0));
+
+            releaseFirstSpine.countDown();
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            shutdown(executor);
+        }
+        Assertions.assertEquals(1, map.readCount(0));
+        Assertions.assertEquals(1, map.readCount(1));
+        Assertions.assertEquals(2, map.spineMisses());
+        Assertions.assertTrue(map.containsSpine(0));
+    }
+
+    @Test
+    public void failedReadIsRetried() {
+        StoredMap map = new StoredMap();
+        AtomicInteger failures = new AtomicInteger(1);
+        map.beforeRead = spineIndex -> {
+            if (spineIndex == 2 && failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Read failed: " + spineIndex);
+            }
+        };
+        Assertions.assertThrows(IllegalStateException.class, () -> map.get(nid(2, 0)));
+        Assertions.assertFalse(map.containsSpine(2));
+        // The failed load is not left in place, so the next request reads the spine again.
+        Assertions.assertEquals(value(2, 0), map.get(nid(2, 0)));
+        Assertions.assertEquals(2, map.readCount(2));
+    }
+
+    @Test
+    public void spinesBeyondTheStoreAreCreated() {
+        StoredMap map = new StoredMap();
+        int newSpineIndex = STORED_SPINE_COUNT + 2;
+        Assertions.assertNull(map.get(nid(newSpineIndex, 0)));
+        map.put(nid(newSpineIndex, 1), 1);
+        Assertions.assertEquals(1, map.get(nid(newSpineIndex, 1)));
+        Assertions.assertEquals(newSpineIndex + 1, map.getSpineCount());
+        Assertions.assertEquals(0, map.readCount(newSpineIndex));
+    }
+
+    @Test
+    public void clockEvictsSpinesNotAccessedSinceItPassed() {
+        StoredMap map = new StoredMap();
+        map.setMaxResidentSpines(2);
+        map.get(nid(0, 0));
+        map.get(nid(1, 0));
+        Assertions.assertEquals(2, map.residentSpineCount());
+        // Accessed again, so the clock passes it once, and evicts the next spine instead.
+        map.get(nid(0, 1));
+        map.get(nid(2, 0));
+        Assertions.assertEquals(2, map.residentSpineCount());
+        Assertions.assertTrue(map.containsSpine(0));
+        Assertions.assertFalse(map.containsSpine(1));
+        Assertions.assertTrue(map.containsSpine(2));
+        Assertions.assertEquals(1, map.spineEvictions());
+
+        // An evicted spine is read again on demand.
+        Assertions.assertEquals(value(1, 7), map.get(nid(1, 7)));
+        Assertions.assertEquals(2, map.readCount(1));
+        Assertions.assertEquals(2, map.residentSpineCount());
+    }
+
+    @Test
+    public void changedSpinesStayUntilWritten() {
+        StoredMap map = new StoredMap();
+        map.setMaxResidentSpines(1);
+        map.put(nid(0, 0), -1);
+        map.put(nid(1, 0), -2);
+        for (int spineIndex = 2; spineIndex < STORED_SPINE_COUNT; spineIndex++) {
+            Assertions.assertEquals(value(spineIndex, 0), map.get(nid(spineIndex, 0)));
+        }
+        // Over the limit, since changed spines are not evicted, and clean spines are.
+        Assertions.assertTrue(map.containsSpine(0));
+        Assertions.assertTrue(map.containsSpine(1));
+        Assertions.assertTrue(map.residentSpineCount() <= 3);
+        Assertions.assertEquals(-1, map.get(nid(0, 0)));
+
+        Assertions.assertTrue(map.forEachChangedSpine(map::write));
+        Assertions.assertEquals(1, map.residentSpineCount());
+        for (int spineIndex = 0; spineIndex < STORED_SPINE_COUNT; spineIndex++) {
+            map.get(nid(spineIndex, 1));
+        }
+        Assertions.assertEquals(1, map.residentSpineCount());
+        Assertions.assertFalse(map.containsSpine(0));
+        // Read from the store, with the values written.
+        Assertions.assertEquals(-1, map.get(nid(0, 0)));
+        Assertions.assertEquals(-2, map.get(nid(1, 0)));
+        Assertions.assertEquals(value(1, 1), map.get(nid(1, 1)));
+    }
+
+    @Test
+    public void residentBytesAreBounded() {
+        StoredMap map = new StoredMap();
+        map.get(nid(0, 0));
+        long spineBytes = map.residentBytes();
+        Assertions.assertTrue(spineBytes > 0);
+        map.setMaxResidentBytes(spineBytes * 3);
+        for (int spineIndex = 0; spineIndex < STORED_SPINE_COUNT; spineIndex++) {
+            Assertions.assertEquals(value(spineIndex, 3), map.get(nid(spineIndex, 3)));
+            Assertions.assertTrue(map.residentBytes() <= spineBytes * 3);
+        }
+        Assertions.assertEquals(3, map.residentSpineCount());
+        Assertions.assertEquals(STORED_SPINE_COUNT - 3, map.spineEvictions());
+    }
+
+    @Test
+    public void changedSpinesAreWrittenInParallel() throws Exception {
+        StoredMap map = new StoredMap();
+        int changedSpineCount = 4;
+        for (int spineIndex = 0; spineIndex < changedSpineCount; spineIndex++) {
+            map.put(nid(spineIndex, 0), -spineIndex);
+        }
+        CountDownLatch allWriting = new CountDownLatch(changedSpineCount);
+        ExecutorService executor = Executors.newFixedThreadPool(changedSpineCount);
+        try {
+            // Each write waits until every changed spine is being written.
+            Assertions.assertTrue(map.forEachChangedSpine((spine, spineIndex) -> {
+                allWriting.countDown();
+                await(allWriting);
+                map.write(spine, spineIndex);
+            }, executor));
+            Assertions.assertFalse(map.forEachChangedSpine(map::write, executor));
+        } finally {
+            shutdown(executor);
+        }
+        for (int spineIndex = 0; spineIndex < changedSpineCount; spineIndex++) {
+            Assertions.assertEquals(-spineIndex, map.store.get(spineIndex).get(0));
+        }
+        Assertions.assertEquals(value(changedSpineCount, 0), map.store.get(changedSpineCount).get(0));
+    }
+
+    @Test
+    public void spineChangedWhileWrittenIsWrittenAgain() throws Exception {
+        StoredMap map = new StoredMap();
+        map.put(nid(0, 0), -1);
+        map.put(nid(1, 0), -1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Assertions.assertTrue(map.forEachChangedSpine((spine, spineIndex) -> {
+                map.write(spine, spineIndex);
+                if (spineIndex == 0) {
+                    map.put(nid(0, 1), -2);
+                }
+            }, executor));
+            ConcurrentHashMap.KeySetView<Integer, Boolean> writtenSpines = ConcurrentHashMap.newKeySet();
+            Assertions.assertTrue(map.forEachChangedSpine((spine, spineIndex) -> {
+                map.write(spine, spineIndex);
+                writtenSpines.add(spineIndex);
+            }, executor));
+            Assertions.assertEquals(Set.of(0), writtenSpines);
+            Assertions.assertEquals(-2, map.store.get(0).get(1));
+        } finally {
+            shutdown(executor);
+        }
+    }
+
+    @Test
+    public void failedWriteLeavesSpineChanged() throws Exception {
+        StoredMap map = new StoredMap();
+        for (int spineIndex = 0; spineIndex < 3; spineIndex++) {
+            map.put(nid(spineIndex, 0), -1);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            IllegalStateException failure = Assertions.assertThrows(IllegalStateException.class, () ->
+                    map.forEachChangedSpine((spine, spineIndex) -> {
+                        if (spineIndex == 1) {
+                            throw new IllegalStateException("Write failed: " + spineIndex);
+                        }
+                        map.write(spine, spineIndex);
+                    }, executor));
+            Assertions.assertEquals("Write failed: 1", failure.getMessage());
+            // The other spines were written, and only the failed spine is written again.
+            Assertions.assertEquals(-1, map.store.get(0).get(0));
+            Assertions.assertEquals(-1, map.store.get(2).get(0));
+            Assertions.assertEquals(value(1, 0), map.store.get(1).get(0));
+            ConcurrentHashMap.KeySetView<Integer, Boolean> writtenSpines = ConcurrentHashMap.newKeySet();
+            Assertions.assertTrue(map.forEachChangedSpine((spine, spineIndex) -> {
+                map.write(spine, spineIndex);
+                writtenSpines.add(spineIndex);
+            }, executor));
+            Assertions.assertEquals(Set.of(1), writtenSpines);
+            Assertions.assertEquals(-1, map.store.get(1).get(0));
+        } finally {
+            shutdown(executor);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out");
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ReadHook {
+        void beforeRead(int spineIndex);
+    }
+
+    /**
+     * Map of {@link #STORED_SPINE_COUNT} stored spines, where each element holds its index in the map.
+     */
+    private static class StoredMap extends SpinedIntObjectMap<Integer> {
+        final ConcurrentHashMap<Integer, AtomicReferenceArray<Integer>> store = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Integer, AtomicInteger> readCounts = new ConcurrentHashMap<>();
+        volatile ReadHook beforeRead = spineIndex -> {
+        };
+
+        StoredMap() {
+            super(STORED_SPINE_COUNT);
+            for (int spineIndex = 0; spineIndex < STORED_SPINE_COUNT; spineIndex++) {
+                AtomicReferenceArray<Integer> spine = new AtomicReferenceArray<>(SPINE_SIZE);
+                for (int indexInSpine = 0; indexInSpine < SPINE_SIZE; indexInSpine++) {
+                    spine.set(indexInSpine, value(spineIndex, indexInSpine));
+                }
+                store.put(spineIndex, spine);
+            }
+        }
+
+        int readCount(int spineIndex) {
+            AtomicInteger readCount = readCounts.get(spineIndex);
+            return readCount == null ? 0 : readCount.get();
+        }
+
+        void write(AtomicReferenceArray<Integer> spine, int spineIndex) {
+            AtomicReferenceArray<Integer> copy = new AtomicReferenceArray<>(spine.length());
+            for (int indexInSpine = 0; indexInSpine < spine.length(); indexInSpine++) {
+                copy.set(indexInSpine, spine.get(indexInSpine));
+            }
+            store.put(spineIndex, copy);
+        }
+
+        @Override
+        protected AtomicReferenceArray<Integer> readSpine(int spineIndex) {
+            readCounts.computeIfAbsent(spineIndex, key -> new AtomicInteger()).incrementAndGet();
+            beforeRead.beforeRead(spineIndex);
+            AtomicReferenceArray<Integer> stored = store.get(spineIndex);
+            AtomicReferenceArray<Integer> spine = new AtomicReferenceArray<>(SPINE_SIZE);
+            for (int indexInSpine = 0; indexInSpine < SPINE_SIZE; indexInSpine++) {
+                spine.set(indexInSpine, stored.get(indexInSpine));
+            }
+            return spine;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.hl7.tinkar.common.service;
+
+import java.util.Arrays;
+
+/**
+ * Merges two serialized chronologies for {@link PrimitiveDataService#merge(byte[], byte[])}, comparing slices of
+ * the input arrays in place rather than copying each version.
+ * <p>
+ * A serialized chronology is an int count of arrays, followed by each array as an int size and that many bytes.
+ * The first array is the chronology, and ends with an int count of the versions. The following arrays are the
+ * versions, which start with a version token and the stamp nid.
+ * <p>
+ * The result holds the unique arrays of both inputs in lexicographic (signed byte) order. A version from the new
+ * bytes replaces a version from the old bytes with the same stamp, and concept, pattern, and semantic versions with
+ * a canceled stamp are removed. If the result would equal the old bytes, the old bytes are returned rather than
+ * rewritten.
+ */
+final class ChronologyMerger {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final byte[] oldBytes;
+    private final byte[] newBytes;
+    // Slices of the input arrays: the source array, the offset of the first byte after the size, the length,
+    // and for versions, the stamp nid.
+    private final boolean[] sliceInNew;
+    private final boolean[] sliceIsVersion;
+    private final int[] sliceOffset;
+    private final int[] sliceLength;
+    private final int[] sliceStamp;
+    private int sliceCount;
+
+    private ChronologyMerger(byte[] oldBytes, byte[] newBytes) {
+        this.oldBytes = oldBytes;
+        this.newBytes = newBytes;
+        int capacity = readInt(oldBytes, 0) + readInt(newBytes, 0);
+        this.sliceInNew = new boolean[capacity];
+        this.sliceIsVersion = new boolean[capacity];
+        this.sliceOffset = new int[capacity];
+        this.sliceLength = new int[capacity];
+        this.sliceStamp = new int[capacity];
+    }
+
+    static byte[] merge(byte[] oldBytes, byte[] newBytes) {
+        return new ChronologyMerger(oldBytes, newBytes).merge();
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) |
+                ((bytes[offset + 1] & 0xFF) << 16) |
+                ((bytes[offset + 2] & 0xFF) << 8) |
+                (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private byte[] source(int slice) {
+        return sliceInNew[slice] ? newBytes : oldBytes;
+    }
+
+    private int compare(int slice1, int slice2) {
+        return Arrays.compare(source(slice1), sliceOffset[slice1], sliceOffset[slice1] + sliceLength[slice1],
+                source(slice2), sliceOffset[slice2], sliceOffset[slice2] + sliceLength[slice2]);
+    }
+
+    private byte[] merge() {
+        // The newer bytes are added first, so their versions take precedence for a stamp.
+        int firstOldSlice = addSlices(newBytes, true);
+        int oldArrayCount = addSlices(oldBytes, false);
+
+        int[] order = new int[sliceCount];
+        int orderCount = retainFirstVersionOfEachStamp(order);
+        sort(order, new int[orderCount], 0, orderCount);
+
+        // Remove duplicates, keeping the old slice of an equal pair so an unchanged merge can be detected.
+        int uniqueCount = 0;
+        for (int i = 0; i < orderCount; i++) {
+            int slice = order[i];
+            if (uniqueCount > 0 && compare(order[uniqueCount - 1], slice) == 0) {
+                if (!sliceInNew[slice]) {
+                    order[uniqueCount - 1] = slice;
+                }
+            } else {
+                order[uniqueCount++] = slice;
+            }
+        }
+
+        // Remove canceled versions. Canceled versions of stamps are retained.
+        if (uniqueCount > 2) {
+            PrimitiveDataService primitiveDataService = null;
+            int retainedCount = 1;
+            for (int i = 1; i < uniqueCount; i++) {
+                int slice = order[i];
+                byte versionToken = source(slice)[sliceOffset[slice]];
+                boolean canceled = false;
+                switch (versionToken) {
+                    /*
+                        CONCEPT_VERSION((byte) 4, ConceptVersion.class),
+                        PATTERN_VERSION((byte) 5, PatternVersion.class),
+                        SEMANTIC_VERSION((byte) 6, SemanticVersion.class),
+                     */
+                    case 4, 5, 6 -> {
+                        if (primitiveDataService == null) {
+                            primitiveDataService = PrimitiveData.get();
+                        }
+                        canceled = primitiveDataService.isCanceledStampNid(readInt(source(slice), sliceOffset[slice] + 1));
+                    }
+                    default -> {
+                        // Leave all versions. Need to retain canceled version for stamps.
+                    }
+                }
+                if (!canceled) {
+                    order[retainedCount++] = slice;
+                }
+            }
+            uniqueCount = retainedCount;
+        }
+
+        // The old bytes are the result if every array of the old bytes is retained, in the order of the old bytes.
+        if (uniqueCount == oldArrayCount) {
+            boolean unchanged = true;
+            for (int i = 0; i < uniqueCount; i++) {
+                if (order[i] != firstOldSlice + i) {
+                    unchanged = false;
+                    break;
+                }
+            }
+            if (unchanged) {
+                return oldBytes;
+            }
+        }
+
+        // Array count, then each array with its size, and the version count after the chronology.
+        int mergedSize = Integer.BYTES + Integer.BYTES;
+        for (int i = 0; i < uniqueCount; i++) {
+            mergedSize += Integer.BYTES + sliceLength[order[i]];
+        }
+        byte[] merged = new byte[mergedSize];
+        writeInt(merged, 0, uniqueCount);
+        int position = Integer.BYTES;
+        for (int i = 0; i < uniqueCount; i++) {
+            int slice = order[i];
+            if (i == 0) {
+                writeInt(merged, position, sliceLength[slice] + Integer.BYTES);
+                position += Integer.BYTES;
+                System.arraycopy(source(slice), sliceOffset[slice], merged, position, sliceLength[slice]);
+                position += sliceLength[slice];
+                writeInt(merged, position, uniqueCount - 1);
+                position += Integer.BYTES;
+            } else {
+                writeInt(merged, position, sliceLength[slice]);
+                position += Integer.BYTES;
+                System.arraycopy(source(slice), sliceOffset[slice], merged, position, sliceLength[slice]);
+                position += sliceLength[slice];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Adds the slices of a serialized chronology.
+     *
+     * @return the number of arrays in the bytes.
+     */
+    private int addSlices(byte[] bytes, boolean inNew) {
+        int arrayCount = readInt(bytes, 0);
+        int position = Integer.BYTES;
+        for (int i = 0; i < arrayCount; i++) {
+            int arraySize = readInt(bytes, position);
+            position += Integer.BYTES;
+            if (i == 0) {
+                // The version count is not part of the slice, as the merge may change it.
+                int versionCount = readInt(bytes, position + arraySize - Integer.BYTES);
+                if (versionCount != arrayCount - 1) {
+                    throw new IllegalStateException("Malformed data. versionCount: " +
+                            versionCount + " arrayCount: " + arrayCount);
+                }
+                addSlice(inNew, false, position, arraySize - Integer.BYTES, 0);
+            } else {
+                addSlice(inNew, true, position, arraySize, readInt(bytes, position + 1));
+            }
+            position += arraySize;
+        }
+        return arrayCount;
+    }
+
+    /**
+     * Puts the slices to merge in order: the chronologies, and of the versions with the same stamp, only the
+     * first added. There should be no concurrent editing of versions with the same stamp, so a later version
+     * with the stamp is an older edit.
+     *
+     * @return the number of slices put in order.
+     */
+    private int retainFirstVersionOfEachStamp(int[] order) {
+        // Open addressing table of stamp to position in order, plus one so that 0 is empty.
+        int[] stampTable = new int[Integer.highestOneBit(Math.max(sliceCount, 1)) << 2];
+        int mask = stampTable.length - 1;
+        int orderCount = 0;
+        for (int slice = 0; slice < sliceCount; slice++) {
+            if (!sliceIsVersion[slice]) {
+                order[orderCount++] = slice;
+                continue;
+            }
+            int hash = sliceStamp[slice] * 0x9E3779B9;
+            int bucket = (hash ^ (hash >>> 16)) & mask;
+            while (true) {
+                int orderIndex = stampTable[bucket] - 1;
+                if (orderIndex < 0) {
+                    stampTable[bucket] = orderCount + 1;
+                    order[orderCount++] = slice;
+                    break;
+                }
+                if (sliceStamp[order[orderIndex]] == sliceStamp[slice]) {
+                    if (!sliceInNew[slice] && compare(order[orderIndex], slice) == 0) {
+                        // An identical old version is retained instead, so an unchanged merge can be detected.
+                        order[orderIndex] = slice;
+                    }
+                    break;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+        }
+        return orderCount;
+    }
+
+    private void addSlice(boolean inNew, boolean isVersion, int offset, int length, int stampNid) {
+        sliceInNew[sliceCount] = inNew;
+        sliceIsVersion[sliceCount] = isVersion;
+        sliceOffset[sliceCount] = offset;
+        sliceLength[sliceCount] = length;
+        sliceStamp[sliceCount] = stampNid;
+        sliceCount++;
+    }
+
+    /**
+     * Stable merge sort of slice indexes, from inclusive, to exclusive. Insertion sort is used for short runs,
+     * which also makes the usual case of already ordered versions linear.
+     */
+    private void sort(int[] order, int[] scratch, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int slice = order[i];
+                int j = i - 1;
+                while (j >= from && compare(order[j], slice) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = slice;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(order, scratch, from, middle);
+        sort(order, scratch, middle, to);
+        if (compare(order[middle - 1], order[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(scratch[left], scratch[right]) <= 0)) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+}
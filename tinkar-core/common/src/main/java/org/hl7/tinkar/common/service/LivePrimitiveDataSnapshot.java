@@ -0,0 +1,66 @@
+package org.hl7.tinkar.common.service;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Snapshot for data services that can not isolate a scan from concurrent merges, that reads the service
+ * itself.
+ */
+record LivePrimitiveDataSnapshot(PrimitiveDataService service, long writeSequence) implements PrimitiveDataSnapshot {
+
+    LivePrimitiveDataSnapshot(PrimitiveDataService service) {
+        this(service, service.writeSequence());
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        return service.getBytes(nid);
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        service.forEach(action);
+    }
+
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        service.forEachParallel(action);
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        service.forEachSemanticNidOfPattern(patternNid, procedure);
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        service.forEachPatternNid(procedure);
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        service.forEachConceptNid(procedure);
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        service.forEachStampNid(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        service.forEachSemanticNid(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        service.forEachSemanticNidForComponent(componentNid, procedure);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release...
+    }
+}
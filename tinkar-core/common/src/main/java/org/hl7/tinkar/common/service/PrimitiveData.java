@@ -15,6 +15,7 @@ import java.util.Optional;
 import java.util.ServiceLoader;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.function.ToIntFunction;
 
 public class PrimitiveData {
@@ -46,7 +47,7 @@ public class PrimitiveData {
         SimpleIndeterminateTracker progressTask = new SimpleIndeterminateTracker("Stop primitive data provider");
         Executor.threadPool().submit(progressTask);
         try {
-            save();
+            save().get();
             controllerSingleton.stop();
         } catch (Throwable ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
@@ -55,17 +56,25 @@ public class PrimitiveData {
         }
     }
 
-    public static void save() {
-        if (controllerSingleton != null) {
-            controllerSingleton.save();
-        }
-        for (SaveState state : statesToSave) {
-            try {
-                state.save();
-            } catch (Exception e) {
-                AlertStreams.getRoot().dispatch(AlertObject.makeError(e));
+    /**
+     * Saves the provider and the registered states on a background thread, so that interactive threads are
+     * not stalled by the save.
+     *
+     * @return a future that completes when the save is finished.
+     */
+    public static Future<?> save() {
+        return Executor.threadPool().submit(() -> {
+            if (controllerSingleton != null) {
+                controllerSingleton.save();
             }
-        }
+            for (SaveState state : statesToSave) {
+                try {
+                    state.save();
+                } catch (Exception e) {
+                    AlertStreams.getRoot().dispatch(AlertObject.makeError(e));
+                }
+            }
+        });
     }
 
     public static CopyOnWriteArrayList<SaveState> getStatesToSave() {
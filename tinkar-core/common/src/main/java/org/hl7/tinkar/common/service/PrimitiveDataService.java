@@ -1,26 +1,17 @@
 package org.hl7.tinkar.common.service;
 
 import com.google.auto.service.AutoService;
-import io.activej.bytebuf.ByteBuf;
-import io.activej.bytebuf.ByteBufPool;
 import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
 import org.eclipse.collections.api.factory.Lists;
-import org.eclipse.collections.api.factory.Sets;
 import org.eclipse.collections.api.list.ImmutableList;
 import org.eclipse.collections.api.list.ListIterable;
-import org.eclipse.collections.api.list.MutableList;
-import org.eclipse.collections.api.list.primitive.ByteList;
 import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.api.set.MutableSet;
 import org.eclipse.collections.api.set.primitive.MutableLongSet;
-import org.eclipse.collections.impl.factory.primitive.ByteLists;
 import org.eclipse.collections.impl.factory.primitive.IntLists;
 import org.eclipse.collections.impl.factory.primitive.LongSets;
 import org.hl7.tinkar.common.id.PublicId;
 import org.hl7.tinkar.common.sets.ConcurrentHashSet;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
@@ -122,118 +113,7 @@ public interface PrimitiveDataService {
         if (Arrays.equals(oldBytes, newBytes)) {
             return oldBytes;
         }
-        try {
-            MutableSet<ByteList> byteArraySet = Sets.mutable.empty();
-            MutableIntList stampList = IntLists.mutable.withInitialCapacity(16);
-            addToSet(newBytes, byteArraySet, stampList);
-            addToSet(oldBytes, byteArraySet, stampList);
-            MutableList<ByteList> byteArrayList = byteArraySet.toList();
-
-            byteArrayList.sort((o1, o2) -> {
-                int minSize = Math.min(o1.size(), o2.size());
-                for (int i = 0; i < minSize; i++) {
-                    if (o1.get(i) != o2.get(i)) {
-                        return Integer.compare(o1.get(i), o2.get(i));
-                    }
-                }
-                return Integer.compare(o1.size(), o2.size());
-            });
-            // Remove canceled versions here
-            if (byteArrayList.size() > 2) {
-                MutableIntList indexesToRemove = IntLists.mutable.empty();
-                for (int i = 1; i < byteArrayList.size(); i++) {
-                    ByteList versionBytes = byteArrayList.get(i);
-                    byte versionToken = versionBytes.get(0);
-                    switch (versionToken) {
-                        /*
-                            CONCEPT_VERSION((byte) 4, ConceptVersion.class),
-                            PATTERN_VERSION((byte) 5, PatternVersion.class),
-                            SEMANTIC_VERSION((byte) 6, SemanticVersion.class),
-                         */
-                        case 4:
-                        case 5:
-                        case 6:
-                            int stampNid = ((versionBytes.get(1) & 0xFF) << 24) |
-                                    ((versionBytes.get(2) & 0xFF) << 16) |
-                                    ((versionBytes.get(3) & 0xFF) << 8) |
-                                    ((versionBytes.get(4) & 0xFF) << 0);
-                            if (PrimitiveData.get().isCanceledStampNid(stampNid)) {
-                                indexesToRemove.add(i);
-                            }
-                        default:
-                            // Leave all versions. Need to retain canceled version for stamps.
-                    }
-                }
-                indexesToRemove.reverseThis().forEach(index -> byteArrayList.remove(index));
-            }
-
-            ByteBuf byteBuf = ByteBufPool.allocate(oldBytes.length + newBytes.length);
-            byteBuf.writeInt(byteArrayList.size());
-            boolean first = true;
-            for (ByteList byteArray : byteArrayList) {
-                if (first) {
-                    // Add 4 to have room for the number of versions.
-                    byteBuf.writeInt(byteArray.size() + 4);
-                    byteArray.forEach(b -> {
-                        byteBuf.put(b);
-                    });
-                    // write the number of versions...
-                    byteBuf.writeInt(byteArrayList.size() - 1);
-                    first = false;
-                } else {
-                    byteBuf.writeInt(byteArray.size());
-                    byteArray.forEach(b -> {
-                        byteBuf.put(b);
-                    });
-                }
-            }
-            return byteBuf.asArray();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
-    }
-
-    /**
-     * @param bytes
-     * @param byteArraySet
-     * @param stampsInSet  represents the stamps already added to the set. If two versions with the same stamp are being merged,
-     *                     the newer version must be the merged version, as it represents a newer edit. There is an assumption that
-     *                     the edits of a single version under a single stamp value are sequential, not concurrent.
-     * @throws IOException
-     */
-    private static void addToSet(byte[] bytes, MutableSet<ByteList> byteArraySet, MutableIntList stampsInSet) throws IOException {
-        ByteBuf readBuf = ByteBuf.wrapForReading(bytes);
-        int arrayCount = readBuf.readInt();
-        for (int i = 0; i < arrayCount; i++) {
-            int arraySize = readBuf.readInt();
-            if (i == 0) {
-                // The first array is the chronicle, and has a field for the number of versions...
-                byte[] newArray = new byte[arraySize - 4];
-                readBuf.read(newArray);
-                byteArraySet.add(ByteLists.immutable.of(newArray));
-                int versionCount = readBuf.readInt();
-                if (versionCount != arrayCount - 1) {
-                    throw new IllegalStateException("Malformed data. versionCount: " +
-                            versionCount + " arrayCount: " + arrayCount);
-                }
-                // Version count is not included as the version count may change as a result of merge.
-                // It must be added back in after sorting unique versions.
-            } else {
-                byte[] newArray = new byte[arraySize];
-                readBuf.read(newArray);
-                int stampNid = ((newArray[1] & 0xFF) << 24) |
-                        ((newArray[2] & 0xFF) << 16) |
-                        ((newArray[3] & 0xFF) << 8) |
-                        ((newArray[4] & 0xFF) << 0);
-                if (stampsInSet.contains(stampNid)) {
-                    // Don't add, a newer version already exists (assuming addToSet is called in order of newest to oldest bytearray)
-                    // There should be no concurrent editing on versions with the same stamp.
-                } else {
-                    byteArraySet.add(ByteLists.immutable.of(newArray));
-                    stampsInSet.add(stampNid);
-                }
-            }
-        }
+        return ChronologyMerger.merge(oldBytes, newBytes);
     }
 
     default boolean isCanceledStampNid(int stampNid) {
@@ -257,6 +137,24 @@ public interface PrimitiveDataService {
 
     long writeSequence();
 
+    /**
+     * Opens a read only view of the data at the current write sequence, that long scans can iterate at full
+     * parallelism while merges continue. The snapshot must be closed when the scan is done.
+     * <p>
+     * The default snapshot reads the service itself, so is not isolated from concurrent merges. Services
+     * that can isolate a scan override this.
+     */
+    default PrimitiveDataSnapshot snapshot() {
+        return new LivePrimitiveDataSnapshot(this);
+    }
+
+    /**
+     * Waits until every merge that returned before the call is durable. Services that log merges may return
+     * from a merge before its record is forced to disk; services that do not return at once.
+     */
+    default void sync() {
+    }
+
     void close();
 
     default int nidForPublicId(PublicId publicId) {
@@ -325,6 +223,10 @@ public interface PrimitiveDataService {
 
     void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure);
 
+    /**
+     * @return the nids of the semantics of the pattern that reference the component. Implementations may
+     * return an array they share, so the array must not be modified.
+     */
     default int[] semanticNidsForComponentOfPattern(int componentNid, int patternNid) {
         MutableIntList intList = IntLists.mutable.empty();
         forEachSemanticNidForComponentOfPattern(componentNid, patternNid, nid -> intList.add(nid));
@@ -0,0 +1,45 @@
+package org.hl7.tinkar.common.service;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Read only view of a {@link PrimitiveDataService} at a point in time, so a long scan sees each entity as it
+ * was when the snapshot was opened, rather than a mix of entities from before and after concurrent merges.
+ * Opening a snapshot does not copy the data, and merges proceed while it is open. A snapshot holds what it
+ * needs to stay consistent until it is closed, so it should be closed as soon as the scan is done.
+ *
+ * @see PrimitiveDataService#snapshot()
+ */
+public interface PrimitiveDataSnapshot extends AutoCloseable {
+
+    /**
+     * @return the write sequence of the data service when the snapshot was opened.
+     */
+    long writeSequence();
+
+    byte[] getBytes(int nid);
+
+    void forEach(ObjIntConsumer<byte[]> action);
+
+    void forEachParallel(ObjIntConsumer<byte[]> action);
+
+    void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure);
+
+    void forEachPatternNid(IntProcedure procedure);
+
+    void forEachConceptNid(IntProcedure procedure);
+
+    void forEachStampNid(IntProcedure procedure);
+
+    void forEachSemanticNid(IntProcedure procedure);
+
+    void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure);
+
+    /**
+     * Releases what the snapshot holds.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,159 @@
+package org.hl7.tinkar.common.sets;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Set of ints, such as the nids of a component type, held in a compressed bitmap, that may be added to
+ * concurrently and iterated without locking or copying.
+ * <p>
+ * Readers use a published bitmap that is never modified once published. Adds go to a bitmap of pending
+ * values, under a lock. The first read that finds pending values publishes a new bitmap that includes them,
+ * so folding the adds into the published bitmap costs one pass over the bitmap per read that follows a batch
+ * of adds, rather than a copy per add.
+ * <p>
+ * Values are iterated in unsigned order, which for nids, that are all negative, is ascending order.
+ */
+public class ConcurrentRoaringIntSet {
+    private volatile RoaringBitmap published = new RoaringBitmap();
+    /**
+     * Values not in the published bitmap. Guarded by this.
+     */
+    private RoaringBitmap pending = new RoaringBitmap();
+    /**
+     * Count of pending values, reset after the bitmap that includes them is published. Read before the
+     * published bitmap, so that a reader that sees no pending values sees a bitmap that includes them.
+     */
+    private volatile int pendingCount;
+
+    public boolean add(int value) {
+        if (published.contains(value)) {
+            return false;
+        }
+        synchronized (this) {
+            if (published.contains(value) || !pending.checkedAdd(value)) {
+                return false;
+            }
+            pendingCount++;
+            return true;
+        }
+    }
+
+    public boolean contains(int value) {
+        if (pendingCount == 0) {
+            return published.contains(value);
+        }
+        synchronized (this) {
+            return published.contains(value) || pending.contains(value);
+        }
+    }
+
+    /**
+     * @return a bitmap of the values, which must not be modified.
+     */
+    private RoaringBitmap snapshot() {
+        if (pendingCount == 0) {
+            return published;
+        }
+        synchronized (this) {
+            if (pendingCount == 0) {
+                return published;
+            }
+            RoaringBitmap merged = RoaringBitmap.or(published, pending);
+            merged.runOptimize();
+            published = merged;
+            pending = new RoaringBitmap();
+            pendingCount = 0;
+            return merged;
+        }
+    }
+
+    public int size() {
+        return snapshot().getCardinality();
+    }
+
+    public boolean isEmpty() {
+        return snapshot().isEmpty();
+    }
+
+    public boolean notEmpty() {
+        return !isEmpty();
+    }
+
+    /**
+     * Passes each value to the procedure. Values added during the iteration are not passed.
+     * <p>
+     * Uses an iterator rather than RoaringBitmap.forEach, which passes no values from run containers of
+     * negative values, such as a run of nids.
+     */
+    public void forEach(IntProcedure procedure) {
+        PeekableIntIterator iterator = snapshot().getIntIterator();
+        while (iterator.hasNext()) {
+            procedure.value(iterator.next());
+        }
+    }
+
+    /**
+     * @return the values, in unsigned order.
+     */
+    public int[] toArray() {
+        return snapshot().toArray();
+    }
+
+    /**
+     * @return a read-only set of the values at the time of the call. The published bitmap is shared rather
+     * than copied, since it is never modified.
+     */
+    public IntSet asIntSet() {
+        return new RoaringIntSetView(snapshot());
+    }
+
+    /**
+     * @return a set of the values, that may be added to without changing this set. The published bitmap is
+     * shared rather than copied, since it is never modified.
+     */
+    public ConcurrentRoaringIntSet copy() {
+        ConcurrentRoaringIntSet copy = new ConcurrentRoaringIntSet();
+        copy.published = snapshot();
+        return copy;
+    }
+
+    public synchronized void clear() {
+        published = new RoaringBitmap();
+        pending = new RoaringBitmap();
+        pendingCount = 0;
+    }
+
+    /**
+     * @return an estimate of the heap used by the values.
+     */
+    public long sizeInBytes() {
+        return snapshot().getLongSizeInBytes();
+    }
+
+    /**
+     * Writes the values in the portable serialization format of RoaringBitmap.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        snapshot().serialize(out);
+    }
+
+    /**
+     * Adds the values written by {@link #writeTo(DataOutput)}.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        RoaringBitmap values = new RoaringBitmap();
+        values.deserialize(in);
+        synchronized (this) {
+            values.or(published);
+            values.andNot(pending);
+            published = values;
+        }
+    }
+}
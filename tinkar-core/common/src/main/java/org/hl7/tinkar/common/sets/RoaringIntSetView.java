@@ -0,0 +1,259 @@
+package org.hl7.tinkar.common.sets;
+
+import org.eclipse.collections.api.block.function.primitive.IntToObjectFunction;
+import org.eclipse.collections.api.block.function.primitive.ObjectIntToObjectFunction;
+import org.eclipse.collections.api.block.predicate.primitive.IntPredicate;
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.factory.Sets;
+import org.eclipse.collections.api.iterator.IntIterator;
+import org.eclipse.collections.api.set.MutableSet;
+import org.eclipse.collections.api.set.primitive.ImmutableIntSet;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.eclipse.collections.impl.primitive.AbstractIntIterable;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only {@link IntSet} over a bitmap that is never modified, such as a bitmap published by a
+ * {@link ConcurrentRoaringIntSet}, so the values are not copied.
+ * <p>
+ * Values are iterated in unsigned order, as by {@link ConcurrentRoaringIntSet#forEach(IntProcedure)}.
+ */
+final class RoaringIntSetView extends AbstractIntIterable implements IntSet {
+    private final RoaringBitmap bitmap;
+
+    RoaringIntSetView(RoaringBitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int size() {
+        return bitmap.getCardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bitmap.isEmpty();
+    }
+
+    @Override
+    public boolean contains(int value) {
+        return bitmap.contains(value);
+    }
+
+    @Override
+    public int[] toArray() {
+        return bitmap.toArray();
+    }
+
+    @Override
+    public IntIterator intIterator() {
+        PeekableIntIterator iterator = bitmap.getIntIterator();
+        return new IntIterator() {
+            @Override
+            public int next() {
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return iterator.next();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+        };
+    }
+
+    @Override
+    public void forEach(IntProcedure procedure) {
+        each(procedure);
+    }
+
+    @Override
+    public void each(IntProcedure procedure) {
+        // Not RoaringBitmap.forEach, which passes no values from run containers of negative values.
+        PeekableIntIterator iterator = bitmap.getIntIterator();
+        while (iterator.hasNext()) {
+            procedure.value(iterator.next());
+        }
+    }
+
+    @Override
+    public IntSet select(IntPredicate predicate) {
+        RoaringBitmap selected = new RoaringBitmap();
+        each(value -> {
+            if (predicate.accept(value)) {
+                selected.add(value);
+            }
+        });
+        return new RoaringIntSetView(selected);
+    }
+
+    @Override
+    public IntSet reject(IntPredicate predicate) {
+        return select(value -> !predicate.accept(value));
+    }
+
+    @Override
+    public <V> MutableSet<V> collect(IntToObjectFunction<? extends V> function) {
+        MutableSet<V> collected = Sets.mutable.empty();
+        each(value -> collected.add(function.valueOf(value)));
+        return collected;
+    }
+
+    @Override
+    public int detectIfNone(IntPredicate predicate, int ifNone) {
+        PeekableIntIterator iterator = bitmap.getIntIterator();
+        while (iterator.hasNext()) {
+            int value = iterator.next();
+            if (predicate.accept(value)) {
+                return value;
+            }
+        }
+        return ifNone;
+    }
+
+    @Override
+    public int count(IntPredicate predicate) {
+        int[] count = new int[1];
+        each(value -> {
+            if (predicate.accept(value)) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    @Override
+    public boolean anySatisfy(IntPredicate predicate) {
+        PeekableIntIterator iterator = bitmap.getIntIterator();
+        while (iterator.hasNext()) {
+            if (predicate.accept(iterator.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean allSatisfy(IntPredicate predicate) {
+        return !anySatisfy(value -> !predicate.accept(value));
+    }
+
+    @Override
+    public boolean noneSatisfy(IntPredicate predicate) {
+        return !anySatisfy(predicate);
+    }
+
+    @Override
+    public <T> T injectInto(T injectedValue, ObjectIntToObjectFunction<? super T, ? extends T> function) {
+        T result = injectedValue;
+        PeekableIntIterator iterator = bitmap.getIntIterator();
+        while (iterator.hasNext()) {
+            result = function.valueOf(result, iterator.next());
+        }
+        return result;
+    }
+
+    @Override
+    public long sum() {
+        long[] sum = new long[1];
+        each(value -> sum[0] += value);
+        return sum[0];
+    }
+
+    /**
+     * Signed maximum, which for a bitmap of mixed signs is not the last value in unsigned order.
+     */
+    @Override
+    public int max() {
+        if (bitmap.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        int[] max = {Integer.MIN_VALUE};
+        each(value -> max[0] = Math.max(max[0], value));
+        return max[0];
+    }
+
+    @Override
+    public int min() {
+        if (bitmap.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        int[] min = {Integer.MAX_VALUE};
+        each(value -> min[0] = Math.min(min[0], value));
+        return min[0];
+    }
+
+    @Override
+    public void appendString(Appendable appendable, String start, String separator, String end) {
+        try {
+            appendable.append(start);
+            PeekableIntIterator iterator = bitmap.getIntIterator();
+            if (iterator.hasNext()) {
+                appendable.append(String.valueOf(iterator.next()));
+                while (iterator.hasNext()) {
+                    appendable.append(separator);
+                    appendable.append(String.valueOf(iterator.next()));
+                }
+            }
+            appendable.append(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public IntSet union(IntSet set) {
+        return new RoaringIntSetView(RoaringBitmap.or(bitmap, bitmapOf(set)));
+    }
+
+    @Override
+    public IntSet intersect(IntSet set) {
+        return new RoaringIntSetView(RoaringBitmap.and(bitmap, bitmapOf(set)));
+    }
+
+    private static RoaringBitmap bitmapOf(IntSet set) {
+        if (set instanceof RoaringIntSetView view) {
+            return view.bitmap;
+        }
+        return RoaringBitmap.bitmapOf(set.toArray());
+    }
+
+    @Override
+    public IntSet freeze() {
+        return this;
+    }
+
+    @Override
+    public ImmutableIntSet toImmutable() {
+        return IntSets.immutable.of(toArray());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntSet set) || set.size() != size()) {
+            return false;
+        }
+        return set.allSatisfy(this::contains);
+    }
+
+    /**
+     * The sum of the values, as specified by {@link IntSet#hashCode()}.
+     */
+    @Override
+    public int hashCode() {
+        int[] hashCode = new int[1];
+        each(value -> hashCode[0] += value);
+        return hashCode[0];
+    }
+}
@@ -0,0 +1,159 @@
+package org.hl7.tinkar.common.sets;
+
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentRoaringIntSetTest {
+    private static final int FIRST_NID = Integer.MIN_VALUE + 1;
+
+    @Test
+    public void addContainsAndIterate() {
+        ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(FIRST_NID + 5));
+        assertTrue(set.add(FIRST_NID));
+        assertFalse(set.add(FIRST_NID + 5));
+        assertTrue(set.contains(FIRST_NID));
+        assertEquals(2, set.size());
+        // Published values are not added again.
+        assertFalse(set.add(FIRST_NID));
+        assertTrue(set.add(FIRST_NID + 2));
+        MutableIntList values = IntLists.mutable.empty();
+        set.forEach(values::add);
+        assertArrayEquals(new int[]{FIRST_NID, FIRST_NID + 2, FIRST_NID + 5}, values.toArray());
+        assertArrayEquals(values.toArray(), set.toArray());
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(FIRST_NID));
+    }
+
+    @Test
+    public void concurrentAdds() throws Exception {
+        ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+        int threads = 4;
+        int count = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < count; i += threads) {
+                        assertTrue(set.add(FIRST_NID + i));
+                        if (i % 1000 == 0) {
+                            // Reads publish the pending values while other threads add.
+                            assertTrue(set.contains(FIRST_NID + i));
+                            set.size();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        assertEquals(count, set.size());
+        int[] values = set.toArray();
+        for (int i = 0; i < count; i++) {
+            assertEquals(FIRST_NID + i, values[i]);
+        }
+    }
+
+    @Test
+    public void iterateRuns() {
+        ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+        // Contiguous nids are held in run containers once published.
+        for (int i = 0; i < 3_000; i++) {
+            set.add(FIRST_NID + i);
+        }
+        MutableIntList values = IntLists.mutable.empty();
+        set.forEach(values::add);
+        assertEquals(3_000, values.size());
+        assertArrayEquals(set.toArray(), values.toArray());
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+        for (int i = 0; i < 10_000; i += 3) {
+            set.add(FIRST_NID + i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        set.writeTo(new DataOutputStream(bytes));
+
+        ConcurrentRoaringIntSet readSet = new ConcurrentRoaringIntSet();
+        readSet.add(FIRST_NID + 1);
+        readSet.add(FIRST_NID + 3);
+        readSet.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(set.size() + 1, readSet.size());
+        assertTrue(readSet.contains(FIRST_NID + 1));
+        assertTrue(readSet.contains(FIRST_NID + 9_999));
+    }
+
+    @Test
+    public void copy() {
+        ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+        set.add(FIRST_NID);
+        set.add(FIRST_NID + 1);
+        ConcurrentRoaringIntSet copy = set.copy();
+        assertTrue(copy.add(FIRST_NID + 2));
+        assertTrue(set.add(FIRST_NID + 3));
+        assertArrayEquals(new int[]{FIRST_NID, FIRST_NID + 1, FIRST_NID + 3}, set.toArray());
+        assertArrayEquals(new int[]{FIRST_NID, FIRST_NID + 1, FIRST_NID + 2}, copy.toArray());
+    }
+
+    @Test
+    public void asIntSet() {
+        ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+        for (int i = 0; i < 3_000; i++) {
+            set.add(FIRST_NID + i);
+        }
+        set.add(7);
+        IntSet view = set.asIntSet();
+        // Values added after the call are not in the view.
+        set.add(FIRST_NID + 5_000);
+        assertEquals(3_001, view.size());
+        assertTrue(view.contains(7));
+        assertFalse(view.contains(FIRST_NID + 5_000));
+        assertEquals(FIRST_NID, view.min());
+        assertEquals(7, view.max());
+
+        IntSet expected = IntSets.immutable.of(view.toArray());
+        assertEquals(expected, view);
+        assertEquals(view, expected);
+        assertEquals(expected.hashCode(), view.hashCode());
+        assertEquals(expected.sum(), view.sum());
+        MutableIntList values = IntLists.mutable.empty();
+        view.forEach(values::add);
+        assertEquals(3_001, values.size());
+        assertArrayEquals(view.toArray(), values.toArray());
+        MutableIntList iterated = IntLists.mutable.empty();
+        for (var iterator = view.intIterator(); iterator.hasNext(); ) {
+            iterated.add(iterator.next());
+        }
+        assertEquals(values, iterated);
+
+        assertEquals(IntSets.immutable.of(FIRST_NID, FIRST_NID + 2), view.select(value -> value < FIRST_NID + 3 && value % 2 != 0));
+        // The first nid is odd, as is 7.
+        assertEquals(1_501, view.reject(value -> value % 2 == 0).size());
+        assertEquals(IntSets.immutable.of(7, FIRST_NID + 5_000), view.intersect(IntSets.immutable.of(7, 8)).union(IntSets.immutable.of(FIRST_NID + 5_000)));
+        assertEquals(IntSets.immutable.of(7, FIRST_NID + 5_000), view.intersect(IntSets.immutable.of(7, 8)).union(set.asIntSet().select(value -> value == FIRST_NID + 5_000)));
+        assertEquals("[7]", view.select(value -> value > 0).toString());
+        assertTrue(IntSets.immutable.empty().equals(new ConcurrentRoaringIntSet().asIntSet()));
+    }
+}
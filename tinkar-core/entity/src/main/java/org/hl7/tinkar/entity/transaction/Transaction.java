@@ -196,6 +196,8 @@ public class Transaction implements Comparable<Transaction> {
             commitStamp(stampUuid, commitTime);
             stampCount.incrementAndGet();
         });
+        // The committed stamps are durable before the commit returns.
+        PrimitiveData.get().sync();
         activeTransactions.remove(this);
         Entity.provider().notifyRefreshRequired(this);
         return stampCount.get();
@@ -8,6 +8,10 @@ open module org.hl7.tinkar.integration {
     requires org.hl7.tinkar.common;
     requires org.hl7.tinkar.entity;
     requires org.hl7.tinkar.provider.entity;
+    requires org.hl7.tinkar.provider.ephemeral;
+    requires org.hl7.tinkar.provider.search;
+    requires org.hl7.tinkar.provider.snapshot;
+    requires org.hl7.tinkar.provider.tiered;
     requires org.hl7.tinkar.terms;
     requires org.hl7.tinkar.coordinate;
     requires org.hl7.tinkar.protobuf;
@@ -7,10 +7,27 @@ public class TestConstants {
     public static final File PB_TEST_FILE = new File(System.getProperty("user.dir"), "/target/data/tinkar-solor-us-export.pb-1.1.zip");
     public static final File PB_EXPORT_TEST_FILE = new File(System.getProperty("user.dir"), "/target/data/tinkar-export-test.pb.zip");
 
+    public static final File EPHEMERAL_SNAPSHOT_FILE = new File(System.getProperty("user.dir"), "/target/ephemeral/starter.ephemeral");
+
     public static final File MVSTORE_ROOT = new File(System.getProperty("user.dir"), "/target/mvstore");
     public static final File SAP_ROOT = new File(System.getProperty("user.dir"), "/target/spinedarrays");
+    public static final File SAP_RECOVERY_ROOT = new File(System.getProperty("user.dir"), "/target/spinedarrays-recovery");
+    public static final File SAP_UNCLEAN_ROOT = new File(System.getProperty("user.dir"), "/target/spinedarrays-unclean");
+    public static final File HYBRID_ROOT = new File(System.getProperty("user.dir"), "/target/hybrid");
+    public static final File HYBRID_UNCLEAN_ROOT = new File(System.getProperty("user.dir"), "/target/hybrid-unclean");
+    public static final File TIERED_ROOT = new File(System.getProperty("user.dir"), "/target/tiered");
+    public static final File TIERED_UNCLEAN_ROOT = new File(System.getProperty("user.dir"), "/target/tiered-unclean");
+    public static final File CHRONICLE_ROOT = new File(System.getProperty("user.dir"), "/target/chronicle");
+    public static final File CHRONICLE_UNCLEAN_ROOT = new File(System.getProperty("user.dir"), "/target/chronicle-unclean");
+    public static final File SNAPSHOT_SOURCE_ROOT = new File(System.getProperty("user.dir"), "/target/snapshot-source");
+    public static final File SNAPSHOT_ROOT = new File(System.getProperty("user.dir"), "/target/snapshot");
+    public static final File COMPARISON_ROOT = new File(System.getProperty("user.dir"), "/target/comparison");
 
     public static final String MV_STORE_OPEN_NAME = "Open MV Store";
     public static final String EPHEMERAL_STORE_NAME = "Load Ephemeral Store";
     public static final String SA_STORE_OPEN_NAME = "Open SpinedArrayStore";
+    public static final String HYBRID_STORE_OPEN_NAME = "Open Hybrid Store";
+    public static final String CHRONICLE_STORE_OPEN_NAME = "Open Chronicle Map Store";
+    public static final String TIERED_STORE_OPEN_NAME = "Open Tiered Store";
+    public static final String SNAPSHOT_OPEN_NAME = "Open Read-Only Snapshot";
 }
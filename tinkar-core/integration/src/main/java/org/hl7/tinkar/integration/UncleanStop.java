@@ -0,0 +1,43 @@
+package org.hl7.tinkar.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Copies the files of a data store while it is open, to stand in for the files left by a process that stopped
+ * without closing the store. The search index is left out of the copy, since the open store holds its lock.
+ */
+public class UncleanStop {
+
+    public static void copy(File dataStoreRoot, File copyRoot) throws IOException {
+        delete(copyRoot);
+        Path sourceRoot = dataStoreRoot.toPath();
+        Path indexRoot = sourceRoot.resolve("lucene");
+        try (Stream<Path> paths = Files.walk(sourceRoot)) {
+            for (Path source : (Iterable<Path>) paths::iterator) {
+                if (source.startsWith(indexRoot)) {
+                    continue;
+                }
+                Path target = copyRoot.toPath().resolve(sourceRoot.relativize(source));
+                if (Files.isDirectory(source)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    public static void delete(File directory) throws IOException {
+        if (directory.exists()) {
+            try (Stream<Path> paths = Files.walk(directory.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
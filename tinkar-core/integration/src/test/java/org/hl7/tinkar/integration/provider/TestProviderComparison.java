@@ -0,0 +1,105 @@
+package org.hl7.tinkar.integration.provider;
+
+import org.hl7.tinkar.common.service.CachingService;
+import org.hl7.tinkar.common.service.PrimitiveData;
+import org.hl7.tinkar.common.service.ServiceKeys;
+import org.hl7.tinkar.common.service.ServiceProperties;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.load.LoadEntitiesFromDtoFile;
+import org.hl7.tinkar.entity.util.EntityCounter;
+import org.hl7.tinkar.entity.util.EntityProcessor;
+import org.hl7.tinkar.entity.util.EntityRealizer;
+import org.hl7.tinkar.integration.TestConstants;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Loads the test file into a new database of each file based provider, and compares the time to load, to reopen,
+ * and to iterate the database, and the heap used once reopened.
+ */
+class TestProviderComparison {
+    private static final Logger LOG = LoggerFactory.getLogger(TestProviderComparison.class);
+
+    @AfterAll
+    static void teardownSuite() {
+        if (PrimitiveData.running()) {
+            PrimitiveData.stop();
+        }
+    }
+
+    private static void delete(File directory) throws IOException {
+        if (directory.exists()) {
+            try (Stream<Path> paths = Files.walk(directory.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void compareProviders() throws IOException {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-12s %10s %10s %10s %10s %10s %10s%n",
+                "Provider", "Entities", "Load", "Reopen", "Count", "Realize", "Heap MB"));
+        compare("SpinedArray", TestConstants.SA_STORE_OPEN_NAME, report);
+        compare("MVStore", TestConstants.MV_STORE_OPEN_NAME, report);
+        compare("Hybrid", TestConstants.HYBRID_STORE_OPEN_NAME, report);
+        compare("Tiered", TestConstants.TIERED_STORE_OPEN_NAME, report);
+        compare("Chronicle", TestConstants.CHRONICLE_STORE_OPEN_NAME, report);
+        LOG.info("Provider comparison: \n" + report + "\n\n");
+    }
+
+    private void compare(String name, String controllerName, StringBuilder report) throws IOException {
+        File root = new File(TestConstants.COMPARISON_ROOT, name);
+        delete(root);
+        CachingService.clearAll();
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, root);
+        PrimitiveData.selectControllerByName(controllerName);
+        PrimitiveData.start();
+
+        Stopwatch loadStopwatch = new Stopwatch();
+        LoadEntitiesFromDtoFile loadTink = new LoadEntitiesFromDtoFile(TestConstants.TINK_TEST_FILE);
+        int count = loadTink.compute();
+        PrimitiveData.stop();
+        loadStopwatch.end();
+
+        CachingService.clearAll();
+        long heapBeforeOpen = usedHeap();
+        Stopwatch reopenStopwatch = new Stopwatch();
+        PrimitiveData.start();
+        reopenStopwatch.end();
+        long openHeap = usedHeap() - heapBeforeOpen;
+
+        Stopwatch countStopwatch = new Stopwatch();
+        EntityProcessor counter = new EntityCounter();
+        PrimitiveData.get().forEachParallel(counter);
+        countStopwatch.end();
+        LOG.info(name + " parallel count: \n" + counter.report() + "\n\n");
+
+        Stopwatch realizeStopwatch = new Stopwatch();
+        EntityProcessor realizer = new EntityRealizer();
+        PrimitiveData.get().forEachParallel(realizer);
+        realizeStopwatch.end();
+        LOG.info(name + " parallel realization: \n" + realizer.report() + "\n\n");
+        PrimitiveData.stop();
+
+        report.append(String.format("%-12s %10d %10s %10s %10s %10s %10.1f%n", name, count,
+                loadStopwatch.durationString(), reopenStopwatch.durationString(),
+                countStopwatch.durationString(), realizeStopwatch.durationString(),
+                openHeap / (1024.0 * 1024.0)));
+    }
+}
@@ -0,0 +1,137 @@
+package org.hl7.tinkar.integration.provider.chronicle;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.Entity;
+import org.hl7.tinkar.entity.load.LoadEntitiesFromDtoFile;
+import org.hl7.tinkar.entity.util.EntityCounter;
+import org.hl7.tinkar.entity.util.EntityProcessor;
+import org.hl7.tinkar.entity.util.EntityRealizer;
+import org.hl7.tinkar.integration.TestConstants;
+import org.hl7.tinkar.integration.UncleanStop;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads the test file into a Chronicle Map store, and checks the store once reopened after a clean stop, and
+ * once recovered from a copy of its files taken while it was open.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TestChronicleMapProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(TestChronicleMapProvider.class);
+    private int sourceConceptCount;
+    private int sourceSemanticCount;
+    private int sourcePatternCount;
+    private int sourceStampCount;
+    private int maxSourceNid;
+    private int citedNid;
+    private int[] sourceCitingNids;
+
+    private static int count(Consumer<IntProcedure> forEach) {
+        AtomicInteger count = new AtomicInteger();
+        forEach.accept(nid -> count.incrementAndGet());
+        return count.get();
+    }
+
+    private static int maxNid(Consumer<IntProcedure> forEach) {
+        AtomicInteger maxNid = new AtomicInteger(Integer.MIN_VALUE);
+        forEach.accept(nid -> maxNid.accumulateAndGet(nid, Math::max));
+        return maxNid.get();
+    }
+
+    private static void open(File root) {
+        CachingService.clearAll();
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, root);
+        PrimitiveData.selectControllerByName(TestConstants.CHRONICLE_STORE_OPEN_NAME);
+        Stopwatch openStopwatch = new Stopwatch();
+        PrimitiveData.start();
+        openStopwatch.end();
+        LOG.info("Chronicle opened " + root.getName() + " in: " + openStopwatch.durationString() + "\n\n");
+    }
+
+    @BeforeAll
+    void setupSuite() throws IOException {
+        LOG.info("Setup Suite: " + LOG.getName());
+        open(TestConstants.CHRONICLE_ROOT);
+        LoadEntitiesFromDtoFile loadTink = new LoadEntitiesFromDtoFile(TestConstants.TINK_TEST_FILE);
+        loadTink.compute();
+        LOG.info("Loaded. " + loadTink.report());
+        sourceConceptCount = count(PrimitiveData.get()::forEachConceptNid);
+        sourceSemanticCount = count(PrimitiveData.get()::forEachSemanticNid);
+        sourcePatternCount = count(PrimitiveData.get()::forEachPatternNid);
+        sourceStampCount = count(PrimitiveData.get()::forEachStampNid);
+        maxSourceNid = Math.max(Math.max(maxNid(PrimitiveData.get()::forEachConceptNid),
+                        maxNid(PrimitiveData.get()::forEachSemanticNid)),
+                Math.max(maxNid(PrimitiveData.get()::forEachPatternNid),
+                        maxNid(PrimitiveData.get()::forEachStampNid)));
+        int[] conceptNids = new int[1];
+        PrimitiveData.get().forEachConceptNid(nid -> conceptNids[0] = nid);
+        citedNid = conceptNids[0];
+        sourceCitingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(sourceCitingNids);
+
+        // Merges are in the mapped files once they return, so the copy holds every entity, but no closed marker.
+        UncleanStop.copy(TestConstants.CHRONICLE_ROOT, TestConstants.CHRONICLE_UNCLEAN_ROOT);
+        PrimitiveData.stop();
+        open(TestConstants.CHRONICLE_ROOT);
+    }
+
+    @AfterAll
+    void teardownSuite() {
+        LOG.info("Teardown Suite: " + LOG.getName());
+        PrimitiveData.stop();
+    }
+
+    private void assertSameAsSource() {
+        assertEquals(sourceConceptCount, count(PrimitiveData.get()::forEachConceptNid));
+        assertEquals(sourceSemanticCount, count(PrimitiveData.get()::forEachSemanticNid));
+        assertEquals(sourcePatternCount, count(PrimitiveData.get()::forEachPatternNid));
+        assertEquals(sourceStampCount, count(PrimitiveData.get()::forEachStampNid));
+        int[] citingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(citingNids);
+        assertArrayEquals(sourceCitingNids, citingNids);
+        assertEquals(citedNid, PrimitiveData.get().nidForPublicId(Entity.getFast(citedNid).publicId()));
+    }
+
+    @Test
+    @Order(1)
+    public void reopenedSameAsSource() {
+        assertSameAsSource();
+    }
+
+    @Test
+    @Order(2)
+    public void count() {
+        EntityProcessor processor = new EntityCounter();
+        PrimitiveData.get().forEach(processor);
+        LOG.info("Chronicle Sequential count: \n" + processor.report() + "\n\n");
+        processor = new EntityCounter();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("Chronicle Parallel count: \n" + processor.report() + "\n\n");
+        processor = new EntityRealizer();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("Chronicle Parallel realization: \n" + processor.report() + "\n\n");
+    }
+
+    @Test
+    @Order(3)
+    public void recoveredAfterUncleanStop() {
+        PrimitiveData.stop();
+        open(TestConstants.CHRONICLE_UNCLEAN_ROOT);
+        assertSameAsSource();
+        assertTrue(PrimitiveData.get().nidForUuids(UUID.randomUUID()) > maxSourceNid,
+                "A recovered store must not assign a nid that was assigned before the stop");
+    }
+}
@@ -1,24 +1,40 @@
 package org.hl7.tinkar.integration.provider.ephemeral;
 
 import org.hl7.tinkar.common.service.CachingService;
+import org.hl7.tinkar.common.service.DataUriOption;
 import org.hl7.tinkar.common.service.PrimitiveData;
+import org.hl7.tinkar.common.service.PrimitiveDataSearchResult;
+import org.hl7.tinkar.common.service.PrimitiveDataSnapshot;
 import org.hl7.tinkar.common.service.ServiceProperties;
+import org.hl7.tinkar.common.util.time.Stopwatch;
 import org.hl7.tinkar.entity.load.LoadEntitiesFromDtoFile;
 import org.hl7.tinkar.entity.util.EntityCounter;
 import org.hl7.tinkar.entity.util.EntityProcessor;
 import org.hl7.tinkar.entity.util.EntityRealizer;
 import org.hl7.tinkar.integration.TestConstants;
+import org.hl7.tinkar.provider.ephemeral.ProviderEphemeral;
+import org.hl7.tinkar.provider.search.Indexer;
 import org.junit.jupiter.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 class TestEphemeralProvider {
     private static final Logger LOG = LoggerFactory.getLogger(TestEphemeralProvider.class);
+    private static final int ADDED_ENTITY_COUNT = 100;
 
     @BeforeAll
     static void setupSuite() {
@@ -44,11 +60,14 @@ class TestEphemeralProvider {
 
     @Test
     @Order(1)
-    public void loadChronologies() throws IOException {
+    public void loadChronologies() throws Exception {
         File file = TestConstants.TINK_TEST_FILE;
         LoadEntitiesFromDtoFile loadTink = new LoadEntitiesFromDtoFile(file);
         int count = loadTink.compute();
         LOG.info(count + " entitles loaded from file: " + loadTink.report() + "\n\n");
+        // Semantics indexed after the searcher was opened are found once the searcher is refreshed.
+        Indexer.waitForIndexed();
+        assertTrue(PrimitiveData.get().search("occupation", 50).length > 0);
     }
 
     @Test
@@ -73,4 +92,84 @@ class TestEphemeralProvider {
         PrimitiveData.get().forEachParallel(processor);
         LOG.info("EPH Parallel realization: \n" + processor.report() + "\n\n");
     }
+
+    @Test
+    @Order(3)
+    public void snapshotAndRestore() throws IOException {
+        AtomicInteger loadedCount = new AtomicInteger();
+        PrimitiveData.get().forEach((bytes, nid) -> loadedCount.incrementAndGet());
+        File snapshotFile = TestConstants.EPHEMERAL_SNAPSHOT_FILE;
+        snapshotFile.getParentFile().mkdirs();
+        ((ProviderEphemeral) PrimitiveData.get()).snapshotTo(snapshotFile.toPath());
+        PrimitiveData.stop();
+
+        CachingService.clearAll();
+        PrimitiveData.selectControllerByName(TestConstants.EPHEMERAL_STORE_NAME);
+        PrimitiveData.getController().setDataUriOption(new DataUriOption(snapshotFile.getName(), snapshotFile.toURI()));
+        Stopwatch restoreStopwatch = new Stopwatch();
+        PrimitiveData.start();
+        restoreStopwatch.end();
+        LOG.info("EPH Restored in: " + restoreStopwatch.durationString() + "\n\n");
+
+        AtomicInteger restoredCount = new AtomicInteger();
+        PrimitiveData.get().forEach((bytes, nid) -> restoredCount.incrementAndGet());
+        assertEquals(loadedCount.get(), restoredCount.get());
+        EntityProcessor processor = new EntityRealizer();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("EPH Restored parallel realization: \n" + processor.report() + "\n\n");
+    }
+
+    @Test
+    @Order(4)
+    public void scanSnapshotWhileLoading() throws Exception {
+        AtomicInteger liveCount = new AtomicInteger();
+        AtomicInteger sourceNid = new AtomicInteger();
+        PrimitiveData.get().forEach((bytes, nid) -> {
+            liveCount.incrementAndGet();
+            sourceNid.set(nid);
+        });
+        byte[] sourceBytes = PrimitiveData.get().getBytes(sourceNid.get());
+        int[] addedNids = new int[ADDED_ENTITY_COUNT];
+        try (PrimitiveDataSnapshot snapshot = PrimitiveData.get().snapshot()) {
+            // Loading the file again merges every entity again, and entities are added under new nids, while the
+            // snapshot is scanned.
+            CompletableFuture<Integer> reload = CompletableFuture.supplyAsync(() -> {
+                try {
+                    int count = new LoadEntitiesFromDtoFile(TestConstants.TINK_TEST_FILE).compute();
+                    for (int i = 0; i < addedNids.length; i++) {
+                        addedNids[i] = PrimitiveData.get().nidForUuids(UUID.randomUUID());
+                        PrimitiveData.get().merge(addedNids[i], Integer.MAX_VALUE, Integer.MAX_VALUE, sourceBytes, null);
+                    }
+                    return count;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            AtomicInteger snapshotCount = new AtomicInteger();
+            snapshot.forEachParallel((bytes, nid) -> snapshotCount.incrementAndGet());
+            EntityProcessor processor = new EntityRealizer();
+            snapshot.forEachParallel(processor);
+            LOG.info("EPH Snapshot parallel realization while loading: \n" + processor.report() + "\n\n");
+            reload.get();
+            assertEquals(liveCount.get(), snapshotCount.get());
+            assertTrue(snapshot.writeSequence() < PrimitiveData.get().writeSequence());
+
+            // The entities added after the snapshot was opened are live, but not in the snapshot.
+            for (int addedNid : addedNids) {
+                assertArrayEquals(sourceBytes, PrimitiveData.get().getBytes(addedNid));
+                assertNull(snapshot.getBytes(addedNid));
+            }
+            AtomicInteger snapshotCountAfterLoad = new AtomicInteger();
+            snapshot.forEach((bytes, nid) -> snapshotCountAfterLoad.incrementAndGet());
+            assertEquals(liveCount.get(), snapshotCountAfterLoad.get());
+            AtomicInteger liveCountAfterLoad = new AtomicInteger();
+            PrimitiveData.get().forEach((bytes, nid) -> liveCountAfterLoad.incrementAndGet());
+            assertEquals(liveCount.get() + ADDED_ENTITY_COUNT, liveCountAfterLoad.get());
+        }
+        // Merging every semantic again replaces their documents, so no semantic is found twice.
+        Indexer.waitForIndexed();
+        PrimitiveDataSearchResult[] results = PrimitiveData.get().search("occupation", 500);
+        assertTrue(results.length > 0);
+        assertEquals(results.length, Arrays.stream(results).mapToInt(PrimitiveDataSearchResult::nid).distinct().count());
+    }
 }
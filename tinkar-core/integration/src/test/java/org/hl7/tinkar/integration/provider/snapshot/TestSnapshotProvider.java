@@ -0,0 +1,146 @@
+package org.hl7.tinkar.integration.provider.snapshot;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.Entity;
+import org.hl7.tinkar.entity.SemanticEntity;
+import org.hl7.tinkar.entity.SemanticEntityVersion;
+import org.hl7.tinkar.entity.load.LoadEntitiesFromDtoFile;
+import org.hl7.tinkar.entity.util.EntityCounter;
+import org.hl7.tinkar.entity.util.EntityProcessor;
+import org.hl7.tinkar.entity.util.EntityRealizer;
+import org.hl7.tinkar.integration.TestConstants;
+import org.hl7.tinkar.provider.snapshot.SnapshotProvider;
+import org.hl7.tinkar.provider.snapshot.WriteSnapshotFile;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads the test file into a spined array store, writes a snapshot of it, and opens the snapshot read only.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TestSnapshotProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(TestSnapshotProvider.class);
+    private int sourceConceptCount;
+    private int sourceSemanticCount;
+    private int citedNid;
+    private int[] sourceCitingNids;
+
+    private static int count(Consumer<IntProcedure> forEach) {
+        AtomicInteger count = new AtomicInteger();
+        forEach.accept(nid -> count.incrementAndGet());
+        return count.get();
+    }
+
+    @BeforeAll
+    void setupSuite() throws IOException {
+        LOG.info("Clear caches");
+        CachingService.clearAll();
+        LOG.info("Setup Suite: " + LOG.getName());
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, TestConstants.SNAPSHOT_SOURCE_ROOT);
+        PrimitiveData.selectControllerByName(TestConstants.SA_STORE_OPEN_NAME);
+        PrimitiveData.start();
+        LoadEntitiesFromDtoFile loadTink = new LoadEntitiesFromDtoFile(TestConstants.TINK_TEST_FILE);
+        loadTink.compute();
+        sourceConceptCount = count(PrimitiveData.get()::forEachConceptNid);
+        sourceSemanticCount = count(PrimitiveData.get()::forEachSemanticNid);
+        int[] conceptNids = new int[1];
+        PrimitiveData.get().forEachConceptNid(nid -> conceptNids[0] = nid);
+        citedNid = conceptNids[0];
+        sourceCitingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(sourceCitingNids);
+
+        WriteSnapshotFile writeSnapshot = new WriteSnapshotFile(
+                new File(TestConstants.SNAPSHOT_ROOT, SnapshotProvider.SNAPSHOT_FILE_NAME));
+        int count = writeSnapshot.compute();
+        LOG.info("Wrote snapshot of " + count + " entities in: " + writeSnapshot.durationString());
+        PrimitiveData.stop();
+
+        CachingService.clearAll();
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, TestConstants.SNAPSHOT_ROOT);
+        PrimitiveData.selectControllerByName(TestConstants.SNAPSHOT_OPEN_NAME);
+        Stopwatch openStopwatch = new Stopwatch();
+        PrimitiveData.start();
+        openStopwatch.end();
+        LOG.info("Snapshot opened in: " + openStopwatch.durationString() + "\n\n");
+    }
+
+    @AfterAll
+    void teardownSuite() {
+        LOG.info("Teardown Suite: " + LOG.getName());
+        PrimitiveData.stop();
+    }
+
+    @Test
+    @Order(1)
+    public void sameAsSource() {
+        assertEquals(sourceConceptCount, count(PrimitiveData.get()::forEachConceptNid));
+        assertEquals(sourceSemanticCount, count(PrimitiveData.get()::forEachSemanticNid));
+        int[] citingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(citingNids);
+        assertArrayEquals(sourceCitingNids, citingNids);
+        assertEquals(citedNid, PrimitiveData.get().nidForPublicId(Entity.getFast(citedNid).publicId()));
+    }
+
+    @Test
+    @Order(2)
+    public void count() {
+        EntityProcessor processor = new EntityCounter();
+        PrimitiveData.get().forEach(processor);
+        LOG.info("Snapshot Sequential count: \n" + processor.report() + "\n\n");
+        processor = new EntityCounter();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("Snapshot Parallel count: \n" + processor.report() + "\n\n");
+        processor = new EntityRealizer();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("Snapshot Parallel realization: \n" + processor.report() + "\n\n");
+        try {
+            PrimitiveDataSearchResult[] results = PrimitiveData.get().search("occupation", 50);
+            LOG.info("Search results: \n" + Arrays.toString(results) + "\n\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    @Order(3)
+    public void readOnly() {
+        byte[] bytes = PrimitiveData.get().getBytes(citedNid);
+        assertThrows(UnsupportedOperationException.class,
+                () -> PrimitiveData.get().merge(citedNid, Integer.MAX_VALUE, Integer.MAX_VALUE, bytes, null));
+        assertThrows(IllegalStateException.class,
+                () -> PrimitiveData.get().nidForUuids(UUID.randomUUID()));
+    }
+
+    @Test
+    @Order(4)
+    public void prebuiltSearchIndex() throws Exception {
+        File[] indexDirectories = TestConstants.SNAPSHOT_ROOT.listFiles((dir, name) -> name.endsWith(".lucene"));
+        assertNotNull(indexDirectories);
+        assertEquals(1, indexDirectories.length);
+        String[] word = new String[1];
+        PrimitiveData.get().forEachSemanticNid(nid -> {
+            if (word[0] == null && Entity.getFast(nid) instanceof SemanticEntity<?> semantic) {
+                for (Object field : ((SemanticEntityVersion) semantic.versions().get(0)).fieldValues()) {
+                    if (field instanceof String text && text.matches("[A-Za-z]{4,}.*")) {
+                        word[0] = text.split("[^A-Za-z]")[0];
+                    }
+                }
+            }
+        });
+        assertNotNull(word[0]);
+        assertTrue(PrimitiveData.get().search(word[0], 10).length > 0, "No search results for: " + word[0]);
+    }
+}
@@ -0,0 +1,126 @@
+package org.hl7.tinkar.integration.provider.spinedarray;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.*;
+import org.hl7.tinkar.entity.load.LoadEntitiesFromDtoFile;
+import org.hl7.tinkar.integration.TestConstants;
+import org.hl7.tinkar.integration.UncleanStop;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads the test file into a spined array store, and stops it cleanly, so the store is saved. Then merges a
+ * semantic with a new nid, syncs the write ahead log, and checks that a copy of the files taken while the store
+ * was open recovers the semantic, and the nid of its UUID, by replaying the log.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TestSpinedArrayRecovery {
+    private static final Logger LOG = LoggerFactory.getLogger(TestSpinedArrayRecovery.class);
+    private int sourceSemanticCount;
+    private int maxSourceNid;
+    private int citedNid;
+    private UUID mergedUuid;
+    private int mergedNid;
+    private byte[] mergedBytes;
+
+    private static int count(Consumer<IntProcedure> forEach) {
+        AtomicInteger count = new AtomicInteger();
+        forEach.accept(nid -> count.incrementAndGet());
+        return count.get();
+    }
+
+    private static int maxNid(Consumer<IntProcedure> forEach) {
+        AtomicInteger maxNid = new AtomicInteger(Integer.MIN_VALUE);
+        forEach.accept(nid -> maxNid.accumulateAndGet(nid, Math::max));
+        return maxNid.get();
+    }
+
+    private static void open(File root) {
+        CachingService.clearAll();
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, root);
+        PrimitiveData.selectControllerByName(TestConstants.SA_STORE_OPEN_NAME);
+        Stopwatch openStopwatch = new Stopwatch();
+        PrimitiveData.start();
+        openStopwatch.end();
+        LOG.info("SAP opened " + root.getName() + " in: " + openStopwatch.durationString() + "\n\n");
+    }
+
+    @BeforeAll
+    void setupSuite() throws IOException {
+        LOG.info("Setup Suite: " + LOG.getName());
+        open(TestConstants.SAP_RECOVERY_ROOT);
+        LoadEntitiesFromDtoFile loadTink = new LoadEntitiesFromDtoFile(TestConstants.TINK_TEST_FILE);
+        loadTink.compute();
+        LOG.info("Loaded. " + loadTink.report());
+        PrimitiveData.stop();
+        open(TestConstants.SAP_RECOVERY_ROOT);
+        sourceSemanticCount = count(PrimitiveData.get()::forEachSemanticNid);
+        maxSourceNid = Math.max(Math.max(maxNid(PrimitiveData.get()::forEachConceptNid),
+                        maxNid(PrimitiveData.get()::forEachSemanticNid)),
+                Math.max(maxNid(PrimitiveData.get()::forEachPatternNid),
+                        maxNid(PrimitiveData.get()::forEachStampNid)));
+    }
+
+    @AfterAll
+    void teardownSuite() {
+        LOG.info("Teardown Suite: " + LOG.getName());
+        PrimitiveData.stop();
+    }
+
+    private void assertMergeRecovered() {
+        assertEquals(sourceSemanticCount + 1, count(PrimitiveData.get()::forEachSemanticNid));
+        assertEquals(mergedNid, PrimitiveData.get().nidForUuids(mergedUuid), "The nid of the UUID must be recovered");
+        assertArrayEquals(mergedBytes, PrimitiveData.get().getBytes(mergedNid));
+        assertTrue(Arrays.stream(PrimitiveData.get().semanticNidsForComponent(citedNid)).anyMatch(nid -> nid == mergedNid));
+        assertTrue(PrimitiveData.get().nidForUuids(UUID.randomUUID()) > mergedNid,
+                "A recovered store must not assign a nid that was assigned before the stop");
+    }
+
+    @Test
+    @Order(1)
+    public void loggedMergeRecoveredAfterUncleanStop() throws IOException {
+        int[] semanticNids = new int[1];
+        PrimitiveData.get().forEachSemanticNid(nid -> semanticNids[0] = nid);
+        SemanticEntity<SemanticEntityVersion> copiedSemantic = Entity.getFast(semanticNids[0]);
+        SemanticEntityVersion copiedVersion = copiedSemantic.versions().get(0);
+        citedNid = copiedSemantic.referencedComponentNid();
+        mergedUuid = UUID.randomUUID();
+        mergedNid = PrimitiveData.nid(mergedUuid);
+        assertTrue(mergedNid > maxSourceNid);
+        RecordListBuilder<SemanticVersionRecord> versions = RecordListBuilder.make();
+        SemanticRecord semantic = new SemanticRecord(mergedUuid.getMostSignificantBits(), mergedUuid.getLeastSignificantBits(),
+                null, mergedNid, copiedSemantic.patternNid(), citedNid, versions);
+        versions.add(new SemanticVersionRecord(semantic, copiedVersion.stampNid(), copiedVersion.fieldValues()));
+        versions.build();
+        mergedBytes = PrimitiveData.get().merge(mergedNid, copiedSemantic.patternNid(), citedNid,
+                semantic.getBytes(), semantic);
+
+        // Synced, so the copy holds the merge, and the nid of its UUID, in the log only.
+        PrimitiveData.get().sync();
+        UncleanStop.copy(TestConstants.SAP_RECOVERY_ROOT, TestConstants.SAP_UNCLEAN_ROOT);
+        PrimitiveData.stop();
+        open(TestConstants.SAP_UNCLEAN_ROOT);
+        assertMergeRecovered();
+    }
+
+    @Test
+    @Order(2)
+    public void recoveredStoreSavedOnStop() {
+        PrimitiveData.stop();
+        open(TestConstants.SAP_UNCLEAN_ROOT);
+        assertMergeRecovered();
+    }
+}
@@ -0,0 +1,192 @@
+package org.hl7.tinkar.integration.provider.tiered;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.*;
+import org.hl7.tinkar.entity.load.LoadEntitiesFromDtoFile;
+import org.hl7.tinkar.entity.util.EntityCounter;
+import org.hl7.tinkar.entity.util.EntityProcessor;
+import org.hl7.tinkar.entity.util.EntityRealizer;
+import org.hl7.tinkar.integration.TestConstants;
+import org.hl7.tinkar.integration.UncleanStop;
+import org.hl7.tinkar.provider.tiered.TieredKeys;
+import org.hl7.tinkar.provider.tiered.TieredProvider;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads the test file into a tiered store over a spined array store, with a hot tier smaller than the test file.
+ * Checks that a merge is visible before it is drained, that reads promote entities into the bounded hot tier,
+ * and that the store is unchanged once reopened, and once recovered from a copy of its files taken while it
+ * was open.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TestTieredProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(TestTieredProvider.class);
+    private static final long HOT_TIER_BYTES = 256 * 1024;
+    private int sourceConceptCount;
+    private int sourceSemanticCount;
+    private int sourcePatternCount;
+    private int sourceStampCount;
+    private int maxSourceNid;
+    private int citedNid;
+    private int[] sourceCitingNids;
+
+    private static int count(Consumer<IntProcedure> forEach) {
+        AtomicInteger count = new AtomicInteger();
+        forEach.accept(nid -> count.incrementAndGet());
+        return count.get();
+    }
+
+    private static int maxNid(Consumer<IntProcedure> forEach) {
+        AtomicInteger maxNid = new AtomicInteger(Integer.MIN_VALUE);
+        forEach.accept(nid -> maxNid.accumulateAndGet(nid, Math::max));
+        return maxNid.get();
+    }
+
+    private static TieredProvider tieredProvider() {
+        return (TieredProvider) PrimitiveData.get();
+    }
+
+    private static void open(File root) {
+        CachingService.clearAll();
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, root);
+        PrimitiveData.selectControllerByName(TestConstants.TIERED_STORE_OPEN_NAME);
+        Stopwatch openStopwatch = new Stopwatch();
+        PrimitiveData.start();
+        openStopwatch.end();
+        LOG.info("Tiered opened " + root.getName() + " in: " + openStopwatch.durationString() + "\n\n");
+    }
+
+    @BeforeAll
+    void setupSuite() throws IOException {
+        LOG.info("Setup Suite: " + LOG.getName());
+        ServiceProperties.set(TieredKeys.HOT_TIER_BYTES, HOT_TIER_BYTES);
+        open(TestConstants.TIERED_ROOT);
+        LoadEntitiesFromDtoFile loadTink = new LoadEntitiesFromDtoFile(TestConstants.TINK_TEST_FILE);
+        loadTink.compute();
+        LOG.info("Loaded. " + loadTink.report());
+        sourceConceptCount = count(PrimitiveData.get()::forEachConceptNid);
+        sourceSemanticCount = count(PrimitiveData.get()::forEachSemanticNid);
+        sourcePatternCount = count(PrimitiveData.get()::forEachPatternNid);
+        sourceStampCount = count(PrimitiveData.get()::forEachStampNid);
+        maxSourceNid = Math.max(Math.max(maxNid(PrimitiveData.get()::forEachConceptNid),
+                        maxNid(PrimitiveData.get()::forEachSemanticNid)),
+                Math.max(maxNid(PrimitiveData.get()::forEachPatternNid),
+                        maxNid(PrimitiveData.get()::forEachStampNid)));
+        int[] semanticNids = new int[1];
+        PrimitiveData.get().forEachSemanticNid(nid -> semanticNids[0] = nid);
+        SemanticEntity<SemanticEntityVersion> semantic = Entity.getFast(semanticNids[0]);
+        citedNid = semantic.referencedComponentNid();
+        sourceCitingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(sourceCitingNids);
+    }
+
+    @AfterAll
+    void teardownSuite() {
+        LOG.info("Teardown Suite: " + LOG.getName());
+        PrimitiveData.stop();
+        ServiceProperties.set(TieredKeys.HOT_TIER_BYTES, 64L * 1024 * 1024);
+    }
+
+    private void assertSameAsSource() {
+        assertEquals(sourceConceptCount, count(PrimitiveData.get()::forEachConceptNid));
+        assertEquals(sourceSemanticCount, count(PrimitiveData.get()::forEachSemanticNid));
+        assertEquals(sourcePatternCount, count(PrimitiveData.get()::forEachPatternNid));
+        assertEquals(sourceStampCount, count(PrimitiveData.get()::forEachStampNid));
+        int[] citingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(citingNids);
+        assertArrayEquals(sourceCitingNids, citingNids);
+        assertEquals(citedNid, PrimitiveData.get().nidForPublicId(Entity.getFast(citedNid).publicId()));
+    }
+
+    @Test
+    @Order(1)
+    public void pendingWritesVisible() {
+        SemanticEntity<SemanticEntityVersion> citingSemantic = Entity.getFast(sourceCitingNids[0]);
+        SemanticEntityVersion citingVersion = citingSemantic.versions().get(0);
+        UUID uuid = UUID.randomUUID();
+        int nid = PrimitiveData.nid(uuid);
+        RecordListBuilder<SemanticVersionRecord> versions = RecordListBuilder.make();
+        SemanticRecord semantic = new SemanticRecord(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                null, nid, citingSemantic.patternNid(), citedNid, versions);
+        versions.add(new SemanticVersionRecord(semantic, citingVersion.stampNid(), citingVersion.fieldValues()));
+        versions.build();
+
+        byte[] mergedBytes = PrimitiveData.get().merge(nid, citingSemantic.patternNid(), citedNid,
+                semantic.getBytes(), semantic);
+        // Read back at once, before or after the write is drained.
+        assertArrayEquals(mergedBytes, PrimitiveData.get().getBytes(nid));
+        assertTrue(Arrays.stream(PrimitiveData.get().semanticNidsForComponent(citedNid)).anyMatch(citingNid -> citingNid == nid));
+        assertTrue(Arrays.stream(PrimitiveData.get().semanticNidsOfPattern(citingSemantic.patternNid())).anyMatch(elementNid -> elementNid == nid));
+        assertEquals(sourceSemanticCount + 1, count(PrimitiveData.get()::forEachSemanticNid));
+
+        sourceSemanticCount++;
+        sourceCitingNids = PrimitiveData.get().semanticNidsForComponent(citedNid);
+        Arrays.sort(sourceCitingNids);
+        maxSourceNid = Math.max(maxSourceNid, nid);
+        PrimitiveData.get().sync();
+        assertEquals(0, tieredProvider().pendingBytes());
+    }
+
+    @Test
+    @Order(2)
+    public void reopenedSameAsSource() {
+        PrimitiveData.stop();
+        open(TestConstants.TIERED_ROOT);
+        assertSameAsSource();
+    }
+
+    @Test
+    @Order(3)
+    public void readsPromoteToBoundedHotTier() {
+        byte[] citedBytes = PrimitiveData.get().getBytes(citedNid);
+        long[] readBytes = new long[1];
+        PrimitiveData.get().forEachConceptNid(nid -> readBytes[0] += PrimitiveData.get().getBytes(nid).length);
+        PrimitiveData.get().forEachSemanticNid(nid -> readBytes[0] += PrimitiveData.get().getBytes(nid).length);
+        assertTrue(readBytes[0] > HOT_TIER_BYTES, "The test file must not fit in the hot tier");
+        long hotTierBytes = tieredProvider().hotTierBytes();
+        assertTrue(hotTierBytes > 0, "Reads must promote entities into the hot tier");
+        assertTrue(hotTierBytes <= HOT_TIER_BYTES, "Entities past the bound must be demoted: " + hotTierBytes);
+        assertArrayEquals(citedBytes, PrimitiveData.get().getBytes(citedNid));
+    }
+
+    @Test
+    @Order(4)
+    public void count() {
+        EntityProcessor processor = new EntityCounter();
+        PrimitiveData.get().forEach(processor);
+        LOG.info("Tiered Sequential count: \n" + processor.report() + "\n\n");
+        processor = new EntityCounter();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("Tiered Parallel count: \n" + processor.report() + "\n\n");
+        processor = new EntityRealizer();
+        PrimitiveData.get().forEachParallel(processor);
+        LOG.info("Tiered Parallel realization: \n" + processor.report() + "\n\n");
+    }
+
+    @Test
+    @Order(5)
+    public void recoveredAfterUncleanStop() throws IOException {
+        // Synced, so the copy holds every merge, drained to the cold tier and logged by it.
+        PrimitiveData.get().sync();
+        UncleanStop.copy(TestConstants.TIERED_ROOT, TestConstants.TIERED_UNCLEAN_ROOT);
+        PrimitiveData.stop();
+        open(TestConstants.TIERED_UNCLEAN_ROOT);
+        assertSameAsSource();
+        assertTrue(PrimitiveData.get().nidForUuids(UUID.randomUUID()) > maxSourceNid,
+                "A recovered store must not assign a nid that was assigned before the stop");
+    }
+}
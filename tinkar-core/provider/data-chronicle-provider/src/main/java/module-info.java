@@ -0,0 +1,20 @@
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.LoadDataFromFileController;
+import org.hl7.tinkar.provider.chronicle.ChronicleMapNewController;
+import org.hl7.tinkar.provider.chronicle.ChronicleMapOpenController;
+
+@SuppressWarnings("module")
+        // 7 in HL7 is not a version reference
+module org.hl7.tinkar.provider.chronicle {
+    requires org.hl7.tinkar.chroniclemap;
+    requires org.hl7.tinkar.common;
+    requires org.hl7.tinkar.component;
+    requires org.hl7.tinkar.entity;
+    requires org.hl7.tinkar.provider.search;
+    requires static org.hl7.tinkar.autoservice;
+
+    provides DataServiceController
+            with ChronicleMapOpenController, ChronicleMapNewController;
+
+    uses LoadDataFromFileController;
+}
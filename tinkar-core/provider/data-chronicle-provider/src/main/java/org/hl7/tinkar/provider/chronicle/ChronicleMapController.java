@@ -0,0 +1,61 @@
+package org.hl7.tinkar.provider.chronicle;
+
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+
+import java.io.IOException;
+
+public abstract class ChronicleMapController implements DataServiceController<PrimitiveDataService> {
+
+    @Override
+    public Class<? extends PrimitiveDataService> serviceClass() {
+        return PrimitiveDataService.class;
+    }
+
+    @Override
+    public boolean running() {
+        return ChronicleMapProvider.singleton != null;
+    }
+
+    @Override
+    public void start() {
+        try {
+            new ChronicleMapProvider();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (ChronicleMapProvider.singleton != null) {
+            ChronicleMapProvider.singleton.close();
+            ChronicleMapProvider.singleton = null;
+        }
+    }
+
+    @Override
+    public void save() {
+        if (ChronicleMapProvider.singleton != null) {
+            ChronicleMapProvider.singleton.save();
+        }
+    }
+
+    @Override
+    public void reload() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PrimitiveDataService provider() {
+        if (ChronicleMapProvider.singleton == null) {
+            start();
+        }
+        return ChronicleMapProvider.singleton;
+    }
+
+    @Override
+    public String toString() {
+        return controllerName();
+    }
+}
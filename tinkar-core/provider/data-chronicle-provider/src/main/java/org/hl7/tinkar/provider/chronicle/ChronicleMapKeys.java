@@ -0,0 +1,22 @@
+package org.hl7.tinkar.provider.chronicle;
+
+/**
+ * {@link org.hl7.tinkar.common.service.ServiceProperties} keys to configure the Chronicle Map provider.
+ * Chronicle maps are sized when created, so the values are only read when the provider creates a new database;
+ * an existing database keeps the sizes it was created with.
+ */
+public enum ChronicleMapKeys {
+    /**
+     * Long number of entities the maps are sized for. The UUID map is sized for twice as many. Defaults to 1,000,000.
+     */
+    ENTITY_ENTRIES,
+    /**
+     * Double average size in bytes of a serialized entity. Defaults to 512.
+     */
+    AVERAGE_ENTITY_BYTES,
+    /**
+     * Double factor by which the maps may grow past the number of entries they were sized for, at some cost in
+     * lookup time. Defaults to 10.
+     */
+    MAX_BLOAT_FACTOR
+}
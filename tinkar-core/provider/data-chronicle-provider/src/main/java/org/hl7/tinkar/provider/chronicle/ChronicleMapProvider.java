@@ -0,0 +1,468 @@
+package org.hl7.tinkar.provider.chronicle;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.list.ImmutableList;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
+import org.hl7.tinkar.common.util.ints2long.IntsInLong;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.component.FieldDataType;
+import org.hl7.tinkar.entity.*;
+import org.hl7.tinkar.provider.search.Indexer;
+import org.hl7.tinkar.provider.search.Searcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * PrimitiveDataService backed by persisted, off-heap Chronicle maps of nid to entity bytes, UUID to nid, nid to
+ * pattern nid, and citations. The maps are memory mapped files, so the provider opens without reading them,
+ * and entities are held in the page cache rather than on the Java heap. Merges are in the mapped files as soon
+ * as they return, and survive the process exiting without a save.
+ * <p>
+ * The heap holds only compressed bitmaps of the nids of each component type and of the elements of each pattern.
+ * They are written on save and close, and read on open. A database that was not closed is opened with the
+ * Chronicle maps recovered, and the bitmaps rebuilt by a scan of the entities.
+ * <p>
+ * Chronicle Map needs reflective access to the JDK, so the JVM must be started with:
+ * <pre>
+ * --add-opens java.base/java.lang.reflect=org.hl7.tinkar.chroniclemap
+ * --add-opens java.base/sun.nio.ch=org.hl7.tinkar.chroniclemap
+ * --add-exports java.base/jdk.internal.ref=org.hl7.tinkar.chroniclemap
+ * </pre>
+ */
+public class ChronicleMapProvider implements PrimitiveDataService, NidGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(ChronicleMapProvider.class);
+    private static final File defaultDataDirectory = new File("target/chronicle/");
+    private static final int NID_SETS_FORMAT_VERSION = 1;
+    /**
+     * Citations of a component are held in chunks of at most this many citations, so that the entries of
+     * frequently cited components stay within the entry size limit of Chronicle Map.
+     */
+    private static final int CITATIONS_PER_CHUNK = 1024;
+    protected static ChronicleMapProvider singleton;
+
+    final AtomicInteger nextNid = new AtomicInteger(PrimitiveDataService.FIRST_NID);
+    final LongAdder writeSequence = new LongAdder();
+    final ChronicleMap<Integer, byte[]> nidToEntityBytesMap;
+    final ChronicleMap<byte[], Integer> uuidBytesToNidMap;
+    final UuidNidMap uuidToNidMap;
+    final ChronicleMap<Integer, Integer> nidToPatternNidMap;
+    /**
+     * Using "citing" instead of "referencing" to make the field names more distinct. Keyed by the component
+     * nid and chunk index, as made by {@link IntsInLong#ints2Long(int, int)}, with the citations of each chunk
+     * packed as longs.
+     */
+    final ChronicleMap<Long, byte[]> nidToCitingComponentsNidMap;
+    final ConcurrentRoaringIntSet patternNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet conceptNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet semanticNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet stampNids = new ConcurrentRoaringIntSet();
+    final ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap = new ConcurrentHashMap<>();
+    final File nidSetsFile;
+    /**
+     * Present while the database is closed cleanly. Removed on open, and written by {@link #close()}.
+     */
+    final File closedFile;
+    final Indexer indexer;
+    final Searcher searcher;
+    final String name;
+
+    public ChronicleMapProvider() throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Opening ChronicleMapProvider");
+        File configuredRoot = ServiceProperties.get(ServiceKeys.DATA_STORE_ROOT, defaultDataDirectory);
+        configuredRoot.mkdirs();
+        this.name = configuredRoot.getName();
+        this.nidSetsFile = new File(configuredRoot, "nidSets");
+        this.closedFile = new File(configuredRoot, "closed");
+        File entityBytesFile = new File(configuredRoot, "nidToEntityBytes.dat");
+        boolean newDatabase = !entityBytesFile.exists();
+        boolean closedCleanly = newDatabase || closedFile.exists();
+        if (!closedCleanly) {
+            LOG.warn("ChronicleMapProvider was not closed at: " + configuredRoot.getAbsolutePath() + ", recovering");
+        }
+
+        long entityEntries = ServiceProperties.get(ChronicleMapKeys.ENTITY_ENTRIES, 1_000_000L);
+        double averageEntityBytes = ServiceProperties.get(ChronicleMapKeys.AVERAGE_ENTITY_BYTES, 512.0);
+        double maxBloatFactor = ServiceProperties.get(ChronicleMapKeys.MAX_BLOAT_FACTOR, 10.0);
+        this.nidToEntityBytesMap = open(ChronicleMap.of(Integer.class, byte[].class)
+                .name("nidToEntityBytes")
+                .entries(entityEntries)
+                .averageValueSize(averageEntityBytes)
+                .maxBloatFactor(maxBloatFactor), entityBytesFile, closedCleanly);
+        this.uuidBytesToNidMap = open(ChronicleMap.of(byte[].class, Integer.class)
+                .name("uuidToNid")
+                .entries(entityEntries * 2)
+                .constantKeySizeBySample(new byte[16])
+                .maxBloatFactor(maxBloatFactor), new File(configuredRoot, "uuidToNid.dat"), closedCleanly);
+        this.uuidToNidMap = new UuidNidMap(uuidBytesToNidMap);
+        this.nidToPatternNidMap = open(ChronicleMap.of(Integer.class, Integer.class)
+                .name("nidToPatternNid")
+                .entries(entityEntries)
+                .maxBloatFactor(maxBloatFactor), new File(configuredRoot, "nidToPatternNid.dat"), closedCleanly);
+        this.nidToCitingComponentsNidMap = open(ChronicleMap.of(Long.class, byte[].class)
+                .name("nidToCitingComponentsNid")
+                .entries(entityEntries)
+                .averageValueSize(4 * Long.BYTES)
+                .maxBloatFactor(maxBloatFactor), new File(configuredRoot, "nidToCitingComponentsNid.dat"), closedCleanly);
+
+        if (closedCleanly) {
+            readNidSets();
+        } else {
+            rebuildNidSets();
+        }
+        Files.deleteIfExists(closedFile.toPath());
+
+        ChronicleMapProvider.singleton = this;
+        File indexDir = new File(configuredRoot, "lucene");
+        this.indexer = new Indexer(indexDir.toPath());
+        this.searcher = new Searcher();
+        stopwatch.stop();
+        LOG.info("Opened ChronicleMapProvider in: " + stopwatch.durationString());
+    }
+
+    private static <K, V> ChronicleMap<K, V> open(ChronicleMapBuilder<K, V> builder, File file,
+                                                  boolean closedCleanly) throws IOException {
+        if (closedCleanly) {
+            return builder.createPersistedTo(file);
+        }
+        return builder.createOrRecoverPersistedTo(file);
+    }
+
+    private static byte[] citationBytes(long citationLong) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(citationLong).array();
+    }
+
+    private static void forEachCitation(byte[] citationBytes, IntProcedure citingNidProcedure) {
+        ByteBuffer buffer = ByteBuffer.wrap(citationBytes);
+        while (buffer.hasRemaining()) {
+            citingNidProcedure.value((int) (buffer.getLong() >> 32));
+        }
+    }
+
+    private void readNidSets() throws IOException {
+        if (!nidSetsFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(nidSetsFile)))) {
+            int formatVersion = in.readInt();
+            if (formatVersion != NID_SETS_FORMAT_VERSION) {
+                throw new IOException("Unsupported nid sets format: " + formatVersion);
+            }
+            writeSequence.add(in.readLong());
+            nextNid.set(in.readInt());
+            conceptNids.readFrom(in);
+            semanticNids.readFrom(in);
+            patternNids.readFrom(in);
+            stampNids.readFrom(in);
+            int patternCount = in.readInt();
+            for (int i = 0; i < patternCount; i++) {
+                ConcurrentRoaringIntSet elementNids = new ConcurrentRoaringIntSet();
+                patternElementNidsMap.put(in.readInt(), elementNids);
+                elementNids.readFrom(in);
+            }
+        }
+    }
+
+    /**
+     * Writes the nid sets to a temporary file that then replaces the nid sets file, so the file is always complete.
+     */
+    private void writeNidSets() throws IOException {
+        File tempFile = new File(nidSetsFile.getParentFile(), nidSetsFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(NID_SETS_FORMAT_VERSION);
+            out.writeLong(writeSequence.sum());
+            out.writeInt(nextNid.get());
+            conceptNids.writeTo(out);
+            semanticNids.writeTo(out);
+            patternNids.writeTo(out);
+            stampNids.writeTo(out);
+            Map.Entry<Integer, ConcurrentRoaringIntSet>[] entries =
+                    patternElementNidsMap.entrySet().toArray(new Map.Entry[0]);
+            out.writeInt(entries.length);
+            for (Map.Entry<Integer, ConcurrentRoaringIntSet> entry : entries) {
+                out.writeInt(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+        }
+        Files.move(tempFile.toPath(), nidSetsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Rebuilds the nid sets of a database that was not closed from the entities, and sets the next nid past
+     * every nid that was assigned to a UUID.
+     */
+    private void rebuildNidSets() throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        readNidSets();
+        conceptNids.clear();
+        semanticNids.clear();
+        patternNids.clear();
+        stampNids.clear();
+        patternElementNidsMap.clear();
+        forEachParallel((bytes, nid) -> {
+            // bytes starts with number of arrays (int = 4 bytes), then size of first array (int = 4 bytes), then entity format version then type token.
+            switch (FieldDataType.fromToken(bytes[9])) {
+                case CONCEPT_CHRONOLOGY -> conceptNids.add(nid);
+                case PATTERN_CHRONOLOGY -> patternNids.add(nid);
+                case STAMP -> stampNids.add(nid);
+                case SEMANTIC_CHRONOLOGY -> {
+                    semanticNids.add(nid);
+                    Integer patternNid = nidToPatternNidMap.get(nid);
+                    if (patternNid != null) {
+                        addToPatternElementSet(patternNid, nid);
+                    }
+                }
+                default -> LOG.warn("Unexpected component type for nid: " + nid);
+            }
+        });
+        int maxNid = uuidBytesToNidMap.values().stream().mapToInt(Integer::intValue).max().orElse(nextNid.get() - 1);
+        nextNid.accumulateAndGet(maxNid + 1, Math::max);
+        writeNidSets();
+        stopwatch.stop();
+        LOG.info("Rebuilt nid sets in: " + stopwatch.durationString());
+    }
+
+    @Override
+    public int newNid() {
+        return nextNid.getAndIncrement();
+    }
+
+    @Override
+    public long writeSequence() {
+        return writeSequence.sum();
+    }
+
+    @Override
+    public void close() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Closing ChronicleMapProvider");
+        try {
+            save();
+            this.indexer.close();
+            this.nidToEntityBytesMap.close();
+            this.uuidBytesToNidMap.close();
+            this.nidToPatternNidMap.close();
+            this.nidToCitingComponentsNidMap.close();
+            Files.writeString(closedFile.toPath(), Long.toString(writeSequence.sum()));
+            ChronicleMapProvider.singleton = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            stopwatch.stop();
+            LOG.info("Closed ChronicleMapProvider in: " + stopwatch.durationString());
+        }
+    }
+
+    /**
+     * Writes the nid sets and commits the search index. The Chronicle maps need no save, since they are
+     * written in place.
+     */
+    public void save() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Saving ChronicleMapProvider");
+        try {
+            writeNidSets();
+            this.indexer.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            stopwatch.stop();
+            LOG.info("Saved ChronicleMapProvider in: " + stopwatch.durationString());
+        }
+    }
+
+    @Override
+    public int nidForUuids(UUID... uuids) {
+        return PrimitiveDataService.nidForUuids(uuidToNidMap, this, uuids);
+    }
+
+    @Override
+    public int nidForUuids(ImmutableList<UUID> uuidList) {
+        return PrimitiveDataService.nidForUuids(uuidToNidMap, this, uuidList);
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        nidToEntityBytesMap.entrySet().forEach(entry -> action.accept(entry.getValue(), entry.getKey()));
+    }
+
+    /**
+     * Chronicle Map iterators must be used by a single thread, so the nids are read by one iterator, and the
+     * entities are read in parallel by nid.
+     */
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        int[] nids = nidToEntityBytesMap.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Arrays.stream(nids).parallel().forEach(nid -> {
+            byte[] bytes = nidToEntityBytesMap.get(nid);
+            if (bytes != null) {
+                action.accept(bytes, nid);
+            }
+        });
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        return nidToEntityBytesMap.get(nid);
+    }
+
+    @Override
+    public byte[] merge(int nid, int patternNid, int referencedComponentNid, byte[] value, Object sourceObject) {
+        if (nid == Integer.MIN_VALUE) {
+            LOG.error("NID should not be Integer.MIN_VALUE");
+            throw new IllegalStateException("NID should not be Integer.MIN_VALUE");
+        }
+        if (nidToPatternNidMap.putIfAbsent(nid, patternNid) == null) {
+            if (patternNid != Integer.MAX_VALUE) {
+                addCitation(referencedComponentNid, IntsInLong.ints2Long(nid, patternNid));
+                addToPatternElementSet(patternNid, nid);
+            }
+            if (sourceObject instanceof ConceptEntity) {
+                this.conceptNids.add(nid);
+            } else if (sourceObject instanceof SemanticEntity) {
+                this.semanticNids.add(nid);
+            } else if (sourceObject instanceof PatternEntity) {
+                this.patternNids.add(nid);
+            } else if (sourceObject instanceof StampEntity) {
+                this.stampNids.add(nid);
+            }
+        }
+        byte[] mergedBytes = nidToEntityBytesMap.merge(nid, value, PrimitiveDataService::merge);
+        writeSequence.increment();
+        this.indexer.index(sourceObject, mergedBytes);
+        return mergedBytes;
+    }
+
+    /**
+     * Appends the citation to the last chunk of citations of the component, or starts a new chunk if the last
+     * is full. The citation of each nid is added once, when its pattern nid is first put, so chunks are not
+     * searched for duplicates.
+     */
+    private void addCitation(int referencedComponentNid, long citationLong) {
+        for (int chunk = 0; ; chunk++) {
+            long chunkKey = IntsInLong.ints2Long(referencedComponentNid, chunk);
+            byte[] citationBytes = nidToCitingComponentsNidMap.get(chunkKey);
+            if (citationBytes == null || citationBytes.length < CITATIONS_PER_CHUNK * Long.BYTES) {
+                boolean[] added = new boolean[1];
+                nidToCitingComponentsNidMap.compute(chunkKey, (key, chunkBytes) -> {
+                    if (chunkBytes == null) {
+                        added[0] = true;
+                        return citationBytes(citationLong);
+                    }
+                    if (chunkBytes.length < CITATIONS_PER_CHUNK * Long.BYTES) {
+                        added[0] = true;
+                        byte[] appendedBytes = Arrays.copyOf(chunkBytes, chunkBytes.length + Long.BYTES);
+                        ByteBuffer.wrap(appendedBytes).putLong(chunkBytes.length, citationLong);
+                        return appendedBytes;
+                    }
+                    // Filled by another thread, so try the next chunk.
+                    return chunkBytes;
+                });
+                if (added[0]) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public boolean addToPatternElementSet(int patternNid, int elementNid) {
+        return patternElementNidsMap.computeIfAbsent(patternNid, key -> new ConcurrentRoaringIntSet())
+                .add(elementNid);
+    }
+
+    @Override
+    public PrimitiveDataSearchResult[] search(String query, int maxResultSize) throws Exception {
+        return this.searcher.search(query, maxResultSize);
+    }
+
+    @Override
+    public int[] semanticNidsOfPattern(int patternNid) {
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null) {
+            return elementNids.toArray();
+        }
+        return new int[0];
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null && elementNids.notEmpty()) {
+            elementNids.forEach(procedure);
+        } else {
+            Entity entity = Entity.getFast(patternNid);
+            if (entity instanceof PatternEntity == false) {
+                throw new IllegalStateException("Trying to iterate elements for entity that is not a pattern: " + entity);
+            }
+        }
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        this.patternNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        this.conceptNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        this.stampNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        this.semanticNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        for (int chunk = 0; ; chunk++) {
+            byte[] citationBytes = nidToCitingComponentsNidMap.get(IntsInLong.ints2Long(componentNid, chunk));
+            if (citationBytes == null) {
+                return;
+            }
+            forEachCitation(citationBytes, procedure);
+        }
+    }
+
+    @Override
+    public void forEachSemanticNidForComponentOfPattern(int componentNid, int patternNid, IntProcedure procedure) {
+        for (int chunk = 0; ; chunk++) {
+            byte[] citationBytes = nidToCitingComponentsNidMap.get(IntsInLong.ints2Long(componentNid, chunk));
+            if (citationBytes == null) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(citationBytes);
+            while (buffer.hasRemaining()) {
+                long citationLong = buffer.getLong();
+                if ((int) citationLong == patternNid) {
+                    procedure.value((int) (citationLong >> 32));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+}
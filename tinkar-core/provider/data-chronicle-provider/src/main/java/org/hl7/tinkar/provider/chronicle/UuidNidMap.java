@@ -0,0 +1,123 @@
+package org.hl7.tinkar.provider.chronicle;
+
+import net.openhft.chronicle.map.ChronicleMap;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * View of a Chronicle map of 16 byte UUID keys to nids as a map of UUIDs, for use with
+ * {@link org.hl7.tinkar.common.service.PrimitiveDataService#nidForUuids(ConcurrentMap, org.hl7.tinkar.common.service.NidGenerator, UUID...)}.
+ * Keys are written as the most and then least significant bits of the UUID, so the map holds no Java objects.
+ */
+final class UuidNidMap extends AbstractMap<UUID, Integer> implements ConcurrentMap<UUID, Integer> {
+    private final ChronicleMap<byte[], Integer> uuidBytesToNidMap;
+
+    UuidNidMap(ChronicleMap<byte[], Integer> uuidBytesToNidMap) {
+        this.uuidBytesToNidMap = uuidBytesToNidMap;
+    }
+
+    static byte[] uuidBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    @Override
+    public Integer get(Object key) {
+        return uuidBytesToNidMap.get(uuidBytes((UUID) key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return uuidBytesToNidMap.containsKey(uuidBytes((UUID) key));
+    }
+
+    @Override
+    public Integer put(UUID key, Integer value) {
+        return uuidBytesToNidMap.put(uuidBytes(key), value);
+    }
+
+    @Override
+    public Integer putIfAbsent(UUID key, Integer value) {
+        return uuidBytesToNidMap.putIfAbsent(uuidBytes(key), value);
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        return uuidBytesToNidMap.remove(uuidBytes((UUID) key));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return uuidBytesToNidMap.remove(uuidBytes((UUID) key), value);
+    }
+
+    @Override
+    public boolean replace(UUID key, Integer oldValue, Integer newValue) {
+        return uuidBytesToNidMap.replace(uuidBytes(key), oldValue, newValue);
+    }
+
+    @Override
+    public Integer replace(UUID key, Integer value) {
+        return uuidBytesToNidMap.replace(uuidBytes(key), value);
+    }
+
+    @Override
+    public int size() {
+        return uuidBytesToNidMap.size();
+    }
+
+    static UUID uuid(byte[] uuidBytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(uuidBytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * View of the entries of the Chronicle map, with the keys read back as UUIDs. Setting the value of an entry
+     * puts the value in the map, and removing an entry from the iterator removes it from the map.
+     */
+    @Override
+    public Set<Entry<UUID, Integer>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<UUID, Integer>> iterator() {
+                Iterator<Entry<byte[], Integer>> uuidBytesIterator = uuidBytesToNidMap.entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return uuidBytesIterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<UUID, Integer> next() {
+                        Entry<byte[], Integer> uuidBytesEntry = uuidBytesIterator.next();
+                        return new SimpleEntry<>(uuid(uuidBytesEntry.getKey()), uuidBytesEntry.getValue()) {
+                            @Override
+                            public Integer setValue(Integer value) {
+                                put(getKey(), value);
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        uuidBytesIterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return uuidBytesToNidMap.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,7 @@
+package org.hl7.tinkar.provider.chronicle;
+
+/**
+ https://github.com/OpenHFT/Chronicle-Map
+
+ https://stackoverflow.com/questions/62328831/using-chroniclemap-with-generics-java-lang-nosuchmethodexception-sun-nio-ch-fi
+ */
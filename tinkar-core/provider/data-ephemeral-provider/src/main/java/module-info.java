@@ -20,6 +20,9 @@ module org.hl7.tinkar.provider.ephemeral {
     requires org.slf4j;
     requires java.logging;
     requires org.hl7.tinkar.entity;
+
+    exports org.hl7.tinkar.provider.ephemeral;
+
     provides DataServiceController
             with ProviderEphemeralNewController;
 
@@ -1,17 +1,19 @@
 package org.hl7.tinkar.provider.ephemeral;
 
-import org.eclipse.collections.api.block.procedure.Procedure2;
 import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
 import org.eclipse.collections.api.list.ImmutableList;
-import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
+import org.hl7.tinkar.collection.ConcurrentUuidIntOpenHashMap;
 import org.hl7.tinkar.collection.KeyType;
 import org.hl7.tinkar.collection.SpinedIntIntMapAtomic;
-import org.hl7.tinkar.common.service.Executor;
+import org.hl7.tinkar.collection.SpinedIntObjectMap;
+import org.hl7.tinkar.collection.SpinedPrimitiveDataSnapshot;
 import org.hl7.tinkar.common.service.NidGenerator;
 import org.hl7.tinkar.common.service.PrimitiveDataSearchResult;
 import org.hl7.tinkar.common.service.PrimitiveDataService;
-import org.hl7.tinkar.common.sets.ConcurrentHashSet;
+import org.hl7.tinkar.common.service.PrimitiveDataSnapshot;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
 import org.hl7.tinkar.common.util.ints2long.IntsInLong;
+import org.hl7.tinkar.common.util.time.Stopwatch;
 import org.hl7.tinkar.entity.ConceptEntity;
 import org.hl7.tinkar.entity.PatternEntity;
 import org.hl7.tinkar.entity.SemanticEntity;
@@ -21,19 +23,36 @@ import org.hl7.tinkar.provider.search.Searcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.ObjIntConsumer;
 
-
+/**
+ * PrimitiveDataService held entirely on the heap. Entities and citations are held in spines indexed by nid,
+ * and the nids of each component type and of the elements of each pattern in compressed bitmaps, so nids are
+ * not boxed.
+ * <p>
+ * The state of the provider may be written by {@link #snapshotTo(Path)}, and read into a new provider by
+ * {@link #restoreFrom(Path)}, each in one sequential pass, so test suites may start from a prepared fixture,
+ * rather than importing the starter data.
+ */
 public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
     private static final Logger LOG = LoggerFactory.getLogger(ProviderEphemeral.class);
+    private static final int SNAPSHOT_MAGIC = 0x45504853; // "EPHS"
+    private static final int SNAPSHOT_VERSION = 1;
+    /**
+     * Ends each run of nid keyed records in a snapshot. Never a nid.
+     */
+    private static final int END_OF_RECORDS = Integer.MIN_VALUE;
     protected static AtomicReference<ProviderEphemeral> providerReference = new AtomicReference<>();
     protected static ProviderEphemeral singleton;
     protected static LongAdder writeSequence = new LongAdder();
@@ -43,16 +62,16 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
     /**
      * Using "citing" instead of "referencing" to make the field names more distinct.
      */
-    final ConcurrentHashMap<Integer, long[]> nidToCitingComponentsNidMap = ConcurrentHashMap.newMap();
-    final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Integer>> patternToElementNidsMap = ConcurrentHashMap.newMap();
+    final SpinedIntObjectMap<long[]> nidToCitingComponentsNidMap = new InMemorySpinedIntObjectMap<>();
+    final ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternToElementNidsMap = new ConcurrentHashMap<>();
     final Indexer indexer;
     final Searcher searcher;
-    final ConcurrentHashSet<Integer> patternNids = new ConcurrentHashSet();
-    final ConcurrentHashSet<Integer> conceptNids = new ConcurrentHashSet();
-    final ConcurrentHashSet<Integer> semanticNids = new ConcurrentHashSet();
-    final ConcurrentHashSet<Integer> stampNids = new ConcurrentHashSet();
-    private final ConcurrentHashMap<Integer, byte[]> nidComponentMap = ConcurrentHashMap.newMap();
-    private final ConcurrentHashMap<UUID, Integer> uuidNidMap = new ConcurrentHashMap<>();
+    final ConcurrentRoaringIntSet patternNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet conceptNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet semanticNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet stampNids = new ConcurrentRoaringIntSet();
+    private final SpinedIntObjectMap<byte[]> nidComponentMap = new InMemorySpinedIntObjectMap<>();
+    private final ConcurrentUuidIntOpenHashMap uuidNidMap = new ConcurrentUuidIntOpenHashMap();
     private final AtomicInteger nextNid = new AtomicInteger(PrimitiveDataService.FIRST_NID);
 
     private ProviderEphemeral() throws IOException {
@@ -83,6 +102,16 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
         return writeSequence.sum();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entities are read from a copy on write snapshot of the entity spines.
+     */
+    @Override
+    public PrimitiveDataSnapshot snapshot() {
+        return new SpinedPrimitiveDataSnapshot(this, nidComponentMap);
+    }
+
     @Override
     public void close() {
         try {
@@ -97,27 +126,26 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
 
     @Override
     public int nidForUuids(UUID... uuids) {
-        return PrimitiveDataService.nidForUuids(uuidNidMap, this, uuids);
+        return uuidNidMap.nidForUuids(this, uuids);
     }
 
     @Override
     public int nidForUuids(ImmutableList<UUID> uuidList) {
-        return PrimitiveDataService.nidForUuids(uuidNidMap, this, uuidList);
+        return uuidNidMap.nidForUuids(this, uuidList);
     }
 
     @Override
     public void forEach(ObjIntConsumer<byte[]> action) {
-        nidComponentMap.forEach((integer, bytes) -> action.accept(bytes, integer));
+        nidComponentMap.forEach(action);
     }
 
     @Override
     public void forEachParallel(ObjIntConsumer<byte[]> action) {
-        int threadCount = Executor.threadPool().getMaximumPoolSize();
-        List<Procedure2<Integer, byte[]>> blocks = new ArrayList<>(threadCount);
-        for (int i = 0; i < threadCount; i++) {
-            blocks.add((Procedure2<Integer, byte[]>) (integer, bytes) -> action.accept(bytes, integer));
+        try {
+            nidComponentMap.forEachParallel(action);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
         }
-        nidComponentMap.parallelForEachKeyValue(blocks, Executor.threadPool());
     }
 
     @Override
@@ -130,14 +158,10 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
         if (!nidToPatternNidMap.containsKey(nid)) {
             this.nidToPatternNidMap.put(nid, patternNid);
             if (patternNid != Integer.MAX_VALUE) {
-
-                this.nidToPatternNidMap.put(nid, patternNid);
-                if (patternNid != Integer.MAX_VALUE) {
-                    long citationLong = IntsInLong.ints2Long(nid, patternNid);
-                    this.nidToCitingComponentsNidMap.merge(referencedComponentNid, new long[]{citationLong},
-                            PrimitiveDataService::mergeCitations);
-                    this.patternToElementNidsMap.getIfAbsentPut(nid, () -> new ConcurrentSkipListSet<>()).add(nid);
-                }
+                long citationLong = IntsInLong.ints2Long(nid, patternNid);
+                this.nidToCitingComponentsNidMap.accumulateAndGet(referencedComponentNid, new long[]{citationLong},
+                        PrimitiveDataService::mergeCitations);
+                this.patternToElementNidsMap.computeIfAbsent(patternNid, key -> new ConcurrentRoaringIntSet()).add(nid);
             }
         }
         if (sourceObject instanceof ConceptEntity concept) {
@@ -149,9 +173,9 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
         } else if (sourceObject instanceof StampEntity stampEntity) {
             this.stampNids.add(stampEntity.nid());
         }
-        byte[] mergedBytes = nidComponentMap.merge(nid, value, PrimitiveDataService::merge);
+        byte[] mergedBytes = nidComponentMap.accumulateAndGet(nid, value, PrimitiveDataService::merge);
         writeSequence.increment();
-        indexer.index(sourceObject);
+        indexer.index(sourceObject, mergedBytes);
         return mergedBytes;
     }
 
@@ -162,31 +186,30 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
 
     @Override
     public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
-        nidToPatternNidMap.forEach((nid, setNid) -> {
-            if (patternNid == setNid) {
-                procedure.accept(nid);
-            }
-        });
+        ConcurrentRoaringIntSet elementNids = this.patternToElementNidsMap.get(patternNid);
+        if (elementNids != null) {
+            elementNids.forEach(procedure);
+        }
     }
 
     @Override
     public void forEachPatternNid(IntProcedure procedure) {
-        this.patternNids.forEach(procedure::accept);
+        this.patternNids.forEach(procedure);
     }
 
     @Override
     public void forEachConceptNid(IntProcedure procedure) {
-        this.conceptNids.forEach(procedure::accept);
+        this.conceptNids.forEach(procedure);
     }
 
     @Override
     public void forEachStampNid(IntProcedure procedure) {
-        this.stampNids.forEach(procedure::accept);
+        this.stampNids.forEach(procedure);
     }
 
     @Override
     public void forEachSemanticNid(IntProcedure procedure) {
-        this.semanticNids.forEach(procedure::accept);
+        this.semanticNids.forEach(procedure);
     }
 
     @Override
@@ -223,4 +246,124 @@ public class ProviderEphemeral implements PrimitiveDataService, NidGenerator {
     public int newNid() {
         return nextNid.getAndIncrement();
     }
+
+    /**
+     * Writes the state of the provider, including its search index, to the file, which is written beside its
+     * final location and moved into place once complete. Merges must not run while the snapshot is written.
+     */
+    public void snapshotTo(Path path) throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Writing ProviderEphemeral snapshot to: " + path.toAbsolutePath());
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 20))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(nextNid.get());
+            out.writeLong(writeSequence.sum());
+            uuidNidMap.writeTo(out);
+            nidComponentMap.forEach((bytes, nid) -> {
+                try {
+                    out.writeInt(nid);
+                    out.writeInt(nidToPatternNidMap.get(nid));
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.writeInt(END_OF_RECORDS);
+            nidToCitingComponentsNidMap.forEach((citationLongs, nid) -> {
+                try {
+                    out.writeInt(nid);
+                    out.writeInt(citationLongs.length);
+                    for (long citationLong : citationLongs) {
+                        out.writeLong(citationLong);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.writeInt(END_OF_RECORDS);
+            conceptNids.writeTo(out);
+            semanticNids.writeTo(out);
+            patternNids.writeTo(out);
+            stampNids.writeTo(out);
+            out.writeInt(patternToElementNidsMap.size());
+            for (Integer patternNid : patternToElementNidsMap.keySet()) {
+                out.writeInt(patternNid);
+                patternToElementNidsMap.get(patternNid).writeTo(out);
+            }
+            indexer.writeTo(out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stopwatch.stop();
+        LOG.info("Wrote ProviderEphemeral snapshot in: " + stopwatch.durationString());
+    }
+
+    /**
+     * Reads a snapshot written by {@link #snapshotTo(Path)} into this provider, which must be empty.
+     */
+    public void restoreFrom(Path path) throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Restoring ProviderEphemeral snapshot from: " + path.toAbsolutePath());
+        if (nextNid.get() != PrimitiveDataService.FIRST_NID) {
+            throw new IllegalStateException("Snapshot may only be restored to an empty provider");
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 1 << 20))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized ProviderEphemeral snapshot: " + path.toAbsolutePath());
+            }
+            nextNid.set(in.readInt());
+            writeSequence.add(in.readLong());
+            uuidNidMap.readFrom(in);
+            for (int nid = in.readInt(); nid != END_OF_RECORDS; nid = in.readInt()) {
+                int patternNid = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                if (patternNid != Integer.MAX_VALUE) {
+                    nidToPatternNidMap.put(nid, patternNid);
+                }
+                nidComponentMap.put(nid, bytes);
+            }
+            for (int nid = in.readInt(); nid != END_OF_RECORDS; nid = in.readInt()) {
+                long[] citationLongs = new long[in.readInt()];
+                for (int i = 0; i < citationLongs.length; i++) {
+                    citationLongs[i] = in.readLong();
+                }
+                nidToCitingComponentsNidMap.put(nid, citationLongs);
+            }
+            conceptNids.readFrom(in);
+            semanticNids.readFrom(in);
+            patternNids.readFrom(in);
+            stampNids.readFrom(in);
+            int patternCount = in.readInt();
+            for (int i = 0; i < patternCount; i++) {
+                int patternNid = in.readInt();
+                ConcurrentRoaringIntSet elementNids = new ConcurrentRoaringIntSet();
+                elementNids.readFrom(in);
+                patternToElementNidsMap.put(patternNid, elementNids);
+            }
+            indexer.readFrom(in);
+        }
+        stopwatch.stop();
+        LOG.info("Restored ProviderEphemeral snapshot in: " + stopwatch.durationString());
+    }
+
+    /**
+     * Spined map with no store, that creates an empty spine for any spine not yet in memory.
+     */
+    private static class InMemorySpinedIntObjectMap<E> extends SpinedIntObjectMap<E> {
+        InMemorySpinedIntObjectMap() {
+            super(0);
+        }
+
+        @Override
+        protected AtomicReferenceArray<E> readSpine(int spineIndex) {
+            return new AtomicReferenceArray<>(spineSize);
+        }
+    }
 }
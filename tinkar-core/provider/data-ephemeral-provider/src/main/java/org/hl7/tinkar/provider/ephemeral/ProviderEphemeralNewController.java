@@ -7,6 +7,7 @@ import org.hl7.tinkar.common.service.LoadDataFromFileController;
 import org.hl7.tinkar.common.service.PrimitiveDataService;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ServiceLoader;
@@ -18,6 +19,11 @@ import java.util.logging.Logger;
 public class ProviderEphemeralNewController implements DataServiceController<PrimitiveDataService> {
 
     public static String CONTROLLER_NAME = "Load Ephemeral Store";
+    /**
+     * Suffix of the files written by {@link ProviderEphemeral#snapshotTo(java.nio.file.Path)}, which are
+     * restored rather than loaded.
+     */
+    public static final String SNAPSHOT_SUFFIX = ".ephemeral";
     private static Logger LOG = Logger.getLogger(ProviderEphemeralNewController.class.getName());
     private DataUriOption dataUriOption;
 
@@ -37,7 +43,8 @@ public class ProviderEphemeralNewController implements DataServiceController<Pri
 
     @Override
     public boolean isValidDataLocation(String name) {
-        return name.toLowerCase().endsWith(".zip") && name.toLowerCase().contains("tink");
+        return (name.toLowerCase().endsWith(".zip") && name.toLowerCase().contains("tink")) ||
+                name.endsWith(SNAPSHOT_SUFFIX);
     }
 
     @Override
@@ -68,12 +75,16 @@ public class ProviderEphemeralNewController implements DataServiceController<Pri
             ProviderEphemeral.provider();
             if (this.dataUriOption != null) {
                 File file = new File(this.dataUriOption.uri());
+                if (file.getName().endsWith(SNAPSHOT_SUFFIX)) {
+                    ProviderEphemeral.singleton.restoreFrom(file.toPath());
+                    return;
+                }
                 ServiceLoader<LoadDataFromFileController> controllerFinder = ServiceLoader.load(LoadDataFromFileController.class);
                 LoadDataFromFileController loader = controllerFinder.findFirst().get();
                 Future<Integer> loadFuture = (Future<Integer>) loader.load(file);
                 int count = loadFuture.get();
             }
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException | ExecutionException | IOException e) {
             throw new RuntimeException(e);
         }
     }
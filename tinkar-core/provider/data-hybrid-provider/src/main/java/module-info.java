@@ -0,0 +1,24 @@
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.LoadDataFromFileController;
+import org.hl7.tinkar.provider.hybrid.HybridNewController;
+import org.hl7.tinkar.provider.hybrid.HybridOpenController;
+
+@SuppressWarnings("module")
+        // 7 in HL7 is not a version reference
+module org.hl7.tinkar.provider.hybrid {
+    requires org.hl7.tinkar.collection;
+    requires org.hl7.tinkar.common;
+    requires org.hl7.tinkar.component;
+    requires org.hl7.tinkar.entity;
+    requires org.hl7.tinkar.mvstore;
+    requires org.hl7.tinkar.provider.mvstore;
+    requires org.hl7.tinkar.provider.search;
+    requires org.hl7.tinkar.provider.spinedarray;
+    requires org.hl7.tinkar.terms;
+    requires static org.hl7.tinkar.autoservice;
+
+    provides DataServiceController
+            with HybridOpenController, HybridNewController;
+
+    uses LoadDataFromFileController;
+}
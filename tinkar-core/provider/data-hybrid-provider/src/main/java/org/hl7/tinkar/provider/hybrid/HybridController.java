@@ -0,0 +1,61 @@
+package org.hl7.tinkar.provider.hybrid;
+
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+
+import java.io.IOException;
+
+public abstract class HybridController implements DataServiceController<PrimitiveDataService> {
+
+    @Override
+    public Class<? extends PrimitiveDataService> serviceClass() {
+        return PrimitiveDataService.class;
+    }
+
+    @Override
+    public boolean running() {
+        return HybridProvider.singleton != null;
+    }
+
+    @Override
+    public void start() {
+        try {
+            new HybridProvider();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (HybridProvider.singleton != null) {
+            HybridProvider.singleton.close();
+            HybridProvider.singleton = null;
+        }
+    }
+
+    @Override
+    public void save() {
+        if (HybridProvider.singleton != null) {
+            HybridProvider.singleton.save();
+        }
+    }
+
+    @Override
+    public void reload() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PrimitiveDataService provider() {
+        if (HybridProvider.singleton == null) {
+            start();
+        }
+        return HybridProvider.singleton;
+    }
+
+    @Override
+    public String toString() {
+        return controllerName();
+    }
+}
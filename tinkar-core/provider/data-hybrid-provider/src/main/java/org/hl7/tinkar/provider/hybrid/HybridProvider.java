@@ -0,0 +1,641 @@
+package org.hl7.tinkar.provider.hybrid;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.list.ImmutableList;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.hl7.tinkar.collection.KeyType;
+import org.hl7.tinkar.collection.SpineFileUtil;
+import org.hl7.tinkar.collection.SpinedByteArrayMap;
+import org.hl7.tinkar.collection.SpinedIntIntMap;
+import org.hl7.tinkar.collection.SpinedPrimitiveDataSnapshot;
+import org.hl7.tinkar.collection.store.ByteArrayStore;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
+import org.hl7.tinkar.common.util.ints2long.IntsInLong;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.component.FieldDataType;
+import org.hl7.tinkar.entity.*;
+import org.hl7.tinkar.entity.transaction.Transaction;
+import org.hl7.tinkar.provider.mvstore.CitationsDataType;
+import org.hl7.tinkar.provider.mvstore.IntSetDataType;
+import org.hl7.tinkar.provider.mvstore.IntegerDataType;
+import org.hl7.tinkar.provider.mvstore.UuidDataType;
+import org.hl7.tinkar.provider.search.Indexer;
+import org.hl7.tinkar.provider.search.Searcher;
+import org.hl7.tinkar.provider.spinedarray.ByteArrayFileStore;
+import org.hl7.tinkar.provider.spinedarray.ByteArraySegmentStore;
+import org.hl7.tinkar.provider.spinedarray.SpineSegmentStore;
+import org.hl7.tinkar.provider.spinedarray.SpinedArrayKeys;
+import org.hl7.tinkar.provider.spinedarray.WriteAheadLog;
+import org.hl7.tinkar.terms.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Hybrid of SpinedArrayProvider and MVStoreProvider. Entity bytes and pattern nids are held in spined arrays,
+ * which iterate faster than MVStore. UUIDs, citations, and the nids of each component type and pattern are
+ * held in MVStore, which opens its maps without reading them, so the provider does not rebuild a UUID map
+ * from the entities on open.
+ * <p>
+ * Both stores share one checkpoint. Merges, and nids assigned to UUIDs, are logged to the write ahead log of
+ * SpinedArrayProvider, and a save writes the spines and then commits the MVStore, before the log is truncated.
+ * Records logged since the last checkpoint are replayed into both stores on open.
+ * <p>
+ * The MVStore also commits in the background, so its UUIDs may be ahead of the last checkpoint. Nids are
+ * therefore reserved in the MVStore in blocks before they are assigned, so that a nid committed with a UUID
+ * is never assigned again after a restart.
+ */
+public class HybridProvider implements PrimitiveDataService, NidGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(HybridProvider.class);
+    private static final File defaultDataDirectory = new File("target/hybrid/");
+    private static final String databaseFileName = "identifierStore.dat";
+    private static final UUID nextNidKey = new UUID(Long.MAX_VALUE, Long.MIN_VALUE);
+    private static final String writeSequenceKey = "writeSequence";
+    private static final int NID_RESERVATION = 1024;
+    protected static HybridProvider singleton;
+
+    final AtomicInteger nextNid;
+    /**
+     * First nid that is not reserved in the MVStore. Guarded by this for writes.
+     */
+    private volatile int reservedNid;
+    final LongAdder writeSequence = new LongAdder();
+
+    final ByteArrayStore entityStore;
+    final SpinedByteArrayMap entityToBytesMap;
+    final SpinedIntIntMap nidToPatternNidMap;
+    final File nidToPatternNidMapDirectory;
+
+    final MVStore store;
+    final MVMap<UUID, Integer> uuidToNidMap;
+    /**
+     * Using "citing" instead of "referencing" to make the field names more distinct.
+     */
+    final MVMap<Integer, long[]> nidToCitingComponentsNidMap;
+    /**
+     * Element nids of each pattern. Sets held by the map are never added to, see patternElementNidsMap.
+     */
+    final MVMap<Integer, ConcurrentRoaringIntSet> patternToElementNidsMap;
+    /**
+     * Nids of each component type, keyed by the token of the type. A copy of each set is written on save.
+     */
+    final MVMap<Integer, ConcurrentRoaringIntSet> componentTypeNidsMap;
+    final MVMap<String, Long> checkpointMap;
+    final ConcurrentRoaringIntSet patternNids;
+    final ConcurrentRoaringIntSet conceptNids;
+    final ConcurrentRoaringIntSet semanticNids;
+    final ConcurrentRoaringIntSet stampNids;
+    /**
+     * Element nid sets changed since the last save. Each is a copy of the set in the patternToElementNidsMap,
+     * so the sets held by the map pages, which a background commit may be serializing, are never added to.
+     */
+    final ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap = new ConcurrentHashMap<>();
+    /**
+     * Patterns with elements added since the last save.
+     */
+    final Set<Integer> changedElementPatternNids = ConcurrentHashMap.newKeySet();
+
+    final WriteAheadLog writeAheadLog;
+    final int walSyncIntervalMillis;
+    final long walCheckpointBytes;
+    final long walCheckpointIntervalMillis;
+    final ScheduledFuture<?> walSyncTask;
+    final AtomicBoolean checkpointPending = new AtomicBoolean();
+    final ReentrantLock saveLock = new ReentrantLock();
+    final Indexer indexer;
+    final Searcher searcher;
+    final String name;
+
+    public HybridProvider() throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Opening HybridProvider");
+        File configuredRoot = ServiceProperties.get(ServiceKeys.DATA_STORE_ROOT, defaultDataDirectory);
+        configuredRoot.mkdirs();
+        this.name = configuredRoot.getName();
+
+        File databaseFile = new File(configuredRoot, databaseFileName);
+        this.store = new MVStore.Builder().fileName(databaseFile.getAbsolutePath()).open();
+        this.uuidToNidMap = store.openMap("uuidToNidMap",
+                new MVMap.Builder<UUID, Integer>().keyType(UuidDataType.INSTANCE).valueType(IntegerDataType.INSTANCE));
+        this.nidToCitingComponentsNidMap = store.openMap("nidToCitingComponentsNidMap",
+                new MVMap.Builder<Integer, long[]>().keyType(IntegerDataType.INSTANCE).valueType(CitationsDataType.INSTANCE));
+        this.patternToElementNidsMap = store.openMap("patternToElementNidSets",
+                new MVMap.Builder<Integer, ConcurrentRoaringIntSet>().keyType(IntegerDataType.INSTANCE).valueType(IntSetDataType.INSTANCE));
+        this.componentTypeNidsMap = store.openMap("componentTypeNidSets",
+                new MVMap.Builder<Integer, ConcurrentRoaringIntSet>().keyType(IntegerDataType.INSTANCE).valueType(IntSetDataType.INSTANCE));
+        this.checkpointMap = store.openMap("checkpoint");
+        this.patternNids = componentTypeNids(FieldDataType.PATTERN_CHRONOLOGY);
+        this.conceptNids = componentTypeNids(FieldDataType.CONCEPT_CHRONOLOGY);
+        this.semanticNids = componentTypeNids(FieldDataType.SEMANTIC_CHRONOLOGY);
+        this.stampNids = componentTypeNids(FieldDataType.STAMP);
+        this.nextNid = new AtomicInteger(this.uuidToNidMap.getOrDefault(nextNidKey, PrimitiveDataService.FIRST_NID));
+        this.reservedNid = this.nextNid.get();
+        this.writeSequence.add(this.checkpointMap.getOrDefault(writeSequenceKey, 0L));
+
+        File nidToByteArrayMapDirectory = new File(configuredRoot, "nidToByteArrayMap");
+        nidToByteArrayMapDirectory.mkdirs();
+        this.nidToPatternNidMapDirectory = new File(configuredRoot, "nidToPatternNidMap");
+        this.nidToPatternNidMapDirectory.mkdirs();
+        boolean segmentStores = ServiceProperties.get(SpinedArrayKeys.SEGMENT_SPINE_STORES, false);
+        this.entityStore = useSegmentStore(nidToByteArrayMapDirectory, segmentStores) ?
+                new ByteArraySegmentStore(nidToByteArrayMapDirectory) : new ByteArrayFileStore(nidToByteArrayMapDirectory);
+        this.entityToBytesMap = new SpinedByteArrayMap(entityStore);
+        this.entityToBytesMap.setMaxResidentSpines(ServiceProperties.get(SpinedArrayKeys.MAX_RESIDENT_ENTITY_SPINES, 0));
+        this.entityToBytesMap.setMaxResidentBytes(ServiceProperties.get(SpinedArrayKeys.MAX_RESIDENT_ENTITY_BYTES, 0L));
+        this.nidToPatternNidMap = new SpinedIntIntMap(KeyType.NID_KEY);
+        this.nidToPatternNidMap.read(this.nidToPatternNidMapDirectory);
+
+        File indexDir = new File(configuredRoot, "lucene");
+        this.indexer = new Indexer(indexDir.toPath());
+        this.searcher = new Searcher();
+
+        this.writeAheadLog = new WriteAheadLog(new File(configuredRoot, "writeAheadLog"));
+        this.walSyncIntervalMillis = ServiceProperties.get(SpinedArrayKeys.WAL_SYNC_INTERVAL_MILLIS, 10);
+        this.walCheckpointBytes = ServiceProperties.get(SpinedArrayKeys.WAL_CHECKPOINT_BYTES, 64L * 1024 * 1024);
+        this.walCheckpointIntervalMillis = TimeUnit.SECONDS.toMillis(
+                ServiceProperties.get(SpinedArrayKeys.WAL_CHECKPOINT_INTERVAL_SECONDS, 300));
+        final MutableIntSet replayedNids = IntSets.mutable.empty();
+        this.writeAheadLog.open((nid, patternNid, referencedComponentNid, value) -> {
+            replay(nid, patternNid, referencedComponentNid, value);
+            replayedNids.add(nid);
+        }, (nid, msb, lsb) -> {
+            // Nids assigned since the last checkpoint, including nids not yet merged, which the background
+            // commits of the MVStore may not include.
+            this.uuidToNidMap.putIfAbsent(new UUID(msb, lsb), nid);
+            nextNid.accumulateAndGet(nid + 1, Math::max);
+        });
+        if (replayedNids.notEmpty()) {
+            replayedNids.forEach(this::replayIdentifiers);
+            nextNid.accumulateAndGet(replayedNids.max() + 1, Math::max);
+            LOG.info("Replayed " + replayedNids.size() + " entities from write ahead log");
+        }
+
+        HybridProvider.singleton = this;
+        Executor.threadPool().execute(this::cancelUncommittedStamps);
+        if (walSyncIntervalMillis > 0) {
+            this.walSyncTask = Executor.scheduled().scheduleWithFixedDelay(this::syncWriteAheadLog,
+                    walSyncIntervalMillis, walSyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.walSyncTask = null;
+        }
+        stopwatch.stop();
+        LOG.info("Opened HybridProvider in: " + stopwatch.durationString());
+    }
+
+    /**
+     * A directory that already holds a spine store keeps its format. An empty directory uses the format
+     * selected by {@link SpinedArrayKeys#SEGMENT_SPINE_STORES}.
+     */
+    private static boolean useSegmentStore(File directory, boolean segmentStores) {
+        if (SpineSegmentStore.isSegmentStore(directory)) {
+            return true;
+        }
+        if (SpineFileUtil.readSpineCount(directory) > 0) {
+            return false;
+        }
+        return segmentStores;
+    }
+
+    /**
+     * @return a copy of the stored nids of the component type, that may be added to.
+     */
+    private ConcurrentRoaringIntSet componentTypeNids(FieldDataType componentType) {
+        ConcurrentRoaringIntSet storedNids = componentTypeNidsMap.get((int) componentType.token);
+        return storedNids == null ? new ConcurrentRoaringIntSet() : storedNids.copy();
+    }
+
+    /**
+     * Applies a merge read from the write ahead log. Unlike {@link #merge(int, int, int, byte[], Object)}, the
+     * pattern nid and citation are applied even if the entity exists, since they may not have been saved with it.
+     */
+    private void replay(int nid, int patternNid, int referencedComponentNid, byte[] value) {
+        this.nidToPatternNidMap.put(nid, patternNid);
+        if (patternNid != Integer.MAX_VALUE) {
+            long citationLong = IntsInLong.ints2Long(nid, patternNid);
+            this.nidToCitingComponentsNidMap.merge(referencedComponentNid, new long[]{citationLong},
+                    PrimitiveDataService::mergeCitations);
+            addToElementSet(patternNid, nid);
+        }
+        this.entityToBytesMap.accumulateAndGet(nid, value, PrimitiveDataService::merge);
+        writeSequence.increment();
+    }
+
+    /**
+     * Adds a replayed entity to the nids of its type, and its UUIDs to the UUID map, which may not have been
+     * committed with it. Uncommitted index changes are lost with the process, so the entity is indexed again.
+     */
+    private void replayIdentifiers(int nid) {
+        byte[] bytes = this.entityToBytesMap.get(nid);
+        // bytes starts with number of arrays (int = 4 bytes), then size of first array (int = 4 bytes), then entity format version then type token.
+        switch (FieldDataType.fromToken(bytes[9])) {
+            case CONCEPT_CHRONOLOGY -> this.conceptNids.add(nid);
+            case SEMANTIC_CHRONOLOGY -> this.semanticNids.add(nid);
+            case PATTERN_CHRONOLOGY -> this.patternNids.add(nid);
+            case STAMP -> this.stampNids.add(nid);
+            default -> LOG.warn("Unexpected component type for nid: " + nid);
+        }
+        Entity<?> entity = EntityRecordFactory.make(bytes);
+        for (UUID uuid : entity.asUuidArray()) {
+            this.uuidToNidMap.putIfAbsent(uuid, nid);
+        }
+        this.indexer.index(entity);
+    }
+
+    /**
+     * Cancels stamps left uncommitted by a transaction that did not complete before the last shutdown.
+     */
+    private void cancelUncommittedStamps() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Searching for canceled stamps. ");
+        stampNids.forEach(stampNid -> {
+            StampRecord stamp = Entity.getStamp(stampNid);
+            if (stamp.time() == Long.MAX_VALUE && Transaction.forStamp(stamp).isEmpty()) {
+                // Uncommmitted stamp found outside a transaction on restart. Set to canceled.
+                LOG.warn("Canceling uncommitted stamp: " + stamp.publicId().asUuidList());
+                StampVersionRecord lastVersion = stamp.lastVersion();
+                StampVersionRecord canceledVersion = lastVersion.with().time(Long.MIN_VALUE).stateNid(State.CANCELED.nid()).build();
+                byte[] stampBytes = stamp
+                        .without(lastVersion)
+                        .with(canceledVersion)
+                        .build().getBytes();
+                this.entityToBytesMap.put(stampNid, stampBytes);
+            }
+            if (stamp.lastVersion().stateNid() == State.CANCELED.nid()) {
+                PrimitiveData.get().addCanceledStampNid(stampNid);
+            }
+        });
+        stopwatch.stop();
+        LOG.info("Searched for canceled stamps in: " + stopwatch.durationString());
+    }
+
+    /**
+     * Group commit of the write ahead log, run on a fixed delay. Starts a checkpoint once the log passes
+     * its size or age threshold.
+     */
+    private void syncWriteAheadLog() {
+        try {
+            this.writeAheadLog.sync();
+            if (this.writeAheadLog.hasRecords() &&
+                    (this.writeAheadLog.segmentBytes() >= walCheckpointBytes ||
+                            this.writeAheadLog.millisSinceRotation() >= walCheckpointIntervalMillis) &&
+                    checkpointPending.compareAndSet(false, true)) {
+                // Not on the IO pool, which writes the spines for the checkpoint.
+                Executor.threadPool().execute(() -> {
+                    try {
+                        if (saveLock.tryLock()) {
+                            try {
+                                save();
+                            } finally {
+                                saveLock.unlock();
+                            }
+                        }
+                    } finally {
+                        checkpointPending.set(false);
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            LOG.error("Unable to sync write ahead log", e);
+        }
+    }
+
+    @Override
+    public int newNid() {
+        int nid = nextNid.getAndIncrement();
+        if (nid >= reservedNid) {
+            reserveNidsThrough(nid);
+        }
+        return nid;
+    }
+
+    /**
+     * Reserves a block of nids that includes the nid in the MVStore, before the nid is assigned to a UUID,
+     * so that any commit that includes the UUID includes the reservation.
+     */
+    private synchronized void reserveNidsThrough(int nid) {
+        if (nid >= reservedNid) {
+            int nextReservedNid = nid + NID_RESERVATION;
+            this.uuidToNidMap.put(nextNidKey, nextReservedNid);
+            this.reservedNid = nextReservedNid;
+        }
+    }
+
+    @Override
+    public long writeSequence() {
+        return writeSequence.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entities are read from a copy on write snapshot of the entity spines.
+     */
+    @Override
+    public PrimitiveDataSnapshot snapshot() {
+        return new SpinedPrimitiveDataSnapshot(this, entityToBytesMap);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Forces the write ahead log, sharing the force with concurrent callers and the group commit.
+     */
+    @Override
+    public void sync() {
+        try {
+            this.writeAheadLog.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Closing HybridProvider");
+        try {
+            if (walSyncTask != null) {
+                walSyncTask.cancel(false);
+            }
+            save();
+            writeAheadLog.close();
+            entityToBytesMap.close();
+            if (entityStore instanceof SpineSegmentStore segmentStore) {
+                segmentStore.close();
+            }
+            this.store.close();
+            HybridProvider.singleton = null;
+            this.indexer.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            stopwatch.stop();
+            LOG.info("Closed HybridProvider in: " + stopwatch.durationString());
+        }
+    }
+
+    /**
+     * Checkpoints both stores: writes the spines, then the nid sets and write sequence to the MVStore, which
+     * is committed and forced to disk before the write ahead log records that the checkpoint covers are deleted.
+     */
+    public void save() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Saving HybridProvider");
+        saveLock.lock();
+        try {
+            // Every merge logged before the rotation has already been applied to the maps written below.
+            long firstRetainedSegment = this.writeAheadLog.rotate();
+            long sequenceToSave = writeSequence.sum();
+            nidToPatternNidMap.write(this.nidToPatternNidMapDirectory);
+            this.entityToBytesMap.write(Executor.ioThreadPool());
+            this.componentTypeNidsMap.put((int) FieldDataType.PATTERN_CHRONOLOGY.token, patternNids.copy());
+            this.componentTypeNidsMap.put((int) FieldDataType.CONCEPT_CHRONOLOGY.token, conceptNids.copy());
+            this.componentTypeNidsMap.put((int) FieldDataType.SEMANTIC_CHRONOLOGY.token, semanticNids.copy());
+            this.componentTypeNidsMap.put((int) FieldDataType.STAMP.token, stampNids.copy());
+            Iterator<Integer> changedPatternNids = changedElementPatternNids.iterator();
+            while (changedPatternNids.hasNext()) {
+                int patternNid = changedPatternNids.next();
+                // Unmarked before the set is written, so an element added during the save marks it again.
+                changedPatternNids.remove();
+                // Writes a copy, that the map page holds, and drops the set unless marked again.
+                patternElementNidsMap.computeIfPresent(patternNid, (key, elementNids) -> {
+                    patternToElementNidsMap.put(key, elementNids.copy());
+                    return changedElementPatternNids.contains(key) ? elementNids : null;
+                });
+            }
+            this.checkpointMap.put(writeSequenceKey, sequenceToSave);
+            this.store.commit();
+            this.store.sync();
+            this.indexer.commit();
+            // The spine files are forced as they are written, and moved into forced directories, so with the
+            // store forced above, the merges logged before the rotation are durable without the log.
+            SpineFileUtil.forceDirectory(this.nidToPatternNidMapDirectory.getParentFile());
+            this.writeAheadLog.deleteSegmentsBefore(firstRetainedSegment);
+        } catch (IOException e) {
+            LOG.error(e.getLocalizedMessage(), e);
+        } finally {
+            saveLock.unlock();
+            stopwatch.stop();
+            LOG.info("Saved HybridProvider in: " + stopwatch.durationString());
+        }
+    }
+
+    @Override
+    public int nidForUuids(UUID... uuids) {
+        if (allMapped(uuids)) {
+            return PrimitiveDataService.nidForUuids(uuidToNidMap, this, uuids);
+        }
+        return assignNid(uuids);
+    }
+
+    @Override
+    public int nidForUuids(ImmutableList<UUID> uuidList) {
+        if (uuidList.size() == 1) {
+            Integer nid = uuidToNidMap.get(uuidList.get(0));
+            if (nid != null) {
+                return nid;
+            }
+        }
+        return nidForUuids(uuidList.toArray(new UUID[uuidList.size()]));
+    }
+
+    private boolean allMapped(UUID[] uuids) {
+        for (UUID uuid : uuids) {
+            if (!uuidToNidMap.containsKey(uuid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps the UUIDs to a nid, and logs the nid once the mapping is published, so that a nid handed out but
+     * not yet merged is replayed rather than assigned again after a crash. A nid already assigned by a
+     * concurrent caller is logged again, which replay tolerates.
+     */
+    private int assignNid(UUID[] uuids) {
+        int nid = PrimitiveDataService.nidForUuids(uuidToNidMap, this, uuids);
+        this.writeAheadLog.appendNid(nid, uuids);
+        return nid;
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        this.entityToBytesMap.forEach(action);
+    }
+
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        try {
+            this.entityToBytesMap.forEachParallel(action);
+        } catch (ExecutionException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        return this.entityToBytesMap.get(nid);
+    }
+
+    @Override
+    public byte[] merge(int nid, int patternNid, int referencedComponentNid, byte[] value, Object sourceObject) {
+        if (nid == Integer.MIN_VALUE) {
+            LOG.error("NID should not be Integer.MIN_VALUE");
+            throw new IllegalStateException("NID should not be Integer.MIN_VALUE");
+        }
+        if (!this.entityToBytesMap.containsKey(nid)) {
+            this.nidToPatternNidMap.put(nid, patternNid);
+            if (patternNid != Integer.MAX_VALUE) {
+                long citationLong = IntsInLong.ints2Long(nid, patternNid);
+                this.nidToCitingComponentsNidMap.merge(referencedComponentNid, new long[]{citationLong},
+                        PrimitiveDataService::mergeCitations);
+                addToElementSet(patternNid, nid);
+            }
+            if (sourceObject instanceof ConceptEntity concept) {
+                this.conceptNids.add(concept.nid());
+            } else if (sourceObject instanceof SemanticEntity semanticEntity) {
+                this.semanticNids.add(semanticEntity.nid());
+            } else if (sourceObject instanceof PatternEntity patternEntity) {
+                this.patternNids.add(patternEntity.nid());
+            } else if (sourceObject instanceof StampEntity stampEntity) {
+                this.stampNids.add(stampEntity.nid());
+            }
+        }
+        byte[] mergedBytes = this.entityToBytesMap.accumulateAndGet(nid, value, PrimitiveDataService::merge);
+        // Logged after the maps are updated, so a checkpoint that rotates the log before this append
+        // still retains the record, and one that rotates after it writes the updated maps.
+        this.writeAheadLog.append(nid, patternNid, referencedComponentNid, value);
+        if (walSyncIntervalMillis <= 0) {
+            try {
+                this.writeAheadLog.sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        writeSequence.increment();
+        this.indexer.index(sourceObject, mergedBytes);
+        return mergedBytes;
+    }
+
+    public boolean addToElementSet(int patternNid, int elementNid) {
+        boolean[] added = new boolean[1];
+        // Added and marked within compute, so a save that writes and drops the set cannot miss the element.
+        patternElementNidsMap.compute(patternNid, (key, changedElementNids) -> {
+            ConcurrentRoaringIntSet elementNids = changedElementNids;
+            if (elementNids == null) {
+                ConcurrentRoaringIntSet storedElementNids = patternToElementNidsMap.get(key);
+                elementNids = storedElementNids == null ? new ConcurrentRoaringIntSet() : storedElementNids.copy();
+            }
+            if (elementNids.add(elementNid)) {
+                changedElementPatternNids.add(key);
+                added[0] = true;
+                return elementNids;
+            }
+            return changedElementNids;
+        });
+        return added[0];
+    }
+
+    /**
+     * @return the element nids of the pattern, or null if the pattern has none. The set must not be added to.
+     */
+    private ConcurrentRoaringIntSet elementNids(int patternNid) {
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids == null) {
+            // Read after the cache, since a save puts the set in the map before dropping it from the cache.
+            elementNids = patternToElementNidsMap.get(patternNid);
+        }
+        return elementNids;
+    }
+
+    @Override
+    public PrimitiveDataSearchResult[] search(String query, int maxResultSize) throws Exception {
+        return this.searcher.search(query, maxResultSize);
+    }
+
+    @Override
+    public int[] semanticNidsOfPattern(int patternNid) {
+        ConcurrentRoaringIntSet elementNids = elementNids(patternNid);
+        return elementNids == null ? new int[0] : elementNids.toArray();
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        ConcurrentRoaringIntSet elementNids = elementNids(patternNid);
+        if (elementNids != null && elementNids.notEmpty()) {
+            elementNids.forEach(procedure);
+        } else {
+            Entity entity = Entity.getFast(patternNid);
+            if (entity instanceof PatternEntity == false) {
+                throw new IllegalStateException("Trying to iterate elements for entity that is not a pattern: " + entity);
+            }
+        }
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        this.patternNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        this.conceptNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        this.stampNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        this.semanticNids.forEach(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        long[] citationLongs = this.nidToCitingComponentsNidMap.get(componentNid);
+        if (citationLongs != null) {
+            for (long citationLong : citationLongs) {
+                procedure.value((int) (citationLong >> 32));
+            }
+        }
+    }
+
+    @Override
+    public void forEachSemanticNidForComponentOfPattern(int componentNid, int patternNid, IntProcedure procedure) {
+        long[] citationLongs = this.nidToCitingComponentsNidMap.get(componentNid);
+        if (citationLongs != null) {
+            for (long citationLong : citationLongs) {
+                if ((int) citationLong == patternNid) {
+                    procedure.value((int) (citationLong >> 32));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+}
@@ -22,6 +22,8 @@ module org.hl7.tinkar.provider.mvstore {
     requires org.hl7.tinkar.mvstore;
     requires org.hl7.tinkar.provider.search;
 
+    exports org.hl7.tinkar.provider.mvstore to org.hl7.tinkar.provider.hybrid;
+
     uses LoadDataFromFileController;
 
     provides DataServiceController
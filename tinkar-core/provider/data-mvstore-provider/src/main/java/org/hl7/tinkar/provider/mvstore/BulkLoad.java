@@ -0,0 +1,185 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.eclipse.collections.api.set.primitive.MutableLongSet;
+import org.eclipse.collections.impl.factory.primitive.LongSets;
+import org.h2.mvstore.MVMap;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Buffers the writes of a bulk load of the MVStoreProvider, so that each map is written once, in key order,
+ * rather than in the random order entities arrive. Values already in the maps are read when a key is first
+ * buffered, so the buffered value replaces the stored value when written.
+ * <p>
+ * Buffered values are read in preference to the maps, and remain in the buffers until written by
+ * {@link #write()}, so a reader that misses the buffer finds the value in the map.
+ * <p>
+ * The buffers are written as a sorted batch once their estimated size reaches the maximum, see
+ * {@link MVStoreKeys#BULK_LOAD_BUFFER_BYTES}, so a load is written in a few large sorted batches rather than
+ * held on the heap until it ends.
+ */
+final class BulkLoad {
+    private static final int UUID_ENTRY_BYTES = 2 * Long.BYTES + Integer.BYTES;
+    private final MVStoreProvider provider;
+    private final long maxBufferedBytes;
+    /**
+     * Estimated bytes of the buffered values: the bytes of the components, citations, pattern nids and UUIDs.
+     */
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final ConcurrentHashMap<Integer, byte[]> components = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Integer> patternNids = new ConcurrentHashMap<>();
+    /**
+     * Citations of each component. Each set is guarded by itself.
+     */
+    private final ConcurrentHashMap<Integer, MutableLongSet> citations = new ConcurrentHashMap<>();
+    private final UuidToNidBuffer uuidToNid = new UuidToNidBuffer();
+
+    BulkLoad(MVStoreProvider provider, long maxBufferedBytes) {
+        this.provider = provider;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Sorts the keys of the buffer and puts each entry in the map in that order.
+     */
+    private static <V, S> void writeInKeyOrder(ConcurrentHashMap<Integer, V> buffer, MVMap<Integer, S> map,
+                                               Function<? super V, ? extends S> toStored) {
+        int[] keys = buffer.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(keys);
+        for (int key : keys) {
+            map.put(key, toStored.apply(buffer.get(key)));
+        }
+    }
+
+    /**
+     * @return true if the buffers should be written, as their estimated size has reached the maximum.
+     */
+    boolean isFull() {
+        return bufferedBytes.get() >= maxBufferedBytes;
+    }
+
+    /**
+     * @return the estimated bytes of the buffered values.
+     */
+    long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * @return true if the nid did not have a pattern nid, in which case the pattern nid is buffered.
+     */
+    boolean putPatternNidIfAbsent(int nid, int patternNid) {
+        if (patternNids.putIfAbsent(nid, patternNid) != null) {
+            return false;
+        }
+        bufferedBytes.addAndGet(2 * Integer.BYTES);
+        return !provider.nidToPatternNidMap.containsKey(nid);
+    }
+
+    void addCitation(int referencedComponentNid, long citationLong) {
+        MutableLongSet citationSet = citations.computeIfAbsent(referencedComponentNid, componentNid -> {
+            long[] storedCitations = provider.nidToCitingComponentsNidMap.get(componentNid);
+            return storedCitations == null ? LongSets.mutable.empty() : LongSets.mutable.of(storedCitations);
+        });
+        synchronized (citationSet) {
+            if (citationSet.add(citationLong)) {
+                bufferedBytes.addAndGet(Long.BYTES);
+            }
+        }
+    }
+
+    /**
+     * @return the citations of the component, or null if there are none.
+     */
+    long[] getCitations(int componentNid) {
+        MutableLongSet citationSet = citations.get(componentNid);
+        if (citationSet == null) {
+            return provider.nidToCitingComponentsNidMap.get(componentNid);
+        }
+        synchronized (citationSet) {
+            return citationSet.toSortedArray();
+        }
+    }
+
+    byte[] merge(int nid, byte[] value) {
+        return components.compute(nid, (key, buffered) -> {
+            byte[] oldBytes = buffered == null ? provider.nidToComponentMap.get(key) : buffered;
+            byte[] mergedBytes = PrimitiveDataService.merge(oldBytes, value);
+            bufferedBytes.addAndGet(mergedBytes.length - (buffered == null ? 0 : buffered.length));
+            return mergedBytes;
+        });
+    }
+
+    byte[] getBytes(int nid) {
+        byte[] bytes = components.get(nid);
+        if (bytes == null) {
+            return provider.nidToComponentMap.get(nid);
+        }
+        return bytes;
+    }
+
+    UuidToNidBuffer uuidToNid() {
+        return uuidToNid;
+    }
+
+    /**
+     * Writes the buffered values to the maps and clears the buffers. Must not run concurrently with any
+     * other method that buffers values.
+     */
+    void write() {
+        UUID[] uuids = uuidToNid.keySet().toArray(new UUID[0]);
+        Arrays.sort(uuids);
+        for (UUID uuid : uuids) {
+            provider.uuidToNidMap.put(uuid, uuidToNid.bufferedNid(uuid));
+        }
+        writeInKeyOrder(patternNids, provider.nidToPatternNidMap, Function.identity());
+        writeInKeyOrder(citations, provider.nidToCitingComponentsNidMap, MutableLongSet::toSortedArray);
+        writeInKeyOrder(components, provider.nidToComponentMap, Function.identity());
+        uuidToNid.clear();
+        patternNids.clear();
+        citations.clear();
+        components.clear();
+        bufferedBytes.set(0);
+    }
+
+    /**
+     * Map of new UUIDs to nids, that reads through to the uuidToNidMap, for use with
+     * {@link PrimitiveDataService#nidForUuids(java.util.concurrent.ConcurrentMap, org.hl7.tinkar.common.service.NidGenerator, UUID...)}.
+     */
+    final class UuidToNidBuffer extends ConcurrentHashMap<UUID, Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private Integer bufferedNid(UUID uuid) {
+            return super.get(uuid);
+        }
+
+        @Override
+        public Integer get(Object key) {
+            Integer nid = super.get(key);
+            if (nid == null) {
+                return provider.uuidToNidMap.get(key);
+            }
+            return nid;
+        }
+
+        @Override
+        public Integer computeIfAbsent(UUID key, Function<? super UUID, ? extends Integer> mappingFunction) {
+            Integer storedNid = provider.uuidToNidMap.get(key);
+            if (storedNid != null) {
+                return storedNid;
+            }
+            return super.computeIfAbsent(key, uuid -> {
+                Integer nid = mappingFunction.apply(uuid);
+                if (nid != null) {
+                    bufferedBytes.addAndGet(UUID_ENTRY_BYTES);
+                }
+                return nid;
+            });
+        }
+    }
+}
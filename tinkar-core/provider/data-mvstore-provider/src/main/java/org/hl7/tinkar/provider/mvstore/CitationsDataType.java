@@ -0,0 +1,60 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Citations of a component, a long[] of citing component nid and pattern nid pairs as made by
+ * {@link org.hl7.tinkar.common.util.ints2long.IntsInLong#ints2Long(int, int)}. Written as the length, and
+ * then for each citation, the difference of its nid and of its pattern nid from those of the citation before
+ * it, as zig-zag variable length ints. Citations are sorted by nid, and most share the pattern of the one
+ * before, so a citation usually takes two or three bytes rather than eight.
+ */
+public final class CitationsDataType extends TinkarDataType {
+    public static final CitationsDataType INSTANCE = new CitationsDataType();
+
+    private CitationsDataType() {
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        return Arrays.compare((long[]) a, (long[]) b);
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return 24 + ((long[]) obj).length * Long.BYTES;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        long[] citations = (long[]) obj;
+        buff.putVarInt(citations.length);
+        int previousNid = 0;
+        int previousPatternNid = 0;
+        for (long citation : citations) {
+            int nid = (int) (citation >> 32);
+            int patternNid = (int) citation;
+            putZigZagVarInt(buff, nid - previousNid);
+            putZigZagVarInt(buff, patternNid - previousPatternNid);
+            previousNid = nid;
+            previousPatternNid = patternNid;
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        long[] citations = new long[DataUtils.readVarInt(buff)];
+        int nid = 0;
+        int patternNid = 0;
+        for (int i = 0; i < citations.length; i++) {
+            nid += readZigZagVarInt(buff);
+            patternNid += readZigZagVarInt(buff);
+            citations[i] = (((long) nid) << 32) | (patternNid & 0xffffffffL);
+        }
+        return citations;
+    }
+}
@@ -0,0 +1,50 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * int[] written as its length, and then the difference of each element from the one before it as a zig-zag
+ * variable length int. Sorted nids therefore take one or two bytes each.
+ */
+final class IntArrayDataType extends TinkarDataType {
+    static final IntArrayDataType INSTANCE = new IntArrayDataType();
+
+    private IntArrayDataType() {
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        return Arrays.compare((int[]) a, (int[]) b);
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return 24 + ((int[]) obj).length * Integer.BYTES;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        int[] values = (int[]) obj;
+        buff.putVarInt(values.length);
+        int previous = 0;
+        for (int value : values) {
+            putZigZagVarInt(buff, value - previous);
+            previous = value;
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        int[] values = new int[DataUtils.readVarInt(buff)];
+        int previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            previous += readZigZagVarInt(buff);
+            values[i] = previous;
+        }
+        return values;
+    }
+}
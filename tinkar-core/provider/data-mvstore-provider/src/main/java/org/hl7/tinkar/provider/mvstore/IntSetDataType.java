@@ -0,0 +1,60 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ConcurrentRoaringIntSet written as the length of its serialized bitmap, and then the bitmap. The set that
+ * is read is the set held by the map page, so it must not be added to: a set to be changed is copied with
+ * {@link ConcurrentRoaringIntSet#copy()}, and the copy put back in the map, so a page and its memory estimate
+ * do not change once the page is written.
+ */
+public final class IntSetDataType extends TinkarDataType {
+    public static final IntSetDataType INSTANCE = new IntSetDataType();
+
+    private IntSetDataType() {
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        return Arrays.compare(((ConcurrentRoaringIntSet) a).toArray(), ((ConcurrentRoaringIntSet) b).toArray());
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return (int) Math.min(Integer.MAX_VALUE, 32 + ((ConcurrentRoaringIntSet) obj).sizeInBytes());
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ((ConcurrentRoaringIntSet) obj).writeTo(new DataOutputStream(bytes));
+            buff.putVarInt(bytes.size());
+            buff.put(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        byte[] bytes = new byte[DataUtils.readVarInt(buff)];
+        buff.get(bytes);
+        try {
+            ConcurrentRoaringIntSet set = new ConcurrentRoaringIntSet();
+            set.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+            return set;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.WriteBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Integer written as four bytes. Nids are close to Integer.MIN_VALUE, so a variable length encoding would
+ * not be shorter.
+ */
+public final class IntegerDataType extends TinkarDataType {
+    public static final IntegerDataType INSTANCE = new IntegerDataType();
+
+    private IntegerDataType() {
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        return Integer.compare((Integer) a, (Integer) b);
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return 16;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        buff.putInt((Integer) obj);
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        return buff.getInt();
+    }
+}
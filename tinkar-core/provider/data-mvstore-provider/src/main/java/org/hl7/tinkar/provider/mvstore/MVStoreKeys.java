@@ -0,0 +1,14 @@
+package org.hl7.tinkar.provider.mvstore;
+
+/**
+ * {@link org.hl7.tinkar.common.service.ServiceProperties} keys to configure the MVStore provider.
+ * Values are read when a bulk load begins.
+ */
+public enum MVStoreKeys {
+    /**
+     * Long estimated bytes of values a bulk load buffers before it writes them to the maps as a sorted batch,
+     * so a load larger than the heap is written in batches rather than held until the load ends. Defaults to
+     * 256 MiB.
+     */
+    BULK_LOAD_BUFFER_BYTES
+}
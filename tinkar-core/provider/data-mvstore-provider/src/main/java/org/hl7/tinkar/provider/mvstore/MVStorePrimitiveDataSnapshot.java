@@ -0,0 +1,126 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.Page;
+import org.hl7.tinkar.common.service.PrimitiveDataSnapshot;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.StreamSupport;
+
+/**
+ * Snapshot of an {@link MVStoreProvider}. Entities are read from the root page of the entity map at the version
+ * current when the snapshot was opened, and the version is registered as in use, so the store does not reuse the
+ * chunks of its pages until the snapshot is closed. The nid sets and citations are read from the provider, and only
+ * nids with an entity in the snapshot are passed on, since the provider adds a nid to its sets and citations before
+ * it puts the nid's entity in the map.
+ */
+final class MVStorePrimitiveDataSnapshot implements PrimitiveDataSnapshot {
+    private final MVStoreProvider provider;
+    private final MVStore.TxCounter versionUsage;
+    private final MVMap<Integer, byte[]> entityMap;
+    private final Page entityRoot;
+    private final long writeSequence;
+
+    /**
+     * Opens a snapshot of the entity map of the provider, which must not hold values buffered by a bulk load
+     * that the snapshot should see.
+     */
+    MVStorePrimitiveDataSnapshot(MVStoreProvider provider) {
+        this.provider = provider;
+        this.versionUsage = provider.store.registerVersionUsage();
+        this.writeSequence = provider.writeSequence();
+        this.entityMap = provider.nidToComponentMap;
+        this.entityRoot = entityMap.flushAndGetRoot().root;
+    }
+
+    private IntProcedure inSnapshot(IntProcedure procedure) {
+        return nid -> {
+            if (getBytes(nid) != null) {
+                procedure.value(nid);
+            }
+        };
+    }
+
+    @Override
+    public long writeSequence() {
+        return writeSequence;
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        return entityMap.get(entityRoot, nid);
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        Cursor<Integer, byte[]> cursor = new Cursor<>(entityRoot, null);
+        while (cursor.hasNext()) {
+            int nid = cursor.next();
+            action.accept(cursor.getValue(), nid);
+        }
+    }
+
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        Cursor<Integer, byte[]> cursor = new Cursor<>(entityRoot, null);
+        // The cursor is read by one thread at a time, which passes batches of entries to the other threads.
+        Iterator<Entry> entries = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                int nid = cursor.next();
+                return new Entry(nid, cursor.getValue());
+            }
+        };
+        StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL), true)
+                .forEach(entry -> action.accept(entry.value(), entry.nid()));
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        provider.forEachSemanticNidOfPattern(patternNid, inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        provider.forEachPatternNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        provider.forEachConceptNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        provider.forEachStampNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        provider.forEachSemanticNid(inSnapshot(procedure));
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        provider.forEachSemanticNidForComponent(componentNid, inSnapshot(procedure));
+    }
+
+    @Override
+    public void close() {
+        provider.store.deregisterVersionUsage(versionUsage);
+    }
+
+    private record Entry(int nid, byte[] value) {
+    }
+}
@@ -2,12 +2,14 @@ package org.hl7.tinkar.provider.mvstore;
 
 import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
 import org.eclipse.collections.api.list.ImmutableList;
-import org.eclipse.collections.api.tuple.Pair;
-import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.OffHeapStore;
+import org.h2.mvstore.type.DataType;
 import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
 import org.hl7.tinkar.common.util.ints2long.IntsInLong;
 import org.hl7.tinkar.common.util.time.Stopwatch;
 import org.hl7.tinkar.entity.Entity;
@@ -21,10 +23,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.ObjIntConsumer;
 
 /**
@@ -35,6 +40,11 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
     private static final File defaultDataDirectory = new File("target/mvstore/");
     private static final String databaseFileName = "mvstore.dat";
     private static final UUID nextNidKey = new UUID(Long.MAX_VALUE, Long.MIN_VALUE);
+    /**
+     * Suffix of the names of maps opened with dedicated data types. Maps without the suffix were written
+     * with the default ObjectDataType.
+     */
+    private static final String TYPED_MAP_SUFFIX = ".typed";
     protected static MVStoreProvider singleton;
     protected final AtomicInteger nextNid;
     final OffHeapStore offHeap;
@@ -47,12 +57,30 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
      * Using "citing" instead of "referencing" to make the field names more distinct.
      */
     final MVMap<Integer, long[]> nidToCitingComponentsNidMap;
-    final MVMap<Integer, int[]> patternToElementNidsMap;
+    /**
+     * Element nids of each pattern. Sets held by the map are never added to, see patternElementNidsMap.
+     */
+    final MVMap<Integer, ConcurrentRoaringIntSet> patternToElementNidsMap;
     final Indexer indexer;
     final Searcher searcher;
     final String name;
+    /**
+     * Held for read while a value is buffered by the bulk load, and for write while the buffers are written.
+     */
+    private final ReentrantReadWriteLock bulkLoadLock = new ReentrantReadWriteLock();
     protected LongAdder writeSequence = new LongAdder();
-    ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, Integer>> patternElementNidsMap = ConcurrentHashMap.newMap();
+    private volatile BulkLoad bulkLoad;
+    private int autoCommitDelay;
+    /**
+     * Element nid sets with elements added since the last save. Each is a copy of the set in the
+     * patternToElementNidsMap, so a set held by a map page is never added to, and is dropped once saved
+     * unless added to again, so only the sets changed between saves are held here.
+     */
+    final ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap = new ConcurrentHashMap<>();
+    /**
+     * Patterns with elements added since the last save.
+     */
+    final Set<Integer> changedElementPatternNids = ConcurrentHashMap.newKeySet();
 
 
     public MVStoreProvider() throws IOException {
@@ -68,17 +96,14 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         this.store = new MVStore.Builder().fileName(databaseFile.getAbsolutePath()).open();
 
         this.nidToComponentMap = store.openMap("nidToComponentMap");
-        this.uuidToNidMap = store.openMap("uuidToNidMap");
-        this.stampUuidToNidMap = store.openMap("stampUuidToNidMap");
-        this.nidToPatternNidMap = store.openMap("nidToPatternNidMap");
-        this.nidToCitingComponentsNidMap = store.openMap("nidToCitingComponentsNidMap");
-        this.patternToElementNidsMap = store.openMap("patternToElementNidsMap");
-        for (int patternNid : patternToElementNidsMap.keySet()) {
-            int[] elementNids = patternToElementNidsMap.get(patternNid);
-            for (int elementNid : elementNids) {
-                addToElementSet(patternNid, elementNid);
-            }
-        }
+        this.uuidToNidMap = openTypedMap("uuidToNidMap", UuidDataType.INSTANCE, IntegerDataType.INSTANCE);
+        this.stampUuidToNidMap = openTypedMap("stampUuidToNidMap", UuidDataType.INSTANCE, IntegerDataType.INSTANCE);
+        this.nidToPatternNidMap = openTypedMap("nidToPatternNidMap", IntegerDataType.INSTANCE, IntegerDataType.INSTANCE);
+        this.nidToCitingComponentsNidMap = openTypedMap("nidToCitingComponentsNidMap", IntegerDataType.INSTANCE, CitationsDataType.INSTANCE);
+        this.patternToElementNidsMap = store.openMap("patternToElementNidSets",
+                new MVMap.Builder<Integer, ConcurrentRoaringIntSet>().keyType(IntegerDataType.INSTANCE).valueType(IntSetDataType.INSTANCE));
+        migrateElementNidArrays("patternToElementNidsMap", null);
+        migrateElementNidArrays("patternToElementNidsMap" + TYPED_MAP_SUFFIX, IntArrayDataType.INSTANCE);
 
         if (this.uuidToNidMap.containsKey(nextNidKey)) {
             this.nextNid = new AtomicInteger(this.uuidToNidMap.get(nextNidKey));
@@ -98,9 +123,162 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         this.searcher = new Searcher();
     }
 
+    /**
+     * Opens a map with dedicated key and value types. A map of the same name written by an earlier version,
+     * with the default ObjectDataType, is copied into the typed map and removed. The copy may be repeated if
+     * the store is closed before the untyped map is removed, since the entries are the same.
+     */
+    private <K, V> MVMap<K, V> openTypedMap(String name, DataType keyType, DataType valueType) {
+        MVMap<K, V> typedMap = store.openMap(name + TYPED_MAP_SUFFIX,
+                new MVMap.Builder<K, V>().keyType(keyType).valueType(valueType));
+        if (store.hasMap(name)) {
+            Stopwatch stopwatch = new Stopwatch();
+            MVMap<K, V> untypedMap = store.openMap(name);
+            typedMap.putAll(untypedMap);
+            store.removeMap(untypedMap);
+            store.commit();
+            stopwatch.stop();
+            LOG.info("Migrated " + typedMap.sizeAsLong() + " entries of " + name + " to typed map in: " +
+                    stopwatch.durationString());
+        }
+        return typedMap;
+    }
+
+    /**
+     * Copies the element nid arrays of a map written by an earlier version into element nid sets, and
+     * removes the map.
+     *
+     * @param valueType the type of the arrays, or null if written with the default ObjectDataType.
+     */
+    private void migrateElementNidArrays(String name, DataType valueType) {
+        if (store.hasMap(name)) {
+            Stopwatch stopwatch = new Stopwatch();
+            MVMap.Builder<Integer, int[]> builder = new MVMap.Builder<>();
+            if (valueType != null) {
+                builder.keyType(IntegerDataType.INSTANCE).valueType(valueType);
+            }
+            MVMap<Integer, int[]> elementNidArrayMap = store.openMap(name, builder);
+            for (Integer patternNid : elementNidArrayMap.keySet()) {
+                ConcurrentRoaringIntSet elementNids = new ConcurrentRoaringIntSet();
+                for (int elementNid : elementNidArrayMap.get(patternNid)) {
+                    elementNids.add(elementNid);
+                }
+                patternToElementNidsMap.put(patternNid, elementNids);
+            }
+            store.removeMap(elementNidArrayMap);
+            store.commit();
+            stopwatch.stop();
+            LOG.info("Migrated element nids of " + patternToElementNidsMap.sizeAsLong() + " patterns from " + name +
+                    " in: " + stopwatch.durationString());
+        }
+    }
+
+    /**
+     * Starts a bulk load, such as an import of a full export, which should be called before the first merge
+     * of the load. Until {@link #endBulkLoad()}, merged components, citations, pattern nids and new UUIDs are
+     * buffered in memory and the timed autocommit of the store is disabled. The maps are then written in key
+     * order, once the buffers reach {@link MVStoreKeys#BULK_LOAD_BUFFER_BYTES} and when the load ends, which
+     * avoids the page splits and rewrites of writing them in the order entities arrive.
+     * Entities may be read while the load is in progress.
+     */
+    public void beginBulkLoad() {
+        bulkLoadLock.writeLock().lock();
+        try {
+            if (this.bulkLoad == null) {
+                LOG.info("Beginning bulk load of MVStoreProvider");
+                this.autoCommitDelay = store.getAutoCommitDelay();
+                store.setAutoCommitDelay(0);
+                this.bulkLoad = new BulkLoad(this,
+                        ServiceProperties.get(MVStoreKeys.BULK_LOAD_BUFFER_BYTES, 256L * 1024 * 1024));
+            }
+        } finally {
+            bulkLoadLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the values buffered since {@link #beginBulkLoad()} in key order, commits the store once, and
+     * resumes writing each merge to the maps. Should be called after the last merge of the load.
+     */
+    public void endBulkLoad() {
+        bulkLoadLock.writeLock().lock();
+        try {
+            if (this.bulkLoad != null) {
+                Stopwatch stopwatch = new Stopwatch();
+                this.bulkLoad.write();
+                this.bulkLoad = null;
+                this.store.commit();
+                store.setAutoCommitDelay(autoCommitDelay);
+                stopwatch.stop();
+                LOG.info("Ended bulk load of MVStoreProvider in: " + stopwatch.durationString());
+            }
+        } finally {
+            bulkLoadLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the values buffered by a bulk load in progress, so that they are in the maps. The load continues.
+     */
+    private void writeBulkLoad() {
+        if (this.bulkLoad != null) {
+            bulkLoadLock.writeLock().lock();
+            try {
+                if (this.bulkLoad != null) {
+                    this.bulkLoad.write();
+                }
+            } finally {
+                bulkLoadLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the values buffered by a bulk load in progress as a sorted batch, if the buffers are full.
+     */
+    private void writeBulkLoadIfFull() {
+        BulkLoad currentBulkLoad = this.bulkLoad;
+        if (currentBulkLoad != null && currentBulkLoad.isFull()) {
+            bulkLoadLock.writeLock().lock();
+            try {
+                if (this.bulkLoad != null && this.bulkLoad.isFull()) {
+                    this.bulkLoad.write();
+                }
+            } finally {
+                bulkLoadLock.writeLock().unlock();
+            }
+        }
+    }
+
     public boolean addToElementSet(int patternNid, int elementNid) {
-        return null == patternElementNidsMap.getIfAbsentPut(patternNid, integer -> new ConcurrentHashMap<>())
-                .put(elementNid, elementNid);
+        boolean[] added = new boolean[1];
+        // Added and marked within compute, so a save that writes and drops the set cannot miss the element.
+        patternElementNidsMap.compute(patternNid, (key, changedElementNids) -> {
+            ConcurrentRoaringIntSet elementNids = changedElementNids;
+            if (elementNids == null) {
+                ConcurrentRoaringIntSet storedElementNids = patternToElementNidsMap.get(key);
+                elementNids = storedElementNids == null ? new ConcurrentRoaringIntSet() : storedElementNids.copy();
+            }
+            if (elementNids.add(elementNid)) {
+                changedElementPatternNids.add(key);
+                added[0] = true;
+                return elementNids;
+            }
+            return changedElementNids;
+        });
+        return added[0];
+    }
+
+    /**
+     * @return the element nids of the pattern, or null if the pattern has none. The set must not be added to.
+     */
+    private ConcurrentRoaringIntSet elementNids(int patternNid) {
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids == null) {
+            // Read after the cache, since a save puts the set in the map before dropping it from the cache.
+            elementNids = patternToElementNidsMap.get(patternNid);
+        }
+        return elementNids;
     }
 
     @Override
@@ -113,6 +291,18 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         return writeSequence.sum();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entities are read from the entity map at its current version. Values buffered by a bulk load in progress are
+     * written first, so the snapshot holds every entity merged before it was opened.
+     */
+    @Override
+    public PrimitiveDataSnapshot snapshot() {
+        writeBulkLoad();
+        return new MVStorePrimitiveDataSnapshot(this);
+    }
+
     public void close() {
         Stopwatch stopwatch = new Stopwatch();
         LOG.info("Closing MVStoreProvider");
@@ -132,10 +322,18 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         Stopwatch stopwatch = new Stopwatch();
         LOG.info("Saving MVStoreProvider");
         try {
+            writeBulkLoad();
             this.uuidToNidMap.put(nextNidKey, nextNid.get());
-            for (Pair<Integer, ConcurrentHashMap<Integer, Integer>> keyValue : patternElementNidsMap.keyValuesView()) {
-                patternToElementNidsMap.put(keyValue.getOne(), keyValue.getTwo().keySet()
-                        .stream().mapToInt(value -> (int) value).toArray());
+            Iterator<Integer> changedPatternNids = changedElementPatternNids.iterator();
+            while (changedPatternNids.hasNext()) {
+                int patternNid = changedPatternNids.next();
+                // Unmarked before the set is written, so an element added during the save marks it again.
+                changedPatternNids.remove();
+                // Writes a copy, that the map page holds, and drops the set unless marked again.
+                patternElementNidsMap.computeIfPresent(patternNid, (key, elementNids) -> {
+                    patternToElementNidsMap.put(key, elementNids.copy());
+                    return changedElementPatternNids.contains(key) ? elementNids : null;
+                });
             }
             this.store.commit();
             this.offHeap.sync();
@@ -150,31 +348,78 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
 
     @Override
     public int nidForUuids(UUID... uuids) {
+        if (this.bulkLoad != null) {
+            bulkLoadLock.readLock().lock();
+            try {
+                BulkLoad currentBulkLoad = this.bulkLoad;
+                if (currentBulkLoad != null) {
+                    return PrimitiveDataService.nidForUuids(currentBulkLoad.uuidToNid(), this, uuids);
+                }
+            } finally {
+                bulkLoadLock.readLock().unlock();
+            }
+        }
         return PrimitiveDataService.nidForUuids(uuidToNidMap, this, uuids);
     }
 
     @Override
     public int nidForUuids(ImmutableList<UUID> uuidList) {
+        if (this.bulkLoad != null) {
+            bulkLoadLock.readLock().lock();
+            try {
+                BulkLoad currentBulkLoad = this.bulkLoad;
+                if (currentBulkLoad != null) {
+                    return PrimitiveDataService.nidForUuids(currentBulkLoad.uuidToNid(), this, uuidList);
+                }
+            } finally {
+                bulkLoadLock.readLock().unlock();
+            }
+        }
         return PrimitiveDataService.nidForUuids(uuidToNidMap, this, uuidList);
     }
 
     @Override
     public void forEach(ObjIntConsumer<byte[]> action) {
+        writeBulkLoad();
         nidToComponentMap.entrySet().forEach(entry -> action.accept(entry.getValue(), entry.getKey()));
     }
 
     @Override
     public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        writeBulkLoad();
         nidToComponentMap.entrySet().stream().parallel().forEach(entry -> action.accept(entry.getValue(), entry.getKey()));
     }
 
     @Override
     public byte[] getBytes(int nid) {
+        BulkLoad currentBulkLoad = this.bulkLoad;
+        if (currentBulkLoad != null) {
+            return currentBulkLoad.getBytes(nid);
+        }
         return this.nidToComponentMap.get(nid);
     }
 
     @Override
     public byte[] merge(int nid, int patternNid, int referencedComponentNid, byte[] value, Object sourceObject) {
+        if (this.bulkLoad != null) {
+            writeBulkLoadIfFull();
+            bulkLoadLock.readLock().lock();
+            try {
+                BulkLoad currentBulkLoad = this.bulkLoad;
+                if (currentBulkLoad != null) {
+                    if (currentBulkLoad.putPatternNidIfAbsent(nid, patternNid) && patternNid != Integer.MAX_VALUE) {
+                        currentBulkLoad.addCitation(referencedComponentNid, IntsInLong.ints2Long(nid, patternNid));
+                        this.addToElementSet(patternNid, nid);
+                    }
+                    byte[] mergedBytes = currentBulkLoad.merge(nid, value);
+                    writeSequence.increment();
+                    this.indexer.index(sourceObject, mergedBytes);
+                    return mergedBytes;
+                }
+            } finally {
+                bulkLoadLock.readLock().unlock();
+            }
+        }
         if (!nidToPatternNidMap.containsKey(nid)) {
             this.nidToPatternNidMap.put(nid, patternNid);
             if (patternNid != Integer.MAX_VALUE) {
@@ -191,7 +436,7 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         }
         byte[] mergedBytes = nidToComponentMap.merge(nid, value, PrimitiveDataService::merge);
         writeSequence.increment();
-        this.indexer.index(sourceObject);
+        this.indexer.index(sourceObject, mergedBytes);
         return mergedBytes;
     }
 
@@ -202,11 +447,9 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
 
     @Override
     public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
-        Set<Integer> elementNids = getElementNidsForPatternNid(patternNid);
-        if (elementNids != null && elementNids.size() > 0) {
-            for (int elementNid : elementNids) {
-                procedure.accept(elementNid);
-            }
+        ConcurrentRoaringIntSet elementNids = elementNids(patternNid);
+        if (elementNids != null && elementNids.notEmpty()) {
+            elementNids.forEach(procedure);
         } else {
             Entity entity = Entity.getFast(patternNid);
             if (entity instanceof PatternEntity == false) {
@@ -216,11 +459,12 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         }
     }
 
-    public Set<Integer> getElementNidsForPatternNid(int patternNid) {
-        if (patternElementNidsMap.containsKey(patternNid)) {
-            return patternElementNidsMap.get(patternNid).keySet();
+    public IntSet getElementNidsForPatternNid(int patternNid) {
+        ConcurrentRoaringIntSet elementNids = elementNids(patternNid);
+        if (elementNids != null) {
+            return elementNids.asIntSet();
         }
-        return Set.of();
+        return IntSets.immutable.empty();
     }
 
     @Override
@@ -245,7 +489,7 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
 
     @Override
     public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
-        long[] citationLongs = this.nidToCitingComponentsNidMap.get(componentNid);
+        long[] citationLongs = getCitations(componentNid);
         if (citationLongs != null) {
             for (long citationLong : citationLongs) {
                 int citingComponentNid = (int) (citationLong >> 32);
@@ -256,7 +500,7 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
 
     @Override
     public void forEachSemanticNidForComponentOfPattern(int componentNid, int patternNid, IntProcedure procedure) {
-        long[] citationLongs = this.nidToCitingComponentsNidMap.get(componentNid);
+        long[] citationLongs = getCitations(componentNid);
         if (citationLongs != null) {
             for (long citationLong : citationLongs) {
                 int citingComponentNid = (int) (citationLong >> 32);
@@ -268,6 +512,14 @@ public class MVStoreProvider implements PrimitiveDataService, NidGenerator {
         }
     }
 
+    private long[] getCitations(int componentNid) {
+        BulkLoad currentBulkLoad = this.bulkLoad;
+        if (currentBulkLoad != null) {
+            return currentBulkLoad.getCitations(componentNid);
+        }
+        return this.nidToCitingComponentsNidMap.get(componentNid);
+    }
+
     @Override
     public String name() {
         return name;
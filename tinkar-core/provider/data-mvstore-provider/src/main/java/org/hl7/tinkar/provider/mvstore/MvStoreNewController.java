@@ -95,12 +95,17 @@ public class MvStoreNewController extends MvStoreController {
                 File rootFolder = new File(System.getProperty("user.home"), "Solor");
                 File dataDirectory = new File(rootFolder, providerProperties.get(newFolderProperty));
                 ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, dataDirectory);
-                new MVStoreProvider();
+                MVStoreProvider provider = new MVStoreProvider();
 
                 ServiceLoader<LoadDataFromFileController> controllerFinder = ServiceLoader.load(LoadDataFromFileController.class);
                 LoadDataFromFileController loader = controllerFinder.findFirst().get();
-                Future<Integer> loadFuture = (Future<Integer>) loader.load(new File(importDataFileString));
-                int count = loadFuture.get();
+                provider.beginBulkLoad();
+                try {
+                    Future<Integer> loadFuture = (Future<Integer>) loader.load(new File(importDataFileString));
+                    int count = loadFuture.get();
+                } finally {
+                    provider.endBulkLoad();
+                }
                 Get.singleton.save();
             } catch (InterruptedException | ExecutionException | IOException e) {
                 e.printStackTrace();
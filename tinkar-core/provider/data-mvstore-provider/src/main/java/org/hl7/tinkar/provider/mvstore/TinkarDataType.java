@@ -0,0 +1,37 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base of the data types of the MVStoreProvider maps, which write a single type of key or value rather than
+ * the type tagged encoding of the default ObjectDataType.
+ */
+abstract class TinkarDataType implements DataType {
+
+    static void putZigZagVarInt(WriteBuffer buff, int value) {
+        buff.putVarInt((value << 1) ^ (value >> 31));
+    }
+
+    static int readZigZagVarInt(ByteBuffer buff) {
+        int zigZag = DataUtils.readVarInt(buff);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.WriteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * UUID written as its two longs.
+ */
+public final class UuidDataType extends TinkarDataType {
+    public static final UuidDataType INSTANCE = new UuidDataType();
+
+    private UuidDataType() {
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        return ((UUID) a).compareTo((UUID) b);
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return 40;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        UUID uuid = (UUID) obj;
+        buff.putLong(uuid.getMostSignificantBits());
+        buff.putLong(uuid.getLeastSignificantBits());
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        return new UUID(buff.getLong(), buff.getLong());
+    }
+}
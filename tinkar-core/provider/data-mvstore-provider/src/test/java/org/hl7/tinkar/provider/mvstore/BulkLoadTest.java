@@ -0,0 +1,84 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.common.service.ServiceKeys;
+import org.hl7.tinkar.common.service.ServiceProperties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * JUnit test for {@link BulkLoad}, through the bulk load of an {@link MVStoreProvider}.
+ */
+public class BulkLoadTest {
+    private static final int FIRST_NID = PrimitiveDataService.FIRST_NID;
+    private static final int COMPONENT_COUNT = 1_000;
+    private static final int SEMANTIC_COUNT = 200;
+    private static final int VALUE_SIZE = 100;
+    private static final long BUFFER_BYTES = 8 * 1024;
+
+    private static byte[] value(int nid) {
+        byte[] value = new byte[VALUE_SIZE];
+        new Random(nid).nextBytes(value);
+        return value;
+    }
+
+    @Test
+    public void fullBuffersAreWrittenAsBatches(@TempDir File root) throws Exception {
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, root);
+        ServiceProperties.set(MVStoreKeys.BULK_LOAD_BUFFER_BYTES, BUFFER_BYTES);
+        MVStoreProvider provider = new MVStoreProvider();
+        try {
+            int patternNid = FIRST_NID;
+            int citedNid = FIRST_NID + 1;
+            int[] nids = new int[COMPONENT_COUNT + SEMANTIC_COUNT];
+            Arrays.setAll(nids, i -> FIRST_NID + i);
+            // Merged in random order, as entities arrive in an import.
+            Random random = new Random(7);
+            for (int i = nids.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int nid = nids[i];
+                nids[i] = nids[j];
+                nids[j] = nid;
+            }
+
+            provider.beginBulkLoad();
+            long mergedBytes = 0;
+            for (int nid : nids) {
+                if (nid < FIRST_NID + COMPONENT_COUNT) {
+                    provider.merge(nid, Integer.MAX_VALUE, Integer.MAX_VALUE, value(nid), null);
+                } else {
+                    provider.merge(nid, patternNid, citedNid, value(nid), null);
+                }
+                mergedBytes += VALUE_SIZE;
+                // Buffered values are written once the buffers are full, rather than at the end of the load.
+                Assertions.assertTrue(mergedBytes - provider.nidToComponentMap.sizeAsLong() * VALUE_SIZE
+                        <= BUFFER_BYTES + VALUE_SIZE, "Buffered more than the maximum");
+            }
+            Assertions.assertTrue(provider.nidToComponentMap.sizeAsLong() > 0);
+            Assertions.assertTrue(provider.nidToComponentMap.sizeAsLong() < nids.length);
+            for (int nid : nids) {
+                Assertions.assertArrayEquals(value(nid), provider.getBytes(nid));
+            }
+            Assertions.assertEquals(SEMANTIC_COUNT, provider.semanticNidsForComponent(citedNid).length);
+
+            provider.endBulkLoad();
+            Assertions.assertEquals(nids.length, provider.nidToComponentMap.sizeAsLong());
+            for (int nid : nids) {
+                Assertions.assertArrayEquals(value(nid), provider.getBytes(nid));
+            }
+            int[] citingNids = provider.semanticNidsForComponent(citedNid);
+            Arrays.sort(citingNids);
+            for (int i = 0; i < SEMANTIC_COUNT; i++) {
+                Assertions.assertEquals(FIRST_NID + COMPONENT_COUNT + i, citingNids[i]);
+            }
+            Assertions.assertEquals(SEMANTIC_COUNT, provider.semanticNidsOfPattern(patternNid).length);
+        } finally {
+            provider.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.common.service.PrimitiveDataSnapshot;
+import org.hl7.tinkar.common.service.ServiceKeys;
+import org.hl7.tinkar.common.service.ServiceProperties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for {@link MVStorePrimitiveDataSnapshot}, opened by an {@link MVStoreProvider}.
+ */
+public class MVStorePrimitiveDataSnapshotTest {
+    private static final int FIRST_NID = PrimitiveDataService.FIRST_NID;
+    private static final int COMPONENT_COUNT = 1_000;
+    private static final int ADDED_COUNT = 500;
+
+    private static byte[] value(int nid, int version) {
+        byte[] value = new byte[16];
+        Arrays.fill(value, (byte) (nid + version));
+        return value;
+    }
+
+    private static MVStoreProvider open(File root) throws Exception {
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, root);
+        return new MVStoreProvider();
+    }
+
+    @Test
+    public void snapshotDoesNotSeeLaterWrites(@TempDir File root) throws Exception {
+        MVStoreProvider provider = open(root);
+        try {
+            int patternNid = FIRST_NID;
+            int citedNid = FIRST_NID + 1;
+            for (int nid = FIRST_NID; nid < FIRST_NID + COMPONENT_COUNT; nid++) {
+                provider.merge(nid, patternNid, citedNid, value(nid, 0), null);
+            }
+            try (PrimitiveDataSnapshot snapshot = provider.snapshot()) {
+                long writeSequence = provider.writeSequence();
+                // Replaced, added and saved after the snapshot was opened.
+                for (int nid = FIRST_NID; nid < FIRST_NID + COMPONENT_COUNT; nid++) {
+                    provider.nidToComponentMap.put(nid, value(nid, 1));
+                }
+                for (int nid = FIRST_NID + COMPONENT_COUNT; nid < FIRST_NID + COMPONENT_COUNT + ADDED_COUNT; nid++) {
+                    provider.merge(nid, patternNid, citedNid, value(nid, 0), null);
+                }
+                provider.save();
+
+                Assertions.assertEquals(writeSequence, snapshot.writeSequence());
+                for (int nid = FIRST_NID; nid < FIRST_NID + COMPONENT_COUNT; nid++) {
+                    Assertions.assertArrayEquals(value(nid, 0), snapshot.getBytes(nid));
+                    Assertions.assertArrayEquals(value(nid, 1), provider.getBytes(nid));
+                }
+                for (int nid = FIRST_NID + COMPONENT_COUNT; nid < FIRST_NID + COMPONENT_COUNT + ADDED_COUNT; nid++) {
+                    Assertions.assertNull(snapshot.getBytes(nid));
+                    Assertions.assertArrayEquals(value(nid, 0), provider.getBytes(nid));
+                }
+
+                AtomicInteger sequentialCount = new AtomicInteger();
+                snapshot.forEach((bytes, nid) -> {
+                    Assertions.assertArrayEquals(value(nid, 0), bytes);
+                    sequentialCount.incrementAndGet();
+                });
+                Assertions.assertEquals(COMPONENT_COUNT, sequentialCount.get());
+                ConcurrentHashMap.KeySetView<Integer, Boolean> parallelNids = ConcurrentHashMap.newKeySet();
+                snapshot.forEachParallel((bytes, nid) -> {
+                    Assertions.assertArrayEquals(value(nid, 0), bytes);
+                    parallelNids.add(nid);
+                });
+                Assertions.assertEquals(COMPONENT_COUNT, parallelNids.size());
+
+                AtomicInteger citingCount = new AtomicInteger();
+                snapshot.forEachSemanticNidForComponent(citedNid, nid -> citingCount.incrementAndGet());
+                Assertions.assertEquals(COMPONENT_COUNT, citingCount.get());
+                AtomicInteger elementCount = new AtomicInteger();
+                snapshot.forEachSemanticNidOfPattern(patternNid, nid -> elementCount.incrementAndGet());
+                Assertions.assertEquals(COMPONENT_COUNT, elementCount.get());
+            }
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void snapshotHoldsBulkLoadedValues(@TempDir File root) throws Exception {
+        MVStoreProvider provider = open(root);
+        try {
+            provider.beginBulkLoad();
+            for (int nid = FIRST_NID; nid < FIRST_NID + COMPONENT_COUNT; nid++) {
+                provider.merge(nid, Integer.MAX_VALUE, Integer.MAX_VALUE, value(nid, 0), null);
+            }
+            try (PrimitiveDataSnapshot snapshot = provider.snapshot()) {
+                for (int nid = FIRST_NID + COMPONENT_COUNT; nid < FIRST_NID + COMPONENT_COUNT + ADDED_COUNT; nid++) {
+                    provider.merge(nid, Integer.MAX_VALUE, Integer.MAX_VALUE, value(nid, 0), null);
+                }
+                provider.endBulkLoad();
+
+                AtomicInteger count = new AtomicInteger();
+                snapshot.forEach((bytes, nid) -> count.incrementAndGet());
+                Assertions.assertEquals(COMPONENT_COUNT, count.get());
+                Assertions.assertNull(snapshot.getBytes(FIRST_NID + COMPONENT_COUNT));
+                Assertions.assertArrayEquals(value(FIRST_NID, 0), snapshot.getBytes(FIRST_NID));
+            }
+        } finally {
+            provider.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.hl7.tinkar.provider.mvstore;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.common.util.ints2long.IntsInLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * JUnit test for the {@link TinkarDataType} encodings of the {@link MVStoreProvider} maps.
+ */
+public class TinkarDataTypeTest {
+    private static final int FIRST_NID = PrimitiveDataService.FIRST_NID;
+    private static final int[] EDGE_INTS = {0, 1, -1, 63, -64, 64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Integer.MIN_VALUE + 1, FIRST_NID, FIRST_NID + 1_000_000};
+
+    /**
+     * @return the bytes of the values, written one after the other.
+     */
+    private static ByteBuffer write(DataType dataType, Object... values) {
+        WriteBuffer buff = new WriteBuffer();
+        dataType.write(buff, values, values.length, false);
+        ByteBuffer bytes = buff.getBuffer();
+        bytes.flip();
+        return bytes;
+    }
+
+    private static Object[] read(DataType dataType, ByteBuffer bytes, int count) {
+        Object[] values = new Object[count];
+        dataType.read(bytes, values, count, false);
+        Assertions.assertFalse(bytes.hasRemaining(), "Bytes left after the values");
+        return values;
+    }
+
+    @Test
+    public void zigZagVarIntRoundTrip() {
+        WriteBuffer buff = new WriteBuffer();
+        for (int value : EDGE_INTS) {
+            TinkarDataType.putZigZagVarInt(buff, value);
+        }
+        ByteBuffer bytes = buff.getBuffer();
+        bytes.flip();
+        for (int value : EDGE_INTS) {
+            Assertions.assertEquals(value, TinkarDataType.readZigZagVarInt(bytes));
+        }
+        Assertions.assertFalse(bytes.hasRemaining());
+
+        // Small differences of either sign take a single byte.
+        for (int value = -64; value < 64; value++) {
+            WriteBuffer smallBuff = new WriteBuffer();
+            TinkarDataType.putZigZagVarInt(smallBuff, value);
+            Assertions.assertEquals(1, smallBuff.position(), "Bytes for: " + value);
+        }
+    }
+
+    @Test
+    public void intArrayRoundTrip() {
+        Random random = new Random(14);
+        int[] sortedNids = new int[1_000];
+        sortedNids[0] = FIRST_NID;
+        for (int i = 1; i < sortedNids.length; i++) {
+            sortedNids[i] = sortedNids[i - 1] + 1 + random.nextInt(100);
+        }
+        int[] unsorted = random.ints(1_000).toArray();
+        Object[] values = {new int[0], EDGE_INTS, sortedNids, unsorted};
+        Object[] read = read(IntArrayDataType.INSTANCE, write(IntArrayDataType.INSTANCE, values), values.length);
+        for (int i = 0; i < values.length; i++) {
+            Assertions.assertArrayEquals((int[]) values[i], (int[]) read[i]);
+            Assertions.assertEquals(0, IntArrayDataType.INSTANCE.compare(values[i], read[i]));
+        }
+        // Sorted nids close together take one or two bytes each, rather than four.
+        Assertions.assertTrue(write(IntArrayDataType.INSTANCE, (Object) sortedNids).remaining() <= 2 + sortedNids.length * 2);
+    }
+
+    @Test
+    public void citationsRoundTrip() {
+        Random random = new Random(14);
+        long[] sortedCitations = new long[1_000];
+        int nid = FIRST_NID + 10;
+        for (int i = 0; i < sortedCitations.length; i++) {
+            nid += 1 + random.nextInt(50);
+            int patternNid = FIRST_NID + random.nextInt(3);
+            sortedCitations[i] = IntsInLong.ints2Long(nid, patternNid);
+        }
+        long[] edgeCitations = new long[EDGE_INTS.length * EDGE_INTS.length];
+        for (int i = 0; i < EDGE_INTS.length; i++) {
+            for (int j = 0; j < EDGE_INTS.length; j++) {
+                edgeCitations[i * EDGE_INTS.length + j] = IntsInLong.ints2Long(EDGE_INTS[i], EDGE_INTS[j]);
+            }
+        }
+        Object[] values = {new long[0], edgeCitations, sortedCitations, random.longs(100).toArray()};
+        Object[] read = read(CitationsDataType.INSTANCE, write(CitationsDataType.INSTANCE, values), values.length);
+        for (int i = 0; i < values.length; i++) {
+            Assertions.assertArrayEquals((long[]) values[i], (long[]) read[i]);
+        }
+        // Citations sorted by nid, mostly of the same few patterns, take two or three bytes each.
+        Assertions.assertTrue(write(CitationsDataType.INSTANCE, (Object) sortedCitations).remaining()
+                <= 2 + sortedCitations.length * 3);
+    }
+
+    @Test
+    public void uuidAndIntegerRoundTrip() {
+        Object[] uuids = {new UUID(0, 0), new UUID(Long.MIN_VALUE, Long.MAX_VALUE), new UUID(-1, -1),
+                UUID.randomUUID(), UUID.nameUUIDFromBytes(new byte[]{1, 4})};
+        Assertions.assertArrayEquals(uuids, read(UuidDataType.INSTANCE, write(UuidDataType.INSTANCE, uuids), uuids.length));
+        Assertions.assertEquals(uuids.length * 16, write(UuidDataType.INSTANCE, uuids).remaining());
+
+        Object[] integers = new Object[EDGE_INTS.length];
+        for (int i = 0; i < EDGE_INTS.length; i++) {
+            integers[i] = EDGE_INTS[i];
+        }
+        Assertions.assertArrayEquals(integers, read(IntegerDataType.INSTANCE, write(IntegerDataType.INSTANCE, integers), integers.length));
+    }
+
+    @Test
+    public void typedMapsAreReadAfterReopen(@TempDir File root) {
+        File storeFile = new File(root, "types.dat");
+        UUID uuid = UUID.randomUUID();
+        long[] citations = {IntsInLong.ints2Long(FIRST_NID + 5, FIRST_NID), IntsInLong.ints2Long(FIRST_NID + 9, FIRST_NID + 1)};
+        int[] elementNids = {FIRST_NID + 5, FIRST_NID + 7, FIRST_NID + 700};
+        MVStore store = new MVStore.Builder().fileName(storeFile.getAbsolutePath()).open();
+        try {
+            openMap(store, "uuids", UuidDataType.INSTANCE, IntegerDataType.INSTANCE).put(uuid, FIRST_NID);
+            openMap(store, "citations", IntegerDataType.INSTANCE, CitationsDataType.INSTANCE).put(FIRST_NID, citations);
+            openMap(store, "elements", IntegerDataType.INSTANCE, IntArrayDataType.INSTANCE).put(FIRST_NID, elementNids);
+        } finally {
+            store.close();
+        }
+
+        MVStore reopened = new MVStore.Builder().fileName(storeFile.getAbsolutePath()).open();
+        try {
+            MVMap<UUID, Integer> uuids = openMap(reopened, "uuids", UuidDataType.INSTANCE, IntegerDataType.INSTANCE);
+            Assertions.assertEquals(FIRST_NID, uuids.get(uuid));
+            MVMap<Integer, long[]> citationMap = openMap(reopened, "citations", IntegerDataType.INSTANCE, CitationsDataType.INSTANCE);
+            Assertions.assertArrayEquals(citations, citationMap.get(FIRST_NID));
+            MVMap<Integer, int[]> elementMap = openMap(reopened, "elements", IntegerDataType.INSTANCE, IntArrayDataType.INSTANCE);
+            Assertions.assertArrayEquals(elementNids, elementMap.get(FIRST_NID));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static <K, V> MVMap<K, V> openMap(MVStore store, String name, DataType keyType, DataType valueType) {
+        return store.openMap(name, new MVMap.Builder<K, V>().keyType(keyType).valueType(valueType));
+    }
+}
@@ -0,0 +1,17 @@
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.provider.snapshot.SnapshotOpenController;
+
+@SuppressWarnings("module")
+        // 7 in HL7 is not a version reference
+module org.hl7.tinkar.provider.snapshot {
+    requires org.hl7.tinkar.common;
+    requires org.hl7.tinkar.component;
+    requires org.hl7.tinkar.entity;
+    requires org.hl7.tinkar.provider.search;
+    requires static org.hl7.tinkar.autoservice;
+
+    exports org.hl7.tinkar.provider.snapshot;
+
+    provides DataServiceController
+            with SnapshotOpenController;
+}
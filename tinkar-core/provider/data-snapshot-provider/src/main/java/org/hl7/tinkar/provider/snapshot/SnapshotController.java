@@ -0,0 +1,61 @@
+package org.hl7.tinkar.provider.snapshot;
+
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+
+import java.io.IOException;
+
+public abstract class SnapshotController implements DataServiceController<PrimitiveDataService> {
+
+    @Override
+    public Class<? extends PrimitiveDataService> serviceClass() {
+        return PrimitiveDataService.class;
+    }
+
+    @Override
+    public boolean running() {
+        return SnapshotProvider.singleton != null;
+    }
+
+    @Override
+    public void start() {
+        try {
+            new SnapshotProvider();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (SnapshotProvider.singleton != null) {
+            SnapshotProvider.singleton.close();
+            SnapshotProvider.singleton = null;
+        }
+    }
+
+    /**
+     * A snapshot is read only, so there is nothing to save.
+     */
+    @Override
+    public void save() {
+    }
+
+    @Override
+    public void reload() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PrimitiveDataService provider() {
+        if (SnapshotProvider.singleton == null) {
+            start();
+        }
+        return SnapshotProvider.singleton;
+    }
+
+    @Override
+    public String toString() {
+        return controllerName();
+    }
+}
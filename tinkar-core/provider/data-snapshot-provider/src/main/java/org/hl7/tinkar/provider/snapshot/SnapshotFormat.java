@@ -0,0 +1,70 @@
+package org.hl7.tinkar.provider.snapshot;
+
+import java.io.File;
+
+/**
+ * Layout of a snapshot file, written by {@link WriteSnapshotFile} and read by {@link SnapshotProvider}. All
+ * values are big endian.
+ * <p>
+ * The file starts with a header of fixed size, followed by the sections, in order:
+ * <ul>
+ * <li>entity data: for each entity, its length as an int, then its bytes</li>
+ * <li>offset table: for each nid from the first nid, the file offset of its entity as a long, or -1</li>
+ * <li>UUID table: for each UUID, in ascending order, the most and least significant bits and the nid</li>
+ * <li>citation index: for each nid from the first nid, the index of its first citation as an int, followed
+ * by the count of citations</li>
+ * <li>citations: the citations of each component, as packed by IntsInLong.ints2Long(citingNid, patternNid),
+ * in nid order and sorted within each component</li>
+ * <li>type bitmaps: the nids of concepts, semantics, patterns and stamps, each as the length of a portable
+ * RoaringBitmap as an int, then the bitmap</li>
+ * <li>pattern elements: the count of patterns, then for each the pattern nid, the length of the bitmap of
+ * its element nids as an int, and the bitmap</li>
+ * </ul>
+ * The search index of the snapshot is a Lucene index in a directory beside the file, named by the index id in
+ * the header, so a snapshot written over another never refers to the index of the snapshot it replaced.
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x544B534E; // "TKSN"
+    static final int VERSION = 2;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int WRITE_SEQUENCE_OFFSET = 8;
+    static final int FIRST_NID_OFFSET = 16;
+    static final int NID_COUNT_OFFSET = 20;
+    static final int UUID_COUNT_OFFSET = 24;
+    static final int MAX_ENTITY_BYTES_OFFSET = 28;
+    static final int ENTITY_DATA_OFFSET = 32;
+    static final int OFFSET_TABLE_OFFSET = 40;
+    static final int UUID_TABLE_OFFSET = 48;
+    static final int CITATION_INDEX_OFFSET = 56;
+    static final int CITATIONS_OFFSET = 64;
+    static final int TYPE_BITMAPS_OFFSET = 72;
+    static final int PATTERN_ELEMENTS_OFFSET = 80;
+    static final int CITATION_COUNT_OFFSET = 88;
+    static final int INDEX_ID_OFFSET = 96;
+    static final int HEADER_BYTES = 104;
+    static final String INDEX_DIRECTORY_SUFFIX = ".lucene";
+
+    static final int UUID_RECORD_BYTES = 2 * Long.BYTES + Integer.BYTES;
+    static final long ABSENT_OFFSET = -1;
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * @return the directory of the search index with the id, beside the snapshot file.
+     */
+    static File indexDirectory(File snapshotFile, long indexId) {
+        return new File(snapshotFile.getAbsoluteFile().getParentFile(),
+                snapshotFile.getName() + "." + indexId + INDEX_DIRECTORY_SUFFIX);
+    }
+
+    /**
+     * Orders UUIDs by signed comparison of the most, then least, significant bits, the order of the UUID table.
+     */
+    static int compare(long msb1, long lsb1, long msb2, long lsb2) {
+        int comparison = Long.compare(msb1, msb2);
+        return comparison != 0 ? comparison : Long.compare(lsb1, lsb2);
+    }
+}
@@ -0,0 +1,353 @@
+package org.hl7.tinkar.provider.snapshot;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.list.ImmutableList;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
+import org.hl7.tinkar.common.service.PrimitiveDataSearchResult;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.common.service.ServiceKeys;
+import org.hl7.tinkar.common.service.ServiceProperties;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.Entity;
+import org.hl7.tinkar.entity.PatternEntity;
+import org.hl7.tinkar.provider.search.Indexer;
+import org.hl7.tinkar.provider.search.Searcher;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Read only PrimitiveDataService over a snapshot file written by {@link WriteSnapshotFile}. The file is memory
+ * mapped, and opening it reads only the header and the bitmaps of the elements of each pattern, so a release
+ * opens in milliseconds, and processes that open the same release share its pages in the page cache.
+ * <p>
+ * Entities are found through the nid indexed offset table, UUIDs by binary search of the sorted UUID table,
+ * and the citations of a component are a range of the citations section. Merges throw
+ * UnsupportedOperationException, and UUIDs not in the snapshot throw IllegalStateException, since no nid may
+ * be assigned.
+ * <p>
+ * The search index is the prebuilt index written beside the snapshot file, opened read only and memory mapped on
+ * the first search, so it is neither built nor loaded onto the heap.
+ */
+public class SnapshotProvider implements PrimitiveDataService {
+    public static final String SNAPSHOT_FILE_NAME = "release.snapshot";
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotProvider.class);
+    private static final File defaultDataDirectory = new File("target/snapshot/");
+    /**
+     * Entity data is mapped in regions of this size, each extended by the largest entity so an entity that
+     * starts in a region is read from that region.
+     */
+    private static final long REGION_BYTES = 1L << 30;
+    protected static SnapshotProvider singleton;
+
+    final String name;
+    final long writeSequence;
+    final int firstNid;
+    final int nidCount;
+    final int uuidCount;
+    final long entityDataOffset;
+    final MappedByteBuffer[] entityRegions;
+    final MappedByteBuffer offsetTable;
+    final MappedByteBuffer uuidTable;
+    final MappedByteBuffer citationIndex;
+    final MappedByteBuffer citations;
+    final ImmutableRoaringBitmap conceptNids;
+    final ImmutableRoaringBitmap semanticNids;
+    final ImmutableRoaringBitmap patternNids;
+    final ImmutableRoaringBitmap stampNids;
+    final MutableIntObjectMap<ImmutableRoaringBitmap> patternElementNidsMap = IntObjectMaps.mutable.empty();
+    final File indexDirectory;
+    private Indexer indexer;
+    private Searcher searcher;
+
+    public SnapshotProvider() throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Opening SnapshotProvider");
+        File configuredRoot = ServiceProperties.get(ServiceKeys.DATA_STORE_ROOT, defaultDataDirectory);
+        this.name = configuredRoot.getName();
+        File snapshotFile = new File(configuredRoot, SNAPSHOT_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SnapshotFormat.HEADER_BYTES);
+            if (header.getInt(SnapshotFormat.MAGIC_OFFSET) != SnapshotFormat.MAGIC) {
+                throw new IOException("Not a snapshot file: " + snapshotFile.getAbsolutePath());
+            }
+            int version = header.getInt(SnapshotFormat.VERSION_OFFSET);
+            if (version != SnapshotFormat.VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + snapshotFile.getAbsolutePath());
+            }
+            this.writeSequence = header.getLong(SnapshotFormat.WRITE_SEQUENCE_OFFSET);
+            this.firstNid = header.getInt(SnapshotFormat.FIRST_NID_OFFSET);
+            this.nidCount = header.getInt(SnapshotFormat.NID_COUNT_OFFSET);
+            this.uuidCount = header.getInt(SnapshotFormat.UUID_COUNT_OFFSET);
+            int maxEntityBytes = header.getInt(SnapshotFormat.MAX_ENTITY_BYTES_OFFSET);
+            this.entityDataOffset = header.getLong(SnapshotFormat.ENTITY_DATA_OFFSET);
+            long offsetTableOffset = header.getLong(SnapshotFormat.OFFSET_TABLE_OFFSET);
+            long uuidTableOffset = header.getLong(SnapshotFormat.UUID_TABLE_OFFSET);
+            long citationIndexOffset = header.getLong(SnapshotFormat.CITATION_INDEX_OFFSET);
+            long citationsOffset = header.getLong(SnapshotFormat.CITATIONS_OFFSET);
+            long typeBitmapsOffset = header.getLong(SnapshotFormat.TYPE_BITMAPS_OFFSET);
+            long patternElementsOffset = header.getLong(SnapshotFormat.PATTERN_ELEMENTS_OFFSET);
+            this.indexDirectory = SnapshotFormat.indexDirectory(snapshotFile, header.getLong(SnapshotFormat.INDEX_ID_OFFSET));
+
+            long entityDataBytes = offsetTableOffset - entityDataOffset;
+            this.entityRegions = new MappedByteBuffer[(int) ((entityDataBytes + REGION_BYTES - 1) / REGION_BYTES)];
+            for (int region = 0; region < entityRegions.length; region++) {
+                long regionStart = entityDataOffset + region * REGION_BYTES;
+                long regionBytes = Math.min(REGION_BYTES + maxEntityBytes, offsetTableOffset - regionStart);
+                entityRegions[region] = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionBytes);
+            }
+            this.offsetTable = map(channel, offsetTableOffset, uuidTableOffset);
+            this.uuidTable = map(channel, uuidTableOffset, citationIndexOffset);
+            this.citationIndex = map(channel, citationIndexOffset, citationsOffset);
+            this.citations = map(channel, citationsOffset, typeBitmapsOffset);
+            MappedByteBuffer bitmaps = map(channel, typeBitmapsOffset, channel.size());
+            int position = 0;
+            ImmutableRoaringBitmap[] typeBitmaps = new ImmutableRoaringBitmap[4];
+            for (int i = 0; i < typeBitmaps.length; i++) {
+                int length = bitmaps.getInt(position);
+                typeBitmaps[i] = new ImmutableRoaringBitmap(bitmaps.slice(position + Integer.BYTES, length));
+                position += Integer.BYTES + length;
+            }
+            this.conceptNids = typeBitmaps[0];
+            this.semanticNids = typeBitmaps[1];
+            this.patternNids = typeBitmaps[2];
+            this.stampNids = typeBitmaps[3];
+
+            position = (int) (patternElementsOffset - typeBitmapsOffset);
+            int patternCount = bitmaps.getInt(position);
+            position += Integer.BYTES;
+            for (int i = 0; i < patternCount; i++) {
+                int patternNid = bitmaps.getInt(position);
+                int length = bitmaps.getInt(position + Integer.BYTES);
+                patternElementNidsMap.put(patternNid,
+                        new ImmutableRoaringBitmap(bitmaps.slice(position + 2 * Integer.BYTES, length)));
+                position += 2 * Integer.BYTES + length;
+            }
+        }
+        SnapshotProvider.singleton = this;
+        stopwatch.stop();
+        LOG.info("Opened SnapshotProvider in: " + stopwatch.durationString());
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    private static void forEach(ImmutableRoaringBitmap bitmap, IntProcedure procedure) {
+        PeekableIntIterator iterator = bitmap.getIntIterator();
+        while (iterator.hasNext()) {
+            procedure.value(iterator.next());
+        }
+    }
+
+    @Override
+    public long writeSequence() {
+        return writeSequence;
+    }
+
+    @Override
+    public void close() {
+        LOG.info("Closing SnapshotProvider");
+        synchronized (this) {
+            if (indexer != null) {
+                try {
+                    indexer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        SnapshotProvider.singleton = null;
+    }
+
+    @Override
+    public int nidForUuids(UUID... uuids) {
+        for (UUID uuid : uuids) {
+            int nid = findNid(uuid);
+            if (nid != Integer.MIN_VALUE) {
+                return nid;
+            }
+        }
+        throw new IllegalStateException("No nid in read only snapshot for: " + Arrays.toString(uuids));
+    }
+
+    @Override
+    public int nidForUuids(ImmutableList<UUID> uuidList) {
+        return nidForUuids(uuidList.toArray(new UUID[uuidList.size()]));
+    }
+
+    /**
+     * @return the nid of the UUID, found by binary search of the UUID table, or Integer.MIN_VALUE if the UUID
+     * is not in the snapshot.
+     */
+    private int findNid(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int low = 0;
+        int high = uuidCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int recordOffset = middle * SnapshotFormat.UUID_RECORD_BYTES;
+            int comparison = SnapshotFormat.compare(uuidTable.getLong(recordOffset),
+                    uuidTable.getLong(recordOffset + Long.BYTES), msb, lsb);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return uuidTable.getInt(recordOffset + 2 * Long.BYTES);
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        for (int index = 0; index < nidCount; index++) {
+            acceptEntity(index, action);
+        }
+    }
+
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        IntStream.range(0, nidCount).parallel().forEach(index -> acceptEntity(index, action));
+    }
+
+    private void acceptEntity(int index, ObjIntConsumer<byte[]> action) {
+        byte[] bytes = entityBytes(index);
+        if (bytes != null) {
+            action.accept(bytes, firstNid + index);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        int index = nid - firstNid;
+        if (index < 0 || index >= nidCount) {
+            return null;
+        }
+        return entityBytes(index);
+    }
+
+    private byte[] entityBytes(int index) {
+        long entityOffset = offsetTable.getLong(index * Long.BYTES);
+        if (entityOffset == SnapshotFormat.ABSENT_OFFSET) {
+            return null;
+        }
+        long dataOffset = entityOffset - entityDataOffset;
+        MappedByteBuffer region = entityRegions[(int) (dataOffset / REGION_BYTES)];
+        int regionOffset = (int) (dataOffset % REGION_BYTES);
+        byte[] bytes = new byte[region.getInt(regionOffset)];
+        region.get(regionOffset + Integer.BYTES, bytes);
+        return bytes;
+    }
+
+    @Override
+    public byte[] merge(int nid, int patternNid, int referencedComponentNid, byte[] value, Object sourceObject) {
+        throw new UnsupportedOperationException("Snapshot " + name + " is read only");
+    }
+
+    @Override
+    public PrimitiveDataSearchResult[] search(String query, int maxResultSize) throws Exception {
+        return searcher().search(query, maxResultSize);
+    }
+
+    private synchronized Searcher searcher() throws IOException {
+        if (searcher == null) {
+            if (!indexDirectory.isDirectory()) {
+                throw new IOException("No search index for snapshot " + name + ": " + indexDirectory.getAbsolutePath());
+            }
+            this.indexer = Indexer.openReadOnly(indexDirectory.toPath());
+            this.searcher = new Searcher();
+        }
+        return searcher;
+    }
+
+    @Override
+    public int[] semanticNidsOfPattern(int patternNid) {
+        ImmutableRoaringBitmap elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null) {
+            return elementNids.toArray();
+        }
+        return new int[0];
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        ImmutableRoaringBitmap elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null && !elementNids.isEmpty()) {
+            forEach(elementNids, procedure);
+        } else {
+            Entity entity = Entity.getFast(patternNid);
+            if (entity instanceof PatternEntity == false) {
+                throw new IllegalStateException("Trying to iterate elements for entity that is not a pattern: " + entity);
+            }
+        }
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        forEach(patternNids, procedure);
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        forEach(conceptNids, procedure);
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        forEach(stampNids, procedure);
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        forEach(semanticNids, procedure);
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        forEachCitation(componentNid, citationLong -> procedure.value((int) (citationLong >> 32)));
+    }
+
+    @Override
+    public void forEachSemanticNidForComponentOfPattern(int componentNid, int patternNid, IntProcedure procedure) {
+        forEachCitation(componentNid, citationLong -> {
+            if ((int) citationLong == patternNid) {
+                procedure.value((int) (citationLong >> 32));
+            }
+        });
+    }
+
+    private void forEachCitation(int componentNid, LongConsumer consumer) {
+        int index = componentNid - firstNid;
+        if (index < 0 || index >= nidCount) {
+            return;
+        }
+        int start = citationIndex.getInt(index * Integer.BYTES);
+        int end = citationIndex.getInt((index + 1) * Integer.BYTES);
+        for (int citation = start; citation < end; citation++) {
+            consumer.accept(citations.getLong(citation * Long.BYTES));
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+}
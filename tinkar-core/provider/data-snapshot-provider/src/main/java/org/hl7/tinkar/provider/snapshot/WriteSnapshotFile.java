@@ -0,0 +1,263 @@
+package org.hl7.tinkar.provider.snapshot;
+
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.impl.factory.primitive.LongLists;
+import org.hl7.tinkar.common.service.PrimitiveData;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.hl7.tinkar.common.service.PrimitiveDataSnapshot;
+import org.hl7.tinkar.common.service.TrackingCallable;
+import org.hl7.tinkar.common.util.ints2long.IntsInLong;
+import org.hl7.tinkar.component.FieldDataType;
+import org.hl7.tinkar.entity.Entity;
+import org.hl7.tinkar.entity.EntityRecordFactory;
+import org.hl7.tinkar.entity.SemanticEntity;
+import org.hl7.tinkar.provider.search.IndexBuilder;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Writes the entities of the running PrimitiveDataService to a snapshot file, that {@link SnapshotProvider} maps
+ * read only. The entities, UUIDs, citations and nid sets are sorted as they are written, so the snapshot is
+ * opened without reading or rebuilding anything.
+ * <p>
+ * Entities are read from a {@link PrimitiveDataSnapshot}, so the file holds the entities at the write sequence
+ * in its header, however long the write takes. The search index of the semantics is built in the same pass, in
+ * a new directory beside the file.
+ * <p>
+ * The file is written beside its final location, and moved into place once complete. The indexes of the
+ * snapshot it replaced, and of writes that did not complete, are then deleted.
+ */
+public class WriteSnapshotFile extends TrackingCallable<Integer> {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteSnapshotFile.class);
+    final File snapshotFile;
+    final int firstNid = PrimitiveDataService.FIRST_NID;
+    long[] entityOffsets = new long[1024];
+    int nidCount;
+    int maxEntityBytes;
+    int entityCount;
+    long position = SnapshotFormat.HEADER_BYTES;
+    final ArrayList<UuidNid> uuidNids = new ArrayList<>();
+    final MutableIntObjectMap<MutableLongList> citations = IntObjectMaps.mutable.empty();
+    final RoaringBitmap conceptNids = new RoaringBitmap();
+    final RoaringBitmap semanticNids = new RoaringBitmap();
+    final RoaringBitmap patternNids = new RoaringBitmap();
+    final RoaringBitmap stampNids = new RoaringBitmap();
+    final MutableIntObjectMap<RoaringBitmap> patternElementNids = IntObjectMaps.mutable.empty();
+    IndexBuilder indexBuilder;
+
+    public WriteSnapshotFile(File snapshotFile) {
+        super(false, true);
+        this.snapshotFile = snapshotFile;
+        LOG.info("Writing snapshot to: " + snapshotFile.getAbsolutePath());
+    }
+
+    public Integer compute() throws IOException {
+        updateTitle("Writing snapshot " + snapshotFile.getName());
+        snapshotFile.getAbsoluteFile().getParentFile().mkdirs();
+        Arrays.fill(entityOffsets, SnapshotFormat.ABSENT_OFFSET);
+        File tempFile = new File(snapshotFile.getAbsoluteFile().getParentFile(), snapshotFile.getName() + ".tmp");
+        long indexId = System.currentTimeMillis();
+        while (SnapshotFormat.indexDirectory(snapshotFile, indexId).exists()) {
+            indexId++;
+        }
+        File indexDirectory = SnapshotFormat.indexDirectory(snapshotFile, indexId);
+        long[] sectionOffsets = new long[7];
+        long citationCount;
+        long writeSequence;
+        try (PrimitiveDataSnapshot snapshot = PrimitiveData.get().snapshot();
+             IndexBuilder indexBuilder = new IndexBuilder(indexDirectory.toPath());
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20))) {
+            this.indexBuilder = indexBuilder;
+            writeSequence = snapshot.writeSequence();
+            out.write(new byte[SnapshotFormat.HEADER_BYTES]);
+            sectionOffsets[0] = position;
+            snapshot.forEach((bytes, nid) -> {
+                try {
+                    writeEntity(out, bytes, nid);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            updateMessage(String.format("Entities: %,d", entityCount));
+
+            sectionOffsets[1] = position;
+            for (int index = 0; index < nidCount; index++) {
+                out.writeLong(entityOffsets[index]);
+            }
+            position += (long) nidCount * Long.BYTES;
+
+            sectionOffsets[2] = position;
+            UuidNid[] sortedUuidNids = uuidNids.toArray(new UuidNid[0]);
+            Arrays.sort(sortedUuidNids);
+            for (UuidNid uuidNid : sortedUuidNids) {
+                out.writeLong(uuidNid.msb);
+                out.writeLong(uuidNid.lsb);
+                out.writeInt(uuidNid.nid);
+            }
+            position += (long) sortedUuidNids.length * SnapshotFormat.UUID_RECORD_BYTES;
+
+            sectionOffsets[3] = position;
+            int citationIndex = 0;
+            for (int index = 0; index < nidCount; index++) {
+                out.writeInt(citationIndex);
+                MutableLongList componentCitations = citations.get(firstNid + index);
+                if (componentCitations != null) {
+                    citationIndex += componentCitations.size();
+                }
+            }
+            out.writeInt(citationIndex);
+            citationCount = citationIndex;
+            position += (long) (nidCount + 1) * Integer.BYTES;
+
+            sectionOffsets[4] = position;
+            for (int index = 0; index < nidCount; index++) {
+                MutableLongList componentCitations = citations.get(firstNid + index);
+                if (componentCitations != null) {
+                    long[] sortedCitations = componentCitations.toSortedArray();
+                    for (long citation : sortedCitations) {
+                        out.writeLong(citation);
+                    }
+                }
+            }
+            position += citationCount * Long.BYTES;
+
+            sectionOffsets[5] = position;
+            writeBitmap(out, conceptNids);
+            writeBitmap(out, semanticNids);
+            writeBitmap(out, patternNids);
+            writeBitmap(out, stampNids);
+
+            sectionOffsets[6] = position;
+            int[] patternKeys = patternElementNids.keySet().toSortedArray();
+            out.writeInt(patternKeys.length);
+            position += Integer.BYTES;
+            for (int patternNid : patternKeys) {
+                out.writeInt(patternNid);
+                position += Integer.BYTES;
+                writeBitmap(out, patternElementNids.get(patternNid));
+            }
+        }
+
+        try (RandomAccessFile header = new RandomAccessFile(tempFile, "rw")) {
+            header.writeInt(SnapshotFormat.MAGIC);
+            header.writeInt(SnapshotFormat.VERSION);
+            header.writeLong(writeSequence);
+            header.writeInt(firstNid);
+            header.writeInt(nidCount);
+            header.writeInt(uuidNids.size());
+            header.writeInt(maxEntityBytes);
+            for (long sectionOffset : sectionOffsets) {
+                header.writeLong(sectionOffset);
+            }
+            header.writeLong(citationCount);
+            header.writeLong(indexId);
+        }
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        deleteOtherIndexes(indexDirectory);
+        LOG.info(String.format("Wrote snapshot of %,d entities, %,d bytes, in: %s", entityCount, position,
+                durationString()));
+        return entityCount;
+    }
+
+    private void writeEntity(DataOutputStream out, byte[] bytes, int nid) throws IOException {
+        int index = nid - firstNid;
+        ensureNidIndex(index);
+        entityOffsets[index] = position;
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        position += Integer.BYTES + bytes.length;
+        maxEntityBytes = Math.max(maxEntityBytes, Integer.BYTES + bytes.length);
+        entityCount++;
+
+        switch (FieldDataType.fromToken(bytes[9])) {
+            case CONCEPT_CHRONOLOGY -> conceptNids.add(nid);
+            case SEMANTIC_CHRONOLOGY -> semanticNids.add(nid);
+            case PATTERN_CHRONOLOGY -> patternNids.add(nid);
+            case STAMP -> stampNids.add(nid);
+            default -> {
+            }
+        }
+        Entity<?> entity = EntityRecordFactory.make(bytes);
+        for (UUID uuid : entity.asUuidArray()) {
+            uuidNids.add(new UuidNid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), nid));
+        }
+        if (entity instanceof SemanticEntity semanticEntity) {
+            int referencedComponentNid = semanticEntity.referencedComponentNid();
+            ensureNidIndex(referencedComponentNid - firstNid);
+            citations.getIfAbsentPut(referencedComponentNid, LongLists.mutable::empty)
+                    .add(IntsInLong.ints2Long(nid, semanticEntity.patternNid()));
+            patternElementNids.getIfAbsentPut(semanticEntity.patternNid(), RoaringBitmap::new).add(nid);
+            indexBuilder.add(semanticEntity);
+        }
+        if (updateIntervalElapsed()) {
+            updateMessage(String.format("Entities: %,d", entityCount));
+        }
+    }
+
+    /**
+     * Extends the nid range of the snapshot to include the index, so components that are cited, but have no
+     * entity, are in the citation index.
+     */
+    private void ensureNidIndex(int index) {
+        if (index >= entityOffsets.length) {
+            int oldLength = entityOffsets.length;
+            entityOffsets = Arrays.copyOf(entityOffsets, Math.max(index + 1, oldLength * 2));
+            Arrays.fill(entityOffsets, oldLength, entityOffsets.length, SnapshotFormat.ABSENT_OFFSET);
+        }
+        nidCount = Math.max(nidCount, index + 1);
+    }
+
+    /**
+     * Deletes the search indexes beside the snapshot file, other than the index of the snapshot. An index that
+     * can not be deleted, such as one still open on a platform that does not delete open files, is deleted by a
+     * later write.
+     */
+    private void deleteOtherIndexes(File indexDirectory) {
+        String prefix = snapshotFile.getName() + ".";
+        File[] indexDirectories = indexDirectory.getParentFile().listFiles((dir, name) ->
+                name.startsWith(prefix) && name.endsWith(SnapshotFormat.INDEX_DIRECTORY_SUFFIX));
+        if (indexDirectories == null) {
+            return;
+        }
+        for (File otherDirectory : indexDirectories) {
+            if (otherDirectory.equals(indexDirectory)) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(otherDirectory.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            } catch (IOException e) {
+                LOG.warn("Unable to delete search index: " + otherDirectory.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private void writeBitmap(DataOutputStream out, RoaringBitmap bitmap) throws IOException {
+        bitmap.runOptimize();
+        int length = bitmap.serializedSizeInBytes();
+        out.writeInt(length);
+        bitmap.serialize(out);
+        position += Integer.BYTES + length;
+    }
+
+    private record UuidNid(long msb, long lsb, int nid) implements Comparable<UuidNid> {
+        @Override
+        public int compareTo(UuidNid other) {
+            return SnapshotFormat.compare(msb, lsb, other.msb, other.lsb);
+        }
+    }
+}
@@ -21,6 +21,8 @@ module org.hl7.tinkar.provider.spinedarray {
     requires org.hl7.tinkar.provider.search;
     requires static org.hl7.tinkar.autoservice;
 
+    exports org.hl7.tinkar.provider.spinedarray to org.hl7.tinkar.provider.hybrid;
+
     provides DataServiceController
             with SpinedArrayOpenController, SpinedArrayNewController;
 
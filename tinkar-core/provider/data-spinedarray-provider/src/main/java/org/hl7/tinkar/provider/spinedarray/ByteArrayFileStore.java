@@ -1,6 +1,7 @@
 package org.hl7.tinkar.provider.spinedarray;
 
 import org.hl7.tinkar.collection.store.ByteArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,9 +10,7 @@ import java.util.Optional;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import static org.hl7.tinkar.collection.SpineFileUtil.SPINE_PREFIX;
-
-public class ByteArrayFileStore extends SpinedArrayFileStore implements ByteArrayStore {
+public class ByteArrayFileStore extends SpinedArrayFileStore implements ByteArrayStore, SpineElementReader<byte[]> {
     private static final Logger LOG = LoggerFactory.getLogger(ByteArrayFileStore.class);
 
     public ByteArrayFileStore(File directory) {
@@ -24,55 +23,51 @@ public class ByteArrayFileStore extends SpinedArrayFileStore implements ByteArra
 
     @Override
     public Optional<AtomicReferenceArray<byte[]>> get(int spineIndex) {
-        String spineKey = SPINE_PREFIX + spineIndex;
-        File spineFile = new File(directory, spineKey);
-        if (spineFile.exists()) {
-            diskSemaphore.acquireUninterruptibly();
-            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(spineFile)))) {
-                int arraySize = dis.readInt();
-                byte[][] spineArray = new byte[arraySize][];
-                for (int i = 0; i < arraySize; i++) {
-                    int valueSize = dis.readInt();
-                    if (valueSize != 0) {
-                        byte[] value = new byte[valueSize];
-                        dis.readFully(value);
-                        spineArray[i] = value;
-                    } else {
-                        spineArray[i] = null;
-                    }
+        try {
+            Optional<SpineMapping> optionalMapping = mapping(spineIndex, Byte.BYTES);
+            if (optionalMapping.isPresent()) {
+                SpineMapping spineMapping = optionalMapping.get();
+                byte[][] spineArray = new byte[spineMapping.arraySize()][];
+                for (int i = 0; i < spineArray.length; i++) {
+                    spineArray[i] = spineMapping.getBytes(i);
                 }
-                AtomicReferenceArray<byte[]> spine = new AtomicReferenceArray<>(spineArray);
-                return Optional.of(spine);
-
-            } catch (IOException ex) {
-                LOG.error(ex.getLocalizedMessage(), ex);
-            } finally {
-                diskSemaphore.release();
+                return Optional.of(new AtomicReferenceArray<>(spineArray));
             }
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
         }
         return Optional.empty();
     }
 
     @Override
-    public void put(int spineIndex, AtomicReferenceArray<byte[]> spine) {
-        String spineKey = SPINE_PREFIX + spineIndex;
-        File spineFile = new File(directory, spineKey);
-        diskSemaphore.acquireUninterruptibly();
-        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spineFile)))) {
-            dos.writeInt(spine.length());
-            for (int i = 0; i < spine.length(); i++) {
-                byte[] value = spine.get(i);
-                if (value == null) {
-                    dos.writeInt(0);
-                } else {
-                    dos.writeInt(value.length);
-                    dos.write(value);
-                }
+    public byte[] getElement(int spineIndex, int indexInSpine) {
+        try {
+            Optional<SpineMapping> optionalMapping = mapping(spineIndex, Byte.BYTES);
+            if (optionalMapping.isPresent()) {
+                return optionalMapping.get().getBytes(indexInSpine);
             }
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+        }
+        return null;
+    }
+
+    @Override
+    public void put(int spineIndex, AtomicReferenceArray<byte[]> spine) {
+        // Snapshot the values, so the offset table matches the values written.
+        byte[][] values = new byte[spine.length()][];
+        int[] valueLengths = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = spine.get(i);
+            valueLengths[i] = values[i] == null ? 0 : values[i].length;
+        }
+        // Not serialized by the disk semaphore: each spine is written to its own temporary file, so
+        // spines can be written in parallel.
+        try {
+            writeSpine(spineIndex, valueLengths, (dos, indexInSpine) -> dos.write(values[indexInSpine]));
         } catch (IOException ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
-        } finally {
-            diskSemaphore.release();
+            throw new UncheckedIOException(ex);
         }
     }
 
@@ -0,0 +1,67 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.hl7.tinkar.collection.store.ByteArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class ByteArraySegmentStore extends SpineSegmentStore implements ByteArrayStore, SpineElementReader<byte[]> {
+    private static final Logger LOG = LoggerFactory.getLogger(ByteArraySegmentStore.class);
+
+    public ByteArraySegmentStore(File directory) {
+        super(directory, Byte.BYTES);
+    }
+
+    ByteArraySegmentStore(File directory, long maxSegmentBytes) {
+        super(directory, Byte.BYTES, maxSegmentBytes);
+    }
+
+    @Override
+    public Optional<AtomicReferenceArray<byte[]>> get(int spineIndex) {
+        try {
+            return readSpine(spineIndex, spineMapping -> {
+                byte[][] spineArray = new byte[spineMapping.arraySize()][];
+                for (int i = 0; i < spineArray.length; i++) {
+                    spineArray[i] = spineMapping.getBytes(i);
+                }
+                return new AtomicReferenceArray<>(spineArray);
+            });
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public byte[] getElement(int spineIndex, int indexInSpine) {
+        try {
+            return readSpine(spineIndex, spineMapping -> spineMapping.getBytes(indexInSpine)).orElse(null);
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+        }
+        return null;
+    }
+
+    @Override
+    public void put(int spineIndex, AtomicReferenceArray<byte[]> spine) {
+        // Snapshot the values, so the offset table matches the values written.
+        byte[][] values = new byte[spine.length()][];
+        int[] valueLengths = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = spine.get(i);
+            valueLengths[i] = values[i] == null ? 0 : values[i].length;
+        }
+        try {
+            writeSpine(spineIndex, valueLengths, (dos, indexInSpine) -> dos.write(values[indexInSpine]));
+        } catch (IOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
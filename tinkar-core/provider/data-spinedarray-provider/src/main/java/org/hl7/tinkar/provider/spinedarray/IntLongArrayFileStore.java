@@ -1,7 +1,7 @@
 package org.hl7.tinkar.provider.spinedarray;
 
-import org.hl7.tinkar.collection.SpineFileUtil;
 import org.hl7.tinkar.collection.store.IntLongArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,7 +10,7 @@ import java.util.Optional;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
-public class IntLongArrayFileStore extends SpinedArrayFileStore implements IntLongArrayStore {
+public class IntLongArrayFileStore extends SpinedArrayFileStore implements IntLongArrayStore, SpineElementReader<long[]> {
     private static final Logger LOG = LoggerFactory.getLogger(IntLongArrayFileStore.class);
 
     public IntLongArrayFileStore(File directory) {
@@ -23,26 +23,32 @@ public class IntLongArrayFileStore extends SpinedArrayFileStore implements IntLo
 
     @Override
     public Optional<AtomicReferenceArray<long[]>> get(int spineIndex) {
-        String spineKey = SpineFileUtil.SPINE_PREFIX + spineIndex;
-        File spineFile = new File(directory, spineKey);
-        if (!spineFile.exists()) {
-            return Optional.empty();
-        }
-        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(spineFile)))) {
-            int arraySize = dis.readInt();
-            AtomicReferenceArray<long[]> data = new AtomicReferenceArray<>(arraySize);
-            for (int i = 0; i < arraySize; i++) {
-                int valueSize = dis.readInt();
-                if (valueSize != 0) {
-                    long[] value = new long[valueSize];
-                    for (int j = 0; j < valueSize; j++) {
-                        value[j] = dis.readLong();
-                    }
-                    data.set(i, value);
-                }
+        try {
+            Optional<SpineMapping> optionalMapping = mapping(spineIndex, Long.BYTES);
+            if (optionalMapping.isEmpty()) {
+                return Optional.empty();
+            }
+            SpineMapping spineMapping = optionalMapping.get();
+            AtomicReferenceArray<long[]> data = new AtomicReferenceArray<>(spineMapping.arraySize());
+            for (int i = 0; i < spineMapping.arraySize(); i++) {
+                data.set(i, spineMapping.getLongs(i));
             }
             return Optional.of(data);
-        } catch (IOException ex) {
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public long[] getElement(int spineIndex, int indexInSpine) {
+        try {
+            Optional<SpineMapping> optionalMapping = mapping(spineIndex, Long.BYTES);
+            if (optionalMapping.isEmpty()) {
+                return null;
+            }
+            return optionalMapping.get().getLongs(indexInSpine);
+        } catch (UncheckedIOException ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
             throw new RuntimeException(ex);
         }
@@ -51,27 +57,24 @@ public class IntLongArrayFileStore extends SpinedArrayFileStore implements IntLo
     @Override
     public void put(int spineIndex, AtomicReferenceArray<long[]> spine) {
         directory.mkdirs();
-        String spineKey = SpineFileUtil.SPINE_PREFIX + spineIndex;
-        File spineFile = new File(directory, spineKey);
-        diskSemaphore.acquireUninterruptibly();
-        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spineFile)))) {
-            dos.writeInt(spine.length());
-            for (int i = 0; i < spine.length(); i++) {
-                long[] value = spine.get(i);
-                if (value == null) {
-                    dos.writeInt(0);
-                } else {
-                    dos.writeInt(value.length);
-                    for (long valueElement : value) {
-                        dos.writeLong(valueElement);
-                    }
+        // Snapshot the values, so the offset table matches the values written.
+        long[][] values = new long[spine.length()][];
+        int[] valueLengths = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = spine.get(i);
+            valueLengths[i] = values[i] == null ? 0 : values[i].length;
+        }
+        // Not serialized by the disk semaphore: each spine is written to its own temporary file, so
+        // spines can be written in parallel.
+        try {
+            writeSpine(spineIndex, valueLengths, (dos, indexInSpine) -> {
+                for (long valueElement : values[indexInSpine]) {
+                    dos.writeLong(valueElement);
                 }
-            }
+            });
         } catch (IOException ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
             throw new RuntimeException(ex);
-        } finally {
-            diskSemaphore.release();
         }
     }
 }
@@ -0,0 +1,67 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.hl7.tinkar.collection.store.IntLongArrayStore;
+import org.hl7.tinkar.collection.store.SpineElementReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class IntLongArraySegmentStore extends SpineSegmentStore implements IntLongArrayStore, SpineElementReader<long[]> {
+    private static final Logger LOG = LoggerFactory.getLogger(IntLongArraySegmentStore.class);
+
+    public IntLongArraySegmentStore(File directory) {
+        super(directory, Long.BYTES);
+    }
+
+    @Override
+    public Optional<AtomicReferenceArray<long[]>> get(int spineIndex) {
+        try {
+            return readSpine(spineIndex, spineMapping -> {
+                AtomicReferenceArray<long[]> data = new AtomicReferenceArray<>(spineMapping.arraySize());
+                for (int i = 0; i < spineMapping.arraySize(); i++) {
+                    data.set(i, spineMapping.getLongs(i));
+                }
+                return data;
+            });
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public long[] getElement(int spineIndex, int indexInSpine) {
+        try {
+            return readSpine(spineIndex, spineMapping -> spineMapping.getLongs(indexInSpine)).orElse(null);
+        } catch (UncheckedIOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void put(int spineIndex, AtomicReferenceArray<long[]> spine) {
+        // Snapshot the values, so the offset table matches the values written.
+        long[][] values = new long[spine.length()][];
+        int[] valueLengths = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = spine.get(i);
+            valueLengths[i] = values[i] == null ? 0 : values[i].length;
+        }
+        try {
+            writeSpine(spineIndex, valueLengths, (dos, indexInSpine) -> {
+                for (long valueElement : values[indexInSpine]) {
+                    dos.writeLong(valueElement);
+                }
+            });
+        } catch (IOException ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.hl7.tinkar.collection.SpineFileUtil;
+import org.hl7.tinkar.common.service.Executor;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.provider.spinedarray.SpinedArrayFileStore.SpineMapping;
+import org.hl7.tinkar.provider.spinedarray.SpinedArrayFileStore.SpineValueWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Base class for spine stores that pack spines into a few large, append only segment files, rather than
+ * writing a file per spine.
+ * <p>
+ * Each spine is appended to the active segment in the same offset table format that {@link SpinedArrayFileStore}
+ * writes to a spine file. A rewritten spine is appended again, and the space of the previous copy becomes garbage.
+ * The location of the current copy of each spine, and the spine count, are held in a manifest:
+ * <pre>
+ *     int magic, int version, int spineCount, int entryCount, entries of (int spineIndex, long segmentId, long offset, int length)
+ * </pre>
+ * The manifest is replaced atomically by {@link #flush()}, after the segments it refers to are forced to disk.
+ * Spines put since the last flush are lost if the process stops before the next flush.
+ * <p>
+ * When a flush finds a sealed segment with less than half of its bytes live, the live spines of that segment are
+ * copied to the active segment in the background. A segment with no live spines is retired once a manifest that
+ * no longer refers to it is written, and deleted by a later flush once no reader is reading from it.
+ */
+public abstract class SpineSegmentStore implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpineSegmentStore.class);
+    private static final int MANIFEST_MAGIC = 0x53504D46; // "SPMF"
+    private static final int MANIFEST_VERSION = 1;
+    public static final String MANIFEST_FILE_NAME = "manifest";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final long MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+    private static final double COMPACTION_LIVE_RATIO = 0.5;
+
+    protected final File directory;
+    private final int elementBytes;
+    private final long maxSegmentBytes;
+    private final ConcurrentHashMap<Integer, SpineEntry> spineEntries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile int spineCount;
+    private Segment activeSegment;
+
+    protected SpineSegmentStore(File directory, int elementBytes) {
+        this(directory, elementBytes, MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param maxSegmentBytes size past which the active segment is sealed, and a new segment started.
+     */
+    protected SpineSegmentStore(File directory, int elementBytes, long maxSegmentBytes) {
+        this.directory = directory;
+        this.directory.mkdirs();
+        this.elementBytes = elementBytes;
+        this.maxSegmentBytes = maxSegmentBytes;
+        try {
+            readManifest();
+            long nextSegmentId = 0;
+            for (long segmentId : existingSegmentIds()) {
+                if (!segments.containsKey(segmentId)) {
+                    // Written after the last flush, and not referenced by the manifest.
+                    Files.deleteIfExists(segmentFile(segmentId).toPath());
+                }
+                nextSegmentId = Math.max(nextSegmentId, segmentId + 1);
+            }
+            synchronized (appendLock) {
+                startSegment(nextSegmentId);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return true if the directory holds a segment store.
+     */
+    public static boolean isSegmentStore(File directory) {
+        return new File(directory, MANIFEST_FILE_NAME).exists();
+    }
+
+    private File segmentFile(long segmentId) {
+        return new File(directory, SEGMENT_PREFIX + segmentId);
+    }
+
+    private long[] existingSegmentIds() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (files == null) {
+            return new long[0];
+        }
+        long[] ids = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            ids[i] = Long.parseLong(files[i].getName().substring(SEGMENT_PREFIX.length()));
+        }
+        return ids;
+    }
+
+    private void readManifest() throws IOException {
+        File manifestFile = new File(directory, MANIFEST_FILE_NAME);
+        if (!manifestFile.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            if (dis.readInt() != MANIFEST_MAGIC || dis.readInt() != MANIFEST_VERSION) {
+                throw new IOException("Unrecognized spine segment manifest: " + manifestFile.getAbsolutePath());
+            }
+            this.spineCount = dis.readInt();
+            int entryCount = dis.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                int spineIndex = dis.readInt();
+                SpineLocation location = new SpineLocation(dis.readLong(), dis.readLong(), dis.readInt());
+                spineEntries.put(spineIndex, new SpineEntry(location));
+                Segment segment = segments.computeIfAbsent(location.segmentId(),
+                        segmentId -> new Segment(segmentId, segmentFile(segmentId).length()));
+                segment.liveBytes.addAndGet(location.length());
+            }
+        }
+    }
+
+    /**
+     * Caller must hold the append lock.
+     */
+    private void startSegment(long segmentId) throws IOException {
+        Segment segment = new Segment(segmentId, 0);
+        segment.channel = FileChannel.open(segmentFile(segmentId).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        segments.put(segmentId, segment);
+        this.activeSegment = segment;
+    }
+
+    public final int getSpineCount() {
+        return spineCount;
+    }
+
+    public final void writeSpineCount(int spineCount) {
+        this.spineCount = spineCount;
+    }
+
+    public final int sizeOnDisk() {
+        long size = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.size.get();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * Passes the mapping of the current copy of the spine to the reader. The segment that holds the copy is
+     * not deleted while the reader runs, and the reader must not retain the mapping.
+     *
+     * @return the result of the reader, or empty if the spine is not in the store.
+     */
+    protected final <T> Optional<T> readSpine(int spineIndex, Function<SpineMapping, T> reader) {
+        while (true) {
+            SpineEntry entry = spineEntries.get(spineIndex);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            SpineLocation location = entry.location;
+            Segment segment = segments.get(location.segmentId());
+            if (segment == null) {
+                // The spine was moved, and its segment deleted, after the entry was read.
+                continue;
+            }
+            // Counted before retired is checked, and a flush retires a segment before it checks for readers,
+            // so either the reader sees the segment retired, or the flush sees the reader.
+            segment.readers.incrementAndGet();
+            try {
+                if (segment.retired) {
+                    // The spine was moved, so the current entry refers to another segment.
+                    continue;
+                }
+                SpineMapping spineMapping = entry.mapping;
+                if (spineMapping == null) {
+                    // Racing readers may both map the spine; either mapping is valid.
+                    try (FileChannel channel = FileChannel.open(segmentFile(location.segmentId()).toPath(), StandardOpenOption.READ)) {
+                        spineMapping = SpineMapping.wrap(
+                                channel.map(FileChannel.MapMode.READ_ONLY, location.offset(), location.length()), elementBytes);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    entry.mapping = spineMapping;
+                }
+                return Optional.ofNullable(reader.apply(spineMapping));
+            } finally {
+                segment.readers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Appends a spine in the offset table format to the active segment, and makes it the current copy of the spine.
+     */
+    protected final void writeSpine(int spineIndex, int[] valueLengths, SpineValueWriter valueWriter) throws IOException {
+        ByteArrayOutputStream spineBytes = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(spineBytes)) {
+            SpinedArrayFileStore.writeSpineFormat(dos, valueLengths, valueWriter);
+        }
+        SpineLocation location = append(ByteBuffer.wrap(spineBytes.toByteArray()));
+        spineEntries.compute(spineIndex, (key, oldEntry) -> {
+            if (oldEntry != null) {
+                releaseLocation(oldEntry.location);
+            }
+            return new SpineEntry(location);
+        });
+    }
+
+    private SpineLocation append(ByteBuffer spineBuffer) throws IOException {
+        synchronized (appendLock) {
+            if (activeSegment.size.get() > 0 && activeSegment.size.get() + spineBuffer.remaining() > maxSegmentBytes) {
+                Segment sealedSegment = activeSegment;
+                startSegment(sealedSegment.segmentId + 1);
+                sealedSegment.channel.force(false);
+                sealedSegment.channel.close();
+                sealedSegment.channel = null;
+            }
+            long offset = activeSegment.size.get();
+            int length = spineBuffer.remaining();
+            long position = offset;
+            while (spineBuffer.hasRemaining()) {
+                position += activeSegment.channel.write(spineBuffer, position);
+            }
+            activeSegment.size.set(position);
+            activeSegment.liveBytes.addAndGet(length);
+            return new SpineLocation(activeSegment.segmentId, offset, length);
+        }
+    }
+
+    private void releaseLocation(SpineLocation location) {
+        Segment segment = segments.get(location.segmentId());
+        if (segment != null) {
+            segment.liveBytes.addAndGet(-location.length());
+        }
+    }
+
+    /**
+     * Forces the segments to disk, and writes the manifest, so that every spine put before the flush is durable.
+     * Retires sealed segments that no longer hold live spines, deletes retired segments that no reader is
+     * reading from, and starts a background compaction if a sealed segment is mostly garbage.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            try {
+                int manifestSpineCount;
+                ArrayList<Map.Entry<Integer, SpineLocation>> manifestEntries;
+                Segment flushedSegment;
+                synchronized (appendLock) {
+                    // Snapshot the entries before the force, so that every spine the manifest refers to was
+                    // appended before the force. Puts may continue while the manifest is written.
+                    manifestSpineCount = spineCount;
+                    manifestEntries = new ArrayList<>(spineEntries.size());
+                    spineEntries.forEach((spineIndex, entry) -> manifestEntries.add(Map.entry(spineIndex, entry.location)));
+                    flushedSegment = activeSegment;
+                    // Sealed segments were forced when they were sealed.
+                    flushedSegment.channel.force(false);
+                }
+                Set<Long> manifestSegmentIds = writeManifest(manifestSpineCount, manifestEntries);
+                for (Segment segment : segments.values()) {
+                    // Segments started after the snapshot are not yet in the manifest, so only segments
+                    // sealed before it are retired.
+                    if (segment.segmentId < flushedSegment.segmentId && segment.liveBytes.get() == 0 &&
+                            !manifestSegmentIds.contains(segment.segmentId)) {
+                        segment.retired = true;
+                    }
+                    if (segment.retired && segment.readers.get() == 0) {
+                        deleteSegment(segment);
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.error(ex.getLocalizedMessage(), ex);
+                throw new UncheckedIOException(ex);
+            }
+        }
+        if (compactionCandidate() != null && compacting.compareAndSet(false, true)) {
+            Executor.ioThreadPool().execute(() -> {
+                try {
+                    compact();
+                } catch (Throwable ex) {
+                    LOG.error("Unable to compact spine segments in: " + directory.getAbsolutePath(), ex);
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * A retired segment that cannot be deleted yet, for example while the platform keeps a mapping of it open,
+     * stays retired, and deletion is tried again by the next flush.
+     */
+    private void deleteSegment(Segment segment) {
+        try {
+            Files.deleteIfExists(segmentFile(segment.segmentId).toPath());
+            segments.remove(segment.segmentId);
+        } catch (IOException ex) {
+            LOG.warn("Unable to delete retired spine segment: " + segmentFile(segment.segmentId).getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * @return the ids of the segments the manifest refers to.
+     */
+    private Set<Long> writeManifest(int manifestSpineCount, ArrayList<Map.Entry<Integer, SpineLocation>> entries) throws IOException {
+        File manifestFile = new File(directory, MANIFEST_FILE_NAME);
+        File tempFile = new File(directory, MANIFEST_FILE_NAME + ".tmp");
+        Set<Long> manifestSegmentIds = new HashSet<>();
+        try (FileOutputStream fos = new FileOutputStream(tempFile);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.writeInt(MANIFEST_MAGIC);
+            dos.writeInt(MANIFEST_VERSION);
+            dos.writeInt(manifestSpineCount);
+            dos.writeInt(entries.size());
+            for (Map.Entry<Integer, SpineLocation> entry : entries) {
+                SpineLocation location = entry.getValue();
+                dos.writeInt(entry.getKey());
+                dos.writeLong(location.segmentId());
+                dos.writeLong(location.offset());
+                dos.writeInt(location.length());
+                manifestSegmentIds.add(location.segmentId());
+            }
+            dos.flush();
+            fos.getChannel().force(false);
+        }
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Forces the move, and the creation of the segments the manifest refers to.
+        SpineFileUtil.forceDirectory(directory);
+        return manifestSegmentIds;
+    }
+
+    private Segment compactionCandidate() {
+        Segment candidate = null;
+        for (Segment segment : segments.values()) {
+            if (segment != activeSegment && segment.channel == null && !segment.retired &&
+                    segment.liveBytes.get() < segment.size.get() * COMPACTION_LIVE_RATIO &&
+                    (candidate == null || segment.liveBytes.get() < candidate.liveBytes.get())) {
+                candidate = segment;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * Copies the live spines of sealed segments that are mostly garbage to the active segment, and then
+     * flushes, which retires the emptied segments.
+     */
+    public void compact() throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        Segment segment = compactionCandidate();
+        int movedSpines = 0;
+        while (segment != null) {
+            long segmentId = segment.segmentId;
+            try (FileChannel channel = FileChannel.open(segmentFile(segmentId).toPath(), StandardOpenOption.READ)) {
+                for (int spineIndex : spineEntries.keySet()) {
+                    SpineEntry entry = spineEntries.get(spineIndex);
+                    if (entry == null || entry.location.segmentId() != segmentId) {
+                        continue;
+                    }
+                    // Copied outside of compute, so puts of other spines are not blocked on the IO.
+                    ByteBuffer spineBuffer = ByteBuffer.allocate(entry.location.length());
+                    long position = entry.location.offset();
+                    while (spineBuffer.hasRemaining()) {
+                        int read = channel.read(spineBuffer, position);
+                        if (read < 0) {
+                            throw new EOFException("Spine " + spineIndex + " extends past end of segment " + segmentId);
+                        }
+                        position += read;
+                    }
+                    spineBuffer.flip();
+                    SpineLocation movedLocation = append(spineBuffer);
+                    // Swapped only if the spine was not put during the copy, otherwise the copy is garbage.
+                    boolean[] moved = new boolean[1];
+                    spineEntries.computeIfPresent(spineIndex, (key, currentEntry) -> {
+                        if (currentEntry != entry) {
+                            return currentEntry;
+                        }
+                        releaseLocation(entry.location);
+                        moved[0] = true;
+                        return new SpineEntry(movedLocation);
+                    });
+                    if (moved[0]) {
+                        movedSpines++;
+                    } else {
+                        releaseLocation(movedLocation);
+                    }
+                }
+            }
+            // Garbage in the emptied segment no longer counts against it, so it is not selected again.
+            segment.size.set(segment.liveBytes.get());
+            segment = compactionCandidate();
+        }
+        flush();
+        stopwatch.stop();
+        LOG.info("Compacted " + movedSpines + " spines in " + directory.getName() + " in: " + stopwatch.durationString());
+    }
+
+    @Override
+    public void close() {
+        flush();
+        synchronized (appendLock) {
+            try {
+                activeSegment.channel.close();
+            } catch (IOException ex) {
+                LOG.error(ex.getLocalizedMessage(), ex);
+            }
+        }
+    }
+
+    private record SpineLocation(long segmentId, long offset, int length) {
+    }
+
+    private static final class SpineEntry {
+        final SpineLocation location;
+        volatile SpineMapping mapping;
+
+        SpineEntry(SpineLocation location) {
+            this.location = location;
+        }
+    }
+
+    private static final class Segment {
+        final long segmentId;
+        final AtomicLong size;
+        final AtomicLong liveBytes = new AtomicLong();
+        /**
+         * Count of readers reading from a mapping of the segment.
+         */
+        final AtomicInteger readers = new AtomicInteger();
+        /**
+         * Set once the segment holds no live spines, and no manifest refers to it. A retired segment is never
+         * read from again, and is deleted once it has no readers.
+         */
+        volatile boolean retired;
+        /**
+         * Open for appends while the segment is active.
+         */
+        FileChannel channel;
+
+        Segment(long segmentId, long size) {
+            this.segmentId = segmentId;
+            this.size = new AtomicLong(size);
+        }
+    }
+}
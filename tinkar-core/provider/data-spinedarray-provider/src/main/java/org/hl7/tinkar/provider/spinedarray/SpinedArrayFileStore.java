@@ -4,20 +4,47 @@ import org.hl7.tinkar.collection.SpineFileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 
 import static org.hl7.tinkar.collection.SpineFileUtil.SPINE_PREFIX;
 
+/**
+ * Base class for spine file stores.
+ * <p>
+ * Spine files are written with a header, an offset table, and the concatenated values, so that a value can be
+ * sliced out of a memory mapped file without decoding the rest of the spine:
+ * <pre>
+ *     int magic, int version, int arraySize, int[arraySize + 1] offsets, values...
+ * </pre>
+ * Offsets are in elements (bytes for byte arrays, longs for long arrays), relative to the start of the values.
+ * A zero length value is read as null. Spine files written before the offset table was introduced start with
+ * the array size, followed by a length prefixed value for each element, and are still readable.
+ * <p>
+ * Reads go through a mapping that is cached per spine, and do not take the disk semaphore, so spines can be
+ * loaded in parallel. Writes go to a temporary file that is forced, and atomically moved over the spine file, so
+ * different spines can be written in parallel. {@link #flush()} forces the moves.
+ */
 public class SpinedArrayFileStore {
     private static final Logger LOG = LoggerFactory.getLogger(SpinedArrayFileStore.class);
+    protected static final int SPINE_FORMAT_MAGIC = 0x5350494E; // "SPIN"
+    protected static final int SPINE_FORMAT_VERSION = 2;
+    private static final String TEMP_SUFFIX = ".tmp";
     protected final Semaphore diskSemaphore;
 
     protected final File directory;
 
     protected int spineSize;
 
+    private final ConcurrentHashMap<Integer, SpineMapping> spineMappings = new ConcurrentHashMap<>();
+
     public SpinedArrayFileStore(File directory) {
         this(directory, new Semaphore(1));
     }
@@ -53,4 +80,208 @@ public class SpinedArrayFileStore {
         }
         return size;
     }
+
+    protected final File spineFile(int spineIndex) {
+        return new File(directory, SPINE_PREFIX + spineIndex);
+    }
+
+    /**
+     * @param spineIndex
+     * @param elementBytes the size in bytes of a single element of a value.
+     * @return the cached mapping of the spine file, or empty if there is no file for the spine.
+     */
+    protected final Optional<SpineMapping> mapping(int spineIndex, int elementBytes) {
+        SpineMapping spineMapping = spineMappings.get(spineIndex);
+        if (spineMapping != null) {
+            return Optional.of(spineMapping);
+        }
+        // computeIfAbsent serializes mapping with the replacement of the file in writeSpine.
+        return Optional.ofNullable(spineMappings.computeIfAbsent(spineIndex, key -> {
+            File spineFile = spineFile(key);
+            if (!spineFile.exists()) {
+                return null;
+            }
+            try {
+                return SpineMapping.map(spineFile, elementBytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }));
+    }
+
+    /**
+     * Writes a spine in the offset table format.
+     *
+     * @param spineIndex
+     * @param valueLengths the length in elements of each value, 0 for a null value.
+     * @param valueWriter  writes the elements of a value.
+     */
+    protected final void writeSpine(int spineIndex, int[] valueLengths, SpineValueWriter valueWriter) throws IOException {
+        File spineFile = spineFile(spineIndex);
+        File tempFile = Files.createTempFile(directory.toPath(), "tmp-" + spineFile.getName() + "-", TEMP_SUFFIX).toFile();
+        try (FileOutputStream fos = new FileOutputStream(tempFile);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            writeSpineFormat(dos, valueLengths, valueWriter);
+            dos.flush();
+            // Forced before the move, so a crash leaves either the old or the new spine, never a partial one.
+            fos.getChannel().force(false);
+        }
+        try {
+            spineMappings.compute(spineIndex, (key, oldMapping) -> {
+                try {
+                    Files.move(tempFile.toPath(), spineFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                // The old mapping refers to the replaced file, and is dropped.
+                return null;
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Forces the moves of the spines written, and the spine count, to disk. The spine files are forced as
+     * they are written.
+     */
+    public void flush() {
+        try {
+            SpineFileUtil.forceDirectory(directory);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes the header, offset table, and values of a spine in the offset table format.
+     */
+    static void writeSpineFormat(DataOutputStream dos, int[] valueLengths, SpineValueWriter valueWriter) throws IOException {
+        dos.writeInt(SPINE_FORMAT_MAGIC);
+        dos.writeInt(SPINE_FORMAT_VERSION);
+        dos.writeInt(valueLengths.length);
+        int offset = 0;
+        dos.writeInt(offset);
+        for (int valueLength : valueLengths) {
+            offset += valueLength;
+            dos.writeInt(offset);
+        }
+        for (int i = 0; i < valueLengths.length; i++) {
+            if (valueLengths[i] != 0) {
+                valueWriter.write(dos, i);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    protected interface SpineValueWriter {
+        void write(DataOutputStream dos, int indexInSpine) throws IOException;
+    }
+
+    /**
+     * A read only mapping of a spine file, in either the offset table format, or the legacy length prefixed format.
+     * Only absolute reads are made on the buffer, so a mapping may be shared between threads.
+     */
+    protected static final class SpineMapping {
+        private final ByteBuffer buffer;
+        private final int elementBytes;
+        private final int arraySize;
+        private final int tableStart;
+        private final int valuesStart;
+        private final int[] legacyValueStarts;
+
+        private SpineMapping(ByteBuffer buffer, int elementBytes) throws IOException {
+            this.buffer = buffer;
+            this.elementBytes = elementBytes;
+            int firstInt = buffer.getInt(0);
+            if (firstInt == SPINE_FORMAT_MAGIC) {
+                int version = buffer.getInt(4);
+                if (version != SPINE_FORMAT_VERSION) {
+                    throw new IOException("Unsupported spine format version: " + version);
+                }
+                this.arraySize = buffer.getInt(8);
+                this.tableStart = 12;
+                this.valuesStart = tableStart + (arraySize + 1) * Integer.BYTES;
+                this.legacyValueStarts = null;
+            } else {
+                this.arraySize = firstInt;
+                this.tableStart = -1;
+                this.valuesStart = -1;
+                this.legacyValueStarts = new int[arraySize];
+                int position = Integer.BYTES;
+                for (int i = 0; i < arraySize; i++) {
+                    int valueLength = buffer.getInt(position);
+                    position += Integer.BYTES;
+                    legacyValueStarts[i] = position;
+                    position += valueLength * elementBytes;
+                }
+            }
+        }
+
+        static SpineMapping map(File spineFile, int elementBytes) throws IOException {
+            try (FileChannel channel = FileChannel.open(spineFile.toPath(), StandardOpenOption.READ)) {
+                return new SpineMapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), elementBytes);
+            }
+        }
+
+        /**
+         * @param buffer a buffer that holds exactly one spine, starting at position 0.
+         */
+        static SpineMapping wrap(ByteBuffer buffer, int elementBytes) throws IOException {
+            return new SpineMapping(buffer, elementBytes);
+        }
+
+        public int arraySize() {
+            return arraySize;
+        }
+
+        /**
+         * @return the length in elements of the value, 0 if the value is null.
+         */
+        public int valueLength(int indexInSpine) {
+            if (legacyValueStarts != null) {
+                return buffer.getInt(legacyValueStarts[indexInSpine] - Integer.BYTES);
+            }
+            int tablePosition = tableStart + indexInSpine * Integer.BYTES;
+            return buffer.getInt(tablePosition + Integer.BYTES) - buffer.getInt(tablePosition);
+        }
+
+        private int valueStart(int indexInSpine) {
+            if (legacyValueStarts != null) {
+                return legacyValueStarts[indexInSpine];
+            }
+            return valuesStart + buffer.getInt(tableStart + indexInSpine * Integer.BYTES) * elementBytes;
+        }
+
+        public byte[] getBytes(int indexInSpine) {
+            if (indexInSpine >= arraySize) {
+                return null;
+            }
+            int valueLength = valueLength(indexInSpine);
+            if (valueLength == 0) {
+                return null;
+            }
+            byte[] value = new byte[valueLength];
+            buffer.get(valueStart(indexInSpine), value);
+            return value;
+        }
+
+        public long[] getLongs(int indexInSpine) {
+            if (indexInSpine >= arraySize) {
+                return null;
+            }
+            int valueLength = valueLength(indexInSpine);
+            if (valueLength == 0) {
+                return null;
+            }
+            long[] value = new long[valueLength];
+            int position = valueStart(indexInSpine);
+            for (int i = 0; i < valueLength; i++) {
+                value[i] = buffer.getLong(position);
+                position += Long.BYTES;
+            }
+            return value;
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+/**
+ * {@link org.hl7.tinkar.common.service.ServiceProperties} keys to configure the spined array provider.
+ * Values are read when the provider is opened.
+ */
+public enum SpinedArrayKeys {
+    /**
+     * Integer maximum number of entity spines kept in memory. 0, or not set, for no limit.
+     */
+    MAX_RESIDENT_ENTITY_SPINES,
+    /**
+     * Long maximum estimated bytes of entity spines kept in memory. 0, or not set, for no limit.
+     */
+    MAX_RESIDENT_ENTITY_BYTES,
+    /**
+     * Integer milliseconds between group commits of the write ahead log. 0 to sync the log on every merge.
+     * Defaults to 10, so a merge may return up to that long before it is durable; callers that must know
+     * their merges are durable, such as a transaction commit, call
+     * {@link org.hl7.tinkar.common.service.PrimitiveDataService#sync()}.
+     */
+    WAL_SYNC_INTERVAL_MILLIS,
+    /**
+     * Long size in bytes of the write ahead log that starts a checkpoint. Defaults to 64 MiB.
+     */
+    WAL_CHECKPOINT_BYTES,
+    /**
+     * Integer seconds after the last checkpoint that a checkpoint is started, if merges were logged. Defaults to 300.
+     */
+    WAL_CHECKPOINT_INTERVAL_SECONDS,
+    /**
+     * Boolean, true to pack the entity and citation spines of a new database into segment files with a manifest,
+     * rather than writing a file per spine. An existing database keeps its format. Defaults to false.
+     */
+    SEGMENT_SPINE_STORES
+}
@@ -2,17 +2,21 @@ package org.hl7.tinkar.provider.spinedarray;
 
 import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
 import org.eclipse.collections.api.list.ImmutableList;
-import org.eclipse.collections.api.list.primitive.MutableIntList;
 import org.eclipse.collections.api.set.primitive.IntSet;
-import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
 import org.eclipse.collections.impl.factory.primitive.IntSets;
 import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
+import org.hl7.tinkar.collection.ConcurrentUuidIntOpenHashMap;
 import org.hl7.tinkar.collection.KeyType;
 import org.hl7.tinkar.collection.SpinedByteArrayMap;
 import org.hl7.tinkar.collection.SpinedIntIntMap;
-import org.hl7.tinkar.collection.SpinedIntLongArrayMap;
+import org.hl7.tinkar.collection.SpinedIntLongListMap;
+import org.hl7.tinkar.collection.SpinedPrimitiveDataSnapshot;
+import org.hl7.tinkar.collection.SpineFileUtil;
+import org.hl7.tinkar.collection.store.ByteArrayStore;
+import org.hl7.tinkar.collection.store.IntLongArrayStore;
 import org.hl7.tinkar.common.service.*;
-import org.hl7.tinkar.common.sets.ConcurrentHashSet;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
 import org.hl7.tinkar.common.util.ints2long.IntsInLong;
 import org.hl7.tinkar.common.util.time.Stopwatch;
 import org.hl7.tinkar.entity.*;
@@ -27,20 +31,31 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.ObjIntConsumer;
 
 /**
- * Maybe a hybrid of SpinedArrayProvider and MVStoreProvider is worth considering.
+ * Holds entity bytes in spined arrays, which iterate faster than MVStore. The UUID to nid map and the nid sets
+ * are held on the heap, and read from the {@link UuidNidIndex} on open when it is current, rather than rebuilt
+ * from the entities.
  * <p>
- * SpinedArrayProvider is performing horribly becuase of dependency on ConcurrentUuidIntHashMap serilization.
- * <p>
- * MVStore performs worse when iterating over entities.
+ * HybridProvider, in the data-hybrid-provider module, keeps the entity bytes in spined arrays, but holds UUIDs,
+ * citations, and nid sets in MVStore, so they are not held on the heap or read on open.
  */
 public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     private static final Logger LOG = LoggerFactory.getLogger(SpinedArrayProvider.class);
@@ -50,24 +65,35 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     protected final CountDownLatch uuidsLoadedLatch = new CountDownLatch(1);
     final AtomicInteger nextNid = new AtomicInteger(PrimitiveDataService.FIRST_NID);
 
-    final ConcurrentHashMap<UUID, Integer> uuidToNidMap = ConcurrentHashMap.newMap();
-    final ConcurrentHashSet<Integer> patternNids = new ConcurrentHashSet();
-    final ConcurrentHashSet<Integer> conceptNids = new ConcurrentHashSet();
-    final ConcurrentHashSet<Integer> semanticNids = new ConcurrentHashSet();
-    final ConcurrentHashSet<Integer> stampNids = new ConcurrentHashSet();
-    final ConcurrentHashMap<Integer, ConcurrentHashSet<Integer>> patternElementNidsMap = ConcurrentHashMap.newMap();
+    final ConcurrentUuidIntOpenHashMap uuidToNidMap = new ConcurrentUuidIntOpenHashMap();
+    final ConcurrentRoaringIntSet patternNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet conceptNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet semanticNids = new ConcurrentRoaringIntSet();
+    final ConcurrentRoaringIntSet stampNids = new ConcurrentRoaringIntSet();
+    final ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap = ConcurrentHashMap.newMap();
 
+    final ByteArrayStore entityStore;
+    final IntLongArrayStore citationStore;
     final SpinedByteArrayMap entityToBytesMap;
     final SpinedIntIntMap nidToPatternNidMap;
     /**
      * Using "citing" instead of "referencing" to make the field names more distinct.
      */
-    final SpinedIntLongArrayMap nidToCitingComponentsNidMap;
+    final SpinedIntLongListMap nidToCitingComponentsNidMap;
 
     final File nidToPatternNidMapDirectory;
     final File nidToByteArrayMapDirectory;
     final File nidToCitingComponentNidMapDirectory;
     final File nextNidKeyFile;
+    final File writeSequenceKeyFile;
+    final UuidNidIndex uuidNidIndex;
+    final WriteAheadLog writeAheadLog;
+    final int walSyncIntervalMillis;
+    final long walCheckpointBytes;
+    final long walCheckpointIntervalMillis;
+    final ScheduledFuture<?> walSyncTask;
+    final AtomicBoolean checkpointPending = new AtomicBoolean();
+    final ReentrantLock saveLock = new ReentrantLock();
     final Indexer indexer;
     final Searcher searcher;
     final String name;
@@ -89,26 +115,85 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
         this.nidToCitingComponentNidMapDirectory = new File(configuredRoot, "nidToCitingComponentNidMap");
         this.nidToCitingComponentNidMapDirectory.mkdirs();
         this.nextNidKeyFile = new File(configuredRoot, "nextNidKeyFile");
-
-        this.entityToBytesMap = new SpinedByteArrayMap(new ByteArrayFileStore(nidToByteArrayMapDirectory));
+        this.writeSequenceKeyFile = new File(configuredRoot, "writeSequenceKeyFile");
+        this.uuidNidIndex = new UuidNidIndex(new File(configuredRoot, "uuidNidIndex"));
+        this.writeAheadLog = new WriteAheadLog(new File(configuredRoot, "writeAheadLog"));
+        this.walSyncIntervalMillis = ServiceProperties.get(SpinedArrayKeys.WAL_SYNC_INTERVAL_MILLIS, 10);
+        this.walCheckpointBytes = ServiceProperties.get(SpinedArrayKeys.WAL_CHECKPOINT_BYTES, 64L * 1024 * 1024);
+        this.walCheckpointIntervalMillis = TimeUnit.SECONDS.toMillis(
+                ServiceProperties.get(SpinedArrayKeys.WAL_CHECKPOINT_INTERVAL_SECONDS, 300));
+
+        boolean segmentStores = ServiceProperties.get(SpinedArrayKeys.SEGMENT_SPINE_STORES, false);
+        this.entityStore = useSegmentStore(nidToByteArrayMapDirectory, segmentStores) ?
+                new ByteArraySegmentStore(nidToByteArrayMapDirectory) : new ByteArrayFileStore(nidToByteArrayMapDirectory);
+        this.citationStore = useSegmentStore(nidToCitingComponentNidMapDirectory, segmentStores) ?
+                new IntLongArraySegmentStore(nidToCitingComponentNidMapDirectory) :
+                new IntLongArrayFileStore(nidToCitingComponentNidMapDirectory);
+        this.entityToBytesMap = new SpinedByteArrayMap(entityStore);
+        this.entityToBytesMap.setMaxResidentSpines(ServiceProperties.get(SpinedArrayKeys.MAX_RESIDENT_ENTITY_SPINES, 0));
+        this.entityToBytesMap.setMaxResidentBytes(ServiceProperties.get(SpinedArrayKeys.MAX_RESIDENT_ENTITY_BYTES, 0L));
         this.nidToPatternNidMap = new SpinedIntIntMap(KeyType.NID_KEY);
         this.nidToPatternNidMap.read(this.nidToPatternNidMapDirectory);
-        this.nidToCitingComponentsNidMap = new SpinedIntLongArrayMap(new IntLongArrayFileStore(nidToCitingComponentNidMapDirectory));
+        this.nidToCitingComponentsNidMap = new SpinedIntLongListMap(citationStore);
 
         if (nextNidKeyFile.exists()) {
             String nextNidString = Files.readString(this.nextNidKeyFile.toPath());
             nextNid.set(Integer.valueOf(nextNidString));
         }
+        // The write sequence key file is removed at the start of a save, and rewritten once the save is complete.
+        final long persistedWriteSequence;
+        writeSequence.reset();
+        if (writeSequenceKeyFile.exists()) {
+            persistedWriteSequence = Long.parseLong(Files.readString(this.writeSequenceKeyFile.toPath()));
+            writeSequence.add(persistedWriteSequence);
+        } else {
+            persistedWriteSequence = -1;
+        }
+        // Merges logged since the last checkpoint. Their UUIDs and component type are collected once the
+        // persisted identifiers are loaded, below.
+        final MutableIntSet replayedNids = IntSets.mutable.empty();
+        // Nids assigned to UUIDs since the last checkpoint, including nids not yet merged.
+        final ConcurrentUuidIntOpenHashMap replayedUuidNids = new ConcurrentUuidIntOpenHashMap();
+        this.writeAheadLog.open((nid, patternNid, referencedComponentNid, value) -> {
+            replay(nid, patternNid, referencedComponentNid, value);
+            replayedNids.add(nid);
+        }, (nid, msb, lsb) -> {
+            replayedUuidNids.put(msb, lsb, nid);
+            nextNid.accumulateAndGet(nid + 1, Math::max);
+        });
+        if (replayedNids.notEmpty()) {
+            nextNid.accumulateAndGet(replayedNids.max() + 1, Math::max);
+        }
+
+        File indexDir = new File(configuredRoot, "lucene");
+        this.indexer = new Indexer(indexDir.toPath());
+        this.searcher = new Searcher();
+
         Executor.threadPool().execute(() -> {
             Stopwatch uuidNidMapFromEntitiesStopwatch = new Stopwatch();
-            LOG.info("Starting UUID strategy 2");
-            UuidNidCollector uuidNidCollector = new UuidNidCollector(uuidToNidMap,
-                    patternNids, conceptNids, semanticNids, stampNids, patternElementNidsMap);
+            UuidNidCollector uuidNidCollector = null;
             try {
-                this.entityToBytesMap.forEachParallel(uuidNidCollector);
+                if (persistedWriteSequence >= 0 && this.uuidNidIndex.read(persistedWriteSequence, uuidToNidMap,
+                        patternNids, conceptNids, semanticNids, stampNids, patternElementNidsMap)) {
+                    LOG.info("Loaded UUIDs from index");
+                } else {
+                    LOG.info("Starting UUID strategy 2");
+                    uuidNidCollector = new UuidNidCollector(uuidToNidMap,
+                            patternNids, conceptNids, semanticNids, stampNids, patternElementNidsMap);
+                    this.entityToBytesMap.forEachParallel(uuidNidCollector);
+                }
+                if (uuidNidCollector == null && replayedNids.notEmpty()) {
+                    // The index predates the replayed merges.
+                    UuidNidCollector replayCollector = new UuidNidCollector(uuidToNidMap,
+                            patternNids, conceptNids, semanticNids, stampNids, patternElementNidsMap);
+                    replayedNids.forEach(nid -> replayCollector.accept(this.entityToBytesMap.get(nid), nid));
+                }
+                replayedUuidNids.forEach(uuidToNidMap::put);
                 this.uuidsLoadedLatch.countDown();
+                // Uncommitted index changes are lost with the process, so index the replayed entities again.
+                replayedNids.forEach(nid -> this.indexer.index(Entity.getFast(nid)));
                 LOG.info("Searching for canceled stamps. ");
-                for (int stampNid : stampNids) {
+                stampNids.forEach(stampNid -> {
                     StampRecord stamp = Entity.getStamp(stampNid);
                     if (stamp.time() == Long.MAX_VALUE && Transaction.forStamp(stamp).isEmpty()) {
                         // Uncommmitted stamp found outside a transaction on restart. Set to canceled.
@@ -124,22 +209,85 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
                     if (stamp.lastVersion().stateNid() == State.CANCELED.nid()) {
                         PrimitiveData.get().addCanceledStampNid(stampNid);
                     }
-                }
+                });
             } catch (ExecutionException | InterruptedException e) {
                 LOG.error(e.getLocalizedMessage(), e);
             } finally {
                 uuidNidMapFromEntitiesStopwatch.stop();
-                LOG.info("Finished UUID strategy 2 in: " + uuidNidMapFromEntitiesStopwatch.durationString());
-                LOG.info(uuidNidCollector.report());
+                LOG.info("Finished loading UUIDs in: " + uuidNidMapFromEntitiesStopwatch.durationString());
+                if (uuidNidCollector != null) {
+                    LOG.info(uuidNidCollector.report());
+                }
             }
         });
 
+        if (walSyncIntervalMillis > 0) {
+            this.walSyncTask = Executor.scheduled().scheduleWithFixedDelay(this::syncWriteAheadLog,
+                    walSyncIntervalMillis, walSyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.walSyncTask = null;
+        }
         stopwatch.stop();
         LOG.info("Opened SpinedArrayProvider in: " + stopwatch.durationString());
+    }
 
-        File indexDir = new File(configuredRoot, "lucene");
-        this.indexer = new Indexer(indexDir.toPath());
-        this.searcher = new Searcher();
+    /**
+     * A directory that already holds a spine store keeps its format. An empty directory uses the format
+     * selected by {@link SpinedArrayKeys#SEGMENT_SPINE_STORES}.
+     */
+    private static boolean useSegmentStore(File directory, boolean segmentStores) {
+        if (SpineSegmentStore.isSegmentStore(directory)) {
+            return true;
+        }
+        if (SpineFileUtil.readSpineCount(directory) > 0) {
+            return false;
+        }
+        return segmentStores;
+    }
+
+    /**
+     * Applies a merge read from the write ahead log. Unlike {@link #merge(int, int, int, byte[], Object)}, the
+     * pattern nid and citation are applied even if the entity exists, since they may not have been saved with it.
+     */
+    private void replay(int nid, int patternNid, int referencedComponentNid, byte[] value) {
+        this.nidToPatternNidMap.put(nid, patternNid);
+        if (patternNid != Integer.MAX_VALUE) {
+            long citationLong = IntsInLong.ints2Long(nid, patternNid);
+            this.nidToCitingComponentsNidMap.add(referencedComponentNid, citationLong);
+        }
+        this.entityToBytesMap.accumulateAndGet(nid, value, PrimitiveDataService::merge);
+        writeSequence.increment();
+    }
+
+    /**
+     * Group commit of the write ahead log, run on a fixed delay. Starts a checkpoint once the log passes
+     * its size or age threshold.
+     */
+    private void syncWriteAheadLog() {
+        try {
+            this.writeAheadLog.sync();
+            if (this.writeAheadLog.hasRecords() &&
+                    (this.writeAheadLog.segmentBytes() >= walCheckpointBytes ||
+                            this.writeAheadLog.millisSinceRotation() >= walCheckpointIntervalMillis) &&
+                    checkpointPending.compareAndSet(false, true)) {
+                // Not on the IO pool, which writes the spines for the checkpoint.
+                Executor.threadPool().execute(() -> {
+                    try {
+                        if (saveLock.tryLock()) {
+                            try {
+                                save();
+                            } finally {
+                                saveLock.unlock();
+                            }
+                        }
+                    } finally {
+                        checkpointPending.set(false);
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            LOG.error("Unable to sync write ahead log", e);
+        }
     }
 
     @Override
@@ -147,13 +295,47 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
         return writeSequence.sum();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entities are read from a copy on write snapshot of the entity spines.
+     */
+    @Override
+    public PrimitiveDataSnapshot snapshot() {
+        return new SpinedPrimitiveDataSnapshot(this, entityToBytesMap);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Forces the write ahead log, sharing the force with concurrent callers and the group commit.
+     */
+    @Override
+    public void sync() {
+        try {
+            this.writeAheadLog.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public void close() {
         Stopwatch stopwatch = new Stopwatch();
         LOG.info("Closing SpinedArrayProvider");
         try {
+            if (walSyncTask != null) {
+                walSyncTask.cancel(false);
+            }
             save();
+            writeAheadLog.close();
             entityToBytesMap.close();
+            if (entityStore instanceof SpineSegmentStore segmentStore) {
+                segmentStore.close();
+            }
+            if (citationStore instanceof SpineSegmentStore segmentStore) {
+                segmentStore.close();
+            }
             SpinedArrayProvider.singleton = null;
             this.indexer.close();
         } catch (IOException e) {
@@ -167,45 +349,96 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     public void save() {
         Stopwatch stopwatch = new Stopwatch();
         LOG.info("Saving SpinedArrayProvider");
+        saveLock.lock();
         try {
-            Files.writeString(this.nextNidKeyFile.toPath(), Integer.toString(nextNid.get()));
+            // Every merge logged before the rotation has already been applied to the maps written below.
+            long firstRetainedSegment = this.writeAheadLog.rotate();
+            long sequenceToSave = writeSequence.sum();
+            Files.deleteIfExists(this.writeSequenceKeyFile.toPath());
+            writeKeyFile(this.nextNidKeyFile, Integer.toString(nextNid.get()));
             nidToPatternNidMap.write(this.nidToPatternNidMapDirectory);
-            this.entityToBytesMap.write();
-            this.nidToCitingComponentsNidMap.write();
+            this.entityToBytesMap.write(Executor.ioThreadPool());
+            LOG.info("Entity spines resident: " + entityToBytesMap.residentSpineCount() +
+                    " hits: " + entityToBytesMap.spineHits() + " misses: " + entityToBytesMap.spineMisses() +
+                    " evictions: " + entityToBytesMap.spineEvictions());
+            this.nidToCitingComponentsNidMap.write(Executor.ioThreadPool());
+            if (this.uuidsLoadedLatch.getCount() == 0) {
+                // Written after the entities, so the index covers at least every entity that was written.
+                this.uuidNidIndex.write(sequenceToSave, uuidToNidMap,
+                        patternNids, conceptNids, semanticNids, stampNids, patternElementNidsMap);
+                writeKeyFile(this.writeSequenceKeyFile, Long.toString(sequenceToSave));
+            }
             this.indexer.commit();
+            // Every file written above is forced, and moved into a forced directory, so the merges logged
+            // before the rotation are durable without the log.
+            SpineFileUtil.forceDirectory(this.writeSequenceKeyFile.getParentFile());
+            this.writeAheadLog.deleteSegmentsBefore(firstRetainedSegment);
         } catch (IOException e) {
             LOG.error(e.getLocalizedMessage(), e);
         } finally {
+            saveLock.unlock();
             stopwatch.stop();
             LOG.info("Save SpinedArrayProvider in: " + stopwatch.durationString());
         }
     }
 
+    /**
+     * Writes the value to a temporary file that is forced, and moved over the key file.
+     */
+    private static void writeKeyFile(File keyFile, String value) throws IOException {
+        File tempFile = new File(keyFile.getParentFile(), keyFile.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tempFile.toPath(), keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     @Override
     public int nidForUuids(UUID... uuids) {
         try {
             this.uuidsLoadedLatch.await();
             if (uuids.length == 1) {
-                return uuidToNidMap.computeIfAbsent(uuids[0], uuidKey -> newNid());
-            }
-            int nid = Integer.MAX_VALUE;
-            for (UUID uuid : uuids) {
-                if (nid == Integer.MAX_VALUE) {
-                    nid = uuidToNidMap.computeIfAbsent(uuids[0], uuidKey -> newNid());
-                } else {
-                    uuidToNidMap.put(uuid, nid);
+                int nid = uuidToNidMap.get(uuids[0]);
+                if (nid != ConcurrentUuidIntOpenHashMap.NO_VALUE) {
+                    return nid;
                 }
+            } else if (allMapped(uuids)) {
+                return uuidToNidMap.nidForUuids(this, uuids);
             }
-            if (nid == Integer.MIN_VALUE) {
-                throw new IllegalStateException("nid cannot be Integer.MIN_VALUE");
-            }
-            return nid;
+            return assignNid(uuids);
         } catch (InterruptedException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
+    private boolean allMapped(UUID[] uuids) {
+        for (UUID uuid : uuids) {
+            if (!uuidToNidMap.containsKey(uuid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps UUIDs, at least one of which is not mapped, to a nid, and logs the mapping. The nid is logged once
+     * it is published in the UUID map, rather than while its slot is reserved, so readers of the map do not
+     * wait on the log, and a failure to log does not leave the slot reserved. The nid is logged before it is
+     * returned, so a merge that uses it is logged after it. UUIDs added to an existing nid, or mapped
+     * concurrently, are logged again, which is harmless.
+     */
+    private int assignNid(UUID[] uuids) {
+        int nid = uuidToNidMap.nidForUuids(this, uuids);
+        this.writeAheadLog.appendNid(nid, uuids);
+        return nid;
+    }
+
     @Override
     public int newNid() {
         return nextNid.getAndIncrement();
@@ -216,20 +449,12 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
         try {
             this.uuidsLoadedLatch.await();
             if (uuidList.size() == 1) {
-                return uuidToNidMap.computeIfAbsent(uuidList.get(0), uuidKey -> newNid());
-            }
-            int nid = Integer.MAX_VALUE;
-            for (UUID uuid : uuidList) {
-                if (nid == Integer.MAX_VALUE) {
-                    nid = uuidToNidMap.computeIfAbsent(uuid, uuidKey -> newNid());
-                } else {
-                    uuidToNidMap.put(uuid, nid);
+                int nid = uuidToNidMap.get(uuidList.get(0));
+                if (nid != ConcurrentUuidIntOpenHashMap.NO_VALUE) {
+                    return nid;
                 }
             }
-            if (nid == Integer.MIN_VALUE) {
-                throw new IllegalStateException("nid cannot be Integer.MIN_VALUE");
-            }
-            return nid;
+            return nidForUuids(uuidList.toArray(new UUID[uuidList.size()]));
         } catch (InterruptedException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RuntimeException(e);
@@ -265,8 +490,7 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
             this.nidToPatternNidMap.put(nid, patternNid);
             if (patternNid != Integer.MAX_VALUE) {
                 long citationLong = IntsInLong.ints2Long(nid, patternNid);
-                this.nidToCitingComponentsNidMap.accumulateAndGet(referencedComponentNid, new long[]{citationLong},
-                        PrimitiveDataService::mergeCitations);
+                this.nidToCitingComponentsNidMap.add(referencedComponentNid, citationLong);
                 addToPatternElementSet(patternNid, nid);
             }
             if (sourceObject instanceof ConceptEntity concept) {
@@ -280,14 +504,24 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
             }
         }
         byte[] mergedBytes = this.entityToBytesMap.accumulateAndGet(nid, value, PrimitiveDataService::merge);
+        // Logged after the maps are updated, so a checkpoint that rotates the log before this append
+        // still retains the record, and one that rotates after it writes the updated maps.
+        this.writeAheadLog.append(nid, patternNid, referencedComponentNid, value);
+        if (walSyncIntervalMillis <= 0) {
+            try {
+                this.writeAheadLog.sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         writeSequence.increment();
-        this.indexer.index(sourceObject);
+        this.indexer.index(sourceObject, mergedBytes);
         return mergedBytes;
     }
 
     public boolean addToPatternElementSet(int patternNid, int elementNid) {
 
-        return patternElementNidsMap.getIfAbsentPut(patternNid, integer -> new ConcurrentHashSet())
+        return patternElementNidsMap.getIfAbsentPut(patternNid, integer -> new ConcurrentRoaringIntSet())
                 .add(elementNid);
     }
 
@@ -297,26 +531,25 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     }
 
     public int[] semanticNidsOfPattern(int patternNid) {
-        IntSet elementNids = getElementNidsForPatternNid(patternNid);
-        if (elementNids.notEmpty()) {
-            MutableIntList elementNidList = IntLists.mutable.withInitialCapacity(elementNids.size());
-            elementNids.forEach(integer -> elementNidList.add(integer));
-            return elementNidList.toArray();
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null) {
+            return elementNids.toArray();
         }
         return new int[0];
     }
 
     public IntSet getElementNidsForPatternNid(int patternNid) {
-        if (patternElementNidsMap.containsKey(patternNid)) {
-            return IntSets.immutable.ofAll(patternElementNidsMap.get(patternNid).stream().mapToInt(value -> (int) value));
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null) {
+            return elementNids.asIntSet();
         }
         return IntSets.immutable.empty();
     }
 
     @Override
     public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
-        IntSet elementNids = getElementNidsForPatternNid(patternNid);
-        if (elementNids.notEmpty()) {
+        ConcurrentRoaringIntSet elementNids = patternElementNidsMap.get(patternNid);
+        if (elementNids != null && elementNids.notEmpty()) {
             elementNids.forEach(procedure);
         } else {
             Entity entity = Entity.getFast(patternNid);
@@ -331,7 +564,7 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     public void forEachPatternNid(IntProcedure procedure) {
         try {
             this.uuidsLoadedLatch.await();
-            this.patternNids.forEach(patternNid -> procedure.accept(patternNid));
+            this.patternNids.forEach(procedure);
         } catch (InterruptedException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RuntimeException(e);
@@ -342,7 +575,7 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     public void forEachConceptNid(IntProcedure procedure) {
         try {
             this.uuidsLoadedLatch.await();
-            this.conceptNids.forEach(conceptNid -> procedure.accept(conceptNid));
+            this.conceptNids.forEach(procedure);
         } catch (InterruptedException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RuntimeException(e);
@@ -353,7 +586,7 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     public void forEachStampNid(IntProcedure procedure) {
         try {
             this.uuidsLoadedLatch.await();
-            this.stampNids.forEach(stampNid -> procedure.accept(stampNid));
+            this.stampNids.forEach(procedure);
         } catch (InterruptedException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RuntimeException(e);
@@ -364,7 +597,7 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
     public void forEachSemanticNid(IntProcedure procedure) {
         try {
             this.uuidsLoadedLatch.await();
-            this.semanticNids.forEach(semanticNid -> procedure.accept(semanticNid));
+            this.semanticNids.forEach(procedure);
         } catch (InterruptedException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RuntimeException(e);
@@ -373,27 +606,26 @@ public class SpinedArrayProvider implements PrimitiveDataService, NidGenerator {
 
     @Override
     public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
-        long[] citationLongs = this.nidToCitingComponentsNidMap.get(componentNid);
-        if (citationLongs != null) {
-            for (long citationLong : citationLongs) {
-                int citingComponentNid = (int) (citationLong >> 32);
-                procedure.accept(citingComponentNid);
-            }
-        }
+        this.nidToCitingComponentsNidMap.forEach(componentNid, citationLong -> {
+            int citingComponentNid = (int) (citationLong >> 32);
+            procedure.accept(citingComponentNid);
+        });
     }
 
     @Override
     public void forEachSemanticNidForComponentOfPattern(int componentNid, int patternNid, IntProcedure procedure) {
-        long[] citationLongs = this.nidToCitingComponentsNidMap.get(componentNid);
-        if (citationLongs != null) {
-            for (long citationLong : citationLongs) {
-                int citingComponentNid = (int) (citationLong >> 32);
-                int citingComponentPatternNid = (int) citationLong;
-                if (patternNid == citingComponentPatternNid) {
-                    procedure.accept(citingComponentNid);
-                }
-            }
-        }
+        // Citations are the citing component nid and its pattern nid, so they are looked up by pattern nid.
+        this.nidToCitingComponentsNidMap.forEachFirstInt(componentNid, patternNid, procedure);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The array may be shared with the citation index, and must not be modified.
+     */
+    @Override
+    public int[] semanticNidsForComponentOfPattern(int componentNid, int patternNid) {
+        return this.nidToCitingComponentsNidMap.firstInts(componentNid, patternNid);
     }
 
     @Override
@@ -1,7 +1,8 @@
 package org.hl7.tinkar.provider.spinedarray;
 
 import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
-import org.hl7.tinkar.common.sets.ConcurrentHashSet;
+import org.hl7.tinkar.collection.ConcurrentUuidIntOpenHashMap;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
 import org.hl7.tinkar.common.util.time.Stopwatch;
 import org.hl7.tinkar.component.FieldDataType;
 import org.hl7.tinkar.entity.Entity;
@@ -16,12 +17,12 @@ import java.util.function.ObjIntConsumer;
 
 public class UuidNidCollector implements ObjIntConsumer<byte[]> {
     private static final Logger LOG = LoggerFactory.getLogger(UuidNidCollector.class);
-    final ConcurrentHashMap<UUID, Integer> uuidToNidMap;
-    final ConcurrentHashSet<Integer> patternNids;
-    final ConcurrentHashSet<Integer> conceptNids;
-    final ConcurrentHashSet<Integer> semanticNids;
-    final ConcurrentHashSet<Integer> stampNids;
-    final ConcurrentHashMap<Integer, ConcurrentHashSet<Integer>> patternElementNidsMap;
+    final ConcurrentUuidIntOpenHashMap uuidToNidMap;
+    final ConcurrentRoaringIntSet patternNids;
+    final ConcurrentRoaringIntSet conceptNids;
+    final ConcurrentRoaringIntSet semanticNids;
+    final ConcurrentRoaringIntSet stampNids;
+    final ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap;
 
 
     AtomicInteger totalCount = new AtomicInteger();
@@ -32,12 +33,12 @@ public class UuidNidCollector implements ObjIntConsumer<byte[]> {
     AtomicInteger other = new AtomicInteger();
     Stopwatch stopwatch = new Stopwatch();
 
-    public UuidNidCollector(ConcurrentHashMap<UUID, Integer> uuidToNidMap,
-                            ConcurrentHashSet<Integer> patternNids,
-                            ConcurrentHashSet<Integer> conceptNids,
-                            ConcurrentHashSet<Integer> semanticNids,
-                            ConcurrentHashSet<Integer> stampNids,
-                            ConcurrentHashMap<Integer, ConcurrentHashSet<Integer>> patternElementNidsMap) {
+    public UuidNidCollector(ConcurrentUuidIntOpenHashMap uuidToNidMap,
+                            ConcurrentRoaringIntSet patternNids,
+                            ConcurrentRoaringIntSet conceptNids,
+                            ConcurrentRoaringIntSet semanticNids,
+                            ConcurrentRoaringIntSet stampNids,
+                            ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap) {
         this.uuidToNidMap = uuidToNidMap;
         this.patternNids = patternNids;
         this.conceptNids = conceptNids;
@@ -86,7 +87,7 @@ public class UuidNidCollector implements ObjIntConsumer<byte[]> {
         if (typeToProcess == true) {
             Entity<?> entity = EntityRecordFactory.make(bytes);
             if (entity instanceof SemanticEntity semanticEntity) {
-                patternElementNidsMap.getIfAbsentPut(semanticEntity.patternNid(), integer -> new ConcurrentHashSet())
+                patternElementNidsMap.getIfAbsentPut(semanticEntity.patternNid(), integer -> new ConcurrentRoaringIntSet())
                         .add(semanticEntity.nid());
             }
             for (UUID uuid : entity.asUuidArray()) {
@@ -0,0 +1,132 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
+import org.hl7.tinkar.collection.ConcurrentUuidIntOpenHashMap;
+import org.hl7.tinkar.collection.SpineFileUtil;
+import org.hl7.tinkar.common.sets.ConcurrentRoaringIntSet;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persistent form of the identifier state that {@link UuidNidCollector} otherwise rebuilds by
+ * decoding every entity on startup: the UUID to nid map, the nids of each component type, and
+ * the element nids of each pattern. The nid sets are written as compressed bitmaps.
+ * <p>
+ * The index records the write sequence it was saved at. It is only used if that sequence matches
+ * the write sequence the provider persisted after its last complete save, otherwise the caller must
+ * fall back to a full rescan.
+ */
+public class UuidNidIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(UuidNidIndex.class);
+    private static final int MAGIC = 0x55554E49; // "UUNI"
+    private static final int FORMAT_VERSION = 3;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File indexFile;
+
+    public UuidNidIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public boolean exists() {
+        return indexFile.exists();
+    }
+
+    /**
+     * @return true if the index was read and is valid for expectedWriteSequence. If false is returned,
+     * the provided collections have been cleared and must be rebuilt by a rescan.
+     */
+    public boolean read(long expectedWriteSequence,
+                        ConcurrentUuidIntOpenHashMap uuidToNidMap,
+                        ConcurrentRoaringIntSet patternNids,
+                        ConcurrentRoaringIntSet conceptNids,
+                        ConcurrentRoaringIntSet semanticNids,
+                        ConcurrentRoaringIntSet stampNids,
+                        ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap) {
+        if (!indexFile.exists()) {
+            LOG.info("No UUID nid index at: " + indexFile.getAbsolutePath());
+            return false;
+        }
+        Stopwatch stopwatch = new Stopwatch();
+        boolean valid = false;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+                LOG.warn("Unrecognized UUID nid index format: " + indexFile.getAbsolutePath());
+                return false;
+            }
+            long indexWriteSequence = dis.readLong();
+            if (indexWriteSequence != expectedWriteSequence) {
+                LOG.warn("UUID nid index write sequence " + indexWriteSequence +
+                        " does not match store write sequence " + expectedWriteSequence);
+                return false;
+            }
+            uuidToNidMap.readFrom(dis);
+            patternNids.readFrom(dis);
+            conceptNids.readFrom(dis);
+            semanticNids.readFrom(dis);
+            stampNids.readFrom(dis);
+            int patternCount = dis.readInt();
+            for (int i = 0; i < patternCount; i++) {
+                int patternNid = dis.readInt();
+                ConcurrentRoaringIntSet elementNids = new ConcurrentRoaringIntSet();
+                elementNids.readFrom(dis);
+                patternElementNidsMap.put(patternNid, elementNids);
+            }
+            valid = true;
+            stopwatch.stop();
+            LOG.info("Read " + uuidToNidMap.size() + " UUIDs from index in: " + stopwatch.durationString());
+            return true;
+        } catch (IOException ex) {
+            LOG.error("Unable to read UUID nid index: " + indexFile.getAbsolutePath(), ex);
+            return false;
+        } finally {
+            if (!valid) {
+                uuidToNidMap.clear();
+                patternNids.clear();
+                conceptNids.clear();
+                semanticNids.clear();
+                stampNids.clear();
+                patternElementNidsMap.clear();
+            }
+        }
+    }
+
+    public void write(long writeSequence,
+                      ConcurrentUuidIntOpenHashMap uuidToNidMap,
+                      ConcurrentRoaringIntSet patternNids,
+                      ConcurrentRoaringIntSet conceptNids,
+                      ConcurrentRoaringIntSet semanticNids,
+                      ConcurrentRoaringIntSet stampNids,
+                      ConcurrentHashMap<Integer, ConcurrentRoaringIntSet> patternElementNidsMap) throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tempFile);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeLong(writeSequence);
+            uuidToNidMap.writeTo(dos);
+            patternNids.writeTo(dos);
+            conceptNids.writeTo(dos);
+            semanticNids.writeTo(dos);
+            stampNids.writeTo(dos);
+            int[] patternKeys = patternElementNidsMap.keySet().stream().mapToInt(value -> value).toArray();
+            dos.writeInt(patternKeys.length);
+            for (int patternNid : patternKeys) {
+                dos.writeInt(patternNid);
+                patternElementNidsMap.get(patternNid).writeTo(dos);
+            }
+            dos.flush();
+            fos.getChannel().force(false);
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        SpineFileUtil.forceDirectory(indexFile.getParentFile());
+        stopwatch.stop();
+        LOG.info("Wrote UUID nid index in: " + stopwatch.durationString());
+    }
+}
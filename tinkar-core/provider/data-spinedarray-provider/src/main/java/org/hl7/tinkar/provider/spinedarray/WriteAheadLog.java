@@ -0,0 +1,399 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only log of the merges made on a {@link SpinedArrayProvider}, so that a merge is durable once
+ * its record is synced, rather than once the spines it changed are rewritten. The nids assigned to UUIDs
+ * are logged as well, so a nid handed out, but not yet merged, is not assigned to another UUID after a crash.
+ * <p>
+ * The log is a sequence of segment files. Each segment starts with a header, followed by records of:
+ * <pre>
+ *     int recordLength, byte recordType, record fields, int crc
+ * </pre>
+ * where recordLength counts the bytes from recordType through the record fields, and crc is a CRC32C of
+ * those bytes. The fields of a merge record are:
+ * <pre>
+ *     int nid, int patternNid, int referencedComponentNid, byte[] value
+ * </pre>
+ * and the fields of a nid record are:
+ * <pre>
+ *     int nid, int uuidCount, (long msb, long lsb) for each UUID
+ * </pre>
+ * Replay stops at the first short or corrupt record of a segment, which is what a torn write at the end
+ * of the log looks like.
+ * <p>
+ * Merges are idempotent, so a record may be replayed more than once. A checkpoint therefore
+ * {@link #rotate() rotates} to a new segment, saves the spines, and then
+ * {@link #deleteSegmentsBefore(long) deletes} the segments that were complete before the rotation.
+ * <p>
+ * Appends are buffered. {@link #sync()} writes the buffer and forces it to disk; concurrent callers share
+ * a single force of the channel, so that merges from many threads are committed as a group.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final int MAGIC = 0x57414C47; // "WALG"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int RECORD_FIELDS_BYTES = 3 * Integer.BYTES;
+    private static final byte MERGE_RECORD = 0;
+    private static final byte NID_RECORD = 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File directory;
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+
+    private long segmentId;
+    private FileOutputStream segmentOutput;
+    private DataOutputStream segmentStream;
+    private final CRC32C crc = new CRC32C();
+    /**
+     * Bytes appended to, and bytes synced in, the current segment.
+     */
+    private long appendedBytes;
+    private volatile long syncedBytes;
+    private volatile long segmentBytes;
+    private volatile long lastRotationMillis = System.currentTimeMillis();
+
+    public WriteAheadLog(File directory) {
+        this.directory = directory;
+        this.directory.mkdirs();
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(int nid, int patternNid, int referencedComponentNid, byte[] value);
+    }
+
+    @FunctionalInterface
+    public interface NidConsumer {
+        void accept(int nid, long msb, long lsb);
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%019d", id));
+    }
+
+    private long[] segmentIds() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (files == null) {
+            return new long[0];
+        }
+        long[] ids = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            try {
+                ids[count] = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring unexpected file in write ahead log: " + file.getAbsolutePath());
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Replays the merge records of all segments in order, ignoring the nid records, and then starts a new
+     * segment for appends. Must be called once, before the first append.
+     *
+     * @return the number of records replayed.
+     */
+    public int open(RecordConsumer consumer) throws IOException {
+        return open(consumer, (nid, msb, lsb) -> {
+        });
+    }
+
+    /**
+     * Replays the records of all segments in order, passing each UUID of a nid record to the nid consumer,
+     * and then starts a new segment for appends. Must be called once, before the first append.
+     *
+     * @return the number of records replayed.
+     */
+    public int open(RecordConsumer consumer, NidConsumer nidConsumer) throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        long[] ids = segmentIds();
+        int recordCount = 0;
+        for (long id : ids) {
+            recordCount += replaySegment(segmentFile(id), id, consumer, nidConsumer);
+        }
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                startSegment(ids.length == 0 ? 0 : ids[ids.length - 1] + 1);
+            }
+        }
+        stopwatch.stop();
+        if (recordCount > 0) {
+            LOG.info("Replayed " + recordCount + " write ahead log records from " + ids.length +
+                    " segments in: " + stopwatch.durationString());
+        }
+        return recordCount;
+    }
+
+    private int replaySegment(File file, long id, RecordConsumer consumer, NidConsumer nidConsumer) throws IOException {
+        int recordCount = 0;
+        CRC32C replayCrc = new CRC32C();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (file.length() < HEADER_BYTES || dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION ||
+                    dis.readLong() != id) {
+                LOG.warn("Skipping write ahead log segment with unrecognized header: " + file.getAbsolutePath());
+                return 0;
+            }
+            long remaining = file.length() - HEADER_BYTES;
+            while (remaining >= Integer.BYTES) {
+                int recordLength = dis.readInt();
+                remaining -= Integer.BYTES;
+                if (recordLength < 1 + 2 * Integer.BYTES || recordLength > remaining - Integer.BYTES) {
+                    break;
+                }
+                byte[] record = new byte[recordLength];
+                dis.readFully(record);
+                int recordCrc = dis.readInt();
+                remaining -= recordLength + Integer.BYTES;
+                replayCrc.reset();
+                replayCrc.update(record);
+                if ((int) replayCrc.getValue() != recordCrc) {
+                    LOG.warn("Corrupt record in write ahead log segment: " + file.getAbsolutePath());
+                    return recordCount;
+                }
+                DataInputStream recordInput = new DataInputStream(new ByteArrayInputStream(record));
+                byte recordType = recordInput.readByte();
+                int nid = recordInput.readInt();
+                if (recordType == NID_RECORD) {
+                    int uuidCount = recordInput.readInt();
+                    for (int i = 0; i < uuidCount; i++) {
+                        nidConsumer.accept(nid, recordInput.readLong(), recordInput.readLong());
+                    }
+                } else if (recordType == MERGE_RECORD && recordLength >= 1 + RECORD_FIELDS_BYTES) {
+                    int patternNid = recordInput.readInt();
+                    int referencedComponentNid = recordInput.readInt();
+                    consumer.accept(nid, patternNid, referencedComponentNid,
+                            Arrays.copyOfRange(record, 1 + RECORD_FIELDS_BYTES, recordLength));
+                } else {
+                    LOG.warn("Unrecognized record in write ahead log segment: " + file.getAbsolutePath());
+                    return recordCount;
+                }
+                recordCount++;
+            }
+            if (remaining > 0) {
+                LOG.warn("Incomplete record at end of write ahead log segment: " + file.getAbsolutePath());
+            }
+        }
+        return recordCount;
+    }
+
+    /**
+     * Caller must hold the sync and append locks.
+     */
+    private void startSegment(long id) throws IOException {
+        File file = segmentFile(id);
+        this.segmentOutput = new FileOutputStream(file);
+        this.segmentStream = new DataOutputStream(new BufferedOutputStream(segmentOutput, BUFFER_SIZE));
+        this.segmentStream.writeInt(MAGIC);
+        this.segmentStream.writeInt(FORMAT_VERSION);
+        this.segmentStream.writeLong(id);
+        this.segmentStream.flush();
+        this.segmentOutput.getChannel().force(true);
+        this.segmentId = id;
+        this.appendedBytes = HEADER_BYTES;
+        this.syncedBytes = HEADER_BYTES;
+        this.segmentBytes = HEADER_BYTES;
+        this.lastRotationMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Appends a record to the buffer of the current segment. The record is durable after a subsequent
+     * {@link #sync()} completes.
+     */
+    public void append(int nid, int patternNid, int referencedComponentNid, byte[] value) {
+        synchronized (appendLock) {
+            if (segmentStream == null) {
+                throw new IllegalStateException("Write ahead log is not open");
+            }
+            try {
+                int recordLength = 1 + RECORD_FIELDS_BYTES + value.length;
+                crc.reset();
+                crc.update(MERGE_RECORD);
+                updateCrc(nid);
+                updateCrc(patternNid);
+                updateCrc(referencedComponentNid);
+                crc.update(value);
+                segmentStream.writeInt(recordLength);
+                segmentStream.writeByte(MERGE_RECORD);
+                segmentStream.writeInt(nid);
+                segmentStream.writeInt(patternNid);
+                segmentStream.writeInt(referencedComponentNid);
+                segmentStream.write(value);
+                segmentStream.writeInt((int) crc.getValue());
+                appendedBytes += Integer.BYTES + recordLength + Integer.BYTES;
+                segmentBytes = appendedBytes;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Appends a record of a nid assigned to UUIDs to the buffer of the current segment. The record is durable
+     * after a subsequent {@link #sync()} completes, which is no later than the merges appended after it.
+     */
+    public void appendNid(int nid, UUID... uuids) {
+        synchronized (appendLock) {
+            if (segmentStream == null) {
+                throw new IllegalStateException("Write ahead log is not open");
+            }
+            try {
+                int recordLength = 1 + 2 * Integer.BYTES + uuids.length * 2 * Long.BYTES;
+                crc.reset();
+                crc.update(NID_RECORD);
+                updateCrc(nid);
+                updateCrc(uuids.length);
+                segmentStream.writeInt(recordLength);
+                segmentStream.writeByte(NID_RECORD);
+                segmentStream.writeInt(nid);
+                segmentStream.writeInt(uuids.length);
+                for (UUID uuid : uuids) {
+                    updateCrc(uuid.getMostSignificantBits());
+                    updateCrc(uuid.getLeastSignificantBits());
+                    segmentStream.writeLong(uuid.getMostSignificantBits());
+                    segmentStream.writeLong(uuid.getLeastSignificantBits());
+                }
+                segmentStream.writeInt((int) crc.getValue());
+                appendedBytes += Integer.BYTES + recordLength + Integer.BYTES;
+                segmentBytes = appendedBytes;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void updateCrc(long value) {
+        updateCrc((int) (value >>> 32));
+        updateCrc((int) value);
+    }
+
+    private void updateCrc(int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    /**
+     * Writes buffered records and forces them to disk. Returns without forcing if a concurrent caller
+     * already synced every record appended before this call.
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (appendLock) {
+            target = appendedBytes;
+        }
+        if (syncedBytes >= target) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedBytes >= target) {
+                return;
+            }
+            long syncTo;
+            FileChannel channel;
+            synchronized (appendLock) {
+                if (segmentStream == null) {
+                    return;
+                }
+                segmentStream.flush();
+                syncTo = appendedBytes;
+                channel = segmentOutput.getChannel();
+            }
+            // Appends may continue into the buffer while the channel is forced.
+            channel.force(false);
+            syncedBytes = syncTo;
+        }
+    }
+
+    /**
+     * @return true if records were appended that are not yet synced.
+     */
+    public boolean hasUnsyncedRecords() {
+        return segmentBytes > syncedBytes;
+    }
+
+    /**
+     * @return bytes in the current segment, including records not yet synced.
+     */
+    public long segmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * @return true if the current segment has records.
+     */
+    public boolean hasRecords() {
+        return segmentBytes > HEADER_BYTES;
+    }
+
+    public long millisSinceRotation() {
+        return System.currentTimeMillis() - lastRotationMillis;
+    }
+
+    /**
+     * Syncs and closes the current segment, and starts a new one.
+     *
+     * @return the id of the new segment. Every record appended before the rotation is in a segment with a lower id.
+     */
+    public long rotate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (segmentStream == null) {
+                    throw new IOException("Write ahead log is not open");
+                }
+                closeSegment();
+                startSegment(segmentId + 1);
+                return segmentId;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments with an id lower than segmentId, once their records have been checkpointed.
+     */
+    public void deleteSegmentsBefore(long segmentId) throws IOException {
+        for (long id : segmentIds()) {
+            if (id < segmentId) {
+                Files.deleteIfExists(segmentFile(id).toPath());
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (segmentStream != null) {
+            segmentStream.flush();
+            segmentOutput.getChannel().force(false);
+            segmentStream.close();
+            segmentStream = null;
+            segmentOutput = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                closeSegment();
+                syncedBytes = appendedBytes;
+            }
+        }
+    }
+}
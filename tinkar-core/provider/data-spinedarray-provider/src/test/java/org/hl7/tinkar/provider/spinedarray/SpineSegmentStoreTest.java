@@ -0,0 +1,173 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JUnit test for {@link SpineSegmentStore}, through a {@link ByteArraySegmentStore}.
+ * <p>
+ * Spines of {@link #SPINE_SIZE} values of {@link #VALUE_SIZE} bytes take a little over 1 KB in a segment,
+ * so a segment limited to {@link #MAX_SEGMENT_BYTES} holds three spines.
+ */
+public class SpineSegmentStoreTest {
+    private static final int SPINE_SIZE = 16;
+    private static final int VALUE_SIZE = 64;
+    private static final long MAX_SEGMENT_BYTES = 4096;
+
+    private static AtomicReferenceArray<byte[]> spine(int seed) {
+        AtomicReferenceArray<byte[]> spine = new AtomicReferenceArray<>(SPINE_SIZE);
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            byte[] value = new byte[VALUE_SIZE];
+            Arrays.fill(value, (byte) (seed * SPINE_SIZE + i));
+            spine.set(i, value);
+        }
+        return spine;
+    }
+
+    private static void assertSpine(int seed, ByteArraySegmentStore store, int spineIndex) {
+        Optional<AtomicReferenceArray<byte[]>> spine = store.get(spineIndex);
+        Assertions.assertTrue(spine.isPresent(), "Missing spine: " + spineIndex);
+        AtomicReferenceArray<byte[]> expected = spine(seed);
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            Assertions.assertArrayEquals(expected.get(i), spine.get().get(i));
+            Assertions.assertArrayEquals(expected.get(i), store.getElement(spineIndex, i));
+        }
+    }
+
+    private static File segmentFile(File directory, long segmentId) {
+        return new File(directory, "segment-" + segmentId);
+    }
+
+    private static int segmentFileCount(File directory) {
+        return directory.list((dir, name) -> name.startsWith("segment-")).length;
+    }
+
+    @Test
+    public void reopenRecoversFlushedSpines(@TempDir File directory) {
+        ByteArraySegmentStore store = new ByteArraySegmentStore(directory);
+        for (int spineIndex = 0; spineIndex < 4; spineIndex++) {
+            store.put(spineIndex, spine(spineIndex));
+        }
+        store.writeSpineCount(4);
+        store.flush();
+        Assertions.assertTrue(SpineSegmentStore.isSegmentStore(directory));
+        // Put after the flush, and abandoned without a close, as if the process stopped.
+        store.put(0, spine(10));
+        store.put(4, spine(4));
+        store.writeSpineCount(5);
+
+        ByteArraySegmentStore reopened = new ByteArraySegmentStore(directory);
+        try {
+            Assertions.assertEquals(4, reopened.getSpineCount());
+            for (int spineIndex = 0; spineIndex < 4; spineIndex++) {
+                assertSpine(spineIndex, reopened, spineIndex);
+            }
+            Assertions.assertTrue(reopened.get(4).isEmpty());
+            Assertions.assertNull(reopened.getElement(4, 0));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void rolloverSealsFullSegments(@TempDir File directory) {
+        ByteArraySegmentStore store = new ByteArraySegmentStore(directory, MAX_SEGMENT_BYTES);
+        for (int spineIndex = 0; spineIndex < 10; spineIndex++) {
+            store.put(spineIndex, spine(spineIndex));
+        }
+        store.writeSpineCount(10);
+        store.close();
+        Assertions.assertEquals(4, segmentFileCount(directory));
+        for (long segmentId = 0; segmentId < 4; segmentId++) {
+            Assertions.assertTrue(segmentFile(directory, segmentId).length() <= MAX_SEGMENT_BYTES);
+        }
+
+        ByteArraySegmentStore reopened = new ByteArraySegmentStore(directory, MAX_SEGMENT_BYTES);
+        try {
+            Assertions.assertEquals(10, reopened.getSpineCount());
+            for (int spineIndex = 0; spineIndex < 10; spineIndex++) {
+                assertSpine(spineIndex, reopened, spineIndex);
+            }
+            // Appends go to a new segment, rather than after the flushed spines.
+            reopened.put(10, spine(10));
+            reopened.flush();
+            Assertions.assertTrue(segmentFile(directory, 4).length() > 0);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void compactionMovesLiveSpines(@TempDir File directory) throws Exception {
+        ByteArraySegmentStore store = new ByteArraySegmentStore(directory, MAX_SEGMENT_BYTES);
+        for (int spineIndex = 0; spineIndex < 9; spineIndex++) {
+            store.put(spineIndex, spine(spineIndex));
+        }
+        store.writeSpineCount(9);
+        store.flush();
+        // Segments 0 and 1 become garbage, and segment 2 keeps one live spine of three.
+        for (int spineIndex = 0; spineIndex < 8; spineIndex++) {
+            store.put(spineIndex, spine(spineIndex + 20));
+        }
+        int sizeBeforeCompaction = store.sizeOnDisk();
+        store.compact();
+        Assertions.assertFalse(segmentFile(directory, 0).exists());
+        Assertions.assertFalse(segmentFile(directory, 1).exists());
+        Assertions.assertFalse(segmentFile(directory, 2).exists());
+        Assertions.assertTrue(store.sizeOnDisk() < sizeBeforeCompaction);
+        for (int spineIndex = 0; spineIndex < 8; spineIndex++) {
+            assertSpine(spineIndex + 20, store, spineIndex);
+        }
+        assertSpine(8, store, 8);
+        store.close();
+
+        ByteArraySegmentStore reopened = new ByteArraySegmentStore(directory, MAX_SEGMENT_BYTES);
+        try {
+            for (int spineIndex = 0; spineIndex < 8; spineIndex++) {
+                assertSpine(spineIndex + 20, reopened, spineIndex);
+            }
+            assertSpine(8, reopened, 8);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void retiredSegmentIsKeptWhileRead(@TempDir File directory) {
+        ByteArraySegmentStore store = new ByteArraySegmentStore(directory, MAX_SEGMENT_BYTES);
+        try {
+            // Spines 0 to 2 fill segment 0, and spine 3 seals it.
+            for (int spineIndex = 0; spineIndex < 4; spineIndex++) {
+                store.put(spineIndex, spine(spineIndex));
+            }
+            store.writeSpineCount(4);
+            store.flush();
+            store.put(1, spine(11));
+            store.put(2, spine(12));
+
+            byte[] readValue = store.readSpine(0, spineMapping -> {
+                // Moves the last live spine out of segment 0, while the reader still reads from it.
+                store.put(0, spine(10));
+                store.flush();
+                Assertions.assertTrue(segmentFile(directory, 0).exists());
+                return spineMapping.getBytes(0);
+            }).orElseThrow();
+            Assertions.assertArrayEquals(spine(0).get(0), readValue);
+
+            store.flush();
+            Assertions.assertFalse(segmentFile(directory, 0).exists());
+            assertSpine(10, store, 0);
+            assertSpine(11, store, 1);
+            assertSpine(12, store, 2);
+            assertSpine(3, store, 3);
+        } finally {
+            store.close();
+        }
+    }
+}
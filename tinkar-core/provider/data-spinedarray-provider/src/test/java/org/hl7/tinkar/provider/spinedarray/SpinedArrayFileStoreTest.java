@@ -0,0 +1,210 @@
+package org.hl7.tinkar.provider.spinedarray;
+
+import org.hl7.tinkar.collection.SpineFileUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JUnit test for {@link SpinedArrayFileStore}, through a {@link ByteArrayFileStore} and an
+ * {@link IntLongArrayFileStore}, reading spine files in the offset table format, and in the legacy length
+ * prefixed format written before it, and writing spines in parallel.
+ */
+public class SpinedArrayFileStoreTest {
+    private static final int SPINE_SIZE = 16;
+
+    /**
+     * @return the value of the element, or null for every third element.
+     */
+    private static byte[] bytes(int spineIndex, int indexInSpine) {
+        if (indexInSpine % 3 == 0) {
+            return null;
+        }
+        byte[] value = new byte[indexInSpine * 2 + 1];
+        Arrays.fill(value, (byte) (spineIndex * SPINE_SIZE + indexInSpine));
+        return value;
+    }
+
+    private static long[] longs(int spineIndex, int indexInSpine) {
+        if (indexInSpine % 3 == 0) {
+            return null;
+        }
+        long[] value = new long[indexInSpine + 1];
+        Arrays.fill(value, ((long) spineIndex << 32) | indexInSpine);
+        return value;
+    }
+
+    private static File spineFile(File directory, int spineIndex) {
+        return new File(directory, SpineFileUtil.SPINE_PREFIX + spineIndex);
+    }
+
+    /**
+     * Writes a spine as it was written before the offset table: the array size, and a length prefixed value for
+     * each element, with a length of 0 for a null value.
+     */
+    private static void writeLegacyBytes(File directory, int spineIndex) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(spineFile(directory, spineIndex))))) {
+            dos.writeInt(SPINE_SIZE);
+            for (int i = 0; i < SPINE_SIZE; i++) {
+                byte[] value = bytes(spineIndex, i);
+                if (value == null) {
+                    dos.writeInt(0);
+                } else {
+                    dos.writeInt(value.length);
+                    dos.write(value);
+                }
+            }
+        }
+    }
+
+    private static void writeLegacyLongs(File directory, int spineIndex) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(spineFile(directory, spineIndex))))) {
+            dos.writeInt(SPINE_SIZE);
+            for (int i = 0; i < SPINE_SIZE; i++) {
+                long[] value = longs(spineIndex, i);
+                if (value == null) {
+                    dos.writeInt(0);
+                } else {
+                    dos.writeInt(value.length);
+                    for (long element : value) {
+                        dos.writeLong(element);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int firstInt(File file) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return dis.readInt();
+        }
+    }
+
+    private static void assertBytes(ByteArrayFileStore store, int spineIndex) {
+        Optional<AtomicReferenceArray<byte[]>> spine = store.get(spineIndex);
+        Assertions.assertTrue(spine.isPresent(), "Missing spine: " + spineIndex);
+        Assertions.assertEquals(SPINE_SIZE, spine.get().length());
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            Assertions.assertArrayEquals(bytes(spineIndex, i), spine.get().get(i));
+            Assertions.assertArrayEquals(bytes(spineIndex, i), store.getElement(spineIndex, i));
+        }
+    }
+
+    private static void assertLongs(IntLongArrayFileStore store, int spineIndex) {
+        Optional<AtomicReferenceArray<long[]>> spine = store.get(spineIndex);
+        Assertions.assertTrue(spine.isPresent(), "Missing spine: " + spineIndex);
+        Assertions.assertEquals(SPINE_SIZE, spine.get().length());
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            Assertions.assertArrayEquals(longs(spineIndex, i), spine.get().get(i));
+            Assertions.assertArrayEquals(longs(spineIndex, i), store.getElement(spineIndex, i));
+        }
+    }
+
+    @Test
+    public void readLegacyByteArraySpines(@TempDir File directory) throws IOException {
+        writeLegacyBytes(directory, 0);
+        writeLegacyBytes(directory, 1);
+        ByteArrayFileStore store = new ByteArrayFileStore(directory);
+        assertBytes(store, 0);
+        assertBytes(store, 1);
+        Assertions.assertTrue(store.get(2).isEmpty());
+        Assertions.assertNull(store.getElement(2, 0));
+        // Past the end of the spine.
+        Assertions.assertNull(store.getElement(0, SPINE_SIZE));
+
+        // A legacy spine that is put again is written in the offset table format, and read from the new file.
+        AtomicReferenceArray<byte[]> spine = store.get(1).orElseThrow();
+        store.put(1, spine);
+        Assertions.assertEquals(SpinedArrayFileStore.SPINE_FORMAT_MAGIC, firstInt(spineFile(directory, 1)));
+        assertBytes(store, 1);
+        assertBytes(new ByteArrayFileStore(directory), 0);
+        assertBytes(new ByteArrayFileStore(directory), 1);
+    }
+
+    @Test
+    public void readLegacyLongArraySpines(@TempDir File directory) throws IOException {
+        writeLegacyLongs(directory, 0);
+        writeLegacyLongs(directory, 1);
+        IntLongArrayFileStore store = new IntLongArrayFileStore(directory);
+        assertLongs(store, 0);
+        assertLongs(store, 1);
+        Assertions.assertTrue(store.get(2).isEmpty());
+
+        AtomicReferenceArray<long[]> spine = store.get(0).orElseThrow();
+        store.put(0, spine);
+        Assertions.assertEquals(SpinedArrayFileStore.SPINE_FORMAT_MAGIC, firstInt(spineFile(directory, 0)));
+        assertLongs(store, 0);
+        assertLongs(new IntLongArrayFileStore(directory), 0);
+        assertLongs(new IntLongArrayFileStore(directory), 1);
+    }
+
+    @Test
+    public void replacedSpineIsRemapped(@TempDir File directory) {
+        ByteArrayFileStore store = new ByteArrayFileStore(directory);
+        AtomicReferenceArray<byte[]> spine = new AtomicReferenceArray<>(SPINE_SIZE);
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            spine.set(i, bytes(0, i));
+        }
+        store.put(0, spine);
+        assertBytes(store, 0);
+        // Read through the cached mapping, which is dropped when the spine is written again.
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            spine.set(i, bytes(1, i));
+        }
+        store.put(0, spine);
+        for (int i = 0; i < SPINE_SIZE; i++) {
+            Assertions.assertArrayEquals(bytes(1, i), store.getElement(0, i));
+        }
+    }
+
+    @Test
+    public void spinesArePutInParallel(@TempDir File directory) throws Exception {
+        ByteArrayFileStore store = new ByteArrayFileStore(directory);
+        int spineCount = 32;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<?>> puts = new ArrayList<>();
+            for (int spineIndex = 0; spineIndex < spineCount; spineIndex++) {
+                final int spineToPut = spineIndex;
+                puts.add(executor.submit(() -> {
+                    AtomicReferenceArray<byte[]> spine = new AtomicReferenceArray<>(SPINE_SIZE);
+                    for (int i = 0; i < SPINE_SIZE; i++) {
+                        spine.set(i, bytes(spineToPut, i));
+                    }
+                    store.put(spineToPut, spine);
+                }));
+            }
+            for (Future<?> put : puts) {
+                put.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        store.flush();
+        // Each spine was written to its own temporary file, and moved over its spine file.
+        Assertions.assertEquals(0, directory.list((dir, name) -> name.endsWith(".tmp")).length);
+        ByteArrayFileStore reopened = new ByteArrayFileStore(directory);
+        for (int spineIndex = 0; spineIndex < spineCount; spineIndex++) {
+            assertBytes(reopened, spineIndex);
+        }
+    }
+}
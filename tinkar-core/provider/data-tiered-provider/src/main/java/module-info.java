@@ -0,0 +1,17 @@
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.provider.tiered.TieredOpenController;
+
+@SuppressWarnings("module")
+        // 7 in HL7 is not a version reference
+module org.hl7.tinkar.provider.tiered {
+    requires org.hl7.tinkar.caffeine;
+    requires org.hl7.tinkar.common;
+    requires static org.hl7.tinkar.autoservice;
+
+    exports org.hl7.tinkar.provider.tiered;
+
+    provides DataServiceController
+            with TieredOpenController;
+
+    uses DataServiceController;
+}
@@ -0,0 +1,55 @@
+package org.hl7.tinkar.provider.tiered;
+
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+
+public abstract class TieredController implements DataServiceController<PrimitiveDataService> {
+
+    @Override
+    public Class<? extends PrimitiveDataService> serviceClass() {
+        return PrimitiveDataService.class;
+    }
+
+    @Override
+    public boolean running() {
+        return TieredProvider.singleton != null;
+    }
+
+    @Override
+    public void start() {
+        new TieredProvider();
+    }
+
+    @Override
+    public void stop() {
+        if (TieredProvider.singleton != null) {
+            TieredProvider.singleton.close();
+            TieredProvider.singleton = null;
+        }
+    }
+
+    @Override
+    public void save() {
+        if (TieredProvider.singleton != null) {
+            TieredProvider.singleton.save();
+        }
+    }
+
+    @Override
+    public void reload() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PrimitiveDataService provider() {
+        if (TieredProvider.singleton == null) {
+            start();
+        }
+        return TieredProvider.singleton;
+    }
+
+    @Override
+    public String toString() {
+        return controllerName();
+    }
+}
@@ -0,0 +1,21 @@
+package org.hl7.tinkar.provider.tiered;
+
+/**
+ * {@link org.hl7.tinkar.common.service.ServiceProperties} keys to configure the tiered provider.
+ */
+public enum TieredKeys {
+    /**
+     * String name of the controller of the persistent tier. Defaults to "Open SpinedArrayStore".
+     */
+    COLD_CONTROLLER_NAME,
+    /**
+     * Long bound in bytes of the entities held in the hot tier once written to the persistent tier. The least
+     * recently used are demoted when the bound is reached. Defaults to 64 MB.
+     */
+    HOT_TIER_BYTES,
+    /**
+     * Long bound in bytes of the entities waiting to be written to the persistent tier. A merge past the bound
+     * writes its entity to the persistent tier before returning. Defaults to 16 MB.
+     */
+    MAX_PENDING_BYTES
+}
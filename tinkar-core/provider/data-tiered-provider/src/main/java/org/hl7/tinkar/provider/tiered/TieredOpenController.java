@@ -0,0 +1,31 @@
+package org.hl7.tinkar.provider.tiered;
+
+import com.google.auto.service.AutoService;
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.DataUriOption;
+import org.hl7.tinkar.common.service.ServiceKeys;
+import org.hl7.tinkar.common.service.ServiceProperties;
+
+/**
+ * Opens a tiered store over the cold tier named by {@link TieredKeys#COLD_CONTROLLER_NAME}, which determines
+ * the layout of the data location.
+ */
+@AutoService(DataServiceController.class)
+public class TieredOpenController extends TieredController {
+    public static String CONTROLLER_NAME = "Open Tiered Store";
+
+    @Override
+    public boolean isValidDataLocation(String name) {
+        return TieredProvider.coldController().isValidDataLocation(name);
+    }
+
+    @Override
+    public void setDataUriOption(DataUriOption option) {
+        ServiceProperties.set(ServiceKeys.DATA_STORE_ROOT, option.toFile());
+    }
+
+    @Override
+    public String controllerName() {
+        return CONTROLLER_NAME;
+    }
+}
@@ -0,0 +1,442 @@
+package org.hl7.tinkar.provider.tiered;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.list.ImmutableList;
+import org.hl7.tinkar.common.service.*;
+import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * PrimitiveDataService that holds recently written and recently read entities in a hot tier on the heap, over
+ * a persistent cold tier provided by another data service controller, such as the spined array store.
+ * <p>
+ * Merges go to the hot tier, and return once merged there. The pending writes are drained to the cold tier in
+ * the background, in the order they were made. Reads are answered from the pending writes, then from the hot
+ * tier, and fall through to the cold tier, promoting what they read into the hot tier. Entities in the hot
+ * tier are already in the cold tier, so the least recently used are demoted by discarding them once the hot
+ * tier is past its bound. If the drain falls behind, and the pending writes pass their bound, a merge writes
+ * its entity to the cold tier before returning.
+ * <p>
+ * Nids are assigned by the cold tier. The nid sets, citations, and search are answered by the cold tier once
+ * the pending writes they depend on are drained on the calling thread: the writes citing the component, the
+ * writes of the pattern, the semantic writes, or the writes of other components. The pending writes are indexed
+ * by referenced component and by pattern, so a query finds the writes it depends on without scanning every
+ * pending write. Iterations of all entities
+ * and snapshots drain every pending write first, so they cost up to {@link TieredKeys#MAX_PENDING_BYTES} of
+ * merges on the calling thread.
+ */
+public class TieredProvider implements PrimitiveDataService {
+    private static final Logger LOG = LoggerFactory.getLogger(TieredProvider.class);
+    protected static TieredProvider singleton;
+
+    final DataServiceController<PrimitiveDataService> coldController;
+    final PrimitiveDataService coldTier;
+    final Cache<Integer, byte[]> hotTier;
+    /**
+     * Writes merged in the hot tier, and not yet drained to the cold tier. A write is removed once drained,
+     * unless replaced by a later write to the same nid.
+     */
+    final ConcurrentHashMap<Integer, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    /**
+     * Nids of the pending writes, by referenced component nid, and by pattern nid. A nid is added when its
+     * write is made pending, and removed when it is drained, in the same update of the pending writes, and a
+     * key is removed with its last nid.
+     */
+    final ConcurrentHashMap<Integer, Set<Integer>> pendingNidsByComponent = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<Integer, Set<Integer>> pendingNidsByPattern = new ConcurrentHashMap<>();
+    final ConcurrentLinkedQueue<Integer> drainQueue = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean draining = new AtomicBoolean();
+    private final Object drainMonitor = new Object();
+    final AtomicLong pendingBytes = new AtomicLong();
+    final long maxPendingBytes;
+    final LongAdder writeSequence = new LongAdder();
+
+    public TieredProvider() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Opening TieredProvider");
+        this.coldController = coldController();
+        coldController.start();
+        this.coldTier = coldController.provider();
+        this.writeSequence.add(coldTier.writeSequence());
+        this.hotTier = Caffeine.newBuilder()
+                .maximumWeight(ServiceProperties.get(TieredKeys.HOT_TIER_BYTES, 64L * 1024 * 1024))
+                .weigher((Integer nid, byte[] bytes) -> bytes.length)
+                .build();
+        this.maxPendingBytes = ServiceProperties.get(TieredKeys.MAX_PENDING_BYTES, 16L * 1024 * 1024);
+        TieredProvider.singleton = this;
+        stopwatch.stop();
+        LOG.info("Opened TieredProvider over " + coldController.controllerName() + " in: " + stopwatch.durationString());
+    }
+
+    static DataServiceController<PrimitiveDataService> coldController() {
+        String coldControllerName = ServiceProperties.get(TieredKeys.COLD_CONTROLLER_NAME, "Open SpinedArrayStore");
+        for (DataServiceController controller : ServiceLoader.load(DataServiceController.class)) {
+            if (controller.controllerName().equals(coldControllerName)
+                    && controller instanceof TieredController == false) {
+                return controller;
+            }
+        }
+        throw new IllegalStateException("No controller for the cold tier named: " + coldControllerName);
+    }
+
+    @Override
+    public long writeSequence() {
+        return writeSequence.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pending writes are drained, and the snapshot is opened on the cold tier.
+     */
+    @Override
+    public PrimitiveDataSnapshot snapshot() {
+        drain();
+        return coldTier.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pending writes are drained, and the cold tier is synced.
+     */
+    @Override
+    public void sync() {
+        drain();
+        coldTier.sync();
+    }
+
+    @Override
+    public void close() {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Closing TieredProvider");
+        drain();
+        awaitBackgroundDrain();
+        coldController.stop();
+        hotTier.invalidateAll();
+        TieredProvider.singleton = null;
+        stopwatch.stop();
+        LOG.info("Closed TieredProvider in: " + stopwatch.durationString());
+    }
+
+    /**
+     * Drains the pending writes, and saves the cold tier.
+     */
+    public void save() {
+        drain();
+        coldController.save();
+    }
+
+    /**
+     * @return the bytes of the entities held in the hot tier, after any pending demotions
+     */
+    public long hotTierBytes() {
+        hotTier.cleanUp();
+        return hotTier.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    /**
+     * @return the bytes of the merged entities not yet drained to the cold tier
+     */
+    public long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    @Override
+    public int nidForUuids(UUID... uuids) {
+        return coldTier.nidForUuids(uuids);
+    }
+
+    @Override
+    public int nidForUuids(ImmutableList<UUID> uuidList) {
+        return coldTier.nidForUuids(uuidList);
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<byte[]> action) {
+        drain();
+        coldTier.forEach(action);
+    }
+
+    @Override
+    public void forEachParallel(ObjIntConsumer<byte[]> action) {
+        drain();
+        coldTier.forEachParallel(action);
+    }
+
+    @Override
+    public byte[] getBytes(int nid) {
+        PendingWrite pendingWrite = pendingWrites.get(nid);
+        if (pendingWrite != null) {
+            return pendingWrite.bytes;
+        }
+        // Loaded atomically for the nid, so a drain that updates the hot tier waits for the load, rather than
+        // being overwritten by cold bytes read before the drain.
+        return hotTier.get(nid, coldTier::getBytes);
+    }
+
+    @Override
+    public byte[] merge(int nid, int patternNid, int referencedComponentNid, byte[] value, Object sourceObject) {
+        if (nid == Integer.MIN_VALUE) {
+            LOG.error("NID should not be Integer.MIN_VALUE");
+            throw new IllegalStateException("NID should not be Integer.MIN_VALUE");
+        }
+        long[] addedBytes = new long[1];
+        PendingWrite pendingWrite = pendingWrites.compute(nid, (key, previousWrite) -> {
+            byte[] oldBytes;
+            if (previousWrite != null) {
+                oldBytes = previousWrite.bytes;
+            } else {
+                oldBytes = hotTier.getIfPresent(key);
+                if (oldBytes == null) {
+                    oldBytes = coldTier.getBytes(key);
+                }
+            }
+            byte[] mergedBytes = PrimitiveDataService.merge(oldBytes, value);
+            addedBytes[0] = mergedBytes.length - (previousWrite == null ? 0 : previousWrite.bytes.length);
+            if (previousWrite != null) {
+                unindex(key, previousWrite);
+            }
+            PendingWrite write = new PendingWrite(patternNid, referencedComponentNid, mergedBytes, sourceObject);
+            index(key, write);
+            return write;
+        });
+        writeSequence.increment();
+        if (pendingBytes.addAndGet(addedBytes[0]) > maxPendingBytes) {
+            drain(nid);
+        } else {
+            drainQueue.add(nid);
+            if (draining.compareAndSet(false, true)) {
+                Executor.ioThreadPool().execute(this::drainQueued);
+            }
+        }
+        return pendingWrite.bytes;
+    }
+
+    /**
+     * Drains the queued nids, in the order they were queued, until the queue is empty.
+     */
+    private void drainQueued() {
+        try {
+            do {
+                Integer nid;
+                while ((nid = drainQueue.poll()) != null) {
+                    drain(nid);
+                }
+                endBackgroundDrain();
+            } while (!drainQueue.isEmpty() && draining.compareAndSet(false, true));
+        } catch (Throwable e) {
+            endBackgroundDrain();
+            LOG.error("Draining to the cold tier failed", e);
+        }
+    }
+
+    private void endBackgroundDrain() {
+        synchronized (drainMonitor) {
+            draining.set(false);
+            drainMonitor.notifyAll();
+        }
+    }
+
+    private void awaitBackgroundDrain() {
+        synchronized (drainMonitor) {
+            while (draining.get()) {
+                try {
+                    drainMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted waiting for the background drain to the cold tier");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending write of the nid, if any, to the cold tier, and moves the merged entity to the hot
+     * tier. The entity is put in the hot tier before the pending write is removed, so a reader sees one or
+     * the other. Draining the same write more than once merges the same versions again, which changes nothing.
+     * <p>
+     * The hot tier is only updated if the drained write is still the pending write of the nid. Otherwise a
+     * later merge replaced it, and the entity moves to the hot tier when the later write is drained.
+     */
+    private void drain(int nid) {
+        PendingWrite pendingWrite = pendingWrites.get(nid);
+        if (pendingWrite == null) {
+            return;
+        }
+        byte[] mergedBytes = coldTier.merge(nid, pendingWrite.patternNid, pendingWrite.referencedComponentNid,
+                pendingWrite.bytes, pendingWrite.sourceObject);
+        pendingWrites.computeIfPresent(nid, (key, currentWrite) -> {
+            if (currentWrite != pendingWrite) {
+                return currentWrite;
+            }
+            hotTier.put(key, mergedBytes);
+            pendingBytes.addAndGet(-pendingWrite.bytes.length);
+            unindex(key, pendingWrite);
+            return null;
+        });
+    }
+
+    /**
+     * Caller must be updating the pending write of the nid.
+     */
+    private void index(int nid, PendingWrite pendingWrite) {
+        index(pendingNidsByComponent, pendingWrite.referencedComponentNid, nid);
+        index(pendingNidsByPattern, pendingWrite.patternNid, nid);
+    }
+
+    private static void index(ConcurrentHashMap<Integer, Set<Integer>> pendingNids, int key, int nid) {
+        pendingNids.compute(key, (k, nids) -> {
+            if (nids == null) {
+                nids = ConcurrentHashMap.newKeySet();
+            }
+            nids.add(nid);
+            return nids;
+        });
+    }
+
+    /**
+     * Caller must be updating the pending write of the nid.
+     */
+    private void unindex(int nid, PendingWrite pendingWrite) {
+        unindex(pendingNidsByComponent, pendingWrite.referencedComponentNid, nid);
+        unindex(pendingNidsByPattern, pendingWrite.patternNid, nid);
+    }
+
+    private static void unindex(ConcurrentHashMap<Integer, Set<Integer>> pendingNids, int key, int nid) {
+        pendingNids.computeIfPresent(key, (k, nids) -> {
+            nids.remove(nid);
+            return nids.isEmpty() ? null : nids;
+        });
+    }
+
+    /**
+     * Drains all pending writes to the cold tier on the calling thread.
+     */
+    void drain() {
+        for (Integer nid : pendingWrites.keySet()) {
+            drain(nid);
+        }
+    }
+
+    /**
+     * Drains the pending writes of the key in the index to the cold tier on the calling thread.
+     */
+    private void drain(ConcurrentHashMap<Integer, Set<Integer>> pendingNids, int key) {
+        Set<Integer> nids = pendingNids.get(key);
+        if (nids != null) {
+            for (Integer nid : nids) {
+                drain(nid);
+            }
+        }
+    }
+
+    /**
+     * Drains the pending semantic writes to the cold tier on the calling thread.
+     */
+    private void drainSemantics() {
+        pendingNidsByPattern.forEach((patternNid, nids) -> {
+            if (patternNid != PendingWrite.NOT_SEMANTIC_PATTERN_NID) {
+                for (Integer nid : nids) {
+                    drain(nid);
+                }
+            }
+        });
+    }
+
+    @Override
+    public PrimitiveDataSearchResult[] search(String query, int maxResultSize) throws Exception {
+        drainSemantics();
+        return coldTier.search(query, maxResultSize);
+    }
+
+    @Override
+    public int[] semanticNidsOfPattern(int patternNid) {
+        drain(pendingNidsByPattern, patternNid);
+        return coldTier.semanticNidsOfPattern(patternNid);
+    }
+
+    @Override
+    public void forEachSemanticNidOfPattern(int patternNid, IntProcedure procedure) {
+        drain(pendingNidsByPattern, patternNid);
+        coldTier.forEachSemanticNidOfPattern(patternNid, procedure);
+    }
+
+    @Override
+    public void forEachPatternNid(IntProcedure procedure) {
+        drain(pendingNidsByPattern, PendingWrite.NOT_SEMANTIC_PATTERN_NID);
+        coldTier.forEachPatternNid(procedure);
+    }
+
+    @Override
+    public void forEachConceptNid(IntProcedure procedure) {
+        drain(pendingNidsByPattern, PendingWrite.NOT_SEMANTIC_PATTERN_NID);
+        coldTier.forEachConceptNid(procedure);
+    }
+
+    @Override
+    public void forEachStampNid(IntProcedure procedure) {
+        drain(pendingNidsByPattern, PendingWrite.NOT_SEMANTIC_PATTERN_NID);
+        coldTier.forEachStampNid(procedure);
+    }
+
+    @Override
+    public void forEachSemanticNid(IntProcedure procedure) {
+        drainSemantics();
+        coldTier.forEachSemanticNid(procedure);
+    }
+
+    @Override
+    public int[] semanticNidsForComponent(int componentNid) {
+        drain(pendingNidsByComponent, componentNid);
+        return coldTier.semanticNidsForComponent(componentNid);
+    }
+
+    @Override
+    public void forEachSemanticNidForComponent(int componentNid, IntProcedure procedure) {
+        drain(pendingNidsByComponent, componentNid);
+        coldTier.forEachSemanticNidForComponent(componentNid, procedure);
+    }
+
+    @Override
+    public int[] semanticNidsForComponentOfPattern(int componentNid, int patternNid) {
+        // The writes citing the component are few, so those of other patterns are drained too.
+        drain(pendingNidsByComponent, componentNid);
+        return coldTier.semanticNidsForComponentOfPattern(componentNid, patternNid);
+    }
+
+    @Override
+    public void forEachSemanticNidForComponentOfPattern(int componentNid, int patternNid, IntProcedure procedure) {
+        // The writes citing the component are few, so those of other patterns are drained too.
+        drain(pendingNidsByComponent, componentNid);
+        coldTier.forEachSemanticNidForComponentOfPattern(componentNid, patternNid, procedure);
+    }
+
+    @Override
+    public String name() {
+        return coldTier.name();
+    }
+
+    private record PendingWrite(int patternNid, int referencedComponentNid, byte[] bytes, Object sourceObject) {
+        /**
+         * Semantics are merged with their pattern nid, other components with Integer.MAX_VALUE.
+         */
+        static final int NOT_SEMANTIC_PATTERN_NID = Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,227 @@
+package org.hl7.tinkar.provider.entity;
+
+import org.hl7.tinkar.common.service.DataServiceController;
+import org.hl7.tinkar.common.service.PrimitiveData;
+import org.hl7.tinkar.common.service.PrimitiveDataService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit test for {@link PrimitiveDataService#merge(byte[], byte[])}, comparing each merge with the merge made
+ * before it used ChronologyMerger. Canceled stamps are read from a provider selected for the test.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PrimitiveDataServiceMergeTest {
+    private static final byte CONCEPT_VERSION = 4;
+    private static final byte SEMANTIC_VERSION = 6;
+    private static final byte STAMP_VERSION = 8;
+    private static final byte[] CHRONOLOGY = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final int FIRST_STAMP = Integer.MIN_VALUE + 1;
+
+    private final Set<Integer> canceledStampNids = new HashSet<>();
+    private DataServiceController<?> previousController;
+
+    private static byte[] version(byte versionToken, int stampNid, int... fields) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + fields.length * Integer.BYTES);
+        buffer.put(versionToken).putInt(stampNid);
+        for (int field : fields) {
+            buffer.putInt(field);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] chronology(byte[]... versions) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bytes)) {
+            dos.writeInt(versions.length + 1);
+            dos.writeInt(CHRONOLOGY.length + Integer.BYTES);
+            dos.write(CHRONOLOGY);
+            dos.writeInt(versions.length);
+            for (byte[] version : versions) {
+                dos.writeInt(version.length);
+                dos.write(version);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The merge of PrimitiveDataService before ChronologyMerger: the unique arrays of both inputs, keeping the first
+     * version of each stamp with the new bytes first, sorted, without concept, pattern, and semantic versions of
+     * canceled stamps.
+     */
+    private byte[] baselineMerge(byte[] oldBytes, byte[] newBytes) {
+        if (Arrays.equals(oldBytes, newBytes)) {
+            return oldBytes;
+        }
+        Set<ByteBuffer> arraySet = new HashSet<>();
+        Set<Integer> stampsInSet = new HashSet<>();
+        addToSet(newBytes, arraySet, stampsInSet);
+        addToSet(oldBytes, arraySet, stampsInSet);
+        List<byte[]> arrayList = new ArrayList<>();
+        arraySet.forEach(buffer -> arrayList.add(buffer.array()));
+        arrayList.sort(Arrays::compare);
+        if (arrayList.size() > 2) {
+            for (int i = arrayList.size() - 1; i > 0; i--) {
+                byte[] version = arrayList.get(i);
+                if (version[0] >= 4 && version[0] <= 6 && canceledStampNids.contains(ByteBuffer.wrap(version, 1, 4).getInt())) {
+                    arrayList.remove(i);
+                }
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bytes)) {
+            dos.writeInt(arrayList.size());
+            for (int i = 0; i < arrayList.size(); i++) {
+                byte[] array = arrayList.get(i);
+                if (i == 0) {
+                    dos.writeInt(array.length + Integer.BYTES);
+                    dos.write(array);
+                    dos.writeInt(arrayList.size() - 1);
+                } else {
+                    dos.writeInt(array.length);
+                    dos.write(array);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void addToSet(byte[] bytes, Set<ByteBuffer> arraySet, Set<Integer> stampsInSet) {
+        ByteBuffer readBuffer = ByteBuffer.wrap(bytes);
+        int arrayCount = readBuffer.getInt();
+        for (int i = 0; i < arrayCount; i++) {
+            int arraySize = readBuffer.getInt();
+            if (i == 0) {
+                byte[] array = new byte[arraySize - Integer.BYTES];
+                readBuffer.get(array);
+                arraySet.add(ByteBuffer.wrap(array));
+                readBuffer.getInt();
+            } else {
+                byte[] array = new byte[arraySize];
+                readBuffer.get(array);
+                if (stampsInSet.add(ByteBuffer.wrap(array, 1, 4).getInt())) {
+                    arraySet.add(ByteBuffer.wrap(array));
+                }
+            }
+        }
+    }
+
+    @BeforeAll
+    public void selectCanceledStampProvider() {
+        previousController = PrimitiveData.getController();
+        PrimitiveDataService primitiveDataService = (PrimitiveDataService) Proxy.newProxyInstance(
+                PrimitiveDataService.class.getClassLoader(), new Class<?>[]{PrimitiveDataService.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "isCanceledStampNid" -> canceledStampNids.contains((Integer) args[0]);
+                    case "toString" -> "Canceled stamp provider";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        PrimitiveData.setController((DataServiceController<?>) Proxy.newProxyInstance(
+                DataServiceController.class.getClassLoader(), new Class<?>[]{DataServiceController.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "provider" -> primitiveDataService;
+                    case "toString" -> "Canceled stamp controller";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    @AfterAll
+    public void restoreController() {
+        PrimitiveData.setController(previousController);
+    }
+
+    @Test
+    public void mergeIsIdempotent() {
+        canceledStampNids.clear();
+        byte[] oldBytes = chronology(version(CONCEPT_VERSION, FIRST_STAMP, 1), version(CONCEPT_VERSION, FIRST_STAMP + 2, 2));
+        byte[] newBytes = chronology(version(CONCEPT_VERSION, FIRST_STAMP + 1, 3));
+        byte[] merged = PrimitiveDataService.merge(oldBytes, newBytes);
+        assertArrayEquals(baselineMerge(oldBytes, newBytes), merged);
+        assertEquals(4, ByteBuffer.wrap(merged).getInt());
+
+        // Merging either input again adds nothing, so the merged bytes are returned.
+        assertSame(merged, PrimitiveDataService.merge(merged, newBytes));
+        assertSame(merged, PrimitiveDataService.merge(merged, oldBytes));
+        assertArrayEquals(merged, PrimitiveDataService.merge(newBytes, merged));
+    }
+
+    @Test
+    public void sameStampVersionIsReplaced() {
+        canceledStampNids.clear();
+        byte[] oldBytes = chronology(version(SEMANTIC_VERSION, FIRST_STAMP, 1), version(SEMANTIC_VERSION, FIRST_STAMP + 1, 1));
+        byte[] newBytes = chronology(version(SEMANTIC_VERSION, FIRST_STAMP + 1, 2));
+        byte[] merged = PrimitiveDataService.merge(oldBytes, newBytes);
+        assertArrayEquals(baselineMerge(oldBytes, newBytes), merged);
+        assertArrayEquals(chronology(version(SEMANTIC_VERSION, FIRST_STAMP, 1), version(SEMANTIC_VERSION, FIRST_STAMP + 1, 2)), merged);
+    }
+
+    @Test
+    public void canceledVersionsArePruned() {
+        canceledStampNids.clear();
+        canceledStampNids.add(FIRST_STAMP + 1);
+        canceledStampNids.add(FIRST_STAMP + 2);
+        byte[] oldBytes = chronology(version(CONCEPT_VERSION, FIRST_STAMP, 1), version(CONCEPT_VERSION, FIRST_STAMP + 1, 2),
+                version(STAMP_VERSION, FIRST_STAMP + 2, 3));
+        // Adds nothing to the old bytes, which still lose the canceled concept version, but keep the stamp version.
+        byte[] newBytes = chronology(version(CONCEPT_VERSION, FIRST_STAMP, 1));
+        byte[] merged = PrimitiveDataService.merge(oldBytes, newBytes);
+        assertArrayEquals(baselineMerge(oldBytes, newBytes), merged);
+        assertArrayEquals(chronology(version(CONCEPT_VERSION, FIRST_STAMP, 1), version(STAMP_VERSION, FIRST_STAMP + 2, 3)), merged);
+    }
+
+    @Test
+    public void unorderedOldBytesAreSorted() {
+        canceledStampNids.clear();
+        byte[] oldBytes = chronology(version(CONCEPT_VERSION, FIRST_STAMP + 1, 1), version(CONCEPT_VERSION, FIRST_STAMP, 1));
+        byte[] newBytes = chronology(version(CONCEPT_VERSION, FIRST_STAMP, 1));
+        byte[] merged = PrimitiveDataService.merge(oldBytes, newBytes);
+        assertArrayEquals(baselineMerge(oldBytes, newBytes), merged);
+        assertArrayEquals(chronology(version(CONCEPT_VERSION, FIRST_STAMP, 1), version(CONCEPT_VERSION, FIRST_STAMP + 1, 1)), merged);
+    }
+
+    @Test
+    public void randomMergesMatchBaseline() {
+        Random random = new Random(10);
+        byte[] versionTokens = {CONCEPT_VERSION, 5, SEMANTIC_VERSION, STAMP_VERSION};
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            canceledStampNids.clear();
+            for (int stamp = 0; stamp < 12; stamp++) {
+                if (random.nextInt(6) == 0) {
+                    canceledStampNids.add(FIRST_STAMP + stamp);
+                }
+            }
+            byte versionToken = versionTokens[random.nextInt(versionTokens.length)];
+            byte[][] inputs = new byte[2][];
+            for (int input = 0; input < inputs.length; input++) {
+                byte[][] versions = new byte[random.nextInt(8)][];
+                int stamp = random.nextInt(4);
+                for (int i = 0; i < versions.length; i++) {
+                    versions[i] = version(versionToken, FIRST_STAMP + stamp, random.nextInt(2));
+                    stamp += 1 + random.nextInt(2);
+                }
+                inputs[input] = chronology(versions);
+            }
+            byte[] merged = PrimitiveDataService.merge(inputs[0], inputs[1]);
+            assertArrayEquals(baselineMerge(inputs[0], inputs[1]), merged, "Iteration: " + iteration);
+            // Merged again with an input, which mostly adds nothing.
+            assertArrayEquals(baselineMerge(merged, inputs[1]), PrimitiveDataService.merge(merged, inputs[1]), "Iteration: " + iteration);
+        }
+    }
+}
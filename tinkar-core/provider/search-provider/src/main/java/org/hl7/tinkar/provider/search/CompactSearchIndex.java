@@ -0,0 +1,29 @@
+package org.hl7.tinkar.provider.search;
+
+import org.hl7.tinkar.common.service.TrackingCallable;
+
+import java.io.IOException;
+
+/**
+ * Compacts the search index of the running data service, as described by {@link Indexer#compact()}. Run it on a
+ * database whose index was written before documents were keyed by nid, for example by submitting it to
+ * {@code Executor.threadPool()}; on an index that is already compact it removes nothing. Merges may continue
+ * while it runs, and wait while the documents are rewritten.
+ */
+public class CompactSearchIndex extends TrackingCallable<Integer> {
+
+    public CompactSearchIndex() {
+        super(false, true);
+    }
+
+    /**
+     * @return the number of documents removed
+     */
+    @Override
+    public Integer compute() throws IOException {
+        updateTitle("Compacting search index");
+        int removedCount = Indexer.compact();
+        updateMessage(String.format("Removed %,d documents in " + durationString(), removedCount));
+        return removedCount;
+    }
+}
@@ -0,0 +1,48 @@
+package org.hl7.tinkar.provider.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.hl7.tinkar.entity.SemanticEntity;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes a new index of semantics to a directory, with the documents of the {@link Indexer}, but without its
+ * queues or searcher, so an index may be built, such as beside a snapshot, while an indexer is open.
+ * <p>
+ * Closing the builder merges the index to a single segment and commits it, after which it may be opened with
+ * {@link Indexer#openReadOnly(Path)}.
+ */
+public class IndexBuilder implements AutoCloseable {
+    private final Directory directory;
+    private final IndexWriter indexWriter;
+
+    public IndexBuilder(Path indexPath) throws IOException {
+        this.directory = FSDirectory.open(indexPath);
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        this.indexWriter = new IndexWriter(directory, config);
+    }
+
+    /**
+     * Adds the document of a semantic, which must hold all its versions, and must not have been added before.
+     */
+    public void add(SemanticEntity<?> semanticEntity) throws IOException {
+        indexWriter.addDocument(Indexer.document(semanticEntity));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            indexWriter.forceMerge(1);
+            indexWriter.commit();
+        } finally {
+            indexWriter.close();
+            directory.close();
+        }
+    }
+}
@@ -4,24 +4,79 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
 import org.eclipse.collections.api.list.ImmutableList;
+import org.hl7.tinkar.common.service.ServiceProperties;
 import org.hl7.tinkar.common.util.time.Stopwatch;
+import org.hl7.tinkar.entity.EntityRecordFactory;
 import org.hl7.tinkar.entity.SemanticEntity;
 import org.hl7.tinkar.entity.SemanticEntityVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Indexes the text fields of semantics. Searches see the documents indexed up to the last refresh of the
+ * searcher manager, which a background thread refreshes at most {@link SearchKeys#MAX_STALENESS_MILLIS}
+ * after documents are indexed, so indexing is not slowed by searches, nor searches by indexing.
+ * <p>
+ * Semantics to index are put on a bounded queue, and indexing workers take them from the queue in batches,
+ * so the thread that merges a semantic does not build its document, nor tokenize its text. A merge waits
+ * for room on the queue when it is full. {@link #flush()} waits for the semantics queued on each queue before
+ * it to be indexed. A worker that dies is replaced, and once the indexer is closed, semantics are rejected rather
+ * than queued.
+ * <p>
+ * Each semantic has one document, keyed by its nid, that holds the text of all its versions. Indexing a
+ * semantic again replaces its document, so merging new versions, or importing the same content again, does
+ * not add documents. The semantics of a nid are indexed by the same worker, in the order they were queued.
+ * {@link #compact()}, run by {@link CompactSearchIndex}, rewrites an index written before documents were keyed
+ * by nid.
+ * <p>
+ * A prebuilt index, such as one written by {@link IndexBuilder}, may be {@link #openReadOnly(Path) opened read
+ * only}, with no index writer, so it is searched, but semantics are not indexed.
+ */
 public class Indexer {
     public static final String NID_POINT = "nidPoint";
+    public static final String NID_TERM = "nidTerm";
     public static final String NID = "nid";
     public static final String RC_NID = "rcNid";
     public static final String PATTERN_NID = "patternNid";
@@ -32,12 +87,37 @@ public class Indexer {
     private static Directory indexDirectory;
     private static Analyzer analyzer;
     private static IndexWriter indexWriter;
+    /**
+     * Holds the commit being written by {@link #writeTo(DataOutputStream)}, so the writer does not delete its files.
+     */
+    private static SnapshotDeletionPolicy commitSnapshots;
+    private static SearcherManager searcherManager;
+    private static ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    /**
+     * Sequence number of the last document indexed.
+     */
+    private static final AtomicLong lastIndexedSequence = new AtomicLong(-1);
+    private static final Object flushMonitor = new Object();
+    /**
+     * Indexing workers hold the read lock while they update the index, and compaction holds the write lock.
+     */
+    private static final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
+    /**
+     * Queueing holds the read lock while it checks that indexing has not stopped and queues a semantic, and
+     * stopping holds the write lock, so no semantic is queued once the workers may have stopped.
+     */
+    private static final ReentrantReadWriteLock queueLock = new ReentrantReadWriteLock();
+    private static IndexQueue[] indexQueues = new IndexQueue[0];
+    private static Thread[] indexWorkers = new Thread[0];
+    private static volatile boolean indexing;
     private final Path indexPath;
 
     public Indexer() throws IOException {
         Indexer.indexDirectory = new ByteBuffersDirectory();
         Indexer.analyzer = new StandardAnalyzer();
         Indexer.indexWriter = Indexer.getIndexWriter();
+        Indexer.openSearcherManager();
+        Indexer.startIndexing();
         this.indexPath = null;
     }
 
@@ -45,6 +125,8 @@ public class Indexer {
         //Create the indexer
         IndexWriterConfig config = new IndexWriterConfig(analyzer());
         config.setCommitOnClose(true);
+        Indexer.commitSnapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        config.setIndexDeletionPolicy(Indexer.commitSnapshots);
         IndexWriter indexWriter = new IndexWriter(indexDirectory(), config);
         return indexWriter;
     }
@@ -63,19 +145,239 @@ public class Indexer {
         this.indexPath = indexPath;
         Indexer.indexDirectory = FSDirectory.open(this.indexPath);
         Indexer.analyzer = new StandardAnalyzer();
-        this.indexWriter = Indexer.getIndexWriter();
+        Indexer.indexWriter = Indexer.getIndexWriter();
+        Indexer.openSearcherManager();
+        Indexer.startIndexing();
         stopwatch.stop();
         LOG.info("Opened lucene index in: " + stopwatch.durationString());
     }
 
-    public static DirectoryReader getDirectoryReader() throws IOException {
-        return DirectoryReader.open(indexWriter);
+    private Indexer(Path indexPath, Directory directory) throws IOException {
+        this.indexPath = indexPath;
+        Indexer.indexDirectory = directory;
+        Indexer.analyzer = new StandardAnalyzer();
+        Indexer.indexWriter = null;
+        Indexer.lastIndexedSequence.set(-1);
+        Indexer.searcherManager = new SearcherManager(directory, null);
+        Indexer.reopenThread = null;
+        Indexer.indexQueues = new IndexQueue[0];
+        Indexer.indexWorkers = new Thread[0];
+        Indexer.indexing = false;
+    }
+
+    /**
+     * Opens a prebuilt index read only, memory mapped, so it is searched from the page cache rather than loaded
+     * onto the heap. Indexing a semantic throws IllegalStateException.
+     */
+    public static Indexer openReadOnly(Path indexPath) throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Opening read only lucene index");
+        Indexer indexer = new Indexer(indexPath, new MMapDirectory(indexPath));
+        stopwatch.stop();
+        LOG.info("Opened read only lucene index in: " + stopwatch.durationString());
+        return indexer;
+    }
+
+    /**
+     * Opens a searcher manager on the index writer, and starts the thread that refreshes it.
+     */
+    private static void openSearcherManager() throws IOException {
+        Indexer.lastIndexedSequence.set(-1);
+        Indexer.searcherManager = new SearcherManager(indexWriter, null);
+        double maxStaleSec = Math.max(1, ServiceProperties.get(SearchKeys.MAX_STALENESS_MILLIS, 1000L)) / 1000.0;
+        Indexer.reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager,
+                maxStaleSec, Math.min(maxStaleSec, 0.025));
+        Indexer.reopenThread.setName("Lucene searcher refresh");
+        Indexer.reopenThread.setDaemon(true);
+        Indexer.reopenThread.start();
     }
 
+    private static void closeSearcherManager() throws IOException {
+        if (Indexer.reopenThread != null) {
+            Indexer.reopenThread.close();
+        }
+        Indexer.searcherManager.close();
+    }
+
+    /**
+     * Starts the workers that index the queued semantics, each with its own queue, so the semantics of a nid
+     * are indexed in the order they were queued.
+     */
+    private static void startIndexing() {
+        int workerCount = Math.max(1, ServiceProperties.get(SearchKeys.INDEX_WORKERS,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        int batchSize = Math.max(1, ServiceProperties.get(SearchKeys.INDEX_BATCH_SIZE, 256));
+        int queueCapacity = Math.max(batchSize,
+                ServiceProperties.get(SearchKeys.INDEX_QUEUE_CAPACITY, 8192) / workerCount);
+        IndexQueue[] queues = new IndexQueue[workerCount];
+        Thread[] workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            queues[i] = new IndexQueue(queueCapacity);
+        }
+        Indexer.indexQueues = queues;
+        Indexer.indexWorkers = workers;
+        Indexer.indexing = true;
+        for (int i = 0; i < workerCount; i++) {
+            startWorker(workers, i, queues[i], batchSize);
+        }
+    }
+
+    /**
+     * Starts a worker on the queue. A worker that dies with the queue still in use is replaced, so its queue
+     * does not fill up and block merges.
+     */
+    private static void startWorker(Thread[] workers, int workerIndex, IndexQueue queue, int batchSize) {
+        Thread worker = new Thread(() -> indexQueued(queue, batchSize), "Lucene indexer " + (workerIndex + 1));
+        worker.setDaemon(true);
+        worker.setUncaughtExceptionHandler((deadWorker, e) -> {
+            LOG.error(deadWorker.getName() + " died", e);
+            if (indexing || !queue.semantics.isEmpty()) {
+                // Replaced before the dead worker terminates, so stopIndexing() joins the replacement.
+                startWorker(workers, workerIndex, queue, batchSize);
+            }
+        });
+        workers[workerIndex] = worker;
+        worker.start();
+    }
+
+    /**
+     * Stops the workers, once they have indexed the queued semantics. Semantics may not be queued once
+     * indexing has stopped.
+     */
+    private static void stopIndexing() throws IOException {
+        queueLock.writeLock().lock();
+        try {
+            Indexer.indexing = false;
+        } finally {
+            queueLock.writeLock().unlock();
+        }
+        Thread[] workers = Indexer.indexWorkers;
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                Thread worker;
+                do {
+                    worker = workers[i];
+                    worker.join();
+                } while (worker != workers[i]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the indexing workers to stop");
+        }
+    }
+
+    /**
+     * Indexes batches of semantics from the queue until indexing stops, and the queue is empty. Only the last
+     * queued semantic of a nid in a batch is indexed, as it holds the versions of those queued before it.
+     */
+    private static void indexQueued(IndexQueue queue, int batchSize) {
+        ArrayList<QueuedSemantic> batch = new ArrayList<>(batchSize);
+        HashSet<Integer> batchNids = new HashSet<>(batchSize * 2);
+        ArrayList<Document> documents = new ArrayList<>(batchSize);
+        while (indexing || !queue.semantics.isEmpty()) {
+            try {
+                QueuedSemantic first = queue.semantics.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.semantics.drainTo(batch, batchSize - 1);
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    QueuedSemantic queued = batch.get(i);
+                    if (batchNids.add(queued.semantic().nid())) {
+                        documents.add(document(queued.indexedSemantic()));
+                    }
+                }
+                compactionLock.readLock().lock();
+                try {
+                    long sequence = -1;
+                    for (Document document : documents) {
+                        int nid = document.getField(NID).numericValue().intValue();
+                        sequence = indexWriter.updateDocument(nidTerm(nid), document);
+                    }
+                    lastIndexedSequence.accumulateAndGet(sequence, Math::max);
+                } finally {
+                    compactionLock.readLock().unlock();
+                }
+            } catch (InterruptedException e) {
+                // Workers stop when indexing stops, and the queue is empty, not when interrupted.
+                LOG.warn("Indexing worker interrupted, indexing continues", e);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Exception indexing " + batch.size() + " semantics", e);
+            } finally {
+                if (!batch.isEmpty()) {
+                    // Counted when indexing fails too, so a flush does not wait for a batch that was logged.
+                    queue.indexedCount.addAndGet(batch.size());
+                    batch.clear();
+                    batchNids.clear();
+                    documents.clear();
+                    synchronized (flushMonitor) {
+                        flushMonitor.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the semantics queued before the call have been indexed. Each queue is waited for, so
+     * semantics indexed from other queues, including those queued after the call, do not end the wait.
+     */
+    public static void flush() throws InterruptedException {
+        IndexQueue[] queues = indexQueues;
+        long[] queued = new long[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            queued[i] = queues[i].queuedCount.get();
+        }
+        synchronized (flushMonitor) {
+            for (int i = 0; i < queues.length; i++) {
+                while (queues[i].indexedCount.get() < queued[i]) {
+                    flushMonitor.wait();
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquires the current searcher, which must be released with {@link #releaseSearcher(IndexSearcher)}
+     * once the query is done.
+     */
+    public static IndexSearcher acquireSearcher() throws IOException {
+        return searcherManager.acquire();
+    }
+
+    public static void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Waits until searches see every semantic queued for indexing before the call.
+     */
+    public static void waitForIndexed() throws InterruptedException {
+        flush();
+        long sequence = lastIndexedSequence.get();
+        if (sequence >= 0 && reopenThread != null) {
+            reopenThread.waitForGeneration(sequence);
+        }
+    }
+
+    /**
+     * Commits the index, once the semantics queued before the call have been indexed. A read only index has
+     * nothing to commit.
+     */
     public void commit() throws IOException {
+        if (Indexer.indexWriter == null) {
+            return;
+        }
         Stopwatch stopwatch = new Stopwatch();
         LOG.info("Committing lucene index");
-        this.indexWriter.commit();
+        try {
+            Indexer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for queued semantics to be indexed");
+        }
+        Indexer.indexWriter.commit();
         stopwatch.stop();
         LOG.info("Committed lucene index in: " + stopwatch.durationString());
     }
@@ -83,48 +385,270 @@ public class Indexer {
     public void close() throws IOException {
         Stopwatch stopwatch = new Stopwatch();
         LOG.info("Closing lucene index");
-        this.indexWriter.close();
+        Indexer.stopIndexing();
+        Indexer.closeSearcherManager();
+        if (Indexer.indexWriter != null) {
+            Indexer.indexWriter.close();
+        }
         stopwatch.stop();
         LOG.info("Closed lucene index in: " + stopwatch.durationString());
     }
 
+    /**
+     * Commits the index, and writes the files of the commit, so the index may be restored by
+     * {@link #readFrom(DataInputStream)} without indexing the semantics again. The commit is held while its
+     * files are written, so semantics indexed, and commits made, meanwhile do not change or delete them.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        commit();
+        if (Indexer.indexWriter == null) {
+            // A read only index does not change, so its last commit is written.
+            List<IndexCommit> commits = DirectoryReader.listCommits(indexDirectory);
+            writeCommit(commits.get(commits.size() - 1), out);
+            return;
+        }
+        SnapshotDeletionPolicy snapshots = Indexer.commitSnapshots;
+        IndexCommit indexCommit = snapshots.snapshot();
+        try {
+            writeCommit(indexCommit, out);
+        } finally {
+            snapshots.release(indexCommit);
+            Indexer.indexWriter.deleteUnusedFiles();
+        }
+    }
+
+    private static void writeCommit(IndexCommit indexCommit, DataOutputStream out) throws IOException {
+        Collection<String> fileNames = indexCommit.getFileNames();
+        out.writeInt(fileNames.size());
+        byte[] buffer = new byte[8192];
+        for (String fileName : fileNames) {
+            try (IndexInput input = indexCommit.getDirectory().openInput(fileName, IOContext.READONCE)) {
+                out.writeUTF(fileName);
+                long remaining = input.length();
+                out.writeLong(remaining);
+                while (remaining > 0) {
+                    int length = (int) Math.min(buffer.length, remaining);
+                    input.readBytes(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                    remaining -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces an in-memory index with the files written by {@link #writeTo(DataOutputStream)}. Searches
+     * that acquired a searcher before the index is replaced complete on the replaced index.
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+        if (this.indexPath != null) {
+            throw new IllegalStateException("Only an in-memory index can be restored: " + this.indexPath);
+        }
+        Indexer.stopIndexing();
+        Indexer.closeSearcherManager();
+        Indexer.indexWriter.close();
+        Directory restoredDirectory = new ByteBuffersDirectory();
+        int fileCount = in.readInt();
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < fileCount; i++) {
+            String fileName = in.readUTF();
+            long remaining = in.readLong();
+            try (IndexOutput output = restoredDirectory.createOutput(fileName, IOContext.DEFAULT)) {
+                while (remaining > 0) {
+                    int length = (int) Math.min(buffer.length, remaining);
+                    in.readFully(buffer, 0, length);
+                    output.writeBytes(buffer, 0, length);
+                    remaining -= length;
+                }
+            }
+        }
+        Indexer.indexDirectory = restoredDirectory;
+        Indexer.indexWriter = Indexer.getIndexWriter();
+        Indexer.openSearcherManager();
+        Indexer.startIndexing();
+    }
+
+    /**
+     * Queues a semantic to be indexed, waiting for room on the queue if it is full. Other objects are ignored.
+     * The semantic must hold all its versions, as its document replaces the document indexed before.
+     *
+     * @throws IllegalStateException if the indexer is closed
+     */
     public void index(Object object) {
-        if (object instanceof SemanticEntity semanticEntity) {
-            // TODO move field allocation to threadlocal if performance concern?
-            IntPoint nidPoint = new IntPoint(NID_POINT, 0);
-            StoredField nidField = new StoredField(NID, 0);
-            StoredField rcNidField = new StoredField(RC_NID, 0);
-            StoredField patternNidField = new StoredField(PATTERN_NID, 0);
-            StoredField fieldIndexField = new StoredField(FIELD_INDEX, 0);
-
-            Document document = new Document();
-            nidPoint.setIntValue(semanticEntity.nid());
-            nidField.setIntValue(semanticEntity.nid());
-            rcNidField.setIntValue(semanticEntity.referencedComponentNid());
-            patternNidField.setIntValue(semanticEntity.patternNid());
-
-            document.add(nidPoint);
-            document.add(nidField);
-            document.add(rcNidField);
-            document.add(patternNidField);
-            for (SemanticEntityVersion version : ((SemanticEntity<SemanticEntityVersion>) semanticEntity).versions()) {
-                ImmutableList<Object> fields = version.fieldValues();
-                for (int i = 0; i < fields.size(); i++) {
-                    Object field = fields.get(i);
-                    if (field instanceof String text) {
-                        text = text.strip();
-                        document.add(new TextField(TEXT_FIELD_NAME, text, Field.Store.YES));
-                        fieldIndexField.setIntValue(i);
-                        document.add(fieldIndexField);
+        index(object, null);
+    }
+
+    /**
+     * Queues a merged semantic to be indexed, waiting for room on the queue if it is full. Other objects are
+     * ignored. The document of the semantic is made from the merged bytes, which hold all its versions, and
+     * replaces the document indexed before.
+     *
+     * @param object      the semantic passed to the merge, which may hold only the versions merged
+     * @param mergedBytes the bytes of the semantic returned by the merge
+     * @throws IllegalStateException if the indexer is closed
+     */
+    public void index(Object object, byte[] mergedBytes) {
+        if (object instanceof SemanticEntity<?> semanticEntity) {
+            queueLock.readLock().lock();
+            try {
+                if (!indexing) {
+                    throw new IllegalStateException("Indexing has stopped, unable to index semantic: " + semanticEntity.nid());
+                }
+                IndexQueue queue = indexQueues[Math.floorMod(semanticEntity.nid(), indexQueues.length)];
+                queue.semantics.put(new QueuedSemantic(semanticEntity, mergedBytes));
+                queue.queuedCount.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted queueing: " + object);
+            } finally {
+                queueLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the documents of an index written before documents were keyed by nid, keeping for each nid
+     * only the document with the text of the most versions, and reclaims the space of the removed documents.
+     * Indexing waits while the index is compacted.
+     *
+     * @return the number of documents removed
+     */
+    public static int compact() throws IOException {
+        Stopwatch stopwatch = new Stopwatch();
+        LOG.info("Compacting lucene index");
+        int removedCount = 0;
+        if (indexWriter == null) {
+            throw new IllegalStateException("A read only index can not be compacted");
+        }
+        compactionLock.writeLock().lock();
+        try (DirectoryReader reader = DirectoryReader.open(indexWriter)) {
+            // For each nid: the document with the most text, its text count, its document count, and the
+            // count of its documents keyed by nid.
+            Map<Integer, int[]> nidDocuments = new HashMap<>();
+            for (LeafReaderContext leaf : reader.leaves()) {
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                FixedBitSet keyedDocs = new FixedBitSet(leaf.reader().maxDoc());
+                Terms nidTerms = leaf.reader().terms(NID_TERM);
+                if (nidTerms != null) {
+                    TermsEnum termsEnum = nidTerms.iterator();
+                    PostingsEnum postings = null;
+                    while (termsEnum.next() != null) {
+                        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                        for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                            keyedDocs.set(doc);
+                        }
+                    }
+                }
+                for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    Document document = leaf.reader().document(doc);
+                    int nid = document.getField(NID).numericValue().intValue();
+                    int textCount = document.getFields(TEXT_FIELD_NAME).length;
+                    int[] nidDocument = nidDocuments.computeIfAbsent(nid, key -> new int[]{-1, -1, 0, 0});
+                    if (textCount >= nidDocument[1]) {
+                        nidDocument[0] = leaf.docBase + doc;
+                        nidDocument[1] = textCount;
+                    }
+                    nidDocument[2]++;
+                    if (keyedDocs.get(doc)) {
+                        nidDocument[3]++;
                     }
                 }
             }
-            try {
-                this.indexWriter.addDocument(document);
-            } catch (IOException e) {
-                LOG.error("Exception writing: " + object);
+            for (Map.Entry<Integer, int[]> entry : nidDocuments.entrySet()) {
+                int[] nidDocument = entry.getValue();
+                if (nidDocument[2] > 1 || nidDocument[3] == 0) {
+                    Document document = rewrite(reader.document(nidDocument[0]));
+                    indexWriter.deleteDocuments(IntPoint.newExactQuery(NID_POINT, entry.getKey()));
+                    indexWriter.addDocument(document);
+                    removedCount += nidDocument[2] - 1;
+                }
+            }
+            indexWriter.forceMergeDeletes();
+            indexWriter.commit();
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+        searcherManager.maybeRefreshBlocking();
+        stopwatch.stop();
+        LOG.info("Compacted lucene index, removing " + removedCount + " documents in: " + stopwatch.durationString());
+        return removedCount;
+    }
+
+    /**
+     * Makes a document keyed by nid from the stored fields of an indexed document.
+     */
+    private static Document rewrite(Document indexed) {
+        Document document = document(indexed.getField(NID).numericValue().intValue(),
+                indexed.getField(RC_NID).numericValue().intValue(),
+                indexed.getField(PATTERN_NID).numericValue().intValue());
+        for (IndexableField field : indexed.getFields()) {
+            if (field.name().equals(TEXT_FIELD_NAME)) {
+                document.add(new TextField(TEXT_FIELD_NAME, field.stringValue(), Field.Store.YES));
+            } else if (field.name().equals(FIELD_INDEX)) {
+                document.add(new StoredField(FIELD_INDEX, field.numericValue().intValue()));
+            }
+        }
+        return document;
+    }
+
+    private static Term nidTerm(int nid) {
+        return new Term(NID_TERM, Integer.toString(nid));
+    }
+
+    private static Document document(int nid, int referencedComponentNid, int patternNid) {
+        Document document = new Document();
+        document.add(new IntPoint(NID_POINT, nid));
+        document.add(new StringField(NID_TERM, Integer.toString(nid), Field.Store.NO));
+        document.add(new StoredField(NID, nid));
+        document.add(new StoredField(RC_NID, referencedComponentNid));
+        document.add(new StoredField(PATTERN_NID, patternNid));
+        return document;
+    }
+
+    static Document document(SemanticEntity<?> semanticEntity) {
+        StoredField fieldIndexField = new StoredField(FIELD_INDEX, 0);
+        Document document = document(semanticEntity.nid(), semanticEntity.referencedComponentNid(),
+                semanticEntity.patternNid());
+        for (SemanticEntityVersion version : semanticEntity.versions()) {
+            ImmutableList<Object> fields = version.fieldValues();
+            for (int i = 0; i < fields.size(); i++) {
+                Object field = fields.get(i);
+                if (field instanceof String text) {
+                    text = text.strip();
+                    document.add(new TextField(TEXT_FIELD_NAME, text, Field.Store.YES));
+                    fieldIndexField.setIntValue(i);
+                    document.add(fieldIndexField);
+                }
             }
         }
+        return document;
+    }
 
+    /**
+     * The queue of a worker, with counts of the semantics queued on it, and of those it has indexed.
+     */
+    private static final class IndexQueue {
+        final BlockingQueue<QueuedSemantic> semantics;
+        final AtomicLong queuedCount = new AtomicLong();
+        final AtomicLong indexedCount = new AtomicLong();
+
+        IndexQueue(int capacity) {
+            this.semantics = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    /**
+     * A semantic queued for indexing, with the bytes returned by its merge, if any.
+     */
+    private record QueuedSemantic(SemanticEntity<?> semantic, byte[] mergedBytes) {
+        SemanticEntity<?> indexedSemantic() {
+            if (mergedBytes == null) {
+                return semantic;
+            }
+            return EntityRecordFactory.<SemanticEntity<SemanticEntityVersion>, SemanticEntityVersion>make(mergedBytes);
+        }
     }
 }
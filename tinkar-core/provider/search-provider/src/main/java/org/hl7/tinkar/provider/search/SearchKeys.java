@@ -0,0 +1,24 @@
+package org.hl7.tinkar.provider.search;
+
+/**
+ * {@link org.hl7.tinkar.common.service.ServiceProperties} keys to configure search.
+ */
+public enum SearchKeys {
+    /**
+     * Long bound in milliseconds of the time from indexing a semantic until searches see it. Defaults to 1000.
+     */
+    MAX_STALENESS_MILLIS,
+    /**
+     * Integer number of the threads that index queued semantics. Defaults to half the available processors.
+     */
+    INDEX_WORKERS,
+    /**
+     * Integer bound of the semantics queued for indexing, divided among the queues of the workers. Merges wait
+     * for room on a queue when it is full. Defaults to 8192.
+     */
+    INDEX_QUEUE_CAPACITY,
+    /**
+     * Integer number of the queued semantics an indexing worker adds to the index at a time. Defaults to 256.
+     */
+    INDEX_BATCH_SIZE
+}
@@ -2,7 +2,6 @@ package org.hl7.tinkar.provider.search;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.StoredField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
@@ -10,52 +9,52 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.highlight.*;
 import org.hl7.tinkar.common.service.PrimitiveDataSearchResult;
-import org.hl7.tinkar.common.util.time.Stopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 
+/**
+ * Searches the index of the {@link Indexer}. Each query acquires the current searcher of the indexer, and
+ * releases it when done, so queries do not lock, and see the semantics indexed up to the last refresh.
+ */
 public class Searcher {
     private static final Logger LOG = LoggerFactory.getLogger(Searcher.class);
-    DirectoryReader ireader;
-    IndexSearcher isearcher;
-    QueryParser parser;
 
     public Searcher() throws IOException {
-        Stopwatch stopwatch = new Stopwatch();
         LOG.info("Opening lucene searcher");
-        this.ireader = Indexer.getDirectoryReader();
-        this.isearcher = new IndexSearcher(ireader);
-        this.parser = new QueryParser("text", Indexer.analyzer());
-        stopwatch.stop();
-        LOG.info("Opened lucene searcher in: " + stopwatch.durationString());
     }
 
 
     public PrimitiveDataSearchResult[] search(String queryString, int maxResultSize) throws ParseException, IOException, InvalidTokenOffsetsException {
         if (queryString != null & !queryString.isEmpty()) {
-            Query query = parser.parse(queryString);
+            // Query parsers are not thread safe, so each query has its own.
+            Query query = new QueryParser(Indexer.TEXT_FIELD_NAME, Indexer.analyzer()).parse(queryString);
             Formatter formatter = new SimpleHTMLFormatter();
             QueryScorer scorer = new QueryScorer(query);
             Highlighter highlighter = new Highlighter(formatter, scorer);
             highlighter.setTextFragmenter(new NullFragmenter());
 
-            ScoreDoc[] hits = isearcher.search(query, maxResultSize).scoreDocs;
-            PrimitiveDataSearchResult[] results = new PrimitiveDataSearchResult[hits.length];
-            for (int i = 0; i < hits.length; i++) {
-                Document hitDoc = isearcher.doc(hits[i].doc);
-                StoredField nidField = (StoredField) hitDoc.getField(Indexer.NID);
-                StoredField patternNidField = (StoredField) hitDoc.getField(Indexer.PATTERN_NID);
-                StoredField rcNidField = (StoredField) hitDoc.getField(Indexer.RC_NID);
-                StoredField fieldIndexField = (StoredField) hitDoc.getField(Indexer.FIELD_INDEX);
-                StoredField textField = (StoredField) hitDoc.getField(Indexer.TEXT_FIELD_NAME);
-                String highlightedString = highlighter.getBestFragment(Indexer.analyzer(), Indexer.TEXT_FIELD_NAME, textField.stringValue());
-
-                results[i] = new PrimitiveDataSearchResult(nidField.numericValue().intValue(), rcNidField.numericValue().intValue(),
-                        patternNidField.numericValue().intValue(), fieldIndexField.numericValue().intValue(), hits[i].score, highlightedString);
+            IndexSearcher isearcher = Indexer.acquireSearcher();
+            try {
+                ScoreDoc[] hits = isearcher.search(query, maxResultSize).scoreDocs;
+                PrimitiveDataSearchResult[] results = new PrimitiveDataSearchResult[hits.length];
+                for (int i = 0; i < hits.length; i++) {
+                    Document hitDoc = isearcher.doc(hits[i].doc);
+                    StoredField nidField = (StoredField) hitDoc.getField(Indexer.NID);
+                    StoredField patternNidField = (StoredField) hitDoc.getField(Indexer.PATTERN_NID);
+                    StoredField rcNidField = (StoredField) hitDoc.getField(Indexer.RC_NID);
+                    StoredField fieldIndexField = (StoredField) hitDoc.getField(Indexer.FIELD_INDEX);
+                    StoredField textField = (StoredField) hitDoc.getField(Indexer.TEXT_FIELD_NAME);
+                    String highlightedString = highlighter.getBestFragment(Indexer.analyzer(), Indexer.TEXT_FIELD_NAME, textField.stringValue());
+
+                    results[i] = new PrimitiveDataSearchResult(nidField.numericValue().intValue(), rcNidField.numericValue().intValue(),
+                            patternNidField.numericValue().intValue(), fieldIndexField.numericValue().intValue(), hits[i].score, highlightedString);
+                }
+                return results;
+            } finally {
+                Indexer.releaseSearcher(isearcher);
             }
-            return results;
         }
         return new PrimitiveDataSearchResult[0];
     }
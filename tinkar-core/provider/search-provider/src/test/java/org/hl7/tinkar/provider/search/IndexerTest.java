@@ -0,0 +1,253 @@
+package org.hl7.tinkar.provider.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.eclipse.collections.api.factory.Lists;
+import org.hl7.tinkar.common.service.ServiceProperties;
+import org.hl7.tinkar.entity.SemanticEntity;
+import org.hl7.tinkar.entity.SemanticEntityVersion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexerTest {
+    private static final int FIRST_NID = Integer.MIN_VALUE + 1;
+    private static final int NID_COUNT = 100;
+    private static final int VERSION_COUNT = 3;
+
+    /**
+     * A document as indexed before documents were keyed by nid, when each merge of a semantic added a document
+     * with the text of the versions merged so far.
+     */
+    private static Document unkeyedDocument(int nid, int versionCount) {
+        Document document = new Document();
+        document.add(new IntPoint(Indexer.NID_POINT, nid));
+        document.add(new StoredField(Indexer.NID, nid));
+        document.add(new StoredField(Indexer.RC_NID, nid + NID_COUNT));
+        document.add(new StoredField(Indexer.PATTERN_NID, FIRST_NID));
+        for (int version = 1; version <= versionCount; version++) {
+            document.add(new TextField(Indexer.TEXT_FIELD_NAME, "text " + nid + " version " + version, Field.Store.YES));
+            document.add(new StoredField(Indexer.FIELD_INDEX, 0));
+        }
+        return document;
+    }
+
+    /**
+     * A semantic with one version, that holds the text as its only field. Its versions are not returned, so it
+     * is not indexed, until the latch is released.
+     */
+    private static SemanticEntity<?> semantic(int nid, String text, CountDownLatch indexLatch) {
+        SemanticEntityVersion version = (SemanticEntityVersion) Proxy.newProxyInstance(IndexerTest.class.getClassLoader(),
+                new Class<?>[]{SemanticEntityVersion.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "fieldValues" -> Lists.immutable.of(text);
+                    case "toString" -> text;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return (SemanticEntity<?>) Proxy.newProxyInstance(IndexerTest.class.getClassLoader(),
+                new Class<?>[]{SemanticEntity.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "nid" -> nid;
+                    case "referencedComponentNid", "patternNid" -> FIRST_NID;
+                    case "versions" -> {
+                        indexLatch.await();
+                        yield Lists.immutable.of(version);
+                    }
+                    case "toString" -> text;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static long hitCount(String text) throws IOException {
+        IndexSearcher searcher = Indexer.acquireSearcher();
+        try {
+            return searcher.search(new TermQuery(new Term(Indexer.TEXT_FIELD_NAME, text)), NID_COUNT).totalHits.value;
+        } finally {
+            Indexer.releaseSearcher(searcher);
+        }
+    }
+
+    @Test
+    public void flushWaitsForEveryQueue(@TempDir Path indexPath) throws Exception {
+        ServiceProperties.set(SearchKeys.INDEX_WORKERS, 2);
+        Indexer indexer = new Indexer(indexPath);
+        CountDownLatch slowLatch = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(0);
+        try {
+            // Nids of even and odd values are queued for different workers.
+            indexer.index(semantic(FIRST_NID + 1, "slow", slowLatch));
+            CountDownLatch flushStarted = new CountDownLatch(1);
+            Thread flush = new Thread(() -> {
+                try {
+                    flushStarted.countDown();
+                    Indexer.flush();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            flush.start();
+            flushStarted.await();
+            // Semantics of the other queue, queued after the flush began, are indexed at once, and outnumber
+            // the semantics queued before it.
+            for (int i = 0; i < 8; i++) {
+                indexer.index(semantic(FIRST_NID + 2 * i, "fast " + i, released));
+            }
+            flush.join(TimeUnit.SECONDS.toMillis(1));
+            assertTrue(flush.isAlive(), "Flush must wait for the semantic of the slow queue");
+            slowLatch.countDown();
+            flush.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(flush.isAlive(), "Flush must end once every queue is indexed");
+        } finally {
+            slowLatch.countDown();
+            indexer.close();
+            ServiceProperties.set(SearchKeys.INDEX_WORKERS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        }
+    }
+
+    @Test
+    public void compactKeepsOneDocumentPerNid(@TempDir Path indexPath) throws IOException {
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexPath), new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int versionCount = 1; versionCount <= VERSION_COUNT; versionCount++) {
+                for (int nid = FIRST_NID; nid < FIRST_NID + NID_COUNT; nid++) {
+                    writer.addDocument(unkeyedDocument(nid, versionCount));
+                }
+            }
+        }
+
+        Indexer indexer = new Indexer(indexPath);
+        try {
+            assertEquals(NID_COUNT * (VERSION_COUNT - 1), Indexer.compact());
+            // Compacting a compact index removes nothing.
+            assertEquals(0, Indexer.compact());
+        } finally {
+            indexer.close();
+        }
+
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexPath))) {
+            assertEquals(NID_COUNT, reader.numDocs());
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (int nid = FIRST_NID; nid < FIRST_NID + NID_COUNT; nid++) {
+                TopDocs nidDocs = searcher.search(new TermQuery(new Term(Indexer.NID_TERM, Integer.toString(nid))), 10);
+                assertEquals(1, nidDocs.totalHits.value);
+                Document document = searcher.doc(nidDocs.scoreDocs[0].doc);
+                assertEquals(nid, document.getField(Indexer.NID).numericValue().intValue());
+                assertEquals(nid + NID_COUNT, document.getField(Indexer.RC_NID).numericValue().intValue());
+                // The document kept is the one with the text of every version.
+                assertEquals(VERSION_COUNT, document.getFields(Indexer.TEXT_FIELD_NAME).length);
+            }
+        }
+    }
+
+    @Test
+    public void buildAndOpenReadOnly(@TempDir Path indexPath) throws Exception {
+        CountDownLatch released = new CountDownLatch(0);
+        try (IndexBuilder builder = new IndexBuilder(indexPath)) {
+            for (int i = 0; i < NID_COUNT; i++) {
+                builder.add(semantic(FIRST_NID + i, (i % 2 == 0 ? "even " : "odd ") + i, released));
+            }
+        }
+
+        Indexer indexer = Indexer.openReadOnly(indexPath);
+        try {
+            IndexSearcher searcher = Indexer.acquireSearcher();
+            try {
+                TopDocs evenDocs = searcher.search(new TermQuery(new Term(Indexer.TEXT_FIELD_NAME, "even")), NID_COUNT);
+                assertEquals(NID_COUNT / 2, evenDocs.totalHits.value);
+                for (ScoreDoc scoreDoc : evenDocs.scoreDocs) {
+                    int nid = searcher.doc(scoreDoc.doc).getField(Indexer.NID).numericValue().intValue();
+                    assertEquals(0, Math.floorMod(nid - FIRST_NID, 2));
+                }
+            } finally {
+                Indexer.releaseSearcher(searcher);
+            }
+            // Nothing is queued, so waiting and committing return at once.
+            Indexer.waitForIndexed();
+            indexer.commit();
+            assertThrows(IllegalStateException.class, () -> indexer.index(semantic(FIRST_NID, "more", released)));
+            assertThrows(IllegalStateException.class, Indexer::compact);
+        } finally {
+            indexer.close();
+        }
+    }
+
+    @Test
+    public void uncommittedUpdateIsSearchableAfterRefresh(@TempDir Path indexPath) throws Exception {
+        CountDownLatch released = new CountDownLatch(0);
+        Indexer indexer = new Indexer(indexPath);
+        try {
+            indexer.index(semantic(FIRST_NID, "before", released));
+            Indexer.waitForIndexed();
+            assertEquals(1, hitCount("before"));
+            indexer.commit();
+
+            // Indexed again, replacing its document, without a commit.
+            indexer.index(semantic(FIRST_NID, "after", released));
+            Indexer.waitForIndexed();
+            assertEquals(1, hitCount("after"));
+            assertEquals(0, hitCount("before"));
+            try (DirectoryReader committed = DirectoryReader.open(FSDirectory.open(indexPath))) {
+                IndexSearcher committedSearcher = new IndexSearcher(committed);
+                assertEquals(0, committedSearcher.count(new TermQuery(new Term(Indexer.TEXT_FIELD_NAME, "after"))));
+                assertEquals(1, committedSearcher.count(new TermQuery(new Term(Indexer.TEXT_FIELD_NAME, "before"))));
+            }
+        } finally {
+            indexer.close();
+        }
+    }
+
+    @Test
+    public void writeToCopiesTheFilesOfACommit() throws Exception {
+        CountDownLatch released = new CountDownLatch(0);
+        Indexer indexer = new Indexer();
+        try {
+            for (int i = 0; i < NID_COUNT; i++) {
+                indexer.index(semantic(FIRST_NID + i, "written " + i, released));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            indexer.writeTo(new DataOutputStream(bytes));
+            Set<String> committedFiles = new HashSet<>(DirectoryReader.listCommits(Indexer.indexDirectory()).get(0).getFileNames());
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            int fileCount = in.readInt();
+            Set<String> writtenFiles = new HashSet<>();
+            for (int i = 0; i < fileCount; i++) {
+                writtenFiles.add(in.readUTF());
+                in.skipNBytes(in.readLong());
+            }
+            assertEquals(committedFiles, writtenFiles);
+
+            // Semantics indexed after the index was written are not in the restored index.
+            for (int i = 0; i < NID_COUNT; i++) {
+                indexer.index(semantic(FIRST_NID + NID_COUNT + i, "later " + i, released));
+            }
+            Indexer.waitForIndexed();
+            assertEquals(NID_COUNT, hitCount("later"));
+            indexer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            Indexer.waitForIndexed();
+            assertEquals(NID_COUNT, hitCount("written"));
+            assertEquals(0, hitCount("later"));
+        } finally {
+            indexer.close();
+        }
+    }
+}